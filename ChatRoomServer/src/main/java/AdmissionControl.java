@@ -0,0 +1,257 @@
+import java.net.InetAddress;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The {@code AdmissionControl} class decides whether the server accepts a new connection. It
+ * enforces four limits, all adjustable while the server runs:
+ * <ul>
+ *   <li>the server's total capacity of open connections,</li>
+ *   <li>the number of open connections from any one IP address,</li>
+ *   <li>the rate at which connections are accepted from all sources together, and</li>
+ *   <li>the rate at which connections are accepted from any one IP address.</li>
+ * </ul>
+ * The per-source limits keep a host stuck in a reconnect loop from using up the capacity, or the
+ * accept rate, that other users need. Connections that do not come from an IP address, such as
+ * in-process or Unix domain socket connections, count against the total limits only, as do the
+ * sessions a gateway multiplexes over its connection.
+ * <p>
+ * Accept rates are enforced with {@link TokenBucket}s. A source's bucket and connection count are
+ * forgotten once it has no open connections and its bucket has refilled, so the table only holds
+ * sources that are active; idle entries are swept whenever the table has doubled in size. All
+ * methods are synchronized; they run once per accepted or closed connection, which is rare
+ * compared to the traffic on each one.
+ */
+public class AdmissionControl {
+
+  /**
+   * The outcome of an admission check.
+   */
+  public enum Decision {
+    /**
+     * The connection is admitted.
+     */
+    ADMITTED(null),
+    /**
+     * The server has no capacity left.
+     */
+    SERVER_FULL("Server is full; try again later."),
+    /**
+     * The client's IP address has too many open connections.
+     */
+    SOURCE_FULL("Too many connections from your address."),
+    /**
+     * The server is accepting connections too fast.
+     */
+    SERVER_RATE_LIMITED("Server is busy; try again later."),
+    /**
+     * The client's IP address is connecting too fast.
+     */
+    SOURCE_RATE_LIMITED("Connecting too fast; slow down and try again.");
+
+    private final String reason;
+
+    Decision(String reason) {
+      this.reason = reason;
+    }
+
+    /**
+     * Returns the explanation sent to a rejected client.
+     *
+     * @return the reason, or {@code null} for {@link #ADMITTED}
+     */
+    public String getReason() {
+      return reason;
+    }
+  }
+
+  private static final int MIN_SWEEP_THRESHOLD = 64;
+
+  private final Map<InetAddress, Source> sources = new HashMap<>();
+  private int sweepThreshold = MIN_SWEEP_THRESHOLD;
+  private int maxConnections = ChatRoomConstants.MAX_CLIENTS;
+  private int maxConnectionsPerSource = ChatRoomConstants.MAX_CONNECTIONS_PER_SOURCE;
+  private double sourceRatePerSecond = ChatRoomConstants.SOURCE_ACCEPT_RATE_PER_SECOND;
+  private int sourceBurst = ChatRoomConstants.SOURCE_ACCEPT_RATE_BURST;
+  private double acceptRatePerSecond = ChatRoomConstants.ACCEPT_RATE_PER_SECOND;
+  private int acceptBurst = ChatRoomConstants.ACCEPT_RATE_BURST;
+  private TokenBucket acceptBucket = new TokenBucket(acceptRatePerSecond, acceptBurst,
+      System.nanoTime());
+  private int connections;
+  private long rejected;
+
+  /**
+   * Decides whether to accept a connection and, if so, counts it as open until
+   * {@link #release(InetAddress)} is called.
+   *
+   * @param source   the client's IP address, or {@code null} if it did not connect over IP
+   * @param nowNanos the current time, as returned by {@link System#nanoTime()}
+   * @return {@link Decision#ADMITTED}, or the reason the connection is rejected
+   */
+  public synchronized Decision admit(InetAddress source, long nowNanos) {
+    Source state = source == null ? null : sources.get(source);
+    Decision decision = Decision.ADMITTED;
+    if (connections >= maxConnections) {
+      decision = Decision.SERVER_FULL;
+    } else if (source != null
+        && (state == null ? 0 : state.connections) >= maxConnectionsPerSource) {
+      decision = Decision.SOURCE_FULL;
+    } else if (state != null && !state.bucket.available(nowNanos)) {
+      decision = Decision.SOURCE_RATE_LIMITED;
+    } else if (!acceptBucket.available(nowNanos)) {
+      decision = Decision.SERVER_RATE_LIMITED;
+    }
+    if (decision != Decision.ADMITTED) {
+      rejected++;
+      return decision;
+    }
+    acceptBucket.take();
+    if (source != null) {
+      if (state == null) {
+        if (sources.size() >= sweepThreshold) {
+          sweep(nowNanos);
+          sweepThreshold = Math.max(MIN_SWEEP_THRESHOLD, 2 * sources.size());
+        }
+        state = new Source(new TokenBucket(sourceRatePerSecond, sourceBurst, nowNanos));
+        sources.put(source, state);
+      }
+      state.bucket.take();
+      state.connections++;
+    }
+    connections++;
+    return decision;
+  }
+
+  /**
+   * Records that an admitted connection has closed.
+   *
+   * @param source the address passed to {@link #admit(InetAddress, long)}
+   */
+  public synchronized void release(InetAddress source) {
+    if (connections > 0) {
+      connections--;
+    }
+    Source state = source == null ? null : sources.get(source);
+    if (state != null && state.connections > 0) {
+      state.connections--;
+      if (state.connections == 0 && state.bucket.isFull(System.nanoTime())) {
+        sources.remove(source);
+      }
+    }
+  }
+
+  private void sweep(long nowNanos) {
+    sources.values().removeIf(state -> state.connections == 0 && state.bucket.isFull(nowNanos));
+  }
+
+  /**
+   * Returns the number of open connections admitted.
+   *
+   * @return the connection count
+   */
+  public synchronized int getConnectionCount() {
+    return connections;
+  }
+
+  /**
+   * Returns the number of open connections admitted from one IP address.
+   *
+   * @param source the IP address
+   * @return the connection count for that address
+   */
+  public synchronized int getConnectionCount(InetAddress source) {
+    Source state = sources.get(source);
+    return state == null ? 0 : state.connections;
+  }
+
+  /**
+   * Returns the number of connections rejected so far.
+   *
+   * @return the rejection count
+   */
+  public synchronized long getRejectedCount() {
+    return rejected;
+  }
+
+  /**
+   * Returns the server's capacity of open connections.
+   *
+   * @return the maximum number of connections
+   */
+  public synchronized int getMaxConnections() {
+    return maxConnections;
+  }
+
+  /**
+   * Sets the server's capacity of open connections. Lowering it does not close any connection.
+   *
+   * @param maxConnections the maximum number of connections
+   */
+  public synchronized void setMaxConnections(int maxConnections) {
+    this.maxConnections = maxConnections;
+  }
+
+  /**
+   * Returns the maximum number of open connections from one IP address.
+   *
+   * @return the per-source connection limit
+   */
+  public synchronized int getMaxConnectionsPerSource() {
+    return maxConnectionsPerSource;
+  }
+
+  /**
+   * Sets the maximum number of open connections from one IP address. Lowering it does not close
+   * any connection.
+   *
+   * @param maxConnectionsPerSource the per-source connection limit
+   */
+  public synchronized void setMaxConnectionsPerSource(int maxConnectionsPerSource) {
+    this.maxConnectionsPerSource = maxConnectionsPerSource;
+  }
+
+  /**
+   * Sets the rate at which connections are accepted from all sources together. The tokens left in
+   * the current bucket carry over, up to the new burst, so that reapplying the same or a changed
+   * limit does not hand a flood of connections a fresh burst.
+   *
+   * @param ratePerSecond the sustained number of connections per second
+   * @param burst         the number of connections accepted at once
+   * @throws IllegalArgumentException if {@code ratePerSecond} or {@code burst} is not positive
+   */
+  public synchronized void setAcceptRate(double ratePerSecond, int burst) {
+    if (ratePerSecond == acceptRatePerSecond && burst == acceptBurst) {
+      return;
+    }
+    acceptBucket = acceptBucket.withLimits(ratePerSecond, burst, System.nanoTime());
+    acceptRatePerSecond = ratePerSecond;
+    acceptBurst = burst;
+  }
+
+  /**
+   * Sets the rate at which connections are accepted from each IP address. Applies to sources
+   * first seen after the change; the buckets of active sources are replaced as they go idle.
+   *
+   * @param ratePerSecond the sustained number of connections per second from one address
+   * @param burst         the number of connections accepted at once from one address
+   * @throws IllegalArgumentException if {@code ratePerSecond} or {@code burst} is not positive
+   */
+  public synchronized void setSourceAcceptRate(double ratePerSecond, int burst) {
+    if (ratePerSecond <= 0 || burst <= 0) {
+      throw new IllegalArgumentException(
+          "Rate and burst must be positive: " + ratePerSecond + ", " + burst);
+    }
+    sourceRatePerSecond = ratePerSecond;
+    sourceBurst = burst;
+  }
+
+  private static final class Source {
+
+    private final TokenBucket bucket;
+    private int connections;
+
+    private Source(TokenBucket bucket) {
+      this.bucket = bucket;
+    }
+  }
+}
@@ -44,6 +44,19 @@ public abstract class BaseMessage {
     out.writeInt(messageType);
   }
 
+  /**
+   * Serializes this message into a new byte array using {@link #writeMessage(DataOutputStream)}.
+   * The result can be written to any number of clients without encoding the message again.
+   *
+   * @return the encoded message
+   * @throws IOException if the message cannot be serialized
+   */
+  public byte[] toBytes() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    writeMessage(new DataOutputStream(bytes));
+    return bytes.toByteArray();
+  }
+
   /**
    * Reads a {@code BaseMessage} object from the provided {@link DataInputStream}. The message type
    * is read first, and the method delegates the construction of the specific message object to the
@@ -54,7 +67,18 @@ public abstract class BaseMessage {
    * @throws IOException if an I/O error occurs or if the message type is unknown
    */
   public static BaseMessage readMessage(DataInputStream in) throws IOException {
-    int messageType = in.readInt();
+    return readMessage(in.readInt(), in);
+  }
+
+  /**
+   * Reads the rest of a message whose type has already been read.
+   *
+   * @param messageType the message type read from the stream
+   * @param in          the {@link DataInputStream} to read the message from
+   * @return the constructed {@code BaseMessage} object
+   * @throws IOException if an I/O error occurs or if the message type is unknown
+   */
+  static BaseMessage readMessage(int messageType, DataInputStream in) throws IOException {
     switch (messageType) {
       case ChatRoomConstants.CONNECT_MESSAGE:
         return ConnectMessage.readConnectMessage(in);
@@ -66,6 +90,10 @@ public abstract class BaseMessage {
         return QueryConnectedUsers.readQueryConnectedUsers(in);
       case ChatRoomConstants.QUERY_USER_RESPONSE:
         return QueryUserResponse.readQueryUserResponse(in);
+      case ChatRoomConstants.QUERY_USER_PAGE:
+        return QueryConnectedUsers.readQueryUserPage(in);
+      case ChatRoomConstants.QUERY_USER_PAGE_RESPONSE:
+        return QueryUserResponse.readQueryUserPageResponse(in);
       case ChatRoomConstants.BROADCAST_MESSAGE:
         return BroadcastMessage.readBroadcastMessage(in);
       case ChatRoomConstants.DIRECT_MESSAGE:
@@ -74,6 +102,18 @@ public abstract class BaseMessage {
         return FailedMessage.readFailedMessage(in);
       case ChatRoomConstants.SEND_INSULT:
         return SendInsult.readSendInsult(in);
+      case ChatRoomConstants.SUBSCRIBE_PRESENCE:
+        return SubscribePresence.readSubscribePresence(in);
+      case ChatRoomConstants.PRESENCE_SNAPSHOT:
+        return PresenceSnapshot.readPresenceSnapshot(in);
+      case ChatRoomConstants.PRESENCE_DELTA:
+        return PresenceDelta.readPresenceDelta(in);
+      case ChatRoomConstants.PING:
+        return Ping.readPing(in);
+      case ChatRoomConstants.PONG:
+        return Pong.readPong(in);
+      case ChatRoomConstants.MUX_FRAME:
+        return MuxFrame.readMuxFrame(in);
       default:
         throw new IOException("Unknown message type: " + messageType);
     }
@@ -1,6 +1,10 @@
 import java.io.*;
 import java.net.*;
+import java.nio.file.Path;
+import java.util.LinkedHashSet;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * The {@code ChatRoomClient} class represents a client in a chat room system. It handles the
@@ -13,6 +17,10 @@ public class ChatRoomClient {
    * The socket used to connect to the server.
    */
   public Socket socket;
+  /**
+   * The connection to the server, over {@link #socket} or through memory.
+   */
+  private Connection connection;
   /**
    * Input stream for reading messages from the server.
    */
@@ -21,6 +29,8 @@ public class ChatRoomClient {
    * Output stream for sending messages to the server.
    */
   public DataOutputStream out;
+  private final ByteArrayOutputStream sendBuffer = new ByteArrayOutputStream();
+  private final DataOutputStream sendData = new DataOutputStream(sendBuffer);
   /**
    * Indicates whether the client is currently connected to the server.
    */
@@ -41,6 +51,10 @@ public class ChatRoomClient {
    * Command to query the list of connected users.
    */
   public String whoCommand = "who";
+  /**
+   * Command to fetch the next page of the last user listing.
+   */
+  public String moreCommand = "more";
   /**
    * Command to send an insult to a specific user.
    */
@@ -49,6 +63,38 @@ public class ChatRoomClient {
    * Command to display the help menu.
    */
   public String helpCommand = "?";
+  /**
+   * Command to subscribe to live updates of the connected users.
+   */
+  public String watchCommand = "watch";
+  /**
+   * The connected users as last reported by presence updates, empty until subscribed.
+   */
+  public final Set<String> presence = new LinkedHashSet<>();
+  /**
+   * The version of {@link #presence}, or {@code -1} if no snapshot has been received.
+   */
+  public long presenceVersion = -1;
+  /**
+   * The prefix of the last user listing, reused by {@link #moreCommand}.
+   */
+  private String listingPrefix = "";
+  /**
+   * The cursor for the next page of the last user listing, or empty if it was complete.
+   */
+  private volatile String listingCursor = "";
+  /**
+   * Completed with the server's answer to the connection request.
+   */
+  private final CompletableFuture<ConnectResponse> connected = new CompletableFuture<>();
+
+  /**
+   * Opens the connection to the server at the start of a handshake.
+   */
+  private interface Opener {
+
+    Connection open() throws IOException;
+  }
 
   /**
    * Connects the client to the server using the specified IP, port, and username. Once connected,
@@ -59,17 +105,24 @@ public class ChatRoomClient {
    * @param username   the username for the client
    */
   public void connect(String serverIp, int serverPort, String username) {
-    try {
-      socket = new Socket(serverIp, serverPort);
-      in = new DataInputStream(socket.getInputStream());
-      out = new DataOutputStream(socket.getOutputStream());
+    session(() -> openSocket(serverIp, serverPort), username);
+  }
 
-      sendMessage(new ConnectMessage(username));
-      BaseMessage response = BaseMessage.readMessage(in);
-      if (response instanceof ConnectResponse) {
-        ConnectResponse cr = (ConnectResponse) response;
-        System.out.println(cr.getMessage());
-      }
+  /**
+   * Connects the client to a server on the same host through its Unix domain socket, then behaves
+   * like {@link #connect(String, int, String)}.
+   *
+   * @param socketPath the path of the server's socket file
+   * @param username   the username for the client
+   */
+  public void connect(Path socketPath, String username) {
+    session(() -> UnixSocketConnection.connect(socketPath), username);
+  }
+
+  private void session(Opener opener, String username) {
+    try {
+      ConnectResponse cr = handshake(opener, username);
+      System.out.println(cr.getMessage());
 
       new Thread(this::readMessages).start();
 
@@ -84,10 +137,104 @@ public class ChatRoomClient {
     }
   }
 
+  /**
+   * Connects to the server in the background, without reading commands from the console. The
+   * returned future completes with the server's {@link ConnectResponse}; if the connection was
+   * accepted, a thread reading messages from the server has been started by then, and further
+   * requests can be sent with {@link #sendMessage(BaseMessage)}.
+   *
+   * @param serverIp   the IP address of the server
+   * @param serverPort the port number of the server
+   * @param username   the username for the client
+   * @return a future that completes once the server has answered
+   */
+  public CompletableFuture<ConnectResponse> connectAsync(String serverIp, int serverPort,
+      String username) {
+    return background(() -> openSocket(serverIp, serverPort), username);
+  }
+
+  /**
+   * Connects in the background to a server on the same host through its Unix domain socket.
+   * Otherwise behaves like {@link #connectAsync(String, int, String)}.
+   *
+   * @param socketPath the path of the server's socket file
+   * @param username   the username for the client
+   * @return a future that completes once the server has answered
+   */
+  public CompletableFuture<ConnectResponse> connectAsync(Path socketPath, String username) {
+    return background(() -> UnixSocketConnection.connect(socketPath), username);
+  }
+
+  /**
+   * Connects to the server over an already open connection, such as one returned by
+   * {@link ChatRoomServer#connectLocal()}, so that a bot running inside the server's JVM talks to
+   * it through memory. Otherwise behaves like {@link #connectAsync(String, int, String)}.
+   *
+   * @param connection the connection to the server
+   * @param username   the username for the client
+   * @return a future that completes once the server has answered
+   */
+  public CompletableFuture<ConnectResponse> connectAsync(Connection connection, String username) {
+    return background(() -> connection, username);
+  }
+
+  private CompletableFuture<ConnectResponse> background(Opener opener, String username) {
+    new Thread(() -> {
+      try {
+        if (handshake(opener, username).isSuccess()) {
+          new Thread(this::readMessages).start();
+        } else {
+          isConnected = false;
+          disconnect();
+        }
+      } catch (IOException e) {
+        isConnected = false;
+        disconnect();
+      }
+    }, "client-connect").start();
+    return connected;
+  }
+
+  /**
+   * Returns a future that completes with the server's answer to this client's connection
+   * request, or exceptionally if the connection could not be made.
+   *
+   * @return the connection future
+   */
+  public CompletableFuture<ConnectResponse> whenConnected() {
+    return connected;
+  }
+
+  private Connection openSocket(String serverIp, int serverPort) throws IOException {
+    socket = new Socket(serverIp, serverPort);
+    socket.setTcpNoDelay(ChatRoomConstants.TCP_NO_DELAY);
+    return new SocketConnection(socket);
+  }
+
+  private ConnectResponse handshake(Opener opener, String username) throws IOException {
+    try {
+      connection = opener.open();
+      in = new DataInputStream(connection.getInputStream());
+      out = new DataOutputStream(connection.getOutputStream());
+
+      sendMessage(new ConnectMessage(username));
+      BaseMessage response = BaseMessage.readMessage(in);
+      if (!(response instanceof ConnectResponse)) {
+        throw new IOException("Unexpected response: " + response);
+      }
+      connected.complete((ConnectResponse) response);
+      return (ConnectResponse) response;
+    } catch (IOException e) {
+      connected.completeExceptionally(e);
+      throw e;
+    }
+  }
+
   /**
    * Continuously reads messages from the server and processes them based on their type. Supported
-   * message types include: {@code BroadcastMessage} {@code QueryUserResponse} {@code DirectMessage}
-   * {@code FailedMessage} {@code ConnectResponse}
+   * message types include: {@code BroadcastMessage} {@code QueryUserResponse}
+   * {@code PresenceSnapshot} {@code PresenceDelta} {@code DirectMessage} {@code FailedMessage}
+   * {@code ConnectResponse} {@code Ping}, which is answered with a {@link Pong}
    * <p>
    * If an unknown message type is received or an {@link IOException} occurs, the client will
    * disconnect.
@@ -107,6 +254,28 @@ public class ChatRoomClient {
           } else {
             System.out.println("Connected users: " + String.join(", ", response.getUsers()));
           }
+          listingCursor = response.getNextCursor();
+          if (response.hasMore()) {
+            System.out.println("More users available; type '" + moreCommand + "' to continue.");
+          }
+        } else if (message instanceof PresenceSnapshot) {
+          PresenceSnapshot snapshot = (PresenceSnapshot) message;
+          presence.clear();
+          presence.addAll(snapshot.getUsers());
+          presenceVersion = snapshot.getVersion();
+          System.out.println("Online users: " + String.join(", ", presence));
+        } else if (message instanceof PresenceDelta) {
+          PresenceDelta delta = (PresenceDelta) message;
+          if (presenceVersion >= 0 && delta.getVersion() > presenceVersion) {
+            presence.addAll(delta.getJoined());
+            presence.removeAll(delta.getLeft());
+            presenceVersion = delta.getVersion();
+            System.out.println("Online users: " + String.join(", ", presence));
+          }
+        } else if (message instanceof Ping) {
+          sendMessage(new Pong(((Ping) message).getTimestamp()));
+        } else if (message instanceof Pong) {
+          // Heartbeat answered; nothing to show.
         } else if (message instanceof DirectMessage) {
           DirectMessage dm = (DirectMessage) message;
           System.out.println(dm.getSender() + " -> you (private): " + dm.getContent());
@@ -158,8 +327,20 @@ public class ChatRoomClient {
           String recipient = parts[0].substring(1);
           String content = (parts.length < 2) ? "" : parts[1].trim();
           sendMessage(new DirectMessage(username, recipient, content));
-        } else if (input.equalsIgnoreCase(whoCommand)) {
-          sendMessage(new QueryConnectedUsers(username));
+        } else if (input.equalsIgnoreCase(whoCommand)
+            || input.toLowerCase().startsWith(whoCommand + " ")) {
+          listingPrefix = input.substring(whoCommand.length()).trim();
+          sendMessage(new QueryConnectedUsers(username, listingPrefix, "",
+              ChatRoomConstants.DEFAULT_USER_PAGE_SIZE));
+        } else if (input.equalsIgnoreCase(moreCommand)) {
+          if (listingCursor.isEmpty()) {
+            System.out.println("--Error: No more users to list.");
+          } else {
+            sendMessage(new QueryConnectedUsers(username, listingPrefix, listingCursor,
+                ChatRoomConstants.DEFAULT_USER_PAGE_SIZE));
+          }
+        } else if (input.equalsIgnoreCase(watchCommand)) {
+          sendMessage(new SubscribePresence(username));
         } else if (input.startsWith(insultCommand)) {
           String recipient = input.substring(1).trim();
           if (recipient.isEmpty()) {
@@ -180,20 +361,26 @@ public class ChatRoomClient {
   }
 
   /**
-   * Sends a {@link BaseMessage} to the server.
+   * Sends a {@link BaseMessage} to the server. Writes are serialized, so that answers to pings
+   * sent from the reading thread never interleave with commands typed by the user. The message is
+   * encoded into a buffer first and written with one call, so that it leaves in one segment
+   * rather than one per field.
    *
    * @param message the message to send
    * @throws IOException if an I/O error occurs while sending the message
    */
-  public void sendMessage(BaseMessage message) throws IOException {
-    message.writeMessage(out);
+  public synchronized void sendMessage(BaseMessage message) throws IOException {
+    sendBuffer.reset();
+    message.writeMessage(sendData);
+    sendBuffer.writeTo(out);
+    out.flush();
   }
 
   void disconnect() {
     try {
       isConnected = false;
-      if (socket != null && !socket.isClosed()) {
-        socket.close();
+      if (connection != null && !connection.isClosed()) {
+        connection.close();
       }
     } catch (IOException e) {
       e.printStackTrace();
@@ -208,25 +395,36 @@ public class ChatRoomClient {
     System.out.println("? - Show this help menu");
     System.out.println("@username message - Send a direct message to a user");
     System.out.println("@all message - Broadcast a message to all users");
-    System.out.println("who - List all connected users");
+    System.out.println("who [prefix] - List connected users, optionally by name prefix");
+    System.out.println("more - Show the next page of the last user listing");
+    System.out.println("watch - Keep the list of connected users up to date");
     System.out.println("logoff - Disconnect from the server");
     System.out.println("!username - Request the server to send an insult to a user");
   }
 
   private static Integer argsLength = 3;
+  private static Integer unixArgsLength = 2;
   private static Integer ipIndex = 0;
   private static Integer portIndex = 1;
   private static Integer nameIndex = 2;
+  private static String unixPrefix = "unix:";
 
   /**
    * The main entry point for the {@code ChatRoomClient}. Takes server IP, port, and username as
-   * command-line arguments to initiate a connection.
+   * command-line arguments to initiate a connection, or {@code unix:<socket_path>} and username to
+   * connect to a server on the same host through its Unix domain socket.
    *
    * @param args command-line arguments specifying server IP, port, and username
    */
   public static void main(String[] args) {
+    if (args.length == unixArgsLength && args[ipIndex].startsWith(unixPrefix)) {
+      ChatRoomClient client = new ChatRoomClient();
+      client.connect(Path.of(args[ipIndex].substring(unixPrefix.length())), args[portIndex]);
+      return;
+    }
     if (args.length < argsLength) {
       System.out.println("Usage: <server_ip> <server_port> <username>");
+      System.out.println("   or: unix:<socket_path> <username>");
       return;
     }
 
@@ -58,13 +58,313 @@ public class ChatRoomConstants {
    */
   public static final int SEND_INSULT = 27;
 
+  /**
+   * Message type identifier for a presence subscription. This message is sent by a client to
+   * receive a snapshot of the connected users followed by live updates.
+   */
+  public static final int SUBSCRIBE_PRESENCE = 28;
+
+  /**
+   * Message type identifier for a presence snapshot. This message is sent by the server in
+   * response to a presence subscription and lists every connected user.
+   */
+  public static final int PRESENCE_SNAPSHOT = 29;
+
+  /**
+   * Message type identifier for a presence delta. This message is pushed by the server to
+   * presence subscribers whenever users join or leave.
+   */
+  public static final int PRESENCE_DELTA = 30;
+
+  /**
+   * Message type identifier for a heartbeat ping. This message is sent by either side to check
+   * that the connection is alive.
+   */
+  public static final int PING = 31;
+
+  /**
+   * Message type identifier for a heartbeat pong. This message answers a ping.
+   */
+  public static final int PONG = 32;
+
+  /**
+   * Message type identifier for a multiplexed frame. This message carries another message for one
+   * of the logical sessions sharing a gateway's connection.
+   */
+  public static final int MUX_FRAME = 33;
+
+  /**
+   * Message type identifier for a paged query connected users request. This message asks for one
+   * page of the users, optionally filtered by a prefix; the unpaged request keeps
+   * {@link #QUERY_CONNECTED_USERS} so that peers which predate paging can still read it.
+   */
+  public static final int QUERY_USER_PAGE = 34;
+
+  /**
+   * Message type identifier for a paged query user response. This message is sent by the server in
+   * response to a paged query connected users request and carries the cursor for the next page.
+   */
+  public static final int QUERY_USER_PAGE_RESPONSE = 35;
+
   /**
    * The default port number used by the server to accept client connections.
    */
   public static int SERVER_PORT = 1234;
 
   /**
-   * The maximum number of clients that can connect to the server simultaneously.
+   * The default maximum number of clients that can connect to the server simultaneously. The
+   * limit can be changed at run time through the server's {@link AdmissionControl}.
    */
   public static final int MAX_CLIENTS = 10;
+
+  /**
+   * The maximum number of messages that may be waiting on the server's message bus before
+   * publishers are blocked.
+   */
+  public static final int MESSAGE_BUS_CAPACITY = 4096;
+
+  /**
+   * The username the server uses as the sender of its own announcements.
+   */
+  public static final String SERVER_NAME = "Server";
+
+  /**
+   * The number of shards that connected clients are partitioned across for message delivery. One
+   * shard per available processor lets fan-out scale with the machine.
+   */
+  public static final int SHARD_COUNT = Runtime.getRuntime().availableProcessors();
+
+  /**
+   * The number of pending deliveries each shard's mailbox can hold; must be a power of two.
+   */
+  public static final int SHARD_MAILBOX_CAPACITY = 1024;
+
+  /**
+   * How long, in milliseconds, join and leave events are accumulated before being announced
+   * together.
+   */
+  public static final long PRESENCE_WINDOW_MILLIS = 250;
+
+  /**
+   * The number of pending join and leave events that triggers an announcement before the window
+   * closes.
+   */
+  public static final int PRESENCE_MAX_BATCH = 50;
+
+  /**
+   * The largest number of usernames the server returns in one page of a user listing.
+   */
+  public static final int MAX_USER_PAGE_SIZE = 500;
+
+  /**
+   * The number of usernames the client asks for in each page of a user listing.
+   */
+  public static final int DEFAULT_USER_PAGE_SIZE = 50;
+
+  /**
+   * The sustained number of messages per second each user may send.
+   */
+  public static final double RATE_LIMIT_PER_SECOND = 20;
+
+  /**
+   * The number of messages a user may send at once after being idle.
+   */
+  public static final int RATE_LIMIT_BURST = 50;
+
+  /**
+   * The sustained number of broadcasts and insults per second each user may send.
+   */
+  public static final double BROADCAST_RATE_LIMIT_PER_SECOND = 5;
+
+  /**
+   * The number of broadcasts and insults a user may send at once after being idle.
+   */
+  public static final int BROADCAST_RATE_LIMIT_BURST = 20;
+
+  /**
+   * The number of bytes that may be waiting to be written to a single client before the server's
+   * overflow policy applies.
+   */
+  public static final long OUTBOUND_BUDGET_BYTES = 1 << 20;
+
+  /**
+   * How long a disconnecting client's writer thread is given to flush queued frames.
+   */
+  public static final long OUTBOUND_FLUSH_TIMEOUT_MILLIS = 1000;
+
+  /**
+   * The number of bytes queued to all clients together above which broadcasts are shed and new
+   * broadcasts are rejected.
+   */
+  public static final long OUTBOUND_MEMORY_BUDGET_BYTES = 64L << 20;
+
+  /**
+   * The number of consecutive control frames a client's writer sends before letting one queued
+   * chat frame through.
+   */
+  public static final int OUTBOUND_CONTROL_BURST = 8;
+
+  /**
+   * The number of worker threads that process frames read from clients.
+   */
+  public static final int SCHEDULER_WORKERS = Runtime.getRuntime().availableProcessors();
+
+  /**
+   * The largest number of frames from one client processed before other clients get a turn.
+   */
+  public static final int FRAMES_PER_TURN = 16;
+
+  /**
+   * The number of frames read from a client that may wait for processing before the server stops
+   * reading from its socket.
+   */
+  public static final int INBOUND_QUEUE_CAPACITY = 64;
+
+  /**
+   * How long a new connection has to complete its handshake before it is closed.
+   */
+  public static final long HANDSHAKE_TIMEOUT_MILLIS = 10_000;
+
+  /**
+   * How long a client has to send the rest of a frame once its first byte has arrived.
+   */
+  public static final long FRAME_READ_TIMEOUT_MILLIS = 10_000;
+
+  /**
+   * The maximum number of accepted connections that may be waiting to complete their handshake.
+   */
+  public static final int MAX_HALF_OPEN_CONNECTIONS = 16;
+
+  /**
+   * The resolution of the server's timing wheel.
+   */
+  public static final long TIMER_TICK_MILLIS = 100;
+
+  /**
+   * The number of buckets in the server's timing wheel; must be a power of two.
+   */
+  public static final int TIMER_WHEEL_SIZE = 512;
+
+  /**
+   * How long a client may stay silent before the server pings it.
+   */
+  public static final long HEARTBEAT_INTERVAL_MILLIS = 30_000;
+
+  /**
+   * How long a client may stay silent, despite being pinged, before the server disconnects it.
+   */
+  public static final long IDLE_TIMEOUT_MILLIS = 90_000;
+
+  /**
+   * How long a stopping server spends delivering queued messages before closing connections.
+   */
+  public static final long SHUTDOWN_DRAIN_MILLIS = 5_000;
+
+  /**
+   * The number of bytes each direction of an in-process loopback connection buffers before the
+   * writer waits for the reader.
+   */
+  public static final int LOOPBACK_BUFFER_BYTES = 64 << 10;
+
+  /**
+   * The number of bytes each direction of a shared-memory connection buffers; must be a power of
+   * two.
+   */
+  public static final int SHARED_MEMORY_RING_BYTES = 1 << 20;
+
+  /**
+   * How many times a shared-memory reader or writer spins before it starts parking between checks
+   * of its ring.
+   */
+  public static final int SHARED_MEMORY_SPIN_TRIES = 10_000;
+
+  /**
+   * How long a shared-memory reader or writer that has stopped spinning parks between checks of
+   * its ring.
+   */
+  public static final long SHARED_MEMORY_PARK_NANOS = 50_000;
+
+  /**
+   * How long a shared-memory client waits for the server to pick up its ring file.
+   */
+  public static final long SHARED_MEMORY_ACCEPT_TIMEOUT_MILLIS = 5_000;
+
+  /**
+   * The maximum number of logical sessions a single gateway connection may open.
+   */
+  public static final int MAX_MUX_SESSIONS = 4096;
+
+  /**
+   * The number of threads accepting connections.
+   */
+  public static final int ACCEPTOR_THREADS = 2;
+
+  /**
+   * The number of connections the operating system queues for the server before it has accepted
+   * them.
+   */
+  public static final int ACCEPT_BACKLOG = 1024;
+
+  /**
+   * The default maximum number of connections from a single IP address. It matches
+   * {@link #MAX_CLIENTS}, so that by default every client may still connect from one host, as they
+   * do in tests and behind a shared NAT; lower it when raising the server's capacity.
+   */
+  public static final int MAX_CONNECTIONS_PER_SOURCE = MAX_CLIENTS;
+
+  /**
+   * The default sustained number of connections per second the server accepts from all sources
+   * together.
+   */
+  public static final double ACCEPT_RATE_PER_SECOND = 200;
+
+  /**
+   * The default number of connections the server accepts at once from all sources together.
+   */
+  public static final int ACCEPT_RATE_BURST = 400;
+
+  /**
+   * The default sustained number of connections per second the server accepts from a single IP
+   * address.
+   */
+  public static final double SOURCE_ACCEPT_RATE_PER_SECOND = 5;
+
+  /**
+   * The default number of connections the server accepts at once from a single IP address.
+   */
+  public static final int SOURCE_ACCEPT_RATE_BURST = 20;
+
+  /**
+   * How long a rejected connection is kept open so that the client can read the rejection.
+   */
+  public static final long REJECTION_LINGER_MILLIS = 500;
+
+  /**
+   * How long the {@link ConfigWatcher} waits after a change to the configuration file before
+   * reading it, so that a file still being written is read once it is complete.
+   */
+  public static final long CONFIG_RELOAD_SETTLE_MILLIS = 200;
+
+  /**
+   * The system property naming the configuration file that {@link ChatRoomServer#main} reads and
+   * watches.
+   */
+  public static final String CONFIG_FILE_PROPERTY = "chatroom.config";
+
+  /**
+   * The number of bytes of queued frames that a client's writer thread gathers into one write.
+   */
+  public static final int OUTBOUND_WRITE_BATCH_BYTES = 16 << 10;
+
+  /**
+   * Whether TCP connections disable Nagle's algorithm by default. Every write already carries
+   * whole messages, so holding back a partial segment would only add latency.
+   */
+  public static final boolean TCP_NO_DELAY = true;
+
+  /**
+   * The default size of each TCP connection's send buffer, or {@code 0} to leave it to the
+   * operating system.
+   */
+  public static final int SEND_BUFFER_BYTES = 0;
 }
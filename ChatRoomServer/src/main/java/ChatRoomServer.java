@@ -1,37 +1,100 @@
 import java.io.*;
 import java.net.*;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.file.Files;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * The {@code ChatRoomServer} class represents the server in a chat room system. It manages client
  * connections, broadcasts messages, handles direct messages, and processes other client
  * interactions.
  * <p>
- * This server supports multiple clients concurrently and ensures thread safety through the use of
- * {@link CopyOnWriteArrayList} for managing connected clients.
+ * This server supports multiple clients concurrently and tracks them in a {@link ClientRegistry},
+ * which keeps joins, leaves and username lookups cheap while allowing safe concurrent iteration.
  * <p>
  * Features include: - Accepting client connections - Handling broadcast and direct messages -
  * Managing connected users - Sending failure notifications to clients
  * <p>
  * The server listens for incoming connections on a specified port and processes messages from
- * connected clients in separate threads.
+ * connected clients in separate threads. Chat traffic read by those threads is published on a
+ * {@link MessageBus}. By default this is a {@link RingBufferMessageBus}, whose pipeline resolves
+ * recipients and serializes each message once. Delivery is sharded: connected clients are
+ * partitioned across {@link ClientShard}s, and the pipeline posts each frame to the mailboxes of
+ * the shards that own its recipients.
  */
 public class ChatRoomServer {
 
   ServerSocket serverSocket;
   /**
-   * A thread-safe list of all currently connected clients.
+   * A thread-safe registry of all currently connected clients.
    */
-  protected final List<ClientHandler> clients = new CopyOnWriteArrayList<>();
+  protected final ClientRegistry clients = new ClientRegistry();
+  private final UserDirectory directory = new UserDirectory();
+  private final MessageBus messageBus;
+  private final ClientShard[] shards;
+  private final AtomicInteger nextShard = new AtomicInteger();
+  // Keyed by identity: a handler's equals and hashCode change as it disconnects, so a hashed set
+  // would look for it in the wrong bucket when it is removed. Guarded by presenceLock, which is
+  // never held while publishing or sending, and republished as an immutable copy after every
+  // change so that the route stage reads the subscribers without taking the lock.
+  private final Set<ClientHandler> presenceSubscribers =
+      Collections.newSetFromMap(new IdentityHashMap<>());
+  private volatile List<ClientHandler> presenceView = List.of();
+  private final Object presenceLock = new Object();
+  private long presenceVersion;
+  private final PresenceCoalescer presence = new PresenceCoalescer(this::announcePresence,
+      ChatRoomConstants.PRESENCE_WINDOW_MILLIS, ChatRoomConstants.PRESENCE_MAX_BATCH);
+  private volatile RateLimitPolicy rateLimitPolicy = RateLimitPolicy.defaultPolicy();
+  private volatile OutboundQueue.OverflowPolicy outboundPolicy =
+      OutboundQueue.OverflowPolicy.DROP_OLDEST;
+  private volatile long outboundBudgetBytes = ChatRoomConstants.OUTBOUND_BUDGET_BYTES;
+  private final OutboundStats outboundStats = new OutboundStats();
+  private final HashedTimingWheel timer = new HashedTimingWheel(
+      ChatRoomConstants.TIMER_TICK_MILLIS, ChatRoomConstants.TIMER_WHEEL_SIZE);
+  private final AdmissionControl admission = new AdmissionControl();
+  private final AtomicInteger halfOpen = new AtomicInteger();
+  private final AtomicInteger muxSessions = new AtomicInteger();
+  private final boolean reusePort;
+  private volatile int acceptorCount = ChatRoomConstants.ACCEPTOR_THREADS;
+  private final List<ServerSocket> extraListeners = new CopyOnWriteArrayList<>();
+  private final AtomicBoolean stopping = new AtomicBoolean();
+  private final CountDownLatch terminated = new CountDownLatch(1);
+  private final CompletableFuture<InetSocketAddress> ready = new CompletableFuture<>();
+  private volatile ServerSocketChannel unixChannel;
+  private volatile Path unixSocketPath;
+  private volatile WatchService sharedMemoryWatcher;
+  private volatile Path sharedMemoryDirectory;
+  private volatile ConfigWatcher configWatcher;
+  private volatile long heartbeatIntervalMillis = ChatRoomConstants.HEARTBEAT_INTERVAL_MILLIS;
+  private volatile long idleTimeoutMillis = ChatRoomConstants.IDLE_TIMEOUT_MILLIS;
+  private volatile boolean tcpNoDelay = ChatRoomConstants.TCP_NO_DELAY;
+  private volatile int sendBufferBytes = ChatRoomConstants.SEND_BUFFER_BYTES;
+  private volatile long handshakeTimeoutMillis = ChatRoomConstants.HANDSHAKE_TIMEOUT_MILLIS;
+  private volatile long frameReadTimeoutMillis = ChatRoomConstants.FRAME_READ_TIMEOUT_MILLIS;
+  private volatile int maxHalfOpenConnections = ChatRoomConstants.MAX_HALF_OPEN_CONNECTIONS;
+  private volatile int inboundQueueCapacity = ChatRoomConstants.INBOUND_QUEUE_CAPACITY;
+  private final FairScheduler scheduler;
+  private final OutboundMemoryBudget outboundMemory =
+      new OutboundMemoryBudget(ChatRoomConstants.OUTBOUND_MEMORY_BUDGET_BYTES);
 
   private String invalidSender = "Invalid sender username.";
   private String invalidRecipient = "Invalid recipient username.";
   private String emptyMessage = "message cannot be empty.";
-  private String broadcastFailed = "Failed to send message to client: ";
-  private String directFailed = "Failed to send direct message to ";
   private String failedFailed = "Failed to send failed message to ";
-  private String removeFailed = "Failed to broadcast leaving message.";
 
   /**
    * Constructs a {@code ChatRoomServer} and binds it to the specified port.
@@ -40,180 +103,1211 @@ public class ChatRoomServer {
    * @throws IOException if an I/O error occurs while creating the server socket
    */
   public ChatRoomServer(int port) throws IOException {
-    serverSocket = new ServerSocket(port);
-    System.out.println("Server started on port " + port);
+    this(port, null, false, ServerConfig.defaults());
   }
 
   /**
-   * Starts the server, accepting client connections in an infinite loop. For each connection, a new
+   * Constructs a {@code ChatRoomServer} bound to the specified port that routes client traffic
+   * through the given {@link MessageBus}. A {@link MessageRouter} is subscribed to the bus and
+   * performs routing on the bus's dispatch thread.
+   *
+   * @param port       the port number to bind the server to
+   * @param messageBus the bus that decouples client reads from message routing
+   * @throws IOException if an I/O error occurs while creating the server socket
+   */
+  public ChatRoomServer(int port, MessageBus messageBus) throws IOException {
+    this(port, Objects.requireNonNull(messageBus), false, ServerConfig.defaults());
+  }
+
+  /**
+   * Creates the server, sizing its shards, scheduler and message bus from {@code sizing}; the
+   * other settings in {@code sizing} are applied afterwards, by the builder.
+   */
+  private ChatRoomServer(int port, MessageBus messageBus, boolean reusePort, ServerConfig sizing)
+      throws IOException {
+    shards = createShards(sizing.getShardCount(), sizing.getShardMailboxCapacity());
+    scheduler = new FairScheduler(sizing.getSchedulerWorkers(), ChatRoomConstants.FRAMES_PER_TURN);
+    if (messageBus == null) {
+      this.messageBus = new RingBufferMessageBus(sizing.getMessageBusCapacity(),
+          new MessageRouter(this));
+    } else {
+      this.messageBus = messageBus;
+      messageBus.subscribe(new MessageRouter(this));
+    }
+    this.reusePort = reusePort && supportsReusePort();
+    serverSocket = openListener(port, this.reusePort);
+    System.out.println("Server started on port " + serverSocket.getLocalPort());
+  }
+
+  private static boolean supportsReusePort() {
+    try (ServerSocket probe = new ServerSocket()) {
+      return probe.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  private static ServerSocket openListener(int port, boolean reusePort) throws IOException {
+    ServerSocket listener = new ServerSocket();
+    try {
+      if (reusePort) {
+        listener.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+      }
+      listener.bind(new InetSocketAddress(port), ChatRoomConstants.ACCEPT_BACKLOG);
+    } catch (IOException e) {
+      listener.close();
+      throw e;
+    }
+    return listener;
+  }
+
+  /**
+   * Returns the {@link MessageBus} that client handlers publish incoming traffic to. Additional
+   * subscribers such as journaling or metrics may be registered on it.
+   *
+   * @return the server's message bus
+   */
+  public MessageBus getMessageBus() {
+    return messageBus;
+  }
+
+  /**
+   * Starts the server, accepting client connections until it is stopped. For each connection, a new
    * {@link ClientHandler} is created and started in a separate thread.
    * <p>
-   * If the maximum number of clients is reached, new connections are rejected.
+   * Connections are accepted by {@link #getAcceptorCount()} threads, the calling thread among
+   * them, so that setting up one connection does not hold up accepting the next during a
+   * reconnect storm. By default the acceptors share the server socket. If the server was built
+   * with {@link Builder#reusePort(boolean) SO_REUSEPORT}, every extra acceptor binds its own
+   * socket to the same port instead, and the kernel spreads incoming connections across them, so
+   * the acceptors do not even contend for one accept queue.
+   * <p>
+   * If the maximum number of clients is reached, or {@link #getMaxHalfOpenConnections()}
+   * connections are still waiting to complete their handshake, new connections are rejected.
+   */
+  public void startServer() {
+    int port = serverSocket.getLocalPort();
+    for (int i = 1; i < acceptorCount && !stopping.get(); i++) {
+      ServerSocket listener = serverSocket;
+      if (reusePort) {
+        try {
+          listener = openListener(port, true);
+          extraListeners.add(listener);
+        } catch (IOException e) {
+          System.err.println("Error opening extra listener: " + e.getMessage());
+          listener = serverSocket;
+        }
+      }
+      ServerSocket acceptorSocket = listener;
+      new Thread(() -> acceptLoop(acceptorSocket), "acceptor-" + i).start();
+    }
+    if (stopping.get()) {
+      // stop() may have run before the extra listeners were registered.
+      closeExtraListeners();
+    }
+    ready.complete(getAddress());
+    acceptLoop(serverSocket);
+  }
+
+  private void acceptLoop(ServerSocket listener) {
+    while (!stopping.get()) {
+      try {
+        Socket socket = listener.accept();
+        configureSocket(socket);
+        accept(new SocketConnection(socket));
+      } catch (IOException e) {
+        if (stopping.get() || listener.isClosed()) {
+          return;
+        }
+        System.err.println("Error accepting client connection: " + e.getMessage());
+      }
+    }
+  }
+
+  private void configureSocket(Socket socket) {
+    try {
+      socket.setTcpNoDelay(tcpNoDelay);
+      if (sendBufferBytes > 0) {
+        socket.setSendBufferSize(sendBufferBytes);
+      }
+    } catch (SocketException e) {
+      // The connection still works with the operating system's defaults.
+      System.err.println("Error setting socket options: " + e.getMessage());
+    }
+  }
+
+  private void closeExtraListeners() {
+    for (ServerSocket listener : extraListeners) {
+      try {
+        listener.close();
+      } catch (IOException e) {
+        System.err.println("Error closing server socket: " + e.getMessage());
+      }
+    }
+  }
+
+  /**
+   * Returns the number of threads accepting connections.
+   *
+   * @return the acceptor count
+   */
+  public int getAcceptorCount() {
+    return acceptorCount;
+  }
+
+  /**
+   * Sets the number of threads accepting connections. Takes effect when the server is started.
+   *
+   * @param acceptorCount the acceptor count, at least one
+   * @throws IllegalArgumentException if {@code acceptorCount} is less than one
+   */
+  public void setAcceptorCount(int acceptorCount) {
+    if (acceptorCount < 1) {
+      throw new IllegalArgumentException("At least one acceptor is required: " + acceptorCount);
+    }
+    this.acceptorCount = acceptorCount;
+  }
+
+  /**
+   * Reports whether extra acceptors bind their own sockets with SO_REUSEPORT.
+   *
+   * @return {@code true} if SO_REUSEPORT was requested and is supported by the platform
+   */
+  public boolean isReusePort() {
+    return reusePort;
+  }
+
+  /**
+   * Opens an in-process connection to the server, for bots and tests running in the same JVM.
+   * The server end is handled exactly like an accepted TCP connection, including the connection
+   * limits and the handshake deadline, but bytes are exchanged through memory.
+   *
+   * @return the client's end of the connection, on which a {@link ConnectMessage} is expected
+   * @throws IOException if the server is stopping or rejected the connection
+   */
+  public Connection connectLocal() throws IOException {
+    if (stopping.get()) {
+      throw new IOException("Server is shutting down");
+    }
+    LoopbackConnection connection =
+        LoopbackConnection.open(ChatRoomConstants.LOOPBACK_BUFFER_BYTES);
+    if (!accept(connection.getPeer())) {
+      throw new IOException("Connection rejected");
+    }
+    return connection;
+  }
+
+  /**
+   * Listens for clients on a Unix domain socket as well as on TCP. Clients on the same host that
+   * connect through the socket file skip the TCP/IP stack entirely. Connections are accepted on a
+   * separate thread and handled exactly like TCP connections. A stale socket file left by an
+   * earlier run is replaced; the file is deleted when the server stops.
+   *
+   * @param path the path of the socket file to create
+   * @throws IOException if the socket cannot be bound
+   * @throws IllegalStateException if the server already listens on a Unix domain socket
+   */
+  public void listenUnix(Path path) throws IOException {
+    if (unixChannel != null) {
+      throw new IllegalStateException("Already listening on " + unixSocketPath);
+    }
+    Files.deleteIfExists(path);
+    ServerSocketChannel channel = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+    try {
+      channel.bind(UnixDomainSocketAddress.of(path));
+    } catch (IOException e) {
+      channel.close();
+      throw e;
+    }
+    unixSocketPath = path;
+    unixChannel = channel;
+    Thread acceptor = new Thread(() -> acceptUnix(channel), "unix-acceptor");
+    acceptor.setDaemon(true);
+    acceptor.start();
+    System.out.println("Server listening on " + path);
+  }
+
+  /**
+   * Returns the path of the Unix domain socket the server listens on.
+   *
+   * @return the socket path, or {@code null} if the server only listens on TCP
+   */
+  public Path getUnixSocketPath() {
+    return unixSocketPath;
+  }
+
+  /**
+   * Accepts {@link SharedMemoryConnection shared-memory} clients: processes on the same host that
+   * create ring files in {@code directory}. Frames are then exchanged through the mapped files
+   * without system calls. Ring files are picked up on a separate thread and handled exactly like
+   * TCP connections.
+   *
+   * @param directory the directory to watch for ring files; it must exist
+   * @throws IOException if the directory cannot be watched
+   * @throws IllegalStateException if the server already watches a directory
+   */
+  public void listenSharedMemory(Path directory) throws IOException {
+    if (sharedMemoryWatcher != null) {
+      throw new IllegalStateException("Already watching " + sharedMemoryDirectory);
+    }
+    WatchService watcher = directory.getFileSystem().newWatchService();
+    try {
+      directory.register(watcher, StandardWatchEventKinds.ENTRY_CREATE);
+    } catch (IOException e) {
+      watcher.close();
+      throw e;
+    }
+    sharedMemoryDirectory = directory;
+    sharedMemoryWatcher = watcher;
+    Thread acceptor = new Thread(() -> acceptSharedMemory(directory, watcher), "shm-acceptor");
+    acceptor.setDaemon(true);
+    acceptor.start();
+    System.out.println("Server watching " + directory + " for shared-memory clients");
+  }
+
+  /**
+   * Reloads a configuration file whenever it changes, until the server stops, applying the
+   * settings that can change at run time.
+   *
+   * @param file    the properties file to watch
+   * @param current the configuration the server was started with, against which changes that
+   *                need a restart are detected
+   * @return the watcher
+   * @throws IOException           if the file's directory cannot be watched
+   * @throws IllegalStateException if a configuration file is already being watched
+   */
+  public ConfigWatcher watchConfig(Path file, ServerConfig current) throws IOException {
+    if (configWatcher != null) {
+      throw new IllegalStateException("Already watching " + configWatcher.getFile());
+    }
+    configWatcher = new ConfigWatcher(this, file, current);
+    System.out.println("Server watching " + configWatcher.getFile() + " for configuration");
+    return configWatcher;
+  }
+
+  /**
+   * Returns the directory watched for shared-memory clients.
+   *
+   * @return the directory, or {@code null} if shared-memory clients are not accepted
+   */
+  public Path getSharedMemoryDirectory() {
+    return sharedMemoryDirectory;
+  }
+
+  private void acceptSharedMemory(Path directory, WatchService watcher) {
+    // Pick up ring files created before the watch was registered.
+    try (DirectoryStream<Path> existing =
+        Files.newDirectoryStream(directory, "*" + SharedMemoryConnection.RING_FILE_SUFFIX)) {
+      for (Path ring : existing) {
+        acceptRing(ring);
+      }
+    } catch (IOException e) {
+      System.err.println("Error scanning " + directory + ": " + e.getMessage());
+    }
+    while (!stopping.get()) {
+      WatchKey key;
+      try {
+        key = watcher.take();
+      } catch (InterruptedException | ClosedWatchServiceException e) {
+        return;
+      }
+      for (WatchEvent<?> event : key.pollEvents()) {
+        if (event.context() instanceof Path) {
+          Path name = (Path) event.context();
+          if (name.toString().endsWith(SharedMemoryConnection.RING_FILE_SUFFIX)) {
+            acceptRing(directory.resolve(name));
+          }
+        }
+      }
+      key.reset();
+    }
+  }
+
+  private void acceptRing(Path ring) {
+    try {
+      accept(SharedMemoryConnection.accept(ring));
+    } catch (NoSuchFileException e) {
+      // The client gave up waiting and removed the file.
+    } catch (IOException e) {
+      System.err.println("Error accepting client connection: " + e.getMessage());
+    }
+  }
+
+  private void acceptUnix(ServerSocketChannel channel) {
+    while (!stopping.get()) {
+      try {
+        accept(new UnixSocketConnection(channel.accept()));
+      } catch (IOException e) {
+        if (stopping.get() || !channel.isOpen()) {
+          return;
+        }
+        System.err.println("Error accepting client connection: " + e.getMessage());
+      }
+    }
+  }
+
+  private boolean accept(Connection connection) throws IOException {
+    InetAddress source = connection.getSourceAddress();
+    AdmissionControl.Decision decision = admission.admit(source, System.nanoTime());
+    if (decision != AdmissionControl.Decision.ADMITTED) {
+      reject(connection, decision.getReason());
+      return false;
+    }
+    // Reserve the half-open slot before starting the handler, so that concurrent acceptors cannot
+    // overshoot the limit.
+    if (halfOpen.incrementAndGet() > maxHalfOpenConnections) {
+      halfOpen.decrementAndGet();
+      admission.release(source);
+      reject(connection, "Too many pending handshakes; try again later.");
+      return false;
+    }
+    ClientHandler clientHandler = new ClientHandler(connection, this);
+    clientHandler.accepted();
+    clientHandler.setShard(shards[Math.floorMod(nextShard.getAndIncrement(), shards.length)]);
+    clients.add(clientHandler);
+    new Thread(clientHandler).start();
+    return true;
+  }
+
+  /**
+   * Tells a client why its connection is refused, then closes the connection. The close is
+   * delayed a little so that the response is not lost: closing a TCP socket with the client's
+   * handshake still unread resets the connection, and the client may never see the reason.
+   */
+  private void reject(Connection connection, String reason) {
+    System.out.println("Connection from " + connection.getRemoteAddress() + " rejected: " + reason);
+    try {
+      connection.getOutputStream().write(new ConnectResponse(false, reason).toBytes());
+    } catch (IOException e) {
+      // The client has already gone; there is nobody to tell.
+    }
+    timer.schedule(() -> {
+      try {
+        connection.close();
+      } catch (IOException e) {
+        // Nothing more to do with a rejected connection.
+      }
+    }, ChatRoomConstants.REJECTION_LINGER_MILLIS);
+  }
+
+  /**
+   * Records that an admitted connection has closed, freeing its place in the server's capacity
+   * and in its source's limit.
+   *
+   * @param connection the closed connection
+   */
+  void connectionClosed(Connection connection) {
+    admission.release(connection.getSourceAddress());
+  }
+
+  /**
+   * Decides whether a gateway may open another multiplexed session. Sessions count against the
+   * server's capacity and overall accept rate like connections of their own, but not against the
+   * per-source limits: the gateway's connection already counted against those, and one gateway
+   * carries many users by design. How fast a gateway opens sessions is bounded by its own rate
+   * limit instead, and how many it holds by {@link ChatRoomConstants#MAX_MUX_SESSIONS}.
+   *
+   * @return {@link AdmissionControl.Decision#ADMITTED}, or the reason the session is refused
+   */
+  AdmissionControl.Decision admitSession() {
+    return admission.admit(null, System.nanoTime());
+  }
+
+  /**
+   * Records that an admitted multiplexed session has ended.
+   */
+  void sessionClosed() {
+    admission.release(null);
+  }
+
+  /**
+   * Returns the admission control that decides which connections are accepted. Its limits can be
+   * changed while the server runs.
+   *
+   * @return the server's admission control
+   */
+  public AdmissionControl getAdmissionControl() {
+    return admission;
+  }
+
+  /**
+   * Returns a builder for configuring and starting an embedded server.
+   *
+   * @return a new builder
+   */
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * Returns the address the server is listening on. When the server was bound to port 0, this
+   * reports the port the operating system chose.
+   *
+   * @return the bound address
+   */
+  public InetSocketAddress getAddress() {
+    return (InetSocketAddress) serverSocket.getLocalSocketAddress();
+  }
+
+  /**
+   * Returns a future that completes with the bound address once the server is accepting
+   * connections.
+   *
+   * @return the readiness future
+   */
+  public CompletableFuture<InetSocketAddress> whenReady() {
+    return ready;
+  }
+
+  /**
+   * Starts accepting connections on a new thread and returns immediately.
+   *
+   * @return the accepting thread
+   */
+  public Thread start() {
+    Thread acceptor = new Thread(this::startServer, "acceptor");
+    acceptor.start();
+    return acceptor;
+  }
+
+  /**
+   * Starts accepting connections on a new thread and returns a handle for the running server.
+   *
+   * @return the server's handle
+   */
+  ServerHandle startEmbedded() {
+    start();
+    return new ServerHandle(this);
+  }
+
+  /**
+   * Begins a graceful shutdown and returns immediately. The server stops accepting connections
+   * and stops reading from clients, then, on a separate thread:
+   * <ol>
+   *   <li>processes the frames already read from clients,</li>
+   *   <li>lets the message bus and the shards deliver everything in flight,</li>
+   *   <li>queues a final notice for every client and lets all writer threads flush in
+   *       parallel,</li>
+   *   <li>closes every connection, whether or not it finished flushing.</li>
+   * </ol>
+   * All steps share one deadline, so the shutdown completes within roughly {@code drainTimeout}
+   * even if some clients have stopped reading. Calling this method again has no effect.
+   *
+   * @param drainTimeout the time allowed for delivering queued messages
+   * @param unit         the unit of {@code drainTimeout}
+   */
+  public void stop(long drainTimeout, TimeUnit unit) {
+    if (!stopping.compareAndSet(false, true)) {
+      return;
+    }
+    long deadline = System.nanoTime() + unit.toNanos(drainTimeout);
+    try {
+      serverSocket.close();
+    } catch (IOException e) {
+      System.err.println("Error closing server socket: " + e.getMessage());
+    }
+    closeExtraListeners();
+    if (configWatcher != null) {
+      try {
+        configWatcher.close();
+      } catch (IOException e) {
+        System.err.println("Error closing configuration watcher: " + e.getMessage());
+      }
+    }
+    if (sharedMemoryWatcher != null) {
+      try {
+        sharedMemoryWatcher.close();
+      } catch (IOException e) {
+        System.err.println("Error closing shared-memory watcher: " + e.getMessage());
+      }
+    }
+    if (unixChannel != null) {
+      try {
+        unixChannel.close();
+        Files.deleteIfExists(unixSocketPath);
+      } catch (IOException e) {
+        System.err.println("Error closing Unix domain socket: " + e.getMessage());
+      }
+    }
+    Thread drainer = new Thread(() -> drain(deadline), "server-shutdown");
+    drainer.start();
+  }
+
+  /**
+   * Waits for a shutdown started by {@link #stop(long, TimeUnit)} to complete.
+   *
+   * @param timeout the maximum time to wait
+   * @param unit    the unit of {@code timeout}
+   * @return {@code true} if the server has terminated; {@code false} if the timeout elapsed
+   * @throws InterruptedException if interrupted while waiting
+   */
+  public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+    return terminated.await(timeout, unit);
+  }
+
+  /**
+   * Reports whether a shutdown has been started.
+   *
+   * @return {@code true} once {@link #stop(long, TimeUnit)} has been called
+   */
+  public boolean isStopping() {
+    return stopping.get();
+  }
+
+  private void drain(long deadline) {
+    try {
+      List<ClientHandler> handlers = new ArrayList<>();
+      for (ClientHandler handler : clients) {
+        handlers.add(handler);
+        handler.stopInput();
+      }
+      while (hasPendingInput(handlers) && remainingMillis(deadline) > 0) {
+        Thread.sleep(10);
+      }
+      messageBus.shutdown();
+      messageBus.awaitTermination(remainingMillis(deadline), TimeUnit.MILLISECONDS);
+      for (ClientShard shard : shards) {
+        shard.shutdown();
+      }
+      for (ClientShard shard : shards) {
+        shard.awaitTermination(remainingMillis(deadline));
+      }
+      ConnectResponse notice = new ConnectResponse(false, "Server is shutting down.");
+      for (ClientHandler handler : handlers) {
+        handler.finish(notice);
+      }
+      for (ClientHandler handler : handlers) {
+        handler.awaitFlushed(remainingMillis(deadline));
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      for (ClientHandler handler : clients) {
+        handler.forceClose();
+      }
+      for (ClientHandler handler : clients) {
+        handler.cleanup();
+      }
+      presence.shutdown();
+      scheduler.shutdown();
+      timer.shutdown();
+      terminated.countDown();
+    }
+  }
+
+  private static boolean hasPendingInput(List<ClientHandler> handlers) {
+    for (ClientHandler handler : handlers) {
+      if (handler.hasPendingWork()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static long remainingMillis(long deadline) {
+    return Math.max(0, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()));
+  }
+
+  /**
+   * Checks if a user is currently connected to the server.
+   *
+   * @param username the username to check
+   * @return {@code true} if the user is connected; {@code false} otherwise
+   */
+  public boolean isUserConnected(String username) {
+    return clients.findByUsername(username) != null;
+  }
+
+  /**
+   * Atomically reserves a username for a client, so that two clients connecting at the same time
+   * cannot both obtain the same name.
+   *
+   * @param username      the requested username
+   * @param clientHandler the client requesting it
+   * @return {@code true} if the name was available and is now reserved for the client
+   */
+  boolean claimUsername(String username, ClientHandler clientHandler) {
+    return clients.claimUsername(username, clientHandler);
+  }
+
+  /**
+   * Retrieves the {@link ClientHandler} for the specified username.
+   *
+   * @param username the username of the client
+   * @return the {@code ClientHandler} if the user is found; {@code null} otherwise
+   */
+  public ClientHandler getClientByUsername(String username) {
+    return clients.findByUsername(username);
+  }
+
+  /**
+   * Broadcasts a message to all connected clients.
+   * <p>
+   * The message is published on the {@link MessageBus} and validated by the routing pipeline: if
+   * the sender is invalid or the message content is empty, a failure message is sent to the
+   * sender instead. Broadcasts from {@link ChatRoomConstants#SERVER_NAME} skip sender validation.
+   *
+   * @param message the {@link BroadcastMessage} to broadcast
+   */
+  public void broadcastMessage(BroadcastMessage message) {
+    messageBus.publish(null, message);
+  }
+
+  /**
+   * Validates a broadcast request, notifying the sender of any problem.
+   *
+   * @param message the {@link BroadcastMessage} to validate
+   * @return {@code true} if the broadcast may be delivered
+   */
+  boolean checkBroadcast(BroadcastMessage message) {
+    if (!isUserConnected(message.getSender())) {
+      sendFailedMessageTo(message.getSender(), invalidSender);
+      return false;
+    }
+    if (message.getContent().isEmpty()) {
+      sendFailedMessageTo(message.getSender(), "Broadcast " + emptyMessage);
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Posts an already encoded message to every shard for delivery to all connected clients. Must
+   * only be called from the routing pipeline's delivery thread, which is the single producer for
+   * the shard mailboxes.
+   *
+   * @param frame the serialized message
+   */
+  void deliverToAll(byte[] frame) {
+    for (ClientShard shard : shards) {
+      shard.post(null, frame);
+    }
+  }
+
+  /**
+   * Sends a direct message to a specific recipient.
+   * <p>
+   * The message is published on the {@link MessageBus}. If the sender or recipient is invalid, or
+   * if the message content is empty, a failure message is sent to the sender instead.
+   *
+   * @param message the {@link DirectMessage} to send
+   */
+  public void sendDirectMessage(DirectMessage message) {
+    messageBus.publish(null, message);
+  }
+
+  /**
+   * Validates a direct message, notifying the sender of any problem.
+   *
+   * @param message the {@link DirectMessage} to validate
+   * @return the recipient's {@link ClientHandler}, or {@code null} if the message is invalid
+   */
+  ClientHandler checkDirectMessage(DirectMessage message) {
+    if (!isUserConnected(message.getSender())) {
+      sendFailedMessageTo(message.getSender(), invalidSender);
+      return null;
+    }
+    if (!isUserConnected(message.getRecipient())) {
+      sendFailedMessageTo(message.getSender(), invalidRecipient);
+      return null;
+    }
+    if (message.getContent().isEmpty()) {
+      sendFailedMessageTo(message.getSender(), "Direct " + emptyMessage);
+      return null;
+    }
+    return getClientByUsername(message.getRecipient());
+  }
+
+  /**
+   * Posts an already encoded message to the shard that owns the recipient. Must only be called
+   * from the routing pipeline's delivery thread.
+   *
+   * @param recipient the client to write to
+   * @param frame     the serialized message
+   */
+  void deliverTo(ClientHandler recipient, byte[] frame) {
+    ClientShard shard = recipient.getShard();
+    if (shard != null) {
+      shard.post(recipient, frame);
+    }
+  }
+
+  /**
+   * Sends an insult message to a specific recipient.
+   * <p>
+   * The request is published on the {@link MessageBus}. If the sender or recipient is invalid, a
+   * failure message is sent to the sender. Otherwise, a random insult is generated and sent as a
+   * direct message.
+   *
+   * @param message the {@link SendInsult} message containing the sender and recipient
+   */
+  public void sendInsult(SendInsult message) {
+    messageBus.publish(null, message);
+  }
+
+  /**
+   * Validates an insult request and generates the direct message that carries the insult.
+   *
+   * @param message the {@link SendInsult} request to validate
+   * @return the insult as a {@link DirectMessage}, or {@code null} if the request is invalid
+   */
+  DirectMessage checkInsult(SendInsult message) {
+    if (!isUserConnected(message.getSender())) {
+      sendFailedMessageTo(message.getSender(), invalidSender);
+      return null;
+    }
+    if (!isUserConnected(message.getRecipient())) {
+      sendFailedMessageTo(message.getSender(), invalidRecipient);
+      return null;
+    }
+
+    String insult = new RandomSentenceGenerator().generateInsult();
+    return new DirectMessage(message.getSender(), message.getRecipient(), insult);
+  }
+
+  /**
+   * Sends a failure message to a specific client.
+   *
+   * @param username the username of the client to notify
+   * @param reason   the reason for the failure
+   */
+  public void sendFailedMessageTo(String username, String reason) {
+    ClientHandler ch = getClientByUsername(username);
+    if (ch != null) {
+      try {
+        ch.sendMessage(new FailedMessage(reason));
+      } catch (IOException e) {
+        System.err.println(failedFailed + username);
+      }
+    }
+  }
+
+  /**
+   * Removes a client from the server and notifies other clients of the disconnection. The leave
+   * is reported through the {@link PresenceCoalescer}, so that leaves close together in time are
+   * announced in a single message.
+   *
+   * @param clientHandler the {@link ClientHandler} of the client to remove
+   */
+  public void removeClient(ClientHandler clientHandler) {
+    if (clients.remove(clientHandler) && clientHandler.isSession()) {
+      muxSessions.decrementAndGet();
+    }
+    synchronized (presenceLock) {
+      if (presenceSubscribers.remove(clientHandler)) {
+        presenceView = List.copyOf(presenceSubscribers);
+      }
+    }
+    if (clientHandler.getUsername() != null) {
+      directory.userLeft(clientHandler.getUsername());
+    }
+    ClientShard shard = clientHandler.getShard();
+    if (shard != null) {
+      shard.detach(clientHandler);
+    }
+    if (clientHandler.getUsername() != null) {
+      presence.recordLeave(clientHandler.getUsername());
+    }
+  }
+
+  /**
+   * Registers a logical session opened on a gateway connection. The session is delivered to by
+   * its gateway's shard. Its place in the server's capacity was taken by
+   * {@link #admitSession()} before its username was claimed.
+   *
+   * @param session the session that has just claimed its username
+   */
+  void sessionOpened(ClientHandler session) {
+    session.setShard(session.getGateway().getShard());
+    muxSessions.incrementAndGet();
+    clients.add(session);
+  }
+
+  /**
+   * Returns the number of logical sessions multiplexed over gateway connections.
+   *
+   * @return the number of open sessions
+   */
+  public int getMuxSessionCount() {
+    return muxSessions.get();
+  }
+
+  /**
+   * Makes a client that has completed the connection handshake eligible for message delivery by
+   * attaching it to its shard.
+   *
+   * @param clientHandler the {@link ClientHandler} that has just connected
+   */
+  void clientConnected(ClientHandler clientHandler) {
+    ClientShard shard = clientHandler.getShard();
+    if (shard != null) {
+      shard.attach(clientHandler);
+    }
+    directory.userJoined(clientHandler.getUsername());
+    presence.recordJoin(clientHandler.getUsername());
+  }
+
+  /**
+   * Returns the coalescer that batches join and leave announcements, for example to tune its
+   * window.
+   *
+   * @return the server's presence coalescer
+   */
+  public PresenceCoalescer getPresenceCoalescer() {
+    return presence;
+  }
+
+  /**
+   * Returns the rate limits applied to messages from each client.
+   *
+   * @return the current rate limit policy
+   */
+  public RateLimitPolicy getRateLimitPolicy() {
+    return rateLimitPolicy;
+  }
+
+  /**
+   * Replaces the rate limits applied to messages from each client. Clients that connect
+   * afterwards are limited by the new policy; existing connections keep the policy they started
+   * with.
+   *
+   * @param rateLimitPolicy the new rate limit policy
+   */
+  public void setRateLimitPolicy(RateLimitPolicy rateLimitPolicy) {
+    this.rateLimitPolicy = rateLimitPolicy;
+  }
+
+  /**
+   * Returns what a client's outbound queue does when the client falls behind.
+   *
+   * @return the current overflow policy
+   */
+  public OutboundQueue.OverflowPolicy getOutboundPolicy() {
+    return outboundPolicy;
+  }
+
+  /**
+   * Changes what a client's outbound queue does when the client falls behind. Applies to clients
+   * that connect afterwards.
+   *
+   * @param outboundPolicy the new overflow policy
+   */
+  public void setOutboundPolicy(OutboundQueue.OverflowPolicy outboundPolicy) {
+    this.outboundPolicy = outboundPolicy;
+  }
+
+  /**
+   * Returns the number of bytes that may be queued for a single client.
+   *
+   * @return the per-client outbound budget
+   */
+  public long getOutboundBudgetBytes() {
+    return outboundBudgetBytes;
+  }
+
+  /**
+   * Changes the number of bytes that may be queued for a single client. Applies to clients that
+   * connect afterwards.
+   *
+   * @param outboundBudgetBytes the new per-client outbound budget
+   */
+  public void setOutboundBudgetBytes(long outboundBudgetBytes) {
+    this.outboundBudgetBytes = outboundBudgetBytes;
+  }
+
+  /**
+   * Returns the counters of actions taken against clients that fell behind.
+   *
+   * @return the server's outbound statistics
+   */
+  public OutboundStats getOutboundStats() {
+    return outboundStats;
+  }
+
+  /**
+   * Returns the timer that enforces handshake and read deadlines.
+   *
+   * @return the server's timing wheel
    */
-  public void startServer() {
-    while (true) {
-      try {
-        Socket clientSocket = serverSocket.accept();
-        if (clients.size() < ChatRoomConstants.MAX_CLIENTS) {
-          ClientHandler clientHandler = new ClientHandler(clientSocket, this);
-          clients.add(clientHandler);
-          new Thread(clientHandler).start();
-        } else {
-          System.out.println("Maximum client limit reached. Connection rejected.");
-          clientSocket.close();
-        }
-      } catch (IOException e) {
-        System.err.println("Error accepting client connection: " + e.getMessage());
-      }
-    }
+  HashedTimingWheel getTimer() {
+    return timer;
   }
 
   /**
-   * Checks if a user is currently connected to the server.
+   * Returns how long a client may stay silent before it is pinged.
    *
-   * @param username the username to check
-   * @return {@code true} if the user is connected; {@code false} otherwise
+   * @return the heartbeat interval in milliseconds
    */
-  public boolean isUserConnected(String username) {
-    for (ClientHandler c : clients) {
-      if (username.equalsIgnoreCase(c.getUsername())) {
-        return true;
-      }
-    }
-    return false;
+  public long getHeartbeatIntervalMillis() {
+    return heartbeatIntervalMillis;
   }
 
   /**
-   * Retrieves the {@link ClientHandler} for the specified username.
+   * Changes how long a client may stay silent before it is pinged. Takes effect at each client's
+   * next idle check.
    *
-   * @param username the username of the client
-   * @return the {@code ClientHandler} if the user is found; {@code null} otherwise
+   * @param heartbeatIntervalMillis the new heartbeat interval in milliseconds
    */
-  public ClientHandler getClientByUsername(String username) {
-    for (ClientHandler c : clients) {
-      if (username.equalsIgnoreCase(c.getUsername())) {
-        return c;
-      }
-    }
-    return null;
+  public void setHeartbeatIntervalMillis(long heartbeatIntervalMillis) {
+    this.heartbeatIntervalMillis = heartbeatIntervalMillis;
   }
 
   /**
-   * Broadcasts a message to all connected clients.
-   * <p>
-   * If the sender is invalid or the message content is empty, a failure message is sent to the
-   * sender instead.
+   * Returns how long a client may stay silent before it is disconnected.
    *
-   * @param message the {@link BroadcastMessage} to broadcast
+   * @return the idle timeout in milliseconds
    */
-  public void broadcastMessage(BroadcastMessage message) {
-    if (!isUserConnected(message.getSender())) {
-      sendFailedMessageTo(message.getSender(), invalidSender);
-      return;
-    }
-    if (message.getContent().isEmpty()) {
-      sendFailedMessageTo(message.getSender(), "Broadcast " + emptyMessage);
-      return;
-    }
-    for (ClientHandler client : clients) {
-      try {
-        client.sendMessage(message);
-      } catch (IOException e) {
-        System.err.println(broadcastFailed + client.getUsername());
-      }
-    }
+  public long getIdleTimeoutMillis() {
+    return idleTimeoutMillis;
   }
 
   /**
-   * Sends a direct message to a specific recipient.
-   * <p>
-   * If the sender or recipient is invalid, or if the message content is empty, a failure message is
-   * sent to the sender instead.
+   * Changes how long a client may stay silent before it is disconnected. Takes effect at each
+   * client's next idle check.
    *
-   * @param message the {@link DirectMessage} to send
+   * @param idleTimeoutMillis the new idle timeout in milliseconds
    */
-  public void sendDirectMessage(DirectMessage message) {
-    if (!isUserConnected(message.getSender())) {
-      sendFailedMessageTo(message.getSender(), invalidSender);
-      return;
-    }
-    if (!isUserConnected(message.getRecipient())) {
-      sendFailedMessageTo(message.getSender(), invalidRecipient);
-      return;
-    }
-    if (message.getContent().isEmpty()) {
-      sendFailedMessageTo(message.getSender(), "Direct " + emptyMessage);
-      return;
-    }
+  public void setIdleTimeoutMillis(long idleTimeoutMillis) {
+    this.idleTimeoutMillis = idleTimeoutMillis;
+  }
 
-    ClientHandler recipientHandler = getClientByUsername(message.getRecipient());
-    if (recipientHandler != null) {
-      try {
-        recipientHandler.sendMessage(message);
-      } catch (IOException e) {
-        System.err.println(directFailed + recipientHandler.getUsername());
+  /**
+   * Reports whether TCP connections disable Nagle's algorithm.
+   *
+   * @return {@code true} if TCP_NODELAY is set on accepted connections
+   */
+  public boolean isTcpNoDelay() {
+    return tcpNoDelay;
+  }
+
+  /**
+   * Changes whether TCP connections disable Nagle's algorithm. Applies to connections accepted
+   * afterwards.
+   *
+   * @param tcpNoDelay whether to set TCP_NODELAY on accepted connections
+   */
+  public void setTcpNoDelay(boolean tcpNoDelay) {
+    this.tcpNoDelay = tcpNoDelay;
+  }
+
+  /**
+   * Returns the size requested for each TCP connection's send buffer.
+   *
+   * @return the send buffer size in bytes, or {@code 0} for the operating system's default
+   */
+  public int getSendBufferBytes() {
+    return sendBufferBytes;
+  }
+
+  /**
+   * Changes the size requested for each TCP connection's send buffer. Applies to connections
+   * accepted afterwards; the operating system may round or cap the size.
+   *
+   * @param sendBufferBytes the send buffer size in bytes, or {@code 0} for the default
+   */
+  public void setSendBufferBytes(int sendBufferBytes) {
+    this.sendBufferBytes = sendBufferBytes;
+  }
+
+  /**
+   * Returns how long a new connection has to complete its handshake.
+   *
+   * @return the handshake timeout in milliseconds
+   */
+  public long getHandshakeTimeoutMillis() {
+    return handshakeTimeoutMillis;
+  }
+
+  /**
+   * Changes how long a new connection has to complete its handshake. Applies to connections
+   * accepted afterwards.
+   *
+   * @param handshakeTimeoutMillis the new handshake timeout in milliseconds
+   */
+  public void setHandshakeTimeoutMillis(long handshakeTimeoutMillis) {
+    this.handshakeTimeoutMillis = handshakeTimeoutMillis;
+  }
+
+  /**
+   * Returns how long the rest of a frame may take to arrive once its first byte has been read.
+   *
+   * @return the frame read timeout in milliseconds
+   */
+  public long getFrameReadTimeoutMillis() {
+    return frameReadTimeoutMillis;
+  }
+
+  /**
+   * Changes how long the rest of a frame may take to arrive once its first byte has been read.
+   * Applies from each client's next frame.
+   *
+   * @param frameReadTimeoutMillis the new frame read timeout in milliseconds
+   */
+  public void setFrameReadTimeoutMillis(long frameReadTimeoutMillis) {
+    this.frameReadTimeoutMillis = frameReadTimeoutMillis;
+  }
+
+  /**
+   * Returns the number of connections that may be waiting to complete their handshake at once.
+   *
+   * @return the half-open connection limit
+   */
+  public int getMaxHalfOpenConnections() {
+    return maxHalfOpenConnections;
+  }
+
+  /**
+   * Changes the number of connections that may be waiting to complete their handshake at once.
+   * Lowering it does not close any connection.
+   *
+   * @param maxHalfOpenConnections the new half-open connection limit
+   */
+  public void setMaxHalfOpenConnections(int maxHalfOpenConnections) {
+    this.maxHalfOpenConnections = maxHalfOpenConnections;
+  }
+
+  /**
+   * Returns the number of messages read from a client that may wait for the scheduler.
+   *
+   * @return the inbound queue capacity
+   */
+  public int getInboundQueueCapacity() {
+    return inboundQueueCapacity;
+  }
+
+  /**
+   * Changes the number of messages read from a client that may wait for the scheduler. Applies to
+   * clients that connect afterwards.
+   *
+   * @param inboundQueueCapacity the new inbound queue capacity
+   */
+  public void setInboundQueueCapacity(int inboundQueueCapacity) {
+    this.inboundQueueCapacity = inboundQueueCapacity;
+  }
+
+  /**
+   * Records that a connection counted as half-open has completed its handshake or closed.
+   */
+  void halfOpenClosed() {
+    halfOpen.decrementAndGet();
+  }
+
+  /**
+   * Returns the number of accepted connections that have not yet completed their handshake.
+   *
+   * @return the half-open connection count
+   */
+  public int getHalfOpenCount() {
+    return halfOpen.get();
+  }
+
+  /**
+   * Returns the scheduler that processes the frames read from clients.
+   *
+   * @return the server's fair scheduler
+   */
+  FairScheduler getScheduler() {
+    return scheduler;
+  }
+
+  /**
+   * Returns the server-wide budget for bytes queued to clients, for example to read its usage or
+   * change its limit.
+   *
+   * @return the server's outbound memory budget
+   */
+  public OutboundMemoryBudget getOutboundMemory() {
+    return outboundMemory;
+  }
+
+  /**
+   * Subscribes a client to presence updates. The client is sent a {@link PresenceSnapshot} of the
+   * current version immediately and receives a {@link PresenceDelta} for every later batch of
+   * joins and leaves. The snapshot is queued before the client is added to the subscribers, and
+   * the client is only added if no batch was announced meanwhile, so it always reaches the client
+   * before any delta with a higher version; otherwise a fresh snapshot is sent. The snapshot is
+   * sent without holding the presence lock, since sending may wait for a slow client.
+   *
+   * @param clientHandler the subscribing client
+   * @throws IOException if the snapshot cannot be sent
+   */
+  void subscribePresence(ClientHandler clientHandler) throws IOException {
+    while (true) {
+      long version;
+      synchronized (presenceLock) {
+        version = presenceVersion;
+      }
+      clientHandler.sendMessage(directory.snapshot().toPresenceSnapshot(version));
+      synchronized (presenceLock) {
+        if (presenceVersion == version) {
+          presenceSubscribers.add(clientHandler);
+          presenceView = List.copyOf(presenceSubscribers);
+          return;
+        }
       }
     }
   }
 
   /**
-   * Sends an insult message to a specific recipient.
-   * <p>
-   * If the sender or recipient is invalid, a failure message is sent to the sender. Otherwise, a
-   * random insult is generated and sent as a direct message.
+   * Returns the clients subscribed to presence updates.
    *
-   * @param message the {@link SendInsult} message containing the sender and recipient
+   * @return an immutable copy of the presence subscribers, read without locking
    */
-  public void sendInsult(SendInsult message) {
-    if (!isUserConnected(message.getSender())) {
-      sendFailedMessageTo(message.getSender(), invalidSender);
-      return;
-    }
-    if (!isUserConnected(message.getRecipient())) {
-      sendFailedMessageTo(message.getSender(), invalidRecipient);
-      return;
+  List<ClientHandler> getPresenceSubscribers() {
+    return presenceView;
+  }
+
+  /**
+   * Announces a batch of joins and leaves. Called only by the {@link PresenceCoalescer}, which
+   * delivers one batch at a time, so deltas are published in version order even though the bus is
+   * only published to after the presence lock is released: a full bus must be able to drain
+   * through the route stage while this thread waits.
+   */
+  private void announcePresence(List<String> joined, List<String> left) {
+    broadcastMessage(new BroadcastMessage(ChatRoomConstants.SERVER_NAME,
+        PresenceCoalescer.format(joined, left)));
+    long version;
+    synchronized (presenceLock) {
+      version = ++presenceVersion;
     }
+    messageBus.publish(null, new PresenceDelta(version, joined, left));
+  }
 
-    String insult = new RandomSentenceGenerator().generateInsult();
-    DirectMessage dm = new DirectMessage(message.getSender(), message.getRecipient(), insult);
-    sendDirectMessage(dm);
+  private static ClientShard[] createShards(int count, int mailboxCapacity) {
+    ClientShard[] created = new ClientShard[count];
+    for (int i = 0; i < count; i++) {
+      created[i] = new ClientShard(i, mailboxCapacity);
+    }
+    return created;
   }
 
   /**
-   * Sends a failure message to a specific client.
+   * Returns the directory that caches the encoded list of connected users.
    *
-   * @param username the username of the client to notify
-   * @param reason   the reason for the failure
+   * @return the server's user directory
    */
-  public void sendFailedMessageTo(String username, String reason) {
-    ClientHandler ch = getClientByUsername(username);
-    if (ch != null) {
-      try {
-        ch.sendMessage(new FailedMessage(reason));
-      } catch (IOException e) {
-        System.err.println(failedFailed + username);
-      }
-    }
+  public UserDirectory getUserDirectory() {
+    return directory;
   }
 
   /**
-   * Removes a client from the server and notifies other clients of the disconnection.
+   * Answers a user listing request. A query for the whole list is served from the directory's
+   * cached snapshot; a paged or filtered query is served from its sorted index, with the page size
+   * capped at {@link ChatRoomConstants#MAX_USER_PAGE_SIZE}.
    *
-   * @param clientHandler the {@link ClientHandler} of the client to remove
+   * @param query     the listing request
+   * @param requester the requesting user, who is left out of the listing
+   * @return the response to send
    */
-  public void removeClient(ClientHandler clientHandler) {
-    clients.remove(clientHandler);
-    if (clientHandler.getUsername() != null) {
-      BroadcastMessage leaveMsg = new BroadcastMessage("Server",
-          clientHandler.getUsername() + " has left the chat.");
-      for (ClientHandler c : clients) {
-        try {
-          c.sendMessage(leaveMsg);
-        } catch (IOException e) {
-          System.err.println(removeFailed);
-        }
-      }
+  BaseMessage listUsers(QueryConnectedUsers query, String requester) {
+    if (query.isUnpaged()) {
+      return directory.snapshot().toUserList(requester);
     }
+    int limit = query.getLimit();
+    if (limit <= 0 || limit > ChatRoomConstants.MAX_USER_PAGE_SIZE) {
+      limit = ChatRoomConstants.MAX_USER_PAGE_SIZE;
+    }
+    return directory.page(query.getPrefix(), query.getCursor(), limit, requester);
   }
 
   /**
@@ -237,15 +1331,388 @@ public class ChatRoomServer {
    * The main entry point for the chat room server. Initializes the server on the specified port and
    * starts accepting client connections.
    *
-   * @param args command-line arguments (not used)
+   * Settings are read from the file named by the {@code chatroom.config} system property, if
+   * any, which is then watched for changes, and from {@code chatroom.*} system properties; see
+   * {@link ServerConfig}.
+   *
+   * @param args command-line arguments: optionally, the path of a Unix domain socket to listen on
+   *             as well
    */
   public static void main(String[] args) {
     try {
-      ChatRoomServer server = new ChatRoomServer(ChatRoomConstants.SERVER_PORT);
+      String configFile = System.getProperty(ChatRoomConstants.CONFIG_FILE_PROPERTY);
+      Path configPath = configFile == null ? null : Path.of(configFile);
+      Builder builder = builder().config(ServerConfig.load(configPath));
+      if (configPath != null) {
+        builder.watchConfig(configPath);
+      }
+      if (args.length > 0) {
+        builder.unixSocketPath(Path.of(args[0]));
+      }
+      ChatRoomServer server = builder.build();
+      Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+        server.stop(ChatRoomConstants.SHUTDOWN_DRAIN_MILLIS, TimeUnit.MILLISECONDS);
+        try {
+          server.awaitTermination(ChatRoomConstants.SHUTDOWN_DRAIN_MILLIS + 1000,
+              TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }));
       server.startServer();
     } catch (IOException e) {
       e.printStackTrace();
     }
   }
 
+  /**
+   * The {@code Builder} class configures a {@link ChatRoomServer} for embedding, for example in
+   * tests, where the server should listen on an ephemeral port and callers need to know when it is
+   * ready instead of sleeping.
+   */
+  public static class Builder {
+
+    private int port = ChatRoomConstants.SERVER_PORT;
+    private MessageBus messageBus;
+    private RateLimitPolicy rateLimitPolicy;
+    private OutboundQueue.OverflowPolicy outboundPolicy;
+    private long outboundBudgetBytes = -1;
+    private long heartbeatIntervalMillis = -1;
+    private long idleTimeoutMillis = -1;
+    private Path unixSocketPath;
+    private Path sharedMemoryDirectory;
+    private int acceptors;
+    private boolean reusePort;
+    private int maxClients = -1;
+    private int maxConnectionsPerSource = -1;
+    private double acceptRatePerSecond = -1;
+    private int acceptBurst;
+    private double sourceAcceptRatePerSecond = -1;
+    private int sourceAcceptBurst;
+    private Boolean tcpNoDelay;
+    private int sendBufferBytes = -1;
+    private ServerConfig config;
+    private Path configFile;
+
+    private Builder() {
+    }
+
+    /**
+     * Sets the port to listen on. Use {@code 0} to let the operating system choose a free port.
+     *
+     * @param port the port number
+     * @return this builder
+     */
+    public Builder port(int port) {
+      this.port = port;
+      return this;
+    }
+
+    /**
+     * Sets the bus that client traffic is routed through, instead of the default ring buffer.
+     *
+     * @param messageBus the message bus
+     * @return this builder
+     */
+    public Builder messageBus(MessageBus messageBus) {
+      this.messageBus = messageBus;
+      return this;
+    }
+
+    /**
+     * Sets the rate limits applied to messages from each client.
+     *
+     * @param rateLimitPolicy the rate limit policy
+     * @return this builder
+     */
+    public Builder rateLimitPolicy(RateLimitPolicy rateLimitPolicy) {
+      this.rateLimitPolicy = rateLimitPolicy;
+      return this;
+    }
+
+    /**
+     * Sets what a client's outbound queue does when the client falls behind.
+     *
+     * @param outboundPolicy the overflow policy
+     * @return this builder
+     */
+    public Builder outboundPolicy(OutboundQueue.OverflowPolicy outboundPolicy) {
+      this.outboundPolicy = outboundPolicy;
+      return this;
+    }
+
+    /**
+     * Sets the number of bytes that may be queued for a single client.
+     *
+     * @param outboundBudgetBytes the per-client outbound budget
+     * @return this builder
+     */
+    public Builder outboundBudgetBytes(long outboundBudgetBytes) {
+      this.outboundBudgetBytes = outboundBudgetBytes;
+      return this;
+    }
+
+    /**
+     * Sets how long a client may stay silent before it is pinged.
+     *
+     * @param heartbeatIntervalMillis the heartbeat interval in milliseconds
+     * @return this builder
+     */
+    public Builder heartbeatIntervalMillis(long heartbeatIntervalMillis) {
+      this.heartbeatIntervalMillis = heartbeatIntervalMillis;
+      return this;
+    }
+
+    /**
+     * Sets how long a client may stay silent before it is disconnected.
+     *
+     * @param idleTimeoutMillis the idle timeout in milliseconds
+     * @return this builder
+     */
+    public Builder idleTimeoutMillis(long idleTimeoutMillis) {
+      this.idleTimeoutMillis = idleTimeoutMillis;
+      return this;
+    }
+
+    /**
+     * Makes the server also listen on a Unix domain socket, for clients on the same host.
+     *
+     * @param unixSocketPath the path of the socket file to create
+     * @return this builder
+     */
+    public Builder unixSocketPath(Path unixSocketPath) {
+      this.unixSocketPath = unixSocketPath;
+      return this;
+    }
+
+    /**
+     * Makes the server also accept shared-memory clients that create ring files in a directory.
+     *
+     * @param sharedMemoryDirectory the directory to watch
+     * @return this builder
+     */
+    public Builder sharedMemoryDirectory(Path sharedMemoryDirectory) {
+      this.sharedMemoryDirectory = sharedMemoryDirectory;
+      return this;
+    }
+
+    /**
+     * Sets the number of threads accepting connections.
+     *
+     * @param acceptors the acceptor count, at least one
+     * @return this builder
+     * @throws IllegalArgumentException if {@code acceptors} is less than one
+     */
+    public Builder acceptors(int acceptors) {
+      if (acceptors < 1) {
+        throw new IllegalArgumentException("At least one acceptor is required: " + acceptors);
+      }
+      this.acceptors = acceptors;
+      return this;
+    }
+
+    /**
+     * Makes every acceptor bind its own socket to the port with SO_REUSEPORT, so that the kernel
+     * balances incoming connections across them. Ignored where the option is not supported.
+     *
+     * @param reusePort whether to bind one socket per acceptor
+     * @return this builder
+     */
+    public Builder reusePort(boolean reusePort) {
+      this.reusePort = reusePort;
+      return this;
+    }
+
+    /**
+     * Sets the maximum number of open connections, instead of
+     * {@link ChatRoomConstants#MAX_CLIENTS}.
+     *
+     * @param maxClients the server's capacity
+     * @return this builder
+     */
+    public Builder maxClients(int maxClients) {
+      this.maxClients = maxClients;
+      return this;
+    }
+
+    /**
+     * Sets the maximum number of open connections from one IP address, instead of
+     * {@link ChatRoomConstants#MAX_CONNECTIONS_PER_SOURCE}.
+     *
+     * @param maxConnectionsPerSource the per-source connection limit
+     * @return this builder
+     */
+    public Builder maxConnectionsPerSource(int maxConnectionsPerSource) {
+      this.maxConnectionsPerSource = maxConnectionsPerSource;
+      return this;
+    }
+
+    /**
+     * Sets the rate at which connections are accepted from all sources together.
+     *
+     * @param ratePerSecond the sustained number of connections per second
+     * @param burst         the number of connections accepted at once
+     * @return this builder
+     */
+    public Builder acceptRate(double ratePerSecond, int burst) {
+      this.acceptRatePerSecond = ratePerSecond;
+      this.acceptBurst = burst;
+      return this;
+    }
+
+    /**
+     * Sets the rate at which connections are accepted from each IP address.
+     *
+     * @param ratePerSecond the sustained number of connections per second from one address
+     * @param burst         the number of connections accepted at once from one address
+     * @return this builder
+     */
+    public Builder sourceAcceptRate(double ratePerSecond, int burst) {
+      this.sourceAcceptRatePerSecond = ratePerSecond;
+      this.sourceAcceptBurst = burst;
+      return this;
+    }
+
+    /**
+     * Takes every setting from a configuration. Settings made on this builder afterwards override
+     * the configuration's.
+     *
+     * @param config the configuration
+     * @return this builder
+     */
+    public Builder config(ServerConfig config) {
+      this.config = config;
+      port = config.getPort();
+      acceptors = config.getAcceptors();
+      reusePort = config.isReusePort();
+      unixSocketPath = config.getUnixSocketPath();
+      sharedMemoryDirectory = config.getSharedMemoryDirectory();
+      maxClients = config.getMaxClients();
+      maxConnectionsPerSource = config.getMaxConnectionsPerSource();
+      rateLimitPolicy = config.getRateLimitPolicy();
+      outboundPolicy = config.getOutboundPolicy();
+      outboundBudgetBytes = config.getOutboundBudgetBytes();
+      heartbeatIntervalMillis = config.getHeartbeatIntervalMillis();
+      idleTimeoutMillis = config.getIdleTimeoutMillis();
+      acceptRatePerSecond = config.getAcceptRatePerSecond();
+      acceptBurst = config.getAcceptRateBurst();
+      sourceAcceptRatePerSecond = config.getSourceAcceptRatePerSecond();
+      sourceAcceptBurst = config.getSourceAcceptRateBurst();
+      tcpNoDelay = config.isTcpNoDelay();
+      sendBufferBytes = config.getSendBufferBytes();
+      return this;
+    }
+
+    /**
+     * Sets whether TCP connections disable Nagle's algorithm, instead of
+     * {@link ChatRoomConstants#TCP_NO_DELAY}.
+     *
+     * @param tcpNoDelay whether to set TCP_NODELAY on accepted connections
+     * @return this builder
+     */
+    public Builder tcpNoDelay(boolean tcpNoDelay) {
+      this.tcpNoDelay = tcpNoDelay;
+      return this;
+    }
+
+    /**
+     * Sets the size requested for each TCP connection's send buffer.
+     *
+     * @param sendBufferBytes the send buffer size in bytes, or {@code 0} for the default
+     * @return this builder
+     */
+    public Builder sendBufferBytes(int sendBufferBytes) {
+      this.sendBufferBytes = sendBufferBytes;
+      return this;
+    }
+
+    /**
+     * Makes the server reload a configuration file whenever it changes, applying the settings
+     * that can change at run time. The file is not read when the server is built; pass its
+     * contents to {@link #config(ServerConfig)} for that.
+     *
+     * @param configFile the properties file to watch
+     * @return this builder
+     */
+    public Builder watchConfig(Path configFile) {
+      this.configFile = configFile;
+      return this;
+    }
+
+    /**
+     * Creates and binds the server without starting it.
+     *
+     * @return the configured server
+     * @throws IOException if the server socket cannot be bound
+     */
+    public ChatRoomServer build() throws IOException {
+      ChatRoomServer server = new ChatRoomServer(port, messageBus, reusePort,
+          config != null ? config : ServerConfig.defaults());
+      if (config != null) {
+        config.apply(server);
+      }
+      if (acceptors > 0) {
+        server.setAcceptorCount(acceptors);
+      }
+      if (rateLimitPolicy != null) {
+        server.setRateLimitPolicy(rateLimitPolicy);
+      }
+      if (outboundPolicy != null) {
+        server.setOutboundPolicy(outboundPolicy);
+      }
+      if (outboundBudgetBytes >= 0) {
+        server.setOutboundBudgetBytes(outboundBudgetBytes);
+      }
+      if (heartbeatIntervalMillis >= 0) {
+        server.setHeartbeatIntervalMillis(heartbeatIntervalMillis);
+      }
+      if (idleTimeoutMillis >= 0) {
+        server.setIdleTimeoutMillis(idleTimeoutMillis);
+      }
+      if (tcpNoDelay != null) {
+        server.setTcpNoDelay(tcpNoDelay);
+      }
+      if (sendBufferBytes >= 0) {
+        server.setSendBufferBytes(sendBufferBytes);
+      }
+      AdmissionControl admission = server.getAdmissionControl();
+      if (maxClients >= 0) {
+        admission.setMaxConnections(maxClients);
+      }
+      if (maxConnectionsPerSource >= 0) {
+        admission.setMaxConnectionsPerSource(maxConnectionsPerSource);
+      }
+      if (acceptRatePerSecond >= 0) {
+        admission.setAcceptRate(acceptRatePerSecond, acceptBurst);
+      }
+      if (sourceAcceptRatePerSecond >= 0) {
+        admission.setSourceAcceptRate(sourceAcceptRatePerSecond, sourceAcceptBurst);
+      }
+      try {
+        if (configFile != null) {
+          server.watchConfig(configFile, config != null ? config : ServerConfig.defaults());
+        }
+        if (unixSocketPath != null) {
+          server.listenUnix(unixSocketPath);
+        }
+        if (sharedMemoryDirectory != null) {
+          server.listenSharedMemory(sharedMemoryDirectory);
+        }
+      } catch (IOException e) {
+        server.stop(0, TimeUnit.MILLISECONDS);
+        throw e;
+      }
+      return server;
+    }
+
+    /**
+     * Creates, binds and starts the server.
+     *
+     * @return a handle for the running server
+     * @throws IOException if the server socket cannot be bound
+     */
+    public ServerHandle start() throws IOException {
+      return build().startEmbedded();
+    }
+  }
 }
@@ -1,25 +1,88 @@
 import java.io.*;
 import java.net.*;
-import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * The {@code ClientHandler} class represents a handler for an individual client in the chat room
  * system. It manages communication with the client, processes incoming messages, and ensures proper
  * message routing.
  * <p>
- * This class runs in its own thread to handle communication with a specific client. It interacts
- * with the {@link ChatRoomServer} to broadcast messages, handle direct messages, and manage user
- * connections.
+ * This class runs in its own thread to read from a specific client. Frames read after the
+ * handshake are not handled on that thread: they are placed on a small per-client inbound queue
+ * and processed by the server's {@link FairScheduler}, which gives every client with pending
+ * frames a turn of at most {@link ChatRoomConstants#FRAMES_PER_TURN} frames in round-robin order.
+ * When the inbound queue is full the reader stops reading, so a client pipelining frames faster
+ * than its turns allow is slowed down by TCP flow control. Chat traffic is then published on the
+ * server's {@link MessageBus}; connection management and user queries are answered directly.
+ * <p>
+ * Every message after the handshake is checked against the server's {@link RateLimitPolicy}
+ * before it is handled, so a flooding client is rejected or slowed down before its traffic
+ * reaches the bus.
+ * <p>
+ * Outgoing frames are never written by the thread that produces them. They are placed on the
+ * client's {@link OutboundQueue} and written by a separate writer thread, so a client that stops
+ * reading only fills its own queue, and the server's overflow policy decides what happens next.
+ * <p>
+ * Deadlines guard the reader against clients that connect but send nothing, or send frames a
+ * byte at a time: the handshake must complete within the server's
+ * {@link ChatRoomServer#getHandshakeTimeoutMillis() handshake timeout}, and once the first byte of
+ * a frame arrives the rest must follow within its
+ * {@link ChatRoomServer#getFrameReadTimeoutMillis() frame read timeout}. Deadlines are
+ * kept on the server's {@link HashedTimingWheel}; when one expires the socket is closed, which
+ * ends the blocked read.
+ * <p>
+ * The same wheel detects dead peers. Every frame read records the time of the client's last
+ * activity, which costs a single volatile write. One idle check per client is kept on the wheel;
+ * when it fires it compares the last activity with the server's heartbeat interval and idle
+ * timeout, sends a {@link Ping} to a client that has gone quiet, closes one that has stayed
+ * silent too long, and otherwise reschedules itself for the next point at which the client could
+ * become idle.
+ * <p>
+ * A gateway proxying many users can multiplex them over its own connection with
+ * {@link MuxFrame}s. Each logical session is a {@code ClientHandler} of its own, with its own
+ * username, rate limit, inbound queue and scheduler turn, but no socket and no threads: the
+ * gateway's reader hands the session its frames, and the session's outgoing frames are wrapped
+ * and queued on the gateway's {@link OutboundQueue}. So that one session cannot stall the
+ * gateway's reader, and with it every other session, a session never waits: a frame that finds
+ * its inbound queue full, or its rate limit exhausted, is dropped with a failure notice. Sessions
+ * count against the server's capacity like any other client. Sessions end when they log off or
+ * when their gateway disconnects.
  */
-public class ClientHandler implements Runnable {
+public class ClientHandler implements Runnable, FairScheduler.Source {
 
-  private final Socket clientSocket;
+  private final Connection connection;
   private final ChatRoomServer server;
   private DataInputStream in;
   private DataOutputStream out;
   private String username;
-  private boolean connected = false;
+  private volatile boolean connected = false;
+  private ClientShard shard;
+  private int shardSlot = -1;
+  private int registrySegment = -1;
+  private int registrySlot = -1;
+  private RateLimiter rateLimiter;
+  private OutboundQueue outbound;
+  private Thread writer;
+  private final BlockingQueue<BaseMessage> inbound;
+  private FairScheduler.Registration turn;
+  private volatile Thread turnThread;
+  private volatile boolean paused;
+  private final AtomicBoolean cleanedUp = new AtomicBoolean();
+  private final AtomicBoolean halfOpen = new AtomicBoolean();
+  private volatile boolean admitted;
+  private PushbackInputStream rawIn;
+  private HashedTimingWheel.Timeout handshakeDeadline;
+  private volatile long lastActivity;
+  private volatile boolean pinged;
+  private final ClientHandler gateway;
+  private final int sessionId;
+  private final Map<Integer, ClientHandler> sessions = new ConcurrentHashMap<>();
 
   /**
    * Constructs a {@code ClientHandler} for a specific client socket and server.
@@ -28,8 +91,49 @@ public class ClientHandler implements Runnable {
    * @param server       the {@link ChatRoomServer} managing this client handler
    */
   public ClientHandler(Socket clientSocket, ChatRoomServer server) {
-    this.clientSocket = clientSocket;
+    this(clientSocket == null ? null : new SocketConnection(clientSocket), server);
+  }
+
+  /**
+   * Constructs a {@code ClientHandler} for a client reached over any {@link Connection}, such as
+   * an in-process {@link LoopbackConnection}.
+   *
+   * @param connection the connection used to communicate with the client
+   * @param server     the {@link ChatRoomServer} managing this client handler
+   */
+  public ClientHandler(Connection connection, ChatRoomServer server) {
+    this.connection = connection;
     this.server = server;
+    gateway = null;
+    sessionId = 0;
+    inbound = new ArrayBlockingQueue<>(server == null
+        ? ChatRoomConstants.INBOUND_QUEUE_CAPACITY : server.getInboundQueueCapacity());
+  }
+
+  private ClientHandler(ClientHandler gateway, int sessionId) {
+    connection = null;
+    server = gateway.server;
+    this.gateway = gateway;
+    this.sessionId = sessionId;
+    inbound = new ArrayBlockingQueue<>(server.getInboundQueueCapacity());
+  }
+
+  /**
+   * Reports whether this handler is a logical session multiplexed over a gateway's connection.
+   *
+   * @return {@code true} for a multiplexed session
+   */
+  boolean isSession() {
+    return gateway != null;
+  }
+
+  /**
+   * Returns the gateway connection this session is multiplexed over.
+   *
+   * @return the gateway's handler, or {@code null} if this handler has its own connection
+   */
+  ClientHandler getGateway() {
+    return gateway;
   }
 
   /**
@@ -41,36 +145,200 @@ public class ClientHandler implements Runnable {
     return username;
   }
 
+  /**
+   * Returns the shard responsible for delivering messages to this client.
+   *
+   * @return the client's shard, or {@code null} if none has been assigned
+   */
+  ClientShard getShard() {
+    return shard;
+  }
+
+  /**
+   * Assigns the shard responsible for delivering messages to this client.
+   *
+   * @param shard the shard that owns this client
+   */
+  void setShard(ClientShard shard) {
+    this.shard = shard;
+  }
+
+  /**
+   * Returns this client's position in its shard's local client list. Only the shard thread may
+   * read or change it.
+   *
+   * @return the slot index, or {@code -1} if the client is not attached
+   */
+  int getShardSlot() {
+    return shardSlot;
+  }
+
+  /**
+   * Records this client's position in its shard's local client list.
+   *
+   * @param shardSlot the slot index, or {@code -1} once detached
+   */
+  void setShardSlot(int shardSlot) {
+    this.shardSlot = shardSlot;
+  }
+
+  /**
+   * Returns the index of the {@link ClientRegistry} segment holding this client.
+   *
+   * @return the segment index, or {@code -1} if the client is not registered
+   */
+  int getRegistrySegment() {
+    return registrySegment;
+  }
+
+  /**
+   * Returns the slot holding this client within its {@link ClientRegistry} segment.
+   *
+   * @return the slot index, or {@code -1} if the client is not registered
+   */
+  int getRegistrySlot() {
+    return registrySlot;
+  }
+
+  /**
+   * Records where the {@link ClientRegistry} stored this client.
+   *
+   * @param segment the segment index, or {@code -1} once removed
+   * @param slot    the slot index, or {@code -1} once removed
+   */
+  void setRegistrySlot(int segment, int slot) {
+    this.registrySegment = segment;
+    this.registrySlot = slot;
+  }
+
+  /**
+   * Marks this client as accepted but not yet connected and starts its handshake deadline. Called
+   * by the server's accept loop once {@link AdmissionControl} has admitted the connection, which
+   * the server counts as half-open until {@link ChatRoomServer#halfOpenClosed()} is called and as
+   * open until cleanup.
+   */
+  void accepted() {
+    admitted = true;
+    halfOpen.set(true);
+    handshakeDeadline = server.getTimer().schedule(this::closeSocket,
+        server.getHandshakeTimeoutMillis());
+  }
+
+  private void handshakeFinished() {
+    if (halfOpen.compareAndSet(true, false)) {
+      handshakeDeadline.cancel();
+      server.halfOpenClosed();
+    }
+  }
+
+  /**
+   * Reads the next message. The wait for the first byte is unbounded, but once it arrives the
+   * rest of the frame must follow before the frame deadline, or the socket is closed.
+   *
+   * @return the message read
+   * @throws IOException if the frame is malformed, the deadline passes or the connection is lost
+   */
+  private BaseMessage readFrame() throws IOException {
+    int first = rawIn.read();
+    if (first < 0) {
+      throw new EOFException();
+    }
+    rawIn.unread(first);
+    HashedTimingWheel.Timeout deadline = server.getTimer().schedule(this::closeSocket,
+        server.getFrameReadTimeoutMillis());
+    try {
+      BaseMessage message = BaseMessage.readMessage(in);
+      lastActivity = System.nanoTime();
+      pinged = false;
+      return message;
+    } finally {
+      deadline.cancel();
+    }
+  }
+
+  private void scheduleIdleCheck(long delayMillis) {
+    server.getTimer().schedule(this::checkIdle, Math.max(1, delayMillis));
+  }
+
+  /**
+   * Runs on the timer thread. Pings a client that has been quiet for the heartbeat interval and
+   * closes one that has been silent for the idle timeout.
+   */
+  private void checkIdle() {
+    if (!connected) {
+      return;
+    }
+    long idleMillis = (System.nanoTime() - lastActivity) / 1_000_000L;
+    long idleTimeout = server.getIdleTimeoutMillis();
+    long heartbeat = server.getHeartbeatIntervalMillis();
+    if (idleMillis >= idleTimeout) {
+      System.err.println("Closing idle connection for " + username);
+      closeSocket();
+      return;
+    }
+    if (idleMillis >= heartbeat) {
+      if (!pinged) {
+        pinged = true;
+        sendPing();
+      }
+      scheduleIdleCheck(Math.min(heartbeat, idleTimeout - idleMillis));
+    } else {
+      scheduleIdleCheck(heartbeat - idleMillis);
+    }
+  }
+
+  private void sendPing() {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try {
+      new Ping(System.currentTimeMillis()).writeMessage(new DataOutputStream(bytes));
+    } catch (IOException e) {
+      throw new IllegalStateException("Writing to memory cannot fail", e);
+    }
+    outbound.offerIfRoom(bytes.toByteArray(), OutboundQueue.FrameKind.CONTROL);
+  }
+
   /**
    * The main execution method for the client handler.
    * <p>
    * This method handles the following: - Reads the initial {@link ConnectMessage} to establish the
-   * client's username - Processes various message types (broadcast, direct message, disconnect,
-   * etc.) - Ensures the client is cleaned up upon disconnection
+   * client's username - Reads later messages, applies the rate limit and queues them for the
+   * scheduler - Ensures the client is cleaned up upon disconnection
    */
   @Override
   public void run() {
     try {
-      in = new DataInputStream(clientSocket.getInputStream());
-      out = new DataOutputStream(clientSocket.getOutputStream());
+      rawIn = new PushbackInputStream(connection.getInputStream());
+      in = new DataInputStream(rawIn);
+      out = new DataOutputStream(connection.getOutputStream());
+      outbound = new OutboundQueue(out, server.getOutboundPolicy(),
+          server.getOutboundBudgetBytes(), server.getOutboundStats(), server.getOutboundMemory(),
+          this::closeSocket);
+      writer = new Thread(outbound, "writer-" + connection.getRemoteAddress());
+      writer.setDaemon(true);
+      writer.start();
 
       // Expect a ConnectMessage first
-      BaseMessage msg = BaseMessage.readMessage(in);
+      BaseMessage msg = readFrame();
       if (msg instanceof ConnectMessage) {
         ConnectMessage cm = (ConnectMessage) msg;
         String user = cm.getUsername();
-        if (user == null || user.trim().isEmpty() || server.isUserConnected(user)) {
+        if (user == null || user.trim().isEmpty() || !server.claimUsername(user, this)) {
           sendMessage(new ConnectResponse(false, "Invalid or already-taken username."));
           cleanup();
           return;
         }
+        handshakeFinished();
         username = user;
+        rateLimiter = server.getRateLimitPolicy().newLimiter(System.nanoTime());
+        turn = server.getScheduler().register(this);
+        lastActivity = System.nanoTime();
         connected = true;
-        int otherCount = server.getClientUsernames(username).size();
+        scheduleIdleCheck(server.getHeartbeatIntervalMillis());
+        server.clientConnected(this);
+        int otherCount = server.getUserDirectory().size() - 1;
         sendMessage(new ConnectResponse(true,
             "Connected as " + username + ". There are " + otherCount
                 + " other connected clients."));
-        server.broadcastMessage(new BroadcastMessage("Server", username + " has joined the chat."));
       } else {
         sendMessage(new ConnectResponse(false, "No CONNECT_MESSAGE received."));
         cleanup();
@@ -80,63 +348,445 @@ public class ClientHandler implements Runnable {
       while (connected) {
         BaseMessage message;
         try {
-          message = BaseMessage.readMessage(in);
+          message = readFrame();
         } catch (IOException e) {
           break;
         }
 
-        if (message instanceof DisconnectMessage) {
-          DisconnectMessage dm = (DisconnectMessage) message;
-          if (dm.getUsername().equalsIgnoreCase(username)) {
-            sendMessage(new ConnectResponse(true, "You are no longer connected."));
+        if (message instanceof MuxFrame) {
+          MuxFrame frame = (MuxFrame) message;
+          ClientHandler session = sessions.get(frame.getSessionId());
+          if (session == null) {
+            // Opening a session spends the gateway's own allowance, so that unknown session IDs
+            // cannot get around the rate limit. A frame over the limit is dropped unanswered.
+            if (rateLimiter.tryAcquire(frame.getMessageType(), System.nanoTime())) {
+              openSession(frame.getSessionId(), frame.getMessage());
+            }
+          } else if (!session.enqueue(frame.getMessage())) {
             break;
-          } else {
-            sendMessage(new ConnectResponse(false, "Invalid user for disconnect."));
-          }
-        } else if (message instanceof BroadcastMessage) {
-          server.broadcastMessage((BroadcastMessage) message);
-        } else if (message instanceof DirectMessage) {
-          server.sendDirectMessage((DirectMessage) message);
-        } else if (message instanceof QueryConnectedUsers) {
-          QueryConnectedUsers query = (QueryConnectedUsers) message;
-          if (query.getUsername().equalsIgnoreCase(username)) {
-            List<String> others = server.getClientUsernames(username);
-            sendMessage(new QueryUserResponse(others));
-          } else {
-            sendMessage(new FailedMessage("User not recognized or not connected."));
           }
-        } else if (message instanceof SendInsult) {
-          server.sendInsult((SendInsult) message);
-        } else {
-          sendMessage(new FailedMessage("Unknown request."));
+          continue;
+        }
+
+        if (!enqueue(message)) {
+          break;
         }
       }
     } catch (IOException e) {
       System.err.println("Connection lost with " + username);
     } finally {
+      if (!server.isStopping()) {
+        cleanup();
+      }
+    }
+  }
+
+  /**
+   * Applies the rate limit to a message read for this client and queues it for the scheduler.
+   * A multiplexed session shares its reader thread with every other session on the gateway, so
+   * it never waits: a message over the rate, or one that finds the session's queue full, is
+   * rejected instead.
+   *
+   * @param message the message read
+   * @return {@code false} if the reading thread was interrupted
+   * @throws IOException if a rejection cannot be sent
+   */
+  private boolean enqueue(BaseMessage message) throws IOException {
+    if (!(message instanceof DisconnectMessage) && !admit(message)) {
+      return true;
+    }
+    if (gateway != null) {
+      if (!inbound.offer(message)) {
+        sendMessage(new FailedMessage("Too many messages queued; message dropped."));
+        return true;
+      }
+      turn.ready();
+      return true;
+    }
+    try {
+      inbound.put(message);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+    turn.ready();
+    return true;
+  }
+
+  /**
+   * Opens a logical session on this gateway connection. Called by the reader thread for the first
+   * frame carrying an unknown session ID, which must be a {@link ConnectMessage}. The session's
+   * handler is only created once the session has been admitted.
+   *
+   * @param id      the session ID chosen by the gateway
+   * @param message the first message of the session
+   * @throws IOException if the reply cannot be queued
+   */
+  private void openSession(int id, BaseMessage message) throws IOException {
+    if (!(message instanceof ConnectMessage)) {
+      rejectSession(id, "No CONNECT_MESSAGE received.");
+      return;
+    }
+    if (sessions.size() >= ChatRoomConstants.MAX_MUX_SESSIONS) {
+      rejectSession(id, "Too many sessions on this connection.");
+      return;
+    }
+    String user = ((ConnectMessage) message).getUsername();
+    if (user == null || user.trim().isEmpty()) {
+      rejectSession(id, "Invalid or already-taken username.");
+      return;
+    }
+    // A session takes a place in the server's capacity like a connection of its own, so that
+    // a gateway cannot carry more users than the server would accept directly. The per-source
+    // limits are left to the gateway's own connection.
+    AdmissionControl.Decision decision = server.admitSession();
+    if (decision != AdmissionControl.Decision.ADMITTED) {
+      rejectSession(id, decision.getReason());
+      return;
+    }
+    ClientHandler session = new ClientHandler(this, id);
+    session.admitted = true;
+    if (!server.claimUsername(user, session)) {
+      server.sessionClosed();
+      rejectSession(id, "Invalid or already-taken username.");
+      return;
+    }
+    session.username = user;
+    session.rateLimiter = server.getRateLimitPolicy().newLimiter(System.nanoTime());
+    session.turn = server.getScheduler().register(session);
+    session.connected = true;
+    sessions.put(id, session);
+    server.sessionOpened(session);
+    server.clientConnected(session);
+    int otherCount = server.getUserDirectory().size() - 1;
+    session.sendMessage(new ConnectResponse(true,
+        "Connected as " + user + ". There are " + otherCount + " other connected clients."));
+  }
+
+  /**
+   * Refuses to open a session, answering on the session's ID without creating a handler for it.
+   *
+   * @param id     the session ID chosen by the gateway
+   * @param reason the explanation sent to the gateway
+   * @throws IOException if the reply cannot be queued
+   */
+  private void rejectSession(int id, String reason) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    new ConnectResponse(false, reason).writeMessage(new DataOutputStream(bytes));
+    offer(MuxFrame.wrap(id, bytes.toByteArray()), OutboundQueue.FrameKind.CONTROL);
+  }
+
+  /**
+   * Handles up to {@code quota} queued messages. Called by the server's {@link FairScheduler},
+   * never by two threads at once.
+   *
+   * @param quota the maximum number of messages to handle in this turn
+   */
+  @Override
+  public void runTurn(int quota) {
+    turnThread = Thread.currentThread();
+    try {
+      for (int i = 0; i < quota && connected; i++) {
+        if (!mayContinueTurn()) {
+          return;
+        }
+        BaseMessage message = inbound.poll();
+        if (message == null) {
+          return;
+        }
+        try {
+          if (!handle(message)) {
+            stopReading();
+          }
+        } catch (IOException e) {
+          System.err.println("Connection lost with " + username);
+          stopReading();
+        }
+      }
+    } finally {
+      turnThread = null;
+    }
+  }
+
+  @Override
+  public boolean hasPendingWork() {
+    return connected && !paused && !inbound.isEmpty();
+  }
+
+  /**
+   * Checks, before each request, whether the queue the client's replies go to has room. Under
+   * the BLOCK policy a full queue pauses the turn instead of the worker: the turn gives the worker
+   * back, and the writer makes it ready again once the queue has drained.
+   */
+  private boolean mayContinueTurn() {
+    OutboundQueue queue = gateway != null ? gateway.outbound : outbound;
+    if (queue == null) {
+      return true;
+    }
+    paused = true;
+    if (queue.pauseUntilRoom(this::resumeTurn)) {
+      paused = false;
+      return true;
+    }
+    return false;
+  }
+
+  private void resumeTurn() {
+    paused = false;
+    turn.ready();
+  }
+
+  /**
+   * Handles one message from the client.
+   *
+   * @param message the message to handle
+   * @return {@code false} if the client has logged off
+   * @throws IOException if a reply cannot be sent
+   */
+  private boolean handle(BaseMessage message) throws IOException {
+    if (message instanceof DisconnectMessage) {
+      DisconnectMessage dm = (DisconnectMessage) message;
+      if (dm.getUsername().equalsIgnoreCase(username)) {
+        sendMessage(new ConnectResponse(true, "You are no longer connected."));
+        return false;
+      }
+      sendMessage(new ConnectResponse(false, "Invalid user for disconnect."));
+    } else if (message instanceof Ping) {
+      sendMessage(new Pong(((Ping) message).getTimestamp()));
+    } else if (message instanceof Pong) {
+      // The read already recorded the client's activity.
+    } else if (message instanceof SubscribePresence) {
+      if (((SubscribePresence) message).getUsername().equalsIgnoreCase(username)) {
+        server.subscribePresence(this);
+      } else {
+        sendMessage(new FailedMessage("User not recognized or not connected."));
+      }
+    } else if (message instanceof BroadcastMessage
+        && !server.getOutboundMemory().admitBroadcast()) {
+      sendMessage(new FailedMessage("Server is busy; broadcast rejected."));
+    } else if (message instanceof BroadcastMessage || message instanceof DirectMessage
+        || message instanceof SendInsult) {
+      server.getMessageBus().publish(this, message);
+    } else if (message instanceof QueryConnectedUsers) {
+      QueryConnectedUsers query = (QueryConnectedUsers) message;
+      if (query.getUsername().equalsIgnoreCase(username)) {
+        sendMessage(server.listUsers(query, username));
+      } else {
+        sendMessage(new FailedMessage("User not recognized or not connected."));
+      }
+    } else {
+      sendMessage(new FailedMessage("Unknown request."));
+    }
+    return true;
+  }
+
+  /**
+   * Ends the connection from a scheduler thread. Shutting down the socket's input wakes the reader
+   * thread, which then performs the cleanup, so the scheduler never waits for queued frames to be
+   * flushed.
+   */
+  private void stopReading() {
+    connected = false;
+    if (gateway != null) {
       cleanup();
+      return;
+    }
+    try {
+      connection.shutdownInput();
+    } catch (IOException e) {
+      closeSocket();
+    }
+  }
+
+  /**
+   * Stops reading from the client as part of a server shutdown. Frames already read are still
+   * processed, and the reader thread exits without cleaning up, leaving that to the server once it
+   * has delivered everything queued.
+   */
+  void stopInput() {
+    if (gateway != null) {
+      return;
+    }
+    try {
+      connection.shutdownInput();
+    } catch (IOException e) {
+      // The socket is already closed; the reader has exited or is about to.
+    }
+  }
+
+  /**
+   * Queues a last message for the client and closes the outbound queue, so that the writer
+   * thread exits once everything queued has been written.
+   *
+   * @param notice the message to send before closing
+   */
+  void finish(BaseMessage notice) {
+    if (outbound == null) {
+      return;
+    }
+    for (ClientHandler session : sessions.values()) {
+      try {
+        session.sendMessage(notice);
+      } catch (IOException e) {
+        // The gateway is already gone.
+      }
+    }
+    try {
+      sendMessage(notice);
+    } catch (IOException e) {
+      // The client is already gone; there is nothing left to flush.
+    }
+    outbound.close();
+  }
+
+  /**
+   * Waits for the writer thread to flush the outbound queue after {@link #finish(BaseMessage)}.
+   *
+   * @param timeoutMillis the maximum time to wait
+   * @throws InterruptedException if interrupted while waiting
+   */
+  void awaitFlushed(long timeoutMillis) throws InterruptedException {
+    if (writer != null) {
+      writer.join(Math.max(1, timeoutMillis));
     }
   }
 
   /**
-   * Sends a {@link BaseMessage} to the client.
+   * Closes the client's socket, ending any blocked read or write.
+   */
+  void forceClose() {
+    closeSocket();
+  }
+
+  /**
+   * Applies the rate limit to a message read from the client. In
+   * {@link RateLimitPolicy.Mode#REJECT} mode a message over the limit is answered with a
+   * {@link FailedMessage} and dropped; in {@link RateLimitPolicy.Mode#THROTTLE} mode this thread
+   * stops reading from the socket until the message is within the limit.
+   *
+   * @param message the message just read
+   * @return {@code true} if the message should be handled
+   * @throws IOException if the rejection cannot be sent
+   */
+  private boolean admit(BaseMessage message) throws IOException {
+    int type = message.getMessageType();
+    long now = System.nanoTime();
+    if (rateLimiter.tryAcquire(type, now)) {
+      return true;
+    }
+    if (rateLimiter.getMode() == RateLimitPolicy.Mode.REJECT || gateway != null) {
+      sendMessage(new FailedMessage("Rate limit exceeded; message dropped."));
+      return false;
+    }
+    do {
+      LockSupport.parkNanos(rateLimiter.nanosUntilAvailable(type, now));
+      if (Thread.interrupted()) {
+        return false;
+      }
+      now = System.nanoTime();
+    } while (!rateLimiter.tryAcquire(type, now));
+    return true;
+  }
+
+  /**
+   * Sends a {@link BaseMessage} to the client by serializing it and queueing the frame for the
+   * writer thread. Connection responses, failure notices and heartbeats go in the control lane,
+   * ahead of any chat traffic already queued.
    *
    * @param message the message to send
-   * @throws IOException if an I/O error occurs while sending the message
+   * @throws IOException if the connection is closed or the client was disconnected for falling
+   *                     behind
    */
   public void sendMessage(BaseMessage message) throws IOException {
-    message.writeMessage(out);
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    message.writeMessage(new DataOutputStream(bytes));
+    boolean control = message instanceof ConnectResponse || message instanceof FailedMessage
+        || message instanceof Ping || message instanceof Pong;
+    offer(bytes.toByteArray(),
+        control ? OutboundQueue.FrameKind.CONTROL : OutboundQueue.FrameKind.DIRECT);
+  }
+
+  /**
+   * Queues an already serialized message addressed to this client. The same frame may be shared
+   * by many handlers, so it is never modified.
+   *
+   * @param frame the encoded message
+   * @throws IOException if the connection is closed or the client was disconnected for falling
+   *                     behind
+   */
+  public void sendEncoded(byte[] frame) throws IOException {
+    offer(frame, OutboundQueue.FrameKind.DIRECT);
+  }
+
+  /**
+   * Queues an already serialized broadcast. Unlike {@link #sendEncoded(byte[])}, the frame may be
+   * discarded if the client falls behind and the server sheds broadcasts.
+   *
+   * @param frame the encoded message
+   * @throws IOException if the connection is closed or the client was disconnected for falling
+   *                     behind
+   */
+  public void sendBroadcast(byte[] frame) throws IOException {
+    offer(frame, OutboundQueue.FrameKind.BROADCAST);
+  }
+
+  private void offer(byte[] frame, OutboundQueue.FrameKind kind) throws IOException {
+    // Only replies from the client's own turn can be paused; other threads serve many clients.
+    boolean ownTurn = Thread.currentThread() == turnThread;
+    if (gateway != null) {
+      gateway.outbound.offer(MuxFrame.wrap(sessionId, frame), kind, ownTurn);
+    } else {
+      outbound.offer(frame, kind, ownTurn);
+    }
   }
 
   /**
    * Cleans up the client handler by: - Marking the client as disconnected - Removing the client
-   * from the server's list - Closing the socket
+   * from the server's list - Giving the writer thread a short time to flush queued frames -
+   * Closing the socket
    */
   void cleanup() {
+    if (!cleanedUp.compareAndSet(false, true)) {
+      return;
+    }
     connected = false;
+    inbound.clear();
+    for (ClientHandler session : sessions.values()) {
+      session.cleanup();
+    }
+    if (gateway != null) {
+      gateway.sessions.remove(sessionId, this);
+      server.removeClient(this);
+      if (admitted) {
+        server.sessionClosed();
+      }
+      return;
+    }
+    handshakeFinished();
     server.removeClient(this);
+    if (outbound != null) {
+      outbound.close();
+      if (Thread.currentThread() != writer) {
+        try {
+          writer.join(ChatRoomConstants.OUTBOUND_FLUSH_TIMEOUT_MILLIS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    }
+    closeSocket();
+    if (admitted) {
+      server.connectionClosed(connection);
+    }
+  }
+
+  private void closeSocket() {
+    if (connection == null) {
+      // A multiplexed session ends with its gateway's connection.
+      return;
+    }
     try {
-      clientSocket.close();
+      connection.close();
     } catch (IOException e) {
       e.printStackTrace();
     }
@@ -0,0 +1,227 @@
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The {@code ClientRegistry} class tracks the server's client handlers in a structure designed for
+ * both frequent iteration and frequent membership changes.
+ * <p>
+ * Handlers are stored in a fixed number of independently locked segments. Each segment is an
+ * array of slots; removing a handler leaves a tombstone ({@code null}) in its slot and pushes the
+ * slot onto the segment's free list, so joins and leaves cost O(1) instead of copying the whole
+ * registry. A segment only grows, by doubling, when it has no free slot left. Iteration walks the
+ * slot arrays without locking and skips tombstones; it is weakly consistent, never throws
+ * {@link java.util.ConcurrentModificationException}, and sees every handler that was present for
+ * the whole iteration.
+ * <p>
+ * Usernames are indexed separately, case-insensitively, so lookups by name do not scan the
+ * registry and claiming a name is atomic.
+ */
+public class ClientRegistry implements Iterable<ClientHandler> {
+
+  private static final int SEGMENT_COUNT = 16;
+  private static final int INITIAL_SEGMENT_CAPACITY = 16;
+
+  private final Segment[] segments = new Segment[SEGMENT_COUNT];
+  private final AtomicInteger nextSegment = new AtomicInteger();
+  private final AtomicInteger size = new AtomicInteger();
+  private final ConcurrentHashMap<String, ClientHandler> byUsername = new ConcurrentHashMap<>();
+
+  /**
+   * Constructs an empty {@code ClientRegistry}.
+   */
+  public ClientRegistry() {
+    for (int i = 0; i < SEGMENT_COUNT; i++) {
+      segments[i] = new Segment();
+    }
+  }
+
+  /**
+   * Adds a handler to the registry. A handler may only be registered once at a time.
+   *
+   * @param client the handler to add
+   */
+  public void add(ClientHandler client) {
+    int segmentIndex = Math.floorMod(nextSegment.getAndIncrement(), SEGMENT_COUNT);
+    int slot = segments[segmentIndex].add(client);
+    client.setRegistrySlot(segmentIndex, slot);
+    size.incrementAndGet();
+  }
+
+  /**
+   * Removes a handler from the registry and releases its username, if it claimed one.
+   *
+   * @param client the handler to remove
+   * @return {@code true} if the handler was registered
+   */
+  public boolean remove(ClientHandler client) {
+    String username = client.getUsername();
+    if (username != null) {
+      byUsername.remove(key(username), client);
+    }
+    int segmentIndex = client.getRegistrySegment();
+    if (segmentIndex < 0) {
+      return false;
+    }
+    boolean removed = segments[segmentIndex].remove(client, client.getRegistrySlot());
+    if (removed) {
+      client.setRegistrySlot(-1, -1);
+      size.decrementAndGet();
+    }
+    return removed;
+  }
+
+  /**
+   * Atomically associates a username with a handler, unless another handler already holds a name
+   * that is equal ignoring case.
+   *
+   * @param username the username to claim
+   * @param client   the handler claiming it
+   * @return {@code true} if the name was free and now belongs to {@code client}
+   */
+  public boolean claimUsername(String username, ClientHandler client) {
+    return byUsername.putIfAbsent(key(username), client) == null;
+  }
+
+  /**
+   * Returns the handler holding a username, compared ignoring case.
+   *
+   * @param username the username to look up
+   * @return the handler, or {@code null} if no connected client uses the name
+   */
+  public ClientHandler findByUsername(String username) {
+    if (username == null) {
+      return null;
+    }
+    return byUsername.get(key(username));
+  }
+
+  /**
+   * Returns the number of registered handlers, including those that have not yet claimed a
+   * username.
+   *
+   * @return the number of handlers
+   */
+  public int size() {
+    return size.get();
+  }
+
+  /**
+   * Returns the number of handlers that have claimed a username.
+   *
+   * @return the number of named clients
+   */
+  public int usernameCount() {
+    return byUsername.size();
+  }
+
+  /**
+   * Returns a weakly consistent iterator over the registered handlers.
+   *
+   * @return an iterator that skips removed handlers
+   */
+  @Override
+  public Iterator<ClientHandler> iterator() {
+    return new RegistryIterator();
+  }
+
+  private static String key(String username) {
+    return username.toLowerCase(Locale.ROOT);
+  }
+
+  /**
+   * One independently locked array of slots.
+   */
+  private static class Segment {
+
+    private volatile AtomicReferenceArray<ClientHandler> slots =
+        new AtomicReferenceArray<>(INITIAL_SEGMENT_CAPACITY);
+    private int[] free = new int[INITIAL_SEGMENT_CAPACITY];
+    private int freeCount;
+    private int highWater;
+
+    synchronized int add(ClientHandler client) {
+      int slot;
+      if (freeCount > 0) {
+        slot = free[--freeCount];
+      } else {
+        if (highWater == slots.length()) {
+          grow();
+        }
+        slot = highWater++;
+      }
+      slots.set(slot, client);
+      return slot;
+    }
+
+    synchronized boolean remove(ClientHandler client, int slot) {
+      if (slot < 0 || slot >= highWater || slots.get(slot) != client) {
+        return false;
+      }
+      slots.set(slot, null);
+      free[freeCount++] = slot;
+      return true;
+    }
+
+    private void grow() {
+      AtomicReferenceArray<ClientHandler> current = slots;
+      AtomicReferenceArray<ClientHandler> larger =
+          new AtomicReferenceArray<>(current.length() * 2);
+      for (int i = 0; i < current.length(); i++) {
+        larger.set(i, current.get(i));
+      }
+      int[] largerFree = new int[larger.length()];
+      System.arraycopy(free, 0, largerFree, 0, freeCount);
+      free = largerFree;
+      slots = larger;
+    }
+  }
+
+  /**
+   * Walks every segment's slot array, skipping tombstones.
+   */
+  private class RegistryIterator implements Iterator<ClientHandler> {
+
+    private int segment;
+    private int slot;
+    private AtomicReferenceArray<ClientHandler> slots = segments[0].slots;
+    private ClientHandler next;
+
+    RegistryIterator() {
+      advance();
+    }
+
+    private void advance() {
+      next = null;
+      while (next == null) {
+        if (slot < slots.length()) {
+          next = slots.get(slot++);
+        } else if (segment + 1 < SEGMENT_COUNT) {
+          segment++;
+          slots = segments[segment].slots;
+          slot = 0;
+        } else {
+          return;
+        }
+      }
+    }
+
+    @Override
+    public boolean hasNext() {
+      return next != null;
+    }
+
+    @Override
+    public ClientHandler next() {
+      if (next == null) {
+        throw new NoSuchElementException();
+      }
+      ClientHandler current = next;
+      advance();
+      return current;
+    }
+  }
+}
@@ -0,0 +1,190 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BiConsumer;
+
+/**
+ * The {@code ClientShard} class owns the outbound side of a partition of the server's clients.
+ * Each shard runs one thread, keeps its own list of the clients assigned to it, and receives
+ * frames to deliver through an {@link SpscMailbox} whose only producer is the routing pipeline's
+ * write stage.
+ * <p>
+ * A broadcast is therefore posted once per shard rather than once per client, and every shard
+ * writes to its own clients in parallel. Because only the shard thread touches its client list,
+ * joining and leaving require no copying of shared arrays; membership changes are handed to the
+ * shard through a small control queue and applied between batches.
+ */
+public class ClientShard implements Runnable {
+
+  private static final int DRAIN_LIMIT = 256;
+  private static final int SPIN_TRIES = 100;
+  private static final long IDLE_PARK_NANOS = 100_000_000L;
+  private static final long FULL_PARK_NANOS = 50_000L;
+
+  private final int id;
+  private final SpscMailbox mailbox;
+  private final Queue<Runnable> control = new ConcurrentLinkedQueue<>();
+  private final List<ClientHandler> locals = new ArrayList<>();
+  private final BiConsumer<ClientHandler, byte[]> writer = this::write;
+  private final Thread thread;
+  private volatile boolean waiting;
+  private volatile boolean running = true;
+
+  /**
+   * Constructs a {@code ClientShard} and starts its thread.
+   *
+   * @param id              the index of this shard, used in its thread name
+   * @param mailboxCapacity the capacity of the shard's mailbox; must be a power of two
+   */
+  public ClientShard(int id, int mailboxCapacity) {
+    this.id = id;
+    mailbox = new SpscMailbox(mailboxCapacity);
+    thread = new Thread(this, "shard-" + id);
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * Adds a client to this shard. Called from the client's own thread once it has connected.
+   *
+   * @param client the client to add
+   */
+  public void attach(ClientHandler client) {
+    control.offer(() -> {
+      client.setShardSlot(locals.size());
+      locals.add(client);
+    });
+    wake();
+  }
+
+  /**
+   * Removes a client from this shard. Frames already posted for the client may still be written.
+   *
+   * @param client the client to remove
+   */
+  public void detach(ClientHandler client) {
+    control.offer(() -> {
+      int slot = client.getShardSlot();
+      if (slot < 0 || slot >= locals.size() || locals.get(slot) != client) {
+        return;
+      }
+      ClientHandler last = locals.remove(locals.size() - 1);
+      if (last != client) {
+        locals.set(slot, last);
+        last.setShardSlot(slot);
+      }
+      client.setShardSlot(-1);
+    });
+    wake();
+  }
+
+  /**
+   * Posts a frame for delivery by this shard, waiting while the mailbox is full. Must only be
+   * called from the single producer thread feeding the shards.
+   *
+   * @param target the client to deliver to, or {@code null} to deliver to every client of the
+   *               shard
+   * @param frame  the encoded message
+   */
+  public void post(ClientHandler target, byte[] frame) {
+    while (!mailbox.offer(target, frame)) {
+      if (!running) {
+        return;
+      }
+      wake();
+      LockSupport.parkNanos(FULL_PARK_NANOS);
+    }
+    wake();
+  }
+
+  /**
+   * Stops the shard after the frames already in its mailbox have been written.
+   */
+  public void shutdown() {
+    running = false;
+    LockSupport.unpark(thread);
+  }
+
+  /**
+   * Waits for the shard thread to finish writing after {@link #shutdown()}.
+   *
+   * @param timeoutMillis the maximum time to wait
+   * @return {@code true} if the shard thread has exited
+   * @throws InterruptedException if interrupted while waiting
+   */
+  public boolean awaitTermination(long timeoutMillis) throws InterruptedException {
+    thread.join(Math.max(1, timeoutMillis));
+    return !thread.isAlive();
+  }
+
+  private void wake() {
+    if (waiting) {
+      LockSupport.unpark(thread);
+    }
+  }
+
+  private void write(ClientHandler target, byte[] frame) {
+    if (target != null) {
+      send(target, frame, false);
+      return;
+    }
+    for (int i = 0; i < locals.size(); i++) {
+      send(locals.get(i), frame, true);
+    }
+  }
+
+  private void send(ClientHandler client, byte[] frame, boolean broadcast) {
+    try {
+      if (broadcast) {
+        client.sendBroadcast(frame);
+      } else {
+        client.sendEncoded(frame);
+      }
+    } catch (IOException e) {
+      System.err.println("Failed to send message to client: " + client.getUsername());
+    }
+  }
+
+  private boolean applyControl() {
+    boolean applied = false;
+    Runnable change;
+    while ((change = control.poll()) != null) {
+      change.run();
+      applied = true;
+    }
+    return applied;
+  }
+
+  @Override
+  public void run() {
+    int idle = 0;
+    while (true) {
+      boolean worked = applyControl();
+      worked |= mailbox.drain(writer, DRAIN_LIMIT) > 0;
+      if (worked) {
+        idle = 0;
+      } else if (!running) {
+        return;
+      } else if (idle < SPIN_TRIES) {
+        Thread.onSpinWait();
+        idle++;
+      } else {
+        waiting = true;
+        if (mailbox.isEmpty() && control.isEmpty() && running) {
+          LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+        }
+        waiting = false;
+      }
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "ClientShard{" +
+        "id=" + id +
+        '}';
+  }
+}
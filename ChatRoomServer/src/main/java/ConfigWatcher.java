@@ -0,0 +1,135 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.List;
+
+/**
+ * The {@code ConfigWatcher} class reloads a {@link ServerConfig} file whenever it changes and
+ * applies it to a running server, so that capacity and limits can be tuned without a restart.
+ * <p>
+ * The watcher listens on the file's directory rather than the file itself, so that it also sees
+ * editors and deployment tools that replace the file by renaming a new one over it. After a change
+ * it waits {@link ChatRoomConstants#CONFIG_RELOAD_SETTLE_MILLIS} for the write to finish and
+ * coalesces the events that arrived meanwhile into one reload. A file that cannot be read or does
+ * not validate is reported and ignored, leaving the server on its previous settings. Changes to
+ * settings that need a restart are reported and otherwise ignored.
+ */
+public class ConfigWatcher implements Closeable {
+
+  private final ChatRoomServer server;
+  private final Path file;
+  private final WatchService watcher;
+  private volatile ServerConfig current;
+
+  /**
+   * Starts watching a configuration file.
+   *
+   * @param server  the server to apply changes to
+   * @param file    the properties file to watch
+   * @param current the configuration the server is running with
+   * @throws IOException if the file's directory cannot be watched
+   */
+  public ConfigWatcher(ChatRoomServer server, Path file, ServerConfig current) throws IOException {
+    this.server = server;
+    this.file = file.toAbsolutePath();
+    this.current = current;
+    watcher = this.file.getFileSystem().newWatchService();
+    try {
+      this.file.getParent().register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+          StandardWatchEventKinds.ENTRY_MODIFY);
+    } catch (IOException e) {
+      watcher.close();
+      throw e;
+    }
+    Thread thread = new Thread(this::watch, "config-watcher");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * Reads the file again and applies its settings to the server.
+   *
+   * @return {@code true} if the file was read and applied, {@code false} if it was rejected
+   */
+  public synchronized boolean reload() {
+    ServerConfig next;
+    try {
+      next = ServerConfig.load(file);
+    } catch (IOException | IllegalArgumentException e) {
+      System.err.println("Ignoring configuration " + file + ": " + e.getMessage());
+      return false;
+    }
+    List<String> restartKeys = next.restartRequired(current);
+    if (!restartKeys.isEmpty()) {
+      System.err.println("Configuration changes to " + restartKeys + " take effect on restart");
+    }
+    next.apply(server);
+    current = next;
+    System.out.println("Applied configuration from " + file);
+    return true;
+  }
+
+  /**
+   * Returns the configuration most recently applied.
+   *
+   * @return the current configuration
+   */
+  public ServerConfig getCurrent() {
+    return current;
+  }
+
+  /**
+   * Returns the file being watched.
+   *
+   * @return the absolute path of the configuration file
+   */
+  public Path getFile() {
+    return file;
+  }
+
+  /**
+   * Stops watching. The server keeps the settings last applied.
+   *
+   * @throws IOException if the watch service cannot be closed
+   */
+  @Override
+  public void close() throws IOException {
+    watcher.close();
+  }
+
+  private void watch() {
+    Path name = file.getFileName();
+    while (true) {
+      try {
+        WatchKey key = watcher.take();
+        boolean changed = pollChanged(key, name);
+        if (!changed) {
+          continue;
+        }
+        Thread.sleep(ChatRoomConstants.CONFIG_RELOAD_SETTLE_MILLIS);
+        for (WatchKey pending = watcher.poll(); pending != null; pending = watcher.poll()) {
+          pollChanged(pending, name);
+        }
+      } catch (InterruptedException | ClosedWatchServiceException e) {
+        return;
+      }
+      reload();
+    }
+  }
+
+  private static boolean pollChanged(WatchKey key, Path name) {
+    boolean changed = false;
+    for (WatchEvent<?> event : key.pollEvents()) {
+      if (event.kind() == StandardWatchEventKinds.OVERFLOW || name.equals(event.context())) {
+        changed = true;
+      }
+    }
+    key.reset();
+    return changed;
+  }
+}
@@ -27,6 +27,15 @@ public class ConnectResponse extends BaseMessage {
     this.message = message;
   }
 
+  /**
+   * Returns whether the request this response answers succeeded.
+   *
+   * @return {@code true} if the connection was successful; {@code false} otherwise
+   */
+  public boolean isSuccess() {
+    return success;
+  }
+
   /**
    * Returns the message associated with the connection response.
    *
@@ -0,0 +1,69 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+
+/**
+ * The {@code Connection} interface is the byte stream between a client and the server, as seen by
+ * one end. {@link ClientHandler} and {@link ChatRoomClient} speak the chat protocol over a
+ * connection without knowing how the bytes travel.
+ * <p>
+ * {@link SocketConnection} carries them over TCP. {@link LoopbackConnection} carries them through
+ * memory, for tests and for bots running inside the server's JVM.
+ */
+public interface Connection {
+
+  /**
+   * Returns the stream of bytes sent by the other end.
+   *
+   * @return the input stream
+   * @throws IOException if the connection is closed
+   */
+  InputStream getInputStream() throws IOException;
+
+  /**
+   * Returns the stream of bytes sent to the other end.
+   *
+   * @return the output stream
+   * @throws IOException if the connection is closed
+   */
+  OutputStream getOutputStream() throws IOException;
+
+  /**
+   * Stops reading. A read that is blocked, and every later read, reports the end of the stream;
+   * writing is unaffected.
+   *
+   * @throws IOException if the connection is already closed
+   */
+  void shutdownInput() throws IOException;
+
+  /**
+   * Closes both directions. The other end reads the end of the stream once it has read what was
+   * already sent.
+   *
+   * @throws IOException if an I/O error occurs while closing
+   */
+  void close() throws IOException;
+
+  /**
+   * Reports whether {@link #close()} has been called.
+   *
+   * @return {@code true} if the connection is closed
+   */
+  boolean isClosed();
+
+  /**
+   * Describes the other end, for logs and thread names.
+   *
+   * @return the remote address or another description of the peer
+   */
+  String getRemoteAddress();
+
+  /**
+   * Returns the IP address of the other end, which {@link AdmissionControl} uses to apply
+   * per-source limits.
+   *
+   * @return the remote IP address, or {@code null} if the other end is not reached over IP
+   */
+  InetAddress getSourceAddress();
+}
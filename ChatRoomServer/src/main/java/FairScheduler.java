@@ -0,0 +1,123 @@
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The {@code FairScheduler} class shares a fixed pool of worker threads among many sources of
+ * work, such as client connections with frames waiting to be processed, so that no single source
+ * can monopolize a worker.
+ * <p>
+ * Sources that have work are kept in a single run queue. A worker takes the source at the head,
+ * lets it process at most {@code quota} items, and, if the source still has work, puts it back at
+ * the tail. A source that pipelines thousands of frames is therefore served in turns of
+ * {@code quota} frames, interleaved round-robin with every other ready source, and a quiet source
+ * never waits behind more than one turn of each noisy one.
+ * <p>
+ * A source is in the run queue at most once, and is processed by at most one worker at a time, so
+ * its items are handled in order.
+ */
+public class FairScheduler {
+
+  /**
+   * A source of work scheduled by a {@link FairScheduler}.
+   */
+  public interface Source {
+
+    /**
+     * Processes up to {@code quota} pending items. Called by one worker thread at a time.
+     *
+     * @param quota the maximum number of items to process in this turn
+     */
+    void runTurn(int quota);
+
+    /**
+     * Reports whether the source has items waiting to be processed.
+     *
+     * @return {@code true} if another turn is needed
+     */
+    boolean hasPendingWork();
+  }
+
+  /**
+   * A source's membership in the scheduler, used to tell the scheduler that it has work.
+   */
+  public final class Registration {
+
+    private final Source source;
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    private Registration(Source source) {
+      this.source = source;
+    }
+
+    /**
+     * Puts the source in the run queue unless it is already there or being processed. Call after
+     * making new work available to the source.
+     */
+    public void ready() {
+      if (scheduled.compareAndSet(false, true)) {
+        runQueue.offer(this);
+      }
+    }
+  }
+
+  private final BlockingQueue<Registration> runQueue = new LinkedBlockingQueue<>();
+  private final int quota;
+  private final Thread[] workers;
+
+  /**
+   * Constructs a {@code FairScheduler} and starts its worker threads.
+   *
+   * @param workerCount the number of worker threads
+   * @param quota       the maximum number of items a source processes per turn
+   */
+  public FairScheduler(int workerCount, int quota) {
+    this.quota = quota;
+    workers = new Thread[workerCount];
+    for (int i = 0; i < workerCount; i++) {
+      workers[i] = new Thread(this::work, "scheduler-" + i);
+      workers[i].setDaemon(true);
+      workers[i].start();
+    }
+  }
+
+  /**
+   * Registers a source with the scheduler. The source is not run until its registration is marked
+   * {@link Registration#ready() ready}.
+   *
+   * @param source the source to register
+   * @return the source's registration
+   */
+  public Registration register(Source source) {
+    return new Registration(source);
+  }
+
+  /**
+   * Stops the worker threads. Turns already in progress are completed.
+   */
+  public void shutdown() {
+    for (Thread worker : workers) {
+      worker.interrupt();
+    }
+  }
+
+  private void work() {
+    while (true) {
+      Registration registration;
+      try {
+        registration = runQueue.take();
+      } catch (InterruptedException e) {
+        return;
+      }
+      try {
+        registration.source.runTurn(quota);
+      } catch (RuntimeException e) {
+        System.err.println("Scheduled task failed: " + e.getMessage());
+      }
+      registration.scheduled.set(false);
+      if (registration.source.hasPendingWork()) {
+        registration.ready();
+      }
+    }
+  }
+}
@@ -0,0 +1,157 @@
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The {@code HashedTimingWheel} class runs large numbers of coarse timeouts, such as per-socket
+ * read deadlines, on a single thread.
+ * <p>
+ * Time is divided into ticks of {@code tickMillis}, and the wheel is a ring of buckets, one per
+ * tick. A timeout is placed in the bucket of the tick at which it expires, with a count of the
+ * full turns of the wheel that must pass first. Each tick the timer thread visits one bucket and
+ * fires the timeouts whose count has reached zero, so scheduling and cancelling are constant-time
+ * regardless of how many timeouts are pending. Timeouts fire up to one tick late.
+ * <p>
+ * New timeouts are handed to the timer thread through a lock-free queue and only the timer thread
+ * touches the buckets. A cancelled timeout is only marked; it is unlinked when its bucket is next
+ * visited.
+ */
+public class HashedTimingWheel {
+
+  /**
+   * A scheduled task that can be cancelled before it runs.
+   */
+  public static final class Timeout {
+
+    private final Runnable task;
+    private final long deadline;
+    private long rounds;
+    private volatile boolean cancelled;
+    private Timeout next;
+
+    private Timeout(Runnable task, long deadline) {
+      this.task = task;
+      this.deadline = deadline;
+    }
+
+    /**
+     * Prevents the task from running if it has not run yet.
+     */
+    public void cancel() {
+      cancelled = true;
+    }
+
+    /**
+     * Reports whether the timeout was cancelled.
+     *
+     * @return {@code true} if {@link #cancel()} was called
+     */
+    public boolean isCancelled() {
+      return cancelled;
+    }
+  }
+
+  private final long tickNanos;
+  private final Timeout[] buckets;
+  private final int mask;
+  private final Queue<Timeout> incoming = new ConcurrentLinkedQueue<>();
+  private final long startNanos = System.nanoTime();
+  private final Thread thread;
+  private long tick;
+
+  /**
+   * Constructs a {@code HashedTimingWheel} and starts its thread.
+   *
+   * @param tickMillis the length of one tick, which is the timer's resolution
+   * @param wheelSize  the number of buckets; must be a power of two
+   * @throws IllegalArgumentException if {@code wheelSize} is not a positive power of two
+   */
+  public HashedTimingWheel(long tickMillis, int wheelSize) {
+    if (wheelSize <= 0 || Integer.bitCount(wheelSize) != 1) {
+      throw new IllegalArgumentException("Wheel size must be a power of two: " + wheelSize);
+    }
+    tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+    buckets = new Timeout[wheelSize];
+    mask = wheelSize - 1;
+    thread = new Thread(this::run, "timing-wheel");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * Schedules a task to run on the timer thread once the delay has passed. The task must be short
+   * and must not block, since it delays every other timeout.
+   *
+   * @param task        the task to run
+   * @param delayMillis how long to wait before running it
+   * @return a handle that can cancel the task
+   */
+  public Timeout schedule(Runnable task, long delayMillis) {
+    Timeout timeout = new Timeout(task,
+        System.nanoTime() - startNanos + TimeUnit.MILLISECONDS.toNanos(delayMillis));
+    incoming.offer(timeout);
+    return timeout;
+  }
+
+  /**
+   * Stops the timer thread. Pending timeouts never run.
+   */
+  public void shutdown() {
+    thread.interrupt();
+  }
+
+  private void run() {
+    while (!Thread.currentThread().isInterrupted()) {
+      long wake = (tick + 1) * tickNanos;
+      long sleep = wake - (System.nanoTime() - startNanos);
+      if (sleep > 0) {
+        try {
+          TimeUnit.NANOSECONDS.sleep(sleep);
+        } catch (InterruptedException e) {
+          return;
+        }
+      }
+      transferIncoming();
+      expire(buckets[(int) tick & mask], (int) tick & mask);
+      tick++;
+    }
+  }
+
+  private void transferIncoming() {
+    Timeout timeout;
+    while ((timeout = incoming.poll()) != null) {
+      if (timeout.cancelled) {
+        continue;
+      }
+      long expiryTick = Math.max(timeout.deadline / tickNanos, tick);
+      timeout.rounds = (expiryTick - tick) / buckets.length;
+      int index = (int) expiryTick & mask;
+      timeout.next = buckets[index];
+      buckets[index] = timeout;
+    }
+  }
+
+  private void expire(Timeout head, int index) {
+    Timeout kept = null;
+    Timeout timeout = head;
+    while (timeout != null) {
+      Timeout next = timeout.next;
+      if (timeout.cancelled) {
+        timeout.next = null;
+      } else if (timeout.rounds <= 0) {
+        timeout.next = null;
+        try {
+          timeout.task.run();
+        } catch (RuntimeException e) {
+          System.err.println("Timer task failed: " + e.getMessage());
+        }
+      } else {
+        timeout.rounds--;
+        timeout.next = kept;
+        kept = timeout;
+      }
+      timeout = next;
+    }
+    buckets[index] = kept;
+  }
+}
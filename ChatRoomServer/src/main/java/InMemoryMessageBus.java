@@ -0,0 +1,124 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The {@code InMemoryMessageBus} class is an in-process {@link MessageBus} backed by a bounded
+ * queue and a single dispatch thread.
+ *
+ * <p>Publishers only enqueue, so the cost of routing and of every other subscriber is paid on the
+ * dispatch thread instead of on the client's read path. The dispatch thread drains the queue in
+ * batches to amortize the cost of waking up under load. When the queue is full, publishers block
+ * until space becomes available, which pushes back on the sockets producing the traffic.</p>
+ */
+public class InMemoryMessageBus implements MessageBus {
+
+  private static final int MAX_BATCH = 256;
+
+  private final BlockingQueue<Envelope> queue;
+  private final List<MessageListener> listeners = new CopyOnWriteArrayList<>();
+  private final Thread dispatcher;
+  private volatile boolean running = true;
+
+  /**
+   * Constructs an {@code InMemoryMessageBus} with the default queue capacity.
+   */
+  public InMemoryMessageBus() {
+    this(ChatRoomConstants.MESSAGE_BUS_CAPACITY);
+  }
+
+  /**
+   * Constructs an {@code InMemoryMessageBus} with the given queue capacity and starts its dispatch
+   * thread.
+   *
+   * @param capacity the maximum number of messages that may be pending delivery
+   */
+  public InMemoryMessageBus(int capacity) {
+    queue = new ArrayBlockingQueue<>(capacity);
+    dispatcher = new Thread(this::dispatchLoop, "message-bus");
+    dispatcher.setDaemon(true);
+    dispatcher.start();
+  }
+
+  @Override
+  public void subscribe(MessageListener listener) {
+    listeners.add(listener);
+  }
+
+  @Override
+  public void unsubscribe(MessageListener listener) {
+    listeners.remove(listener);
+  }
+
+  @Override
+  public void publish(ClientHandler source, BaseMessage message) {
+    if (!running) {
+      return;
+    }
+    try {
+      queue.put(new Envelope(source, message));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  @Override
+  public void shutdown() {
+    running = false;
+    dispatcher.interrupt();
+  }
+
+  @Override
+  public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+    dispatcher.join(Math.max(1, unit.toMillis(timeout)));
+    return !dispatcher.isAlive();
+  }
+
+  private void dispatchLoop() {
+    List<Envelope> batch = new ArrayList<>(MAX_BATCH);
+    while (true) {
+      try {
+        batch.add(queue.take());
+      } catch (InterruptedException e) {
+        if (!running) {
+          break;
+        }
+        continue;
+      }
+      queue.drainTo(batch, MAX_BATCH - 1);
+      deliver(batch);
+    }
+    queue.drainTo(batch);
+    deliver(batch);
+  }
+
+  private void deliver(List<Envelope> batch) {
+    for (Envelope envelope : batch) {
+      for (MessageListener listener : listeners) {
+        try {
+          listener.onMessage(envelope.source, envelope.message);
+        } catch (RuntimeException e) {
+          System.err.println("Message listener failed: " + e.getMessage());
+        }
+      }
+    }
+    batch.clear();
+  }
+
+  /**
+   * A published message together with the handler it was read from.
+   */
+  private static class Envelope {
+
+    private final ClientHandler source;
+    private final BaseMessage message;
+
+    Envelope(ClientHandler source, BaseMessage message) {
+      this.source = source;
+      this.message = message;
+    }
+  }
+}
@@ -0,0 +1,252 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The {@code LoopbackConnection} class is a {@link Connection} between two ends in the same JVM.
+ * Bytes are copied through a pair of in-memory ring buffers, one per direction, without any
+ * system calls, so bots and tests running inside the server's process exchange messages at memory
+ * speed while the server handles them exactly like a TCP client.
+ * <p>
+ * Each buffer holds {@code bufferBytes}; a writer that finds it full waits for the reader, which
+ * gives the same back-pressure as a socket's send buffer. Closing one end behaves like closing a
+ * socket: the other end reads what was already sent and then the end of the stream, and its
+ * writes fail.
+ */
+public class LoopbackConnection implements Connection {
+
+  private static final AtomicInteger NEXT_ID = new AtomicInteger();
+
+  private final Pipe incoming;
+  private final Pipe outgoing;
+  private final String name;
+  private final InputStream in;
+  private final OutputStream out;
+  private LoopbackConnection peer;
+  private volatile boolean closed;
+
+  private LoopbackConnection(Pipe incoming, Pipe outgoing, String name) {
+    this.incoming = incoming;
+    this.outgoing = outgoing;
+    this.name = name;
+    in = new PipeInputStream(incoming);
+    out = new PipeOutputStream(outgoing);
+  }
+
+  /**
+   * Opens a new loopback connection and returns one of its ends. The other end is available from
+   * {@link #getPeer()}.
+   *
+   * @param bufferBytes the number of bytes buffered in each direction
+   * @return one end of the connection
+   */
+  public static LoopbackConnection open(int bufferBytes) {
+    Pipe forward = new Pipe(bufferBytes);
+    Pipe backward = new Pipe(bufferBytes);
+    int id = NEXT_ID.incrementAndGet();
+    LoopbackConnection end = new LoopbackConnection(backward, forward, "loopback-" + id + "/a");
+    LoopbackConnection other = new LoopbackConnection(forward, backward, "loopback-" + id + "/b");
+    end.peer = other;
+    other.peer = end;
+    return end;
+  }
+
+  /**
+   * Returns the other end of this connection.
+   *
+   * @return the peer end
+   */
+  public LoopbackConnection getPeer() {
+    return peer;
+  }
+
+  @Override
+  public InputStream getInputStream() throws IOException {
+    if (closed) {
+      throw new IOException("Connection closed");
+    }
+    return in;
+  }
+
+  @Override
+  public OutputStream getOutputStream() throws IOException {
+    if (closed) {
+      throw new IOException("Connection closed");
+    }
+    return out;
+  }
+
+  @Override
+  public void shutdownInput() throws IOException {
+    if (closed) {
+      throw new IOException("Connection closed");
+    }
+    incoming.discard();
+  }
+
+  @Override
+  public void close() {
+    closed = true;
+    incoming.closeReader();
+    outgoing.closeWriter();
+  }
+
+  @Override
+  public boolean isClosed() {
+    return closed;
+  }
+
+  @Override
+  public String getRemoteAddress() {
+    return peer.name;
+  }
+
+  @Override
+  public InetAddress getSourceAddress() {
+    return null;
+  }
+
+  /**
+   * A bounded ring buffer carrying bytes in one direction.
+   */
+  private static final class Pipe {
+
+    private final byte[] buffer;
+    private int head;
+    private int count;
+    private boolean writerClosed;
+    private boolean readerClosed;
+    private boolean discarding;
+
+    private Pipe(int capacity) {
+      buffer = new byte[capacity];
+    }
+
+    synchronized int read(byte[] b, int off, int len) throws IOException {
+      if (len == 0) {
+        return 0;
+      }
+      while (count == 0) {
+        if (writerClosed || readerClosed || discarding) {
+          return -1;
+        }
+        await();
+      }
+      if (readerClosed || discarding) {
+        return -1;
+      }
+      int n = Math.min(len, count);
+      int first = Math.min(n, buffer.length - head);
+      System.arraycopy(buffer, head, b, off, first);
+      System.arraycopy(buffer, 0, b, off + first, n - first);
+      head = (head + n) % buffer.length;
+      count -= n;
+      notifyAll();
+      return n;
+    }
+
+    synchronized int available() {
+      return readerClosed || discarding ? 0 : count;
+    }
+
+    synchronized void write(byte[] b, int off, int len) throws IOException {
+      while (len > 0) {
+        while (count == buffer.length && !writerClosed && !readerClosed && !discarding) {
+          await();
+        }
+        if (writerClosed) {
+          throw new IOException("Connection closed");
+        }
+        if (readerClosed) {
+          throw new IOException("Connection reset by peer");
+        }
+        if (discarding) {
+          // Like a socket whose peer has shut down its input, accept and drop the bytes.
+          return;
+        }
+        int n = Math.min(len, buffer.length - count);
+        int tail = (head + count) % buffer.length;
+        int first = Math.min(n, buffer.length - tail);
+        System.arraycopy(b, off, buffer, tail, first);
+        System.arraycopy(b, off + first, buffer, 0, n - first);
+        count += n;
+        off += n;
+        len -= n;
+        notifyAll();
+      }
+    }
+
+    synchronized void discard() {
+      discarding = true;
+      count = 0;
+      notifyAll();
+    }
+
+    synchronized void closeReader() {
+      readerClosed = true;
+      count = 0;
+      notifyAll();
+    }
+
+    synchronized void closeWriter() {
+      writerClosed = true;
+      notifyAll();
+    }
+
+    private void await() throws InterruptedIOException {
+      try {
+        wait();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while waiting for the peer");
+      }
+    }
+  }
+
+  private static final class PipeInputStream extends InputStream {
+
+    private final Pipe pipe;
+
+    private PipeInputStream(Pipe pipe) {
+      this.pipe = pipe;
+    }
+
+    @Override
+    public int read() throws IOException {
+      byte[] one = new byte[1];
+      return pipe.read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      return pipe.read(b, off, len);
+    }
+
+    @Override
+    public int available() {
+      return pipe.available();
+    }
+  }
+
+  private static final class PipeOutputStream extends OutputStream {
+
+    private final Pipe pipe;
+
+    private PipeOutputStream(Pipe pipe) {
+      this.pipe = pipe;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      pipe.write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      pipe.write(b, off, len);
+    }
+  }
+}
@@ -0,0 +1,53 @@
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The {@code MessageBus} interface decouples the threads that read messages from client sockets
+ * from the components that act on them. Ingress code publishes decoded messages, and any number
+ * of {@link MessageListener} subscribers (routing, journaling, metrics, bots) consume them
+ * independently.
+ *
+ * <p>Implementations must be safe for concurrent publishers and must deliver messages from a
+ * single publisher to each listener in the order they were published.</p>
+ */
+public interface MessageBus {
+
+  /**
+   * Registers a listener that will receive all messages published after this call.
+   *
+   * @param listener the listener to add
+   */
+  void subscribe(MessageListener listener);
+
+  /**
+   * Removes a previously registered listener. Has no effect if the listener is not subscribed.
+   *
+   * @param listener the listener to remove
+   */
+  void unsubscribe(MessageListener listener);
+
+  /**
+   * Publishes a message to all subscribers. This method returns without waiting for the
+   * subscribers to process the message.
+   *
+   * @param source  the {@link ClientHandler} the message was read from, or {@code null} if the
+   *                message originated from the server itself
+   * @param message the message to publish
+   */
+  void publish(ClientHandler source, BaseMessage message);
+
+  /**
+   * Stops the bus. Messages still pending are delivered before the dispatch thread exits; messages
+   * published after shutdown are discarded.
+   */
+  void shutdown();
+
+  /**
+   * Waits for the messages pending at {@link #shutdown()} to be delivered.
+   *
+   * @param timeout the maximum time to wait
+   * @param unit    the unit of {@code timeout}
+   * @return {@code true} if the bus finished delivering; {@code false} if the timeout elapsed
+   * @throws InterruptedException if interrupted while waiting
+   */
+  boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException;
+}
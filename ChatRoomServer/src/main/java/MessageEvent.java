@@ -0,0 +1,122 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The {@code MessageEvent} class is a reusable slot in the {@link RingBufferMessageBus}. Each slot
+ * is allocated once when the ring is created and then carries one message at a time through the
+ * route, encode and write stages of the pipeline.
+ *
+ * <p>The fields are written by exactly one stage at a time; the ring's sequence barriers publish
+ * those writes to the next stage, so no field needs to be volatile.</p>
+ */
+public class MessageEvent {
+
+  private ClientHandler source;
+  private BaseMessage message;
+  private boolean broadcast;
+  private final List<ClientHandler> recipients = new ArrayList<>();
+  private byte[] encoded;
+
+  /**
+   * Loads a freshly published message into this slot.
+   *
+   * @param source  the handler the message was read from, or {@code null} for server messages
+   * @param message the decoded message
+   */
+  void set(ClientHandler source, BaseMessage message) {
+    this.source = source;
+    this.message = message;
+  }
+
+  /**
+   * Releases every reference held by this slot so that delivered messages can be collected.
+   */
+  void clear() {
+    source = null;
+    message = null;
+    broadcast = false;
+    recipients.clear();
+    encoded = null;
+  }
+
+  /**
+   * Returns the handler the message was read from.
+   *
+   * @return the source handler, or {@code null} if the server originated the message
+   */
+  public ClientHandler getSource() {
+    return source;
+  }
+
+  /**
+   * Returns the message carried by this slot.
+   *
+   * @return the message
+   */
+  public BaseMessage getMessage() {
+    return message;
+  }
+
+  /**
+   * Replaces the message carried by this slot, for example when routing turns a request into the
+   * message that is actually delivered.
+   *
+   * @param message the message to deliver instead
+   */
+  public void setMessage(BaseMessage message) {
+    this.message = message;
+  }
+
+  /**
+   * Returns whether the message should be delivered to every connected client.
+   *
+   * @return {@code true} if the message is a broadcast
+   */
+  public boolean isBroadcast() {
+    return broadcast;
+  }
+
+  /**
+   * Marks the message for delivery to every connected client.
+   */
+  public void markBroadcast() {
+    broadcast = true;
+  }
+
+  /**
+   * Returns the individual recipients resolved for this message. The list is owned by the slot
+   * and reused, so callers must not keep a reference to it.
+   *
+   * @return the mutable list of recipients
+   */
+  public List<ClientHandler> getRecipients() {
+    return recipients;
+  }
+
+  /**
+   * Returns whether routing found anybody to deliver the message to.
+   *
+   * @return {@code true} if the message is a broadcast or has at least one recipient
+   */
+  public boolean hasRecipients() {
+    return broadcast || !recipients.isEmpty();
+  }
+
+  /**
+   * Returns the serialized form of the message, or {@code null} before the encode stage ran.
+   *
+   * @return the encoded frame
+   */
+  public byte[] getEncoded() {
+    return encoded;
+  }
+
+  /**
+   * Stores the serialized form of the message, shared by all of its recipients.
+   *
+   * @param encoded the encoded frame
+   */
+  public void setEncoded(byte[] encoded) {
+    this.encoded = encoded;
+  }
+}
@@ -0,0 +1,19 @@
+/**
+ * The {@code MessageListener} interface is implemented by components that subscribe to a
+ * {@link MessageBus}. Each listener receives every message published on the bus, in publication
+ * order, on the bus's dispatch thread rather than on the thread that read the message.
+ *
+ * <p>Listeners must not block for long periods, since a slow listener delays delivery to every
+ * other subscriber of the same bus.</p>
+ */
+public interface MessageListener {
+
+  /**
+   * Invoked by the bus for every published message.
+   *
+   * @param source  the {@link ClientHandler} the message was read from, or {@code null} if the
+   *                message originated from the server itself
+   * @param message the decoded message
+   */
+  void onMessage(ClientHandler source, BaseMessage message);
+}
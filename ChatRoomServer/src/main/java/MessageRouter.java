@@ -0,0 +1,118 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * The {@code MessageRouter} class performs chat routing in three steps that mirror the stages of
+ * the {@link RingBufferMessageBus} pipeline: {@link #route(MessageEvent)} validates a request and
+ * resolves its recipients, {@link #encode(MessageEvent)} serializes the outgoing message once, and
+ * {@link #deliver(MessageEvent)} writes the shared bytes to every recipient.
+ * <p>
+ * The router is also a {@link MessageListener}, so it can be subscribed to a simpler bus such as
+ * {@link InMemoryMessageBus}, in which case all three steps run on that bus's dispatch thread.
+ * Presence deltas published by the server are routed to the presence subscribers. Other message
+ * types are ignored.
+ */
+public class MessageRouter implements MessageListener {
+
+  private final ChatRoomServer server;
+  private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+  private final DataOutputStream encoder = new DataOutputStream(buffer);
+
+  /**
+   * Constructs a {@code MessageRouter} that routes messages through the given server.
+   *
+   * @param server the server whose client registry is used to resolve recipients
+   */
+  public MessageRouter(ChatRoomServer server) {
+    this.server = server;
+  }
+
+  @Override
+  public void onMessage(ClientHandler source, BaseMessage message) {
+    MessageEvent event = new MessageEvent();
+    event.set(source, message);
+    route(event);
+    encode(event);
+    deliver(event);
+  }
+
+  /**
+   * Validates the request carried by the event and records who should receive it. Invalid
+   * requests are answered with a {@link FailedMessage} to the sender and leave the event without
+   * recipients. Broadcasts published by the server itself under
+   * {@link ChatRoomConstants#SERVER_NAME} bypass sender validation.
+   *
+   * @param event the event to route
+   */
+  public void route(MessageEvent event) {
+    BaseMessage message = event.getMessage();
+    if (message instanceof BroadcastMessage) {
+      BroadcastMessage broadcast = (BroadcastMessage) message;
+      if (isFromServer(event, broadcast.getSender()) || server.checkBroadcast(broadcast)) {
+        event.markBroadcast();
+      }
+    } else if (message instanceof DirectMessage) {
+      ClientHandler recipient = server.checkDirectMessage((DirectMessage) message);
+      if (recipient != null) {
+        event.getRecipients().add(recipient);
+      }
+    } else if (message instanceof PresenceDelta) {
+      if (event.getSource() == null) {
+        event.getRecipients().addAll(server.getPresenceSubscribers());
+      }
+    } else if (message instanceof SendInsult) {
+      DirectMessage insult = server.checkInsult((SendInsult) message);
+      ClientHandler recipient = insult == null ? null : server.checkDirectMessage(insult);
+      if (recipient != null) {
+        event.setMessage(insult);
+        event.getRecipients().add(recipient);
+      }
+    }
+  }
+
+  private static boolean isFromServer(MessageEvent event, String sender) {
+    return event.getSource() == null && ChatRoomConstants.SERVER_NAME.equals(sender);
+  }
+
+  /**
+   * Serializes the event's message once so that every recipient is sent the same bytes. Events
+   * without recipients are skipped. The router reuses one scratch buffer, so this method must only
+   * be called from a single thread.
+   *
+   * @param event the routed event
+   */
+  public void encode(MessageEvent event) {
+    if (!event.hasRecipients()) {
+      return;
+    }
+    buffer.reset();
+    try {
+      event.getMessage().writeMessage(encoder);
+      event.setEncoded(buffer.toByteArray());
+    } catch (IOException e) {
+      System.err.println("Failed to encode message: " + e.getMessage());
+      event.getRecipients().clear();
+    }
+  }
+
+  /**
+   * Hands the encoded message to the shards that own the event's recipients. This is the only
+   * place that posts to shard mailboxes, so it must only be called from a single thread.
+   *
+   * @param event the routed and encoded event
+   */
+  public void deliver(MessageEvent event) {
+    byte[] frame = event.getEncoded();
+    if (frame == null) {
+      return;
+    }
+    if (event.isBroadcast()) {
+      server.deliverToAll(frame);
+    } else {
+      for (ClientHandler recipient : event.getRecipients()) {
+        server.deliverTo(recipient, frame);
+      }
+    }
+  }
+}
@@ -0,0 +1,137 @@
+import java.io.*;
+import java.util.Objects;
+
+/**
+ * The {@code MuxFrame} class carries a message for one logical session on a multiplexed
+ * connection. A gateway that proxies many end users opens one connection to the server, logs in
+ * as itself, and then wraps each user's traffic in {@code MuxFrame}s tagged with a session ID of
+ * its choosing. The first message of a session must be a {@link ConnectMessage}; from then on the
+ * session is a chat user like any other, with its own username, rate limit and presence, and the
+ * server's replies and deliveries to it come back wrapped with the same session ID.
+ *
+ * <p>The carried message is encoded exactly as it would be on its own connection, after the
+ * session ID. Frames cannot be nested.</p>
+ *
+ * <p>This class extends {@link BaseMessage} and provides methods for serialization and
+ * deserialization to facilitate communication over a network.</p>
+ */
+public class MuxFrame extends BaseMessage {
+
+  private final int sessionId;
+  private final BaseMessage message;
+
+  /**
+   * Constructs a new {@code MuxFrame} message.
+   *
+   * @param sessionId the logical session the message belongs to
+   * @param message   the message carried for that session
+   * @throws IllegalArgumentException if {@code message} is itself a {@code MuxFrame}
+   */
+  public MuxFrame(int sessionId, BaseMessage message) {
+    super(ChatRoomConstants.MUX_FRAME);
+    if (message instanceof MuxFrame) {
+      throw new IllegalArgumentException("Mux frames cannot be nested");
+    }
+    this.sessionId = sessionId;
+    this.message = message;
+  }
+
+  /**
+   * Returns the logical session the message belongs to.
+   *
+   * @return the session ID
+   */
+  public int getSessionId() {
+    return sessionId;
+  }
+
+  /**
+   * Returns the message carried for the session.
+   *
+   * @return the carried message
+   */
+  public BaseMessage getMessage() {
+    return message;
+  }
+
+  /**
+   * Wraps an already encoded message for a session without decoding it, so that a frame shared
+   * by many recipients is only copied, never encoded again.
+   *
+   * @param sessionId the logical session the message belongs to
+   * @param frame     the encoded message
+   * @return the encoded {@code MuxFrame}
+   */
+  public static byte[] wrap(int sessionId, byte[] frame) {
+    byte[] wrapped = new byte[8 + frame.length];
+    writeInt(wrapped, 0, ChatRoomConstants.MUX_FRAME);
+    writeInt(wrapped, 4, sessionId);
+    System.arraycopy(frame, 0, wrapped, 8, frame.length);
+    return wrapped;
+  }
+
+  private static void writeInt(byte[] bytes, int offset, int value) {
+    bytes[offset] = (byte) (value >>> 24);
+    bytes[offset + 1] = (byte) (value >>> 16);
+    bytes[offset + 2] = (byte) (value >>> 8);
+    bytes[offset + 3] = (byte) value;
+  }
+
+  /**
+   * Serializes this {@code MuxFrame} message into the provided {@link DataOutputStream}.
+   *
+   * @param out the {@link DataOutputStream} to write the message to
+   * @throws IOException if an I/O error occurs while writing the message
+   */
+  @Override
+  public void writeMessage(DataOutputStream out) throws IOException {
+    super.writeMessage(out);
+    out.writeInt(sessionId);
+    message.writeMessage(out);
+  }
+
+  /**
+   * Deserializes a {@code MuxFrame} message from the provided {@link DataInputStream}.
+   *
+   * @param in the {@link DataInputStream} to read the message from
+   * @return a new {@code MuxFrame} instance with the deserialized session ID and message
+   * @throws IOException if an I/O error occurs while reading the message, or the carried message
+   *                     is itself a {@code MuxFrame}
+   */
+  public static MuxFrame readMuxFrame(DataInputStream in) throws IOException {
+    int sessionId = in.readInt();
+    int messageType = in.readInt();
+    if (messageType == ChatRoomConstants.MUX_FRAME) {
+      throw new IOException("Mux frames cannot be nested");
+    }
+    return new MuxFrame(sessionId, BaseMessage.readMessage(messageType, in));
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (o == null || getClass() != o.getClass()) {
+      return false;
+    }
+    if (!super.equals(o)) {
+      return false;
+    }
+    MuxFrame that = (MuxFrame) o;
+    return sessionId == that.sessionId && Objects.equals(message, that.message);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(super.hashCode(), sessionId, message);
+  }
+
+  @Override
+  public String toString() {
+    return "MuxFrame{" +
+        "sessionId=" + sessionId +
+        ", message=" + message +
+        '}';
+  }
+}
@@ -0,0 +1,137 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The {@code OutboundMemoryBudget} class accounts for the bytes held in all of the server's
+ * {@link OutboundQueue}s together, so that many slow clients cannot make the server buffer an
+ * unbounded amount of undelivered data.
+ * <p>
+ * Each queued frame is counted once per queue holding it. A broadcast frame is shared between
+ * queues rather than copied, so this overstates the memory actually used, which errs on the side
+ * of shedding load early.
+ * <p>
+ * Frames addressed to a single client are always admitted, so that replies and errors still reach
+ * the client. Broadcasts are low priority: once the budget is used up they are shed instead of
+ * queued, and new broadcasts from clients are rejected before they reach the message bus.
+ */
+public class OutboundMemoryBudget {
+
+  private final AtomicLong used = new AtomicLong();
+  private final LongAdder shed = new LongAdder();
+  private final LongAdder rejected = new LongAdder();
+  private volatile long limitBytes;
+
+  /**
+   * Constructs an {@code OutboundMemoryBudget}.
+   *
+   * @param limitBytes the number of queued bytes above which broadcasts are shed
+   */
+  public OutboundMemoryBudget(long limitBytes) {
+    this.limitBytes = limitBytes;
+  }
+
+  /**
+   * Reserves room for a low-priority frame if the budget allows it.
+   *
+   * @param bytes the size of the frame
+   * @return {@code true} if the bytes were reserved; {@code false} if the frame should be shed
+   */
+  public boolean tryReserve(long bytes) {
+    long current;
+    do {
+      current = used.get();
+      if (current + bytes > limitBytes) {
+        shed.increment();
+        return false;
+      }
+    } while (!used.compareAndSet(current, current + bytes));
+    return true;
+  }
+
+  /**
+   * Reserves room for a frame that must be delivered, even if that exceeds the budget.
+   *
+   * @param bytes the size of the frame
+   */
+  public void reserve(long bytes) {
+    used.addAndGet(bytes);
+  }
+
+  /**
+   * Returns bytes to the budget once they have been written or discarded.
+   *
+   * @param bytes the number of bytes released
+   */
+  public void release(long bytes) {
+    used.addAndGet(-bytes);
+  }
+
+  /**
+   * Decides whether a new broadcast from a client should be accepted. A rejection is counted.
+   *
+   * @return {@code true} if the budget has room; {@code false} if the broadcast must be rejected
+   */
+  public boolean admitBroadcast() {
+    if (used.get() < limitBytes) {
+      return true;
+    }
+    rejected.increment();
+    return false;
+  }
+
+  /**
+   * Returns the number of bytes currently queued across all clients.
+   *
+   * @return the bytes in use
+   */
+  public long getUsedBytes() {
+    return used.get();
+  }
+
+  /**
+   * Returns the number of queued bytes above which broadcasts are shed.
+   *
+   * @return the limit in bytes
+   */
+  public long getLimitBytes() {
+    return limitBytes;
+  }
+
+  /**
+   * Changes the number of queued bytes above which broadcasts are shed. Takes effect
+   * immediately.
+   *
+   * @param limitBytes the new limit in bytes
+   */
+  public void setLimitBytes(long limitBytes) {
+    this.limitBytes = limitBytes;
+  }
+
+  /**
+   * Returns how many broadcast frames were not queued because the budget was used up.
+   *
+   * @return the number of shed frames
+   */
+  public long getShed() {
+    return shed.sum();
+  }
+
+  /**
+   * Returns how many broadcasts from clients were rejected because the budget was used up.
+   *
+   * @return the number of rejected broadcasts
+   */
+  public long getRejected() {
+    return rejected.sum();
+  }
+
+  @Override
+  public String toString() {
+    return "OutboundMemoryBudget{" +
+        "usedBytes=" + getUsedBytes() +
+        ", limitBytes=" + limitBytes +
+        ", shed=" + getShed() +
+        ", rejected=" + getRejected() +
+        '}';
+  }
+}
@@ -0,0 +1,374 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * The {@code OutboundQueue} class buffers the frames waiting to be written to one client and
+ * writes them from a dedicated writer thread, so that the threads producing frames never block
+ * on the client's socket.
+ * <p>
+ * The queue holds at most {@code budgetBytes} of pending frames. When a frame does not fit, the
+ * queue's {@link OverflowPolicy} decides what happens: the client's own requests are paused, the
+ * oldest broadcasts are discarded to make room, or the client is disconnected. No producer ever
+ * waits: shard threads, the message bus and the scheduler's workers deliver to many clients and
+ * must not be held up by one of them. Each action is counted in the server's
+ * {@link OutboundStats}. Every queued byte is also charged to the server-wide
+ * {@link OutboundMemoryBudget}, which sheds broadcasts when all queues together hold too much.
+ * <p>
+ * Frames are kept in two lanes. Control frames, such as connection responses and failure
+ * notices, are written before any pending chat traffic, so a client with a deep backlog still
+ * learns promptly that its logoff succeeded or its message was rejected. To keep a stream of
+ * control frames from starving chat traffic entirely, the writer takes one frame from the bulk
+ * lane after every {@link ChatRoomConstants#OUTBOUND_CONTROL_BURST} consecutive control frames.
+ * Frames within a lane are written in order; frames in different lanes are not ordered with
+ * respect to each other.
+ * <p>
+ * The writer takes every frame that is waiting, up to
+ * {@link ChatRoomConstants#OUTBOUND_WRITE_BATCH_BYTES}, and writes them with a single call, so
+ * that a burst of messages shares TCP segments instead of going out one small segment each. The
+ * batch buffer is only allocated once a client has had more than one frame waiting, and never
+ * grows past that size, so it costs each client a fixed amount outside its outbound budget. A
+ * lone frame, or one too large for the buffer, is written without copying.
+ */
+public class OutboundQueue implements Runnable {
+
+  /**
+   * The kind of a queued frame, which decides its lane and whether it may be discarded.
+   */
+  public enum FrameKind {
+    /**
+     * A connection response or failure notice, written ahead of chat traffic.
+     */
+    CONTROL,
+    /**
+     * Chat traffic addressed to this client alone. Never discarded.
+     */
+    DIRECT,
+    /**
+     * Chat traffic sent to every client. May be shed when the client or the server falls behind.
+     */
+    BROADCAST
+  }
+
+  /**
+   * What a queue does when a new frame would exceed its byte budget.
+   */
+  public enum OverflowPolicy {
+    /**
+     * The client's own requests are paused until the writer has made room. A reply or failure
+     * notice produced by the client's own scheduler turn is queued even past the budget, and the turn then gives up
+     * its worker before the next request, see {@link #pauseUntilRoom(Runnable)}; the client's
+     * reader stops once its inbound queue fills, pushing back on the socket. Replies are never
+     * lost and no thread waits.
+     * <p>
+     * Frames that do not come from the client's own turn cannot be paused at their source, so
+     * they silently fall back to {@link #DROP_OLDEST}: broadcasts, messages from other clients,
+     * heartbeats and notices routed by the message bus shed pending broadcasts, and may disconnect
+     * the client if they still do not fit.
+     */
+    BLOCK,
+    /**
+     * Pending broadcasts are discarded, oldest first, until the frame fits. A broadcast that
+     * still does not fit is itself discarded. A frame addressed to this client alone is never
+     * discarded; if it cannot fit, the client is disconnected instead.
+     */
+    DROP_OLDEST,
+    /**
+     * The client is disconnected.
+     */
+    DISCONNECT
+  }
+
+  private final ArrayDeque<Entry> control = new ArrayDeque<>();
+  private final ArrayDeque<Entry> bulk = new ArrayDeque<>();
+  private final OutputStream out;
+  private final OverflowPolicy policy;
+  private final long budgetBytes;
+  private final OutboundStats stats;
+  private final OutboundMemoryBudget memory;
+  private final Runnable onOverflow;
+  private long pendingBytes;
+  private boolean closed;
+  private final List<Runnable> onRoom = new ArrayList<>();
+  private boolean aborted;
+  private int controlStreak;
+  private byte[] batchBuffer;
+
+  /**
+   * Constructs an {@code OutboundQueue}. The caller runs it on the client's writer thread.
+   *
+   * @param out         the client's output stream
+   * @param policy      what to do when a frame does not fit in the budget
+   * @param budgetBytes the maximum number of bytes that may be pending
+   * @param stats       the counters to record overflow actions in
+   * @param memory      the server-wide budget queued bytes are charged to
+   * @param onOverflow  invoked, on the producing thread, when the client must be disconnected
+   */
+  public OutboundQueue(OutputStream out, OverflowPolicy policy, long budgetBytes,
+      OutboundStats stats, OutboundMemoryBudget memory, Runnable onOverflow) {
+    this.out = out;
+    this.policy = policy;
+    this.budgetBytes = budgetBytes;
+    this.stats = stats;
+    this.memory = memory;
+    this.onOverflow = onOverflow;
+  }
+
+  /**
+   * Queues a frame for writing on behalf of a producer other than the client's own turn.
+   *
+   * @param frame the encoded message; it is not copied and must not be modified
+   * @param kind  the kind of frame, which decides its lane and whether it may be discarded
+   * @throws IOException if the queue has been closed
+   */
+  public void offer(byte[] frame, FrameKind kind) throws IOException {
+    offer(frame, kind, false);
+  }
+
+  /**
+   * Queues a frame for writing.
+   *
+   * @param frame   the encoded message; it is not copied and must not be modified
+   * @param kind    the kind of frame, which decides its lane and whether it may be discarded
+   * @param ownTurn whether the frame is a reply produced by the client's own scheduler turn, which
+   *                {@link OverflowPolicy#BLOCK} queues past the budget and then pauses
+   * @throws IOException if the queue has been closed
+   */
+  public void offer(byte[] frame, FrameKind kind, boolean ownTurn) throws IOException {
+    boolean droppable = kind == FrameKind.BROADCAST;
+    boolean overflow = false;
+    synchronized (this) {
+      if (closed) {
+        throw new IOException("Connection closed");
+      }
+      if (!fits(frame.length)) {
+        OverflowPolicy action = policy;
+        if (action == OverflowPolicy.BLOCK && !(ownTurn && kind != FrameKind.BROADCAST)) {
+          action = OverflowPolicy.DROP_OLDEST;
+        }
+        switch (action) {
+          case BLOCK:
+            // Queued past the budget; the turn pauses before its next request.
+            break;
+          case DROP_OLDEST:
+            dropBroadcasts(frame.length);
+            if (!fits(frame.length)) {
+              if (droppable) {
+                stats.recordDropped();
+                return;
+              }
+              overflow = true;
+            }
+            break;
+          default:
+            overflow = true;
+        }
+      }
+      if (!overflow) {
+        if (!droppable) {
+          memory.reserve(frame.length);
+        } else if (!memory.tryReserve(frame.length)) {
+          stats.recordShed();
+          return;
+        }
+        (kind == FrameKind.CONTROL ? control : bulk).addLast(new Entry(frame, droppable));
+        pendingBytes += frame.length;
+        notifyAll();
+      }
+    }
+    if (overflow) {
+      stats.recordDisconnected();
+      abort();
+      onOverflow.run();
+      throw new IOException("Client is not keeping up; disconnected");
+    }
+  }
+
+  /**
+   * Queues a frame only if it fits in the budget, without applying the overflow policy. Never
+   * waits, so it is safe to call from the timer thread.
+   *
+   * @param frame the encoded message; it is not copied and must not be modified
+   * @param kind  the kind of frame, which decides its lane
+   * @return {@code true} if the frame was queued
+   */
+  public synchronized boolean offerIfRoom(byte[] frame, FrameKind kind) {
+    if (closed || !fits(frame.length)) {
+      return false;
+    }
+    memory.reserve(frame.length);
+    (kind == FrameKind.CONTROL ? control : bulk)
+        .addLast(new Entry(frame, kind == FrameKind.BROADCAST));
+    pendingBytes += frame.length;
+    notifyAll();
+    return true;
+  }
+
+  /**
+   * Under {@link OverflowPolicy#BLOCK}, decides whether the client's turn may process another
+   * request. If the queue has reached its budget, the turn should return without processing
+   * more; {@code resume} is then run, once, on the writer thread when the queue has drained below
+   * the budget. Several turns, such as the sessions of one gateway, may be paused on one queue. Under any other policy, or while there is room, this returns {@code true}.
+   *
+   * @param resume what to run once there is room again, typically making the turn ready
+   * @return {@code true} if the turn may continue; {@code false} if it must pause
+   */
+  public synchronized boolean pauseUntilRoom(Runnable resume) {
+    if (policy != OverflowPolicy.BLOCK || closed || pendingBytes < budgetBytes) {
+      return true;
+    }
+    stats.recordBlocked();
+    onRoom.add(resume);
+    return false;
+  }
+
+  /**
+   * Returns the number of bytes waiting to be written.
+   *
+   * @return the pending byte count
+   */
+  public synchronized long getPendingBytes() {
+    return pendingBytes;
+  }
+
+  /**
+   * Stops accepting frames. The writer thread finishes writing the frames already queued and
+   * then exits.
+   */
+  public synchronized void close() {
+    closed = true;
+    notifyAll();
+  }
+
+  /**
+   * Stops accepting frames and discards the ones still queued. The writer thread exits after the
+   * frame it is currently writing, if any.
+   */
+  public synchronized void abort() {
+    closed = true;
+    aborted = true;
+    memory.release(pendingBytes);
+    control.clear();
+    bulk.clear();
+    pendingBytes = 0;
+    notifyAll();
+  }
+
+  private boolean fits(int length) {
+    // A frame larger than the whole budget is still accepted once the queue has drained, so
+    // that it cannot wait forever.
+    return pendingBytes + length <= budgetBytes || pendingBytes == 0;
+  }
+
+  private void dropBroadcasts(int length) {
+    Iterator<Entry> it = bulk.iterator();
+    while (it.hasNext() && !fits(length)) {
+      Entry entry = it.next();
+      if (entry.droppable) {
+        it.remove();
+        pendingBytes -= entry.frame.length;
+        memory.release(entry.frame.length);
+        stats.recordDropped();
+      }
+    }
+  }
+
+  private Entry next() {
+    if (!control.isEmpty()
+        && (controlStreak < ChatRoomConstants.OUTBOUND_CONTROL_BURST || bulk.isEmpty())) {
+      controlStreak++;
+      return control.pollFirst();
+    }
+    controlStreak = 0;
+    return bulk.pollFirst();
+  }
+
+  @Override
+  public void run() {
+    List<Entry> batch = new ArrayList<>();
+    while (true) {
+      int batchBytes = 0;
+      synchronized (this) {
+        while (control.isEmpty() && bulk.isEmpty() && !closed) {
+          try {
+            wait();
+          } catch (InterruptedException e) {
+            return;
+          }
+        }
+        if (aborted || (control.isEmpty() && bulk.isEmpty())) {
+          return;
+        }
+        while (batchBytes < ChatRoomConstants.OUTBOUND_WRITE_BATCH_BYTES
+            && !(control.isEmpty() && bulk.isEmpty())) {
+          Entry entry = next();
+          batch.add(entry);
+          batchBytes += entry.frame.length;
+        }
+      }
+      try {
+        write(batch);
+      } catch (IOException e) {
+        abort();
+        return;
+      } finally {
+        batch.clear();
+      }
+      List<Runnable> resume = List.of();
+      synchronized (this) {
+        if (!aborted) {
+          pendingBytes -= batchBytes;
+          memory.release(batchBytes);
+        }
+        if (!onRoom.isEmpty() && pendingBytes < budgetBytes) {
+          resume = new ArrayList<>(onRoom);
+          onRoom.clear();
+        }
+      }
+      resume.forEach(Runnable::run);
+    }
+  }
+
+  private void write(List<Entry> batch) throws IOException {
+    if (batch.size() == 1) {
+      out.write(batch.get(0).frame);
+      out.flush();
+      return;
+    }
+    if (batchBuffer == null) {
+      batchBuffer = new byte[ChatRoomConstants.OUTBOUND_WRITE_BATCH_BYTES];
+    }
+    int buffered = 0;
+    for (Entry entry : batch) {
+      byte[] frame = entry.frame;
+      if (buffered + frame.length > batchBuffer.length && buffered > 0) {
+        out.write(batchBuffer, 0, buffered);
+        buffered = 0;
+      }
+      if (frame.length > batchBuffer.length) {
+        out.write(frame);
+      } else {
+        System.arraycopy(frame, 0, batchBuffer, buffered, frame.length);
+        buffered += frame.length;
+      }
+    }
+    if (buffered > 0) {
+      out.write(batchBuffer, 0, buffered);
+    }
+    out.flush();
+  }
+
+  private static final class Entry {
+
+    private final byte[] frame;
+    private final boolean droppable;
+
+    private Entry(byte[] frame, boolean droppable) {
+      this.frame = frame;
+      this.droppable = droppable;
+    }
+  }
+}
@@ -0,0 +1,80 @@
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The {@code OutboundStats} class counts the actions taken by the server's
+ * {@link OutboundQueue}s when clients fall behind, so that operators can tell how often slow
+ * consumers are being throttled, shed or disconnected, and how often broadcasts are shed because
+ * the server as a whole is holding too much undelivered data.
+ */
+public class OutboundStats {
+
+  private final LongAdder blocked = new LongAdder();
+  private final LongAdder dropped = new LongAdder();
+  private final LongAdder shed = new LongAdder();
+  private final LongAdder disconnected = new LongAdder();
+
+  void recordBlocked() {
+    blocked.increment();
+  }
+
+  void recordDropped() {
+    dropped.increment();
+  }
+
+  void recordShed() {
+    shed.increment();
+  }
+
+  void recordDisconnected() {
+    disconnected.increment();
+  }
+
+  /**
+   * Returns how many times a client's requests were paused until its queue drained, under
+   * {@link OutboundQueue.OverflowPolicy#BLOCK}.
+   *
+   * @return the number of paused turns
+   */
+  public long getBlocked() {
+    return blocked.sum();
+  }
+
+  /**
+   * Returns how many broadcast frames were discarded to make room in a client's queue.
+   *
+   * @return the number of dropped frames
+   */
+  public long getDropped() {
+    return dropped.sum();
+  }
+
+  /**
+   * Returns how many broadcast frames were not queued because the server-wide
+   * {@link OutboundMemoryBudget} was used up. These are counted apart from {@link #getDropped()},
+   * which counts frames shed because one client fell behind.
+   *
+   * @return the number of shed frames
+   */
+  public long getShed() {
+    return shed.sum();
+  }
+
+  /**
+   * Returns how many clients were disconnected for not keeping up.
+   *
+   * @return the number of disconnected clients
+   */
+  public long getDisconnected() {
+    return disconnected.sum();
+  }
+
+  @Override
+  public String toString() {
+    return "OutboundStats{" +
+        "blocked=" + getBlocked() +
+        ", dropped=" + getDropped() +
+        ", shed=" + getShed() +
+        ", disconnected=" + getDisconnected() +
+        '}';
+  }
+}
@@ -0,0 +1,87 @@
+import java.io.*;
+import java.util.Objects;
+
+/**
+ * The {@code Ping} class represents a heartbeat sent to check that the other end of a connection
+ * is still alive. The receiver answers with a {@link Pong} carrying the same timestamp, which lets
+ * the sender measure the round trip.
+ *
+ * <p>The server pings clients that have been quiet for a while and closes connections that stay
+ * silent past the idle timeout. A client may also ping the server.</p>
+ *
+ * <p>This class extends {@link BaseMessage} and provides methods for serialization and
+ * deserialization to facilitate communication over a network.</p>
+ */
+public class Ping extends BaseMessage {
+
+  private final long timestamp;
+
+  /**
+   * Constructs a new {@code Ping} message.
+   *
+   * @param timestamp the time the ping was sent, in milliseconds since the epoch
+   */
+  public Ping(long timestamp) {
+    super(ChatRoomConstants.PING);
+    this.timestamp = timestamp;
+  }
+
+  /**
+   * Returns the timestamp carried by this message.
+   *
+   * @return the time the ping was sent, in milliseconds since the epoch
+   */
+  public long getTimestamp() {
+    return timestamp;
+  }
+
+  /**
+   * Serializes this {@code Ping} message into the provided {@link DataOutputStream}.
+   *
+   * @param out the {@link DataOutputStream} to write the message to
+   * @throws IOException if an I/O error occurs while writing the message
+   */
+  @Override
+  public void writeMessage(DataOutputStream out) throws IOException {
+    super.writeMessage(out);
+    out.writeLong(timestamp);
+  }
+
+  /**
+   * Deserializes a {@code Ping} message from the provided {@link DataInputStream}.
+   *
+   * @param in the {@link DataInputStream} to read the message from
+   * @return a new {@code Ping} instance with the deserialized timestamp
+   * @throws IOException if an I/O error occurs while reading the message
+   */
+  public static Ping readPing(DataInputStream in) throws IOException {
+    return new Ping(in.readLong());
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (o == null || getClass() != o.getClass()) {
+      return false;
+    }
+    if (!super.equals(o)) {
+      return false;
+    }
+    Ping that = (Ping) o;
+    return timestamp == that.timestamp;
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(super.hashCode(), timestamp);
+  }
+
+  @Override
+  public String toString() {
+    return "Ping{" +
+        "timestamp=" + timestamp +
+        '}';
+  }
+}
@@ -0,0 +1,83 @@
+import java.io.*;
+import java.util.Objects;
+
+/**
+ * The {@code Pong} class represents the answer to a {@link Ping}. It echoes the ping's timestamp
+ * so that the pinging side can measure the round trip.
+ *
+ * <p>This class extends {@link BaseMessage} and provides methods for serialization and
+ * deserialization to facilitate communication over a network.</p>
+ */
+public class Pong extends BaseMessage {
+
+  private final long timestamp;
+
+  /**
+   * Constructs a new {@code Pong} message.
+   *
+   * @param timestamp the timestamp of the {@link Ping} being answered
+   */
+  public Pong(long timestamp) {
+    super(ChatRoomConstants.PONG);
+    this.timestamp = timestamp;
+  }
+
+  /**
+   * Returns the timestamp carried by this message.
+   *
+   * @return the timestamp of the {@link Ping} being answered
+   */
+  public long getTimestamp() {
+    return timestamp;
+  }
+
+  /**
+   * Serializes this {@code Pong} message into the provided {@link DataOutputStream}.
+   *
+   * @param out the {@link DataOutputStream} to write the message to
+   * @throws IOException if an I/O error occurs while writing the message
+   */
+  @Override
+  public void writeMessage(DataOutputStream out) throws IOException {
+    super.writeMessage(out);
+    out.writeLong(timestamp);
+  }
+
+  /**
+   * Deserializes a {@code Pong} message from the provided {@link DataInputStream}.
+   *
+   * @param in the {@link DataInputStream} to read the message from
+   * @return a new {@code Pong} instance with the deserialized timestamp
+   * @throws IOException if an I/O error occurs while reading the message
+   */
+  public static Pong readPong(DataInputStream in) throws IOException {
+    return new Pong(in.readLong());
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (o == null || getClass() != o.getClass()) {
+      return false;
+    }
+    if (!super.equals(o)) {
+      return false;
+    }
+    Pong that = (Pong) o;
+    return timestamp == that.timestamp;
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(super.hashCode(), timestamp);
+  }
+
+  @Override
+  public String toString() {
+    return "Pong{" +
+        "timestamp=" + timestamp +
+        '}';
+  }
+}
@@ -0,0 +1,198 @@
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+/**
+ * The {@code PresenceCoalescer} class aggregates join and leave events over a short window so that
+ * a burst of connections produces one presence notification instead of one broadcast per user.
+ * <p>
+ * The first change after a quiet period opens a window of {@code windowMillis}; when the window
+ * closes, or as soon as {@code maxBatch} changes are pending, the accumulated changes are handed to
+ * the sink as a single batch. A user who joins and leaves within the same window, or leaves and
+ * reconnects, cancels out and is not reported at all.
+ * <p>
+ * Batches reach the sink one at a time and in the order they were taken, whether the timer or a
+ * full batch triggered them, so a leave is never delivered ahead of the join it follows.
+ */
+public class PresenceCoalescer {
+
+  private final BiConsumer<List<String>, List<String>> sink;
+  private final Map<String, String> joined = new LinkedHashMap<>();
+  private final Map<String, String> left = new LinkedHashMap<>();
+  private final ScheduledExecutorService timer;
+  private final Object flushLock = new Object();
+  private volatile long windowMillis;
+  private volatile int maxBatch;
+  private boolean flushScheduled;
+  private long window;
+
+  /**
+   * Constructs a {@code PresenceCoalescer}.
+   *
+   * @param sink         receives the names that joined and the names that left in each batch
+   * @param windowMillis how long changes are accumulated before being flushed
+   * @param maxBatch     the number of pending changes that triggers an immediate flush
+   */
+  public PresenceCoalescer(BiConsumer<List<String>, List<String>> sink, long windowMillis,
+      int maxBatch) {
+    this.sink = sink;
+    this.windowMillis = windowMillis;
+    this.maxBatch = maxBatch;
+    timer = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread thread = new Thread(r, "presence-coalescer");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /**
+   * Records that a user joined the chat.
+   *
+   * @param username the user's name
+   */
+  public void recordJoin(String username) {
+    record(username, joined, left);
+  }
+
+  /**
+   * Records that a user left the chat.
+   *
+   * @param username the user's name
+   */
+  public void recordLeave(String username) {
+    record(username, left, joined);
+  }
+
+  /**
+   * Returns the length of the aggregation window.
+   *
+   * @return the window in milliseconds
+   */
+  public long getWindowMillis() {
+    return windowMillis;
+  }
+
+  /**
+   * Returns the number of pending changes that triggers an immediate flush.
+   *
+   * @return the maximum batch size
+   */
+  public int getMaxBatch() {
+    return maxBatch;
+  }
+
+  /**
+   * Changes the length of the aggregation window. Takes effect from the next window.
+   *
+   * @param windowMillis the new window in milliseconds
+   */
+  public void setWindowMillis(long windowMillis) {
+    this.windowMillis = windowMillis;
+  }
+
+  /**
+   * Changes the number of pending changes that triggers an immediate flush.
+   *
+   * @param maxBatch the new maximum batch size
+   */
+  public void setMaxBatch(int maxBatch) {
+    this.maxBatch = maxBatch;
+  }
+
+  /**
+   * Delivers any pending changes immediately.
+   */
+  public void flush() {
+    deliver(-1);
+  }
+
+  private void flushWindow(long expired) {
+    deliver(expired);
+  }
+
+  /**
+   * Takes the pending changes and hands them to the sink. The flush lock is held across the sink
+   * call, so that a batch taken later cannot overtake one still being delivered.
+   *
+   * @param expired the window whose timer fired, or {@code -1} for an immediate flush
+   */
+  private void deliver(long expired) {
+    synchronized (flushLock) {
+      List<String> joinedNames;
+      List<String> leftNames;
+      synchronized (this) {
+        if (expired >= 0 && (!flushScheduled || expired != window)) {
+          // The window was already flushed early; a later window has its own timer.
+          return;
+        }
+        flushScheduled = false;
+        if (joined.isEmpty() && left.isEmpty()) {
+          return;
+        }
+        joinedNames = new ArrayList<>(joined.values());
+        leftNames = new ArrayList<>(left.values());
+        joined.clear();
+        left.clear();
+      }
+      sink.accept(joinedNames, leftNames);
+    }
+  }
+
+  /**
+   * Flushes pending changes and stops the window timer.
+   */
+  public void shutdown() {
+    timer.shutdownNow();
+    flush();
+  }
+
+  /**
+   * Formats a batch of changes as the text of a single announcement, for example
+   * {@code "joined: a, b, c / left: d"}.
+   *
+   * @param joinedNames the names that joined
+   * @param leftNames   the names that left
+   * @return the announcement text
+   */
+  public static String format(List<String> joinedNames, List<String> leftNames) {
+    StringBuilder text = new StringBuilder();
+    if (!joinedNames.isEmpty()) {
+      text.append("joined: ").append(String.join(", ", joinedNames));
+    }
+    if (!leftNames.isEmpty()) {
+      if (text.length() > 0) {
+        text.append(" / ");
+      }
+      text.append("left: ").append(String.join(", ", leftNames));
+    }
+    return text.toString();
+  }
+
+  private void record(String username, Map<String, String> added, Map<String, String> opposite) {
+    String key = username.toLowerCase(Locale.ROOT);
+    boolean flushNow = false;
+    synchronized (this) {
+      if (opposite.remove(key) == null) {
+        added.put(key, username);
+      }
+      if (joined.size() + left.size() >= maxBatch) {
+        flushNow = true;
+      } else if (!flushScheduled && !(joined.isEmpty() && left.isEmpty())) {
+        flushScheduled = true;
+        long current = ++window;
+        if (!timer.isShutdown()) {
+          timer.schedule(() -> flushWindow(current), windowMillis, TimeUnit.MILLISECONDS);
+        }
+      }
+    }
+    if (flushNow) {
+      flush();
+    }
+  }
+}
@@ -0,0 +1,139 @@
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * The {@code PresenceDelta} class represents an incremental change to the list of connected
+ * users, pushed by the server to every client subscribed with {@link SubscribePresence}. Each
+ * delta carries a version one higher than the previous one; a client ignores deltas whose version
+ * is not newer than its {@link PresenceSnapshot}.
+ *
+ * <p>This class extends {@link BaseMessage} and includes the version and the names of the users
+ * that joined and left. It provides methods for serialization and deserialization to facilitate
+ * communication over a network.</p>
+ */
+public class PresenceDelta extends BaseMessage {
+
+  private final long version;
+  private final List<String> joined;
+  private final List<String> left;
+
+  /**
+   * Constructs a new {@code PresenceDelta}.
+   *
+   * @param version the presence version after applying this delta
+   * @param joined  the usernames that joined
+   * @param left    the usernames that left
+   */
+  public PresenceDelta(long version, List<String> joined, List<String> left) {
+    super(ChatRoomConstants.PRESENCE_DELTA);
+    this.version = version;
+    this.joined = joined;
+    this.left = left;
+  }
+
+  /**
+   * Returns the presence version after applying this delta.
+   *
+   * @return the delta version
+   */
+  public long getVersion() {
+    return version;
+  }
+
+  /**
+   * Returns the usernames that joined.
+   *
+   * @return the joined users
+   */
+  public List<String> getJoined() {
+    return joined;
+  }
+
+  /**
+   * Returns the usernames that left.
+   *
+   * @return the users that left
+   */
+  public List<String> getLeft() {
+    return left;
+  }
+
+  /**
+   * Serializes this {@code PresenceDelta} into the provided {@link DataOutputStream}.
+   *
+   * <p>The message includes the base message type, the version, and the joined and left lists,
+   * each prefixed by its size.</p>
+   *
+   * @param out the {@link DataOutputStream} to write the message to
+   * @throws IOException if an I/O error occurs while writing the message
+   */
+  @Override
+  public void writeMessage(DataOutputStream out) throws IOException {
+    super.writeMessage(out);
+    out.writeLong(version);
+    writeNames(out, joined);
+    writeNames(out, left);
+  }
+
+  /**
+   * Deserializes a {@code PresenceDelta} from the provided {@link DataInputStream}.
+   *
+   * @param in the {@link DataInputStream} to read the message from
+   * @return a new {@code PresenceDelta} with the deserialized fields
+   * @throws IOException if an I/O error occurs while reading the message
+   */
+  public static PresenceDelta readPresenceDelta(DataInputStream in) throws IOException {
+    long version = in.readLong();
+    List<String> joined = readNames(in);
+    List<String> left = readNames(in);
+    return new PresenceDelta(version, joined, left);
+  }
+
+  private static void writeNames(DataOutputStream out, List<String> names) throws IOException {
+    out.writeInt(names.size());
+    for (String name : names) {
+      IOUtils.writeStringAsBytes(out, name);
+    }
+  }
+
+  private static List<String> readNames(DataInputStream in) throws IOException {
+    int size = in.readInt();
+    List<String> names = new ArrayList<>();
+    for (int i = 0; i < size; i++) {
+      names.add(IOUtils.readBytesAsString(in));
+    }
+    return names;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (o == null || getClass() != o.getClass()) {
+      return false;
+    }
+    if (!super.equals(o)) {
+      return false;
+    }
+    PresenceDelta that = (PresenceDelta) o;
+    return version == that.version && Objects.equals(joined, that.joined)
+        && Objects.equals(left, that.left);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(super.hashCode(), version, joined, left);
+  }
+
+  @Override
+  public String toString() {
+    return "PresenceDelta{" +
+        "version=" + version +
+        ", joined=" + joined +
+        ", left=" + left +
+        '}';
+  }
+}
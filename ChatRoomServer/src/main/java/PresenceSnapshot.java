@@ -0,0 +1,113 @@
+import java.io.*;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * The {@code PresenceSnapshot} class represents the full list of connected users sent by the
+ * server when a client subscribes to presence updates. The snapshot carries the presence version
+ * it reflects; subsequent {@link PresenceDelta} messages with a higher version describe the
+ * changes since.
+ *
+ * <p>This class extends {@link BaseMessage} and includes the version and the list of usernames.
+ * It provides methods for serialization and deserialization to facilitate communication over a
+ * network.</p>
+ */
+public class PresenceSnapshot extends BaseMessage {
+
+  private final long version;
+  private final List<String> users;
+
+  /**
+   * Constructs a new {@code PresenceSnapshot}.
+   *
+   * @param version the presence version this snapshot reflects
+   * @param users   the usernames of all connected users
+   */
+  public PresenceSnapshot(long version, List<String> users) {
+    super(ChatRoomConstants.PRESENCE_SNAPSHOT);
+    this.version = version;
+    this.users = users;
+  }
+
+  /**
+   * Returns the presence version this snapshot reflects.
+   *
+   * @return the snapshot version
+   */
+  public long getVersion() {
+    return version;
+  }
+
+  /**
+   * Returns the usernames of all connected users.
+   *
+   * @return the connected users
+   */
+  public List<String> getUsers() {
+    return users;
+  }
+
+  /**
+   * Serializes this {@code PresenceSnapshot} into the provided {@link DataOutputStream}.
+   *
+   * <p>The message includes the base message type, the version, the number of users, and the
+   * usernames.</p>
+   *
+   * @param out the {@link DataOutputStream} to write the message to
+   * @throws IOException if an I/O error occurs while writing the message
+   */
+  @Override
+  public void writeMessage(DataOutputStream out) throws IOException {
+    super.writeMessage(out);
+    out.writeLong(version);
+    out.writeInt(users.size());
+    for (String user : users) {
+      IOUtils.writeStringAsBytes(out, user);
+    }
+  }
+
+  /**
+   * Deserializes a {@code PresenceSnapshot} from the provided {@link DataInputStream}.
+   *
+   * @param in the {@link DataInputStream} to read the message from
+   * @return a new {@code PresenceSnapshot} with the deserialized fields
+   * @throws IOException if an I/O error occurs while reading the message
+   */
+  public static PresenceSnapshot readPresenceSnapshot(DataInputStream in) throws IOException {
+    long version = in.readLong();
+    int size = in.readInt();
+    List<String> users = new java.util.ArrayList<>();
+    for (int i = 0; i < size; i++) {
+      users.add(IOUtils.readBytesAsString(in));
+    }
+    return new PresenceSnapshot(version, users);
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (o == null || getClass() != o.getClass()) {
+      return false;
+    }
+    if (!super.equals(o)) {
+      return false;
+    }
+    PresenceSnapshot that = (PresenceSnapshot) o;
+    return version == that.version && Objects.equals(users, that.users);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(super.hashCode(), version, users);
+  }
+
+  @Override
+  public String toString() {
+    return "PresenceSnapshot{" +
+        "version=" + version +
+        ", users=" + users +
+        '}';
+  }
+}
@@ -6,21 +6,49 @@ import java.util.Objects;
  * of currently connected users in the chat system.
  *
  * <p>This class extends {@link BaseMessage} and includes a username field to
- * identify the client making the request. It provides methods for serialization and deserialization
+ * identify the client making the request. A query may also ask for one page of a large listing:
+ * only names starting with {@code prefix} (ignoring case), ordered case-insensitively, that sort
+ * after {@code cursor}, at most {@code limit} of them. A query with no prefix, no cursor and a
+ * limit of zero asks for the whole list. It provides methods for serialization and deserialization
  * to facilitate communication over a network.</p>
+ *
+ * <p>A query for the whole list is sent as {@link ChatRoomConstants#QUERY_CONNECTED_USERS} and
+ * carries only the username, as it always has; a query for a page is sent as
+ * {@link ChatRoomConstants#QUERY_USER_PAGE} with the extra fields, so peers that predate paging
+ * never misread one for the other.</p>
  */
 public class QueryConnectedUsers extends BaseMessage {
 
   private final String username;
+  private final String prefix;
+  private final String cursor;
+  private final int limit;
 
   /**
-   * Constructs a new {@code QueryConnectedUsers} message with the specified username.
+   * Constructs a new {@code QueryConnectedUsers} message with the specified username that asks for
+   * every connected user.
    *
    * @param username the username of the client making the query
    */
   public QueryConnectedUsers(String username) {
-    super(ChatRoomConstants.QUERY_CONNECTED_USERS);
+    this(username, "", "", 0);
+  }
+
+  /**
+   * Constructs a new {@code QueryConnectedUsers} message that asks for one page of users.
+   *
+   * @param username the username of the client making the query
+   * @param prefix   only list names starting with this prefix, ignoring case; empty for all
+   * @param cursor   the cursor returned with the previous page; empty for the first page
+   * @param limit    the maximum number of names to return; zero for the server's default
+   */
+  public QueryConnectedUsers(String username, String prefix, String cursor, int limit) {
+    super(prefix.isEmpty() && cursor.isEmpty() && limit == 0
+        ? ChatRoomConstants.QUERY_CONNECTED_USERS : ChatRoomConstants.QUERY_USER_PAGE);
     this.username = username;
+    this.prefix = prefix;
+    this.cursor = cursor;
+    this.limit = limit;
   }
 
   /**
@@ -32,11 +60,48 @@ public class QueryConnectedUsers extends BaseMessage {
     return username;
   }
 
+  /**
+   * Returns the prefix that listed names must start with.
+   *
+   * @return the prefix, or an empty string to list every name
+   */
+  public String getPrefix() {
+    return prefix;
+  }
+
+  /**
+   * Returns the cursor after which the listing continues.
+   *
+   * @return the cursor, or an empty string for the first page
+   */
+  public String getCursor() {
+    return cursor;
+  }
+
+  /**
+   * Returns the maximum number of names requested.
+   *
+   * @return the page size, or zero for the server's default
+   */
+  public int getLimit() {
+    return limit;
+  }
+
+  /**
+   * Returns whether this query asks for the complete, unfiltered list of users.
+   *
+   * @return {@code true} if no prefix, cursor or limit was given
+   */
+  public boolean isUnpaged() {
+    return getMessageType() == ChatRoomConstants.QUERY_CONNECTED_USERS;
+  }
+
   /**
    * Serializes this {@code QueryConnectedUsers} message into the provided
    * {@link DataOutputStream}.
    *
-   * <p>The message includes the base message type and the username.</p>
+   * <p>The message includes the base message type and the username; a paged query adds the
+   * prefix, the cursor and the limit.</p>
    *
    * @param out the {@link DataOutputStream} to write the message to
    * @throws IOException if an I/O error occurs while writing the message
@@ -45,18 +110,39 @@ public class QueryConnectedUsers extends BaseMessage {
   public void writeMessage(DataOutputStream out) throws IOException {
     super.writeMessage(out);
     IOUtils.writeStringAsBytes(out, username);
+    if (isUnpaged()) {
+      return;
+    }
+    IOUtils.writeStringAsBytes(out, prefix);
+    IOUtils.writeStringAsBytes(out, cursor);
+    out.writeInt(limit);
   }
 
   /**
    * Deserializes a {@code QueryConnectedUsers} message from the provided {@link DataInputStream}.
    *
    * @param in the {@link DataInputStream} to read the message from
-   * @return a new {@code QueryConnectedUsers} instance with the deserialized username
+   * @return a new {@code QueryConnectedUsers} instance with the deserialized fields
    * @throws IOException if an I/O error occurs while reading the message
    */
   public static QueryConnectedUsers readQueryConnectedUsers(DataInputStream in) throws IOException {
+    return new QueryConnectedUsers(IOUtils.readBytesAsString(in));
+  }
+
+  /**
+   * Deserializes a paged {@code QueryConnectedUsers} message from the provided
+   * {@link DataInputStream}.
+   *
+   * @param in the {@link DataInputStream} to read the message from
+   * @return a new {@code QueryConnectedUsers} instance with the deserialized fields
+   * @throws IOException if an I/O error occurs while reading the message
+   */
+  public static QueryConnectedUsers readQueryUserPage(DataInputStream in) throws IOException {
     String username = IOUtils.readBytesAsString(in);
-    return new QueryConnectedUsers(username);
+    String prefix = IOUtils.readBytesAsString(in);
+    String cursor = IOUtils.readBytesAsString(in);
+    int limit = in.readInt();
+    return new QueryConnectedUsers(username, prefix, cursor, limit);
   }
 
   @Override
@@ -71,18 +157,22 @@ public class QueryConnectedUsers extends BaseMessage {
       return false;
     }
     QueryConnectedUsers that = (QueryConnectedUsers) o;
-    return Objects.equals(username, that.username);
+    return limit == that.limit && Objects.equals(username, that.username)
+        && Objects.equals(prefix, that.prefix) && Objects.equals(cursor, that.cursor);
   }
 
   @Override
   public int hashCode() {
-    return Objects.hash(super.hashCode(), username);
+    return Objects.hash(super.hashCode(), username, prefix, cursor, limit);
   }
 
   @Override
   public String toString() {
     return "QueryConnectedUsers{" +
         "username='" + username + '\'' +
+        ", prefix='" + prefix + '\'' +
+        ", cursor='" + cursor + '\'' +
+        ", limit=" + limit +
         '}';
   }
 }
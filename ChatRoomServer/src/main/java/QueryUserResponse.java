@@ -7,21 +7,42 @@ import java.util.Objects;
  * request for the list of currently connected users in the chat system.
  *
  * <p>This class extends {@link BaseMessage} and includes a list of usernames representing
- * the connected users. It provides methods for serialization and deserialization to facilitate
+ * the connected users. When the list is one page of a larger listing, {@code nextCursor} is the
+ * cursor to send in the next {@link QueryConnectedUsers} to continue; it is empty on the last
+ * page. It provides methods for serialization and deserialization to facilitate
  * communication over a network.</p>
+ *
+ * <p>The complete list is sent as {@link ChatRoomConstants#QUERY_USER_RESPONSE} without a cursor,
+ * as it always has; a page is sent as {@link ChatRoomConstants#QUERY_USER_PAGE_RESPONSE}, which
+ * only clients that asked for a page receive.</p>
  */
 public class QueryUserResponse extends BaseMessage {
 
   private final List<String> users;
+  private final String nextCursor;
 
   /**
-   * Constructs a new {@code QueryUserResponse} with the specified list of users.
+   * Constructs a new {@code QueryUserResponse} with the specified list of users and no further
+   * pages.
    *
    * @param users the list of connected users
    */
   public QueryUserResponse(List<String> users) {
     super(ChatRoomConstants.QUERY_USER_RESPONSE);
     this.users = users;
+    this.nextCursor = "";
+  }
+
+  /**
+   * Constructs a new {@code QueryUserResponse} holding one page of users.
+   *
+   * @param users      the users on this page
+   * @param nextCursor the cursor for the next page, or an empty string if this is the last page
+   */
+  public QueryUserResponse(List<String> users, String nextCursor) {
+    super(ChatRoomConstants.QUERY_USER_PAGE_RESPONSE);
+    this.users = users;
+    this.nextCursor = nextCursor;
   }
 
   /**
@@ -33,10 +54,29 @@ public class QueryUserResponse extends BaseMessage {
     return users;
   }
 
+  /**
+   * Returns the cursor to request the next page with.
+   *
+   * @return the next cursor, or an empty string if there are no more users
+   */
+  public String getNextCursor() {
+    return nextCursor;
+  }
+
+  /**
+   * Returns whether more users are available after this page.
+   *
+   * @return {@code true} if {@link #getNextCursor()} is not empty
+   */
+  public boolean hasMore() {
+    return !nextCursor.isEmpty();
+  }
+
   /**
    * Serializes this {@code QueryUserResponse} into the provided {@link DataOutputStream}.
    *
-   * <p>The message includes the base message type, the number of users, and the usernames.</p>
+   * <p>The message includes the base message type, the number of users and the usernames; a page
+   * adds the cursor for the next page.</p>
    *
    * @param out the {@link DataOutputStream} to write the message to
    * @throws IOException if an I/O error occurs while writing the message
@@ -48,6 +88,9 @@ public class QueryUserResponse extends BaseMessage {
     for (String user : users) {
       IOUtils.writeStringAsBytes(out, user);
     }
+    if (getMessageType() == ChatRoomConstants.QUERY_USER_PAGE_RESPONSE) {
+      IOUtils.writeStringAsBytes(out, nextCursor);
+    }
   }
 
   /**
@@ -58,12 +101,30 @@ public class QueryUserResponse extends BaseMessage {
    * @throws IOException if an I/O error occurs while reading the message
    */
   public static QueryUserResponse readQueryUserResponse(DataInputStream in) throws IOException {
+    return new QueryUserResponse(readUsers(in));
+  }
+
+  /**
+   * Deserializes a page of a {@code QueryUserResponse} from the provided {@link DataInputStream}.
+   *
+   * @param in the {@link DataInputStream} to read the message from
+   * @return a new {@code QueryUserResponse} instance with the users and the next cursor
+   * @throws IOException if an I/O error occurs while reading the message
+   */
+  public static QueryUserResponse readQueryUserPageResponse(DataInputStream in)
+      throws IOException {
+    List<String> users = readUsers(in);
+    String nextCursor = IOUtils.readBytesAsString(in);
+    return new QueryUserResponse(users, nextCursor);
+  }
+
+  private static List<String> readUsers(DataInputStream in) throws IOException {
     int size = in.readInt();
     List<String> users = new java.util.ArrayList<>();
     for (int i = 0; i < size; i++) {
       users.add(IOUtils.readBytesAsString(in));
     }
-    return new QueryUserResponse(users);
+    return users;
   }
 
   @Override
@@ -78,18 +139,19 @@ public class QueryUserResponse extends BaseMessage {
       return false;
     }
     QueryUserResponse that = (QueryUserResponse) o;
-    return Objects.equals(users, that.users);
+    return Objects.equals(users, that.users) && Objects.equals(nextCursor, that.nextCursor);
   }
 
   @Override
   public int hashCode() {
-    return Objects.hash(super.hashCode(), users);
+    return Objects.hash(super.hashCode(), users, nextCursor);
   }
 
   @Override
   public String toString() {
     return "QueryUserResponse{" +
         "users=" + users +
+        ", nextCursor='" + nextCursor + '\'' +
         '}';
   }
 }
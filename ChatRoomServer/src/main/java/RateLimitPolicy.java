@@ -0,0 +1,110 @@
+/**
+ * The {@code RateLimitPolicy} class describes how fast each client may send messages to the
+ * server: an overall limit on every message a user sends, optional tighter limits for individual
+ * message types, and what to do with a message that exceeds them.
+ * <p>
+ * A policy is a description only; each connection gets its own {@link RateLimiter} from
+ * {@link #newLimiter(long)}, so that limits are enforced per user without any shared state.
+ */
+public class RateLimitPolicy {
+
+  /**
+   * What the server does when a client exceeds its rate.
+   */
+  public enum Mode {
+    /**
+     * Drop the message and reply with a {@link FailedMessage}.
+     */
+    REJECT,
+    /**
+     * Stop reading from the client's socket until the message is within the rate, then process
+     * it. The client is slowed down by TCP flow control rather than told about the limit.
+     */
+    THROTTLE
+  }
+
+  private static final int TYPE_COUNT =
+      ChatRoomConstants.PONG - ChatRoomConstants.CONNECT_MESSAGE + 1;
+
+  private final Mode mode;
+  private final double ratePerSecond;
+  private final int burst;
+  private final double[] typeRates = new double[TYPE_COUNT];
+  private final int[] typeBursts = new int[TYPE_COUNT];
+
+  /**
+   * Constructs a {@code RateLimitPolicy} with an overall per-user limit and no per-type limits.
+   *
+   * @param mode          how messages over the limit are handled
+   * @param ratePerSecond the sustained number of messages per second a user may send
+   * @param burst         the number of messages a user may send at once after being idle
+   */
+  public RateLimitPolicy(Mode mode, double ratePerSecond, int burst) {
+    this.mode = mode;
+    this.ratePerSecond = ratePerSecond;
+    this.burst = burst;
+  }
+
+  /**
+   * Returns the default policy: {@link ChatRoomConstants#RATE_LIMIT_PER_SECOND} messages per
+   * second overall, with broadcasts, which reach every client, and insults, which the server has
+   * to generate, limited further.
+   *
+   * @return the default policy
+   */
+  public static RateLimitPolicy defaultPolicy() {
+    return new RateLimitPolicy(Mode.REJECT, ChatRoomConstants.RATE_LIMIT_PER_SECOND,
+        ChatRoomConstants.RATE_LIMIT_BURST)
+        .limitType(ChatRoomConstants.BROADCAST_MESSAGE,
+            ChatRoomConstants.BROADCAST_RATE_LIMIT_PER_SECOND,
+            ChatRoomConstants.BROADCAST_RATE_LIMIT_BURST)
+        .limitType(ChatRoomConstants.SEND_INSULT,
+            ChatRoomConstants.BROADCAST_RATE_LIMIT_PER_SECOND,
+            ChatRoomConstants.BROADCAST_RATE_LIMIT_BURST);
+  }
+
+  /**
+   * Adds a limit for one message type, applied in addition to the overall limit.
+   *
+   * @param messageType   the message type, one of the type constants in
+   *                      {@link ChatRoomConstants}
+   * @param ratePerSecond the sustained number of messages of this type per second
+   * @param burst         the number of messages of this type a user may send at once
+   * @return this policy
+   * @throws IllegalArgumentException if {@code messageType} is not a known message type
+   */
+  public RateLimitPolicy limitType(int messageType, double ratePerSecond, int burst) {
+    int index = messageType - ChatRoomConstants.CONNECT_MESSAGE;
+    if (index < 0 || index >= TYPE_COUNT) {
+      throw new IllegalArgumentException("Unknown message type: " + messageType);
+    }
+    typeRates[index] = ratePerSecond;
+    typeBursts[index] = burst;
+    return this;
+  }
+
+  /**
+   * Returns how messages over the limit are handled.
+   *
+   * @return the policy's mode
+   */
+  public Mode getMode() {
+    return mode;
+  }
+
+  /**
+   * Creates the limiter for one connection, starting with full buckets.
+   *
+   * @param nowNanos the current time, as returned by {@link System#nanoTime()}
+   * @return a new limiter enforcing this policy
+   */
+  public RateLimiter newLimiter(long nowNanos) {
+    TokenBucket[] typeBuckets = new TokenBucket[TYPE_COUNT];
+    for (int i = 0; i < TYPE_COUNT; i++) {
+      if (typeBursts[i] > 0) {
+        typeBuckets[i] = new TokenBucket(typeRates[i], typeBursts[i], nowNanos);
+      }
+    }
+    return new RateLimiter(mode, new TokenBucket(ratePerSecond, burst, nowNanos), typeBuckets);
+  }
+}
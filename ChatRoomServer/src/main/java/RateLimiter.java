@@ -0,0 +1,70 @@
+/**
+ * The {@code RateLimiter} class enforces a {@link RateLimitPolicy} for a single connection. It is
+ * only used by that connection's {@link ClientHandler} thread, so it needs no synchronization.
+ * <p>
+ * A message is admitted only if both the user's overall bucket and the bucket for its type, if
+ * any, hold a token; tokens are taken from both together, so a message rejected by one bucket
+ * does not use up the other.
+ */
+public class RateLimiter {
+
+  private final RateLimitPolicy.Mode mode;
+  private final TokenBucket userBucket;
+  private final TokenBucket[] typeBuckets;
+
+  RateLimiter(RateLimitPolicy.Mode mode, TokenBucket userBucket, TokenBucket[] typeBuckets) {
+    this.mode = mode;
+    this.userBucket = userBucket;
+    this.typeBuckets = typeBuckets;
+  }
+
+  /**
+   * Returns how messages over the limit are handled.
+   *
+   * @return the limiter's mode
+   */
+  public RateLimitPolicy.Mode getMode() {
+    return mode;
+  }
+
+  /**
+   * Admits a message if the user is within its rate.
+   *
+   * @param messageType the type of the message
+   * @param nowNanos    the current time, as returned by {@link System#nanoTime()}
+   * @return {@code true} if the message may be processed
+   */
+  public boolean tryAcquire(int messageType, long nowNanos) {
+    TokenBucket typeBucket = typeBucket(messageType);
+    if (!userBucket.available(nowNanos)
+        || (typeBucket != null && !typeBucket.available(nowNanos))) {
+      return false;
+    }
+    userBucket.take();
+    if (typeBucket != null) {
+      typeBucket.take();
+    }
+    return true;
+  }
+
+  /**
+   * Returns how long until a message of the given type would be admitted.
+   *
+   * @param messageType the type of the message
+   * @param nowNanos    the current time, as returned by {@link System#nanoTime()}
+   * @return the wait in nanoseconds, or {@code 0} if it would be admitted now
+   */
+  public long nanosUntilAvailable(int messageType, long nowNanos) {
+    long wait = userBucket.nanosUntilAvailable(nowNanos);
+    TokenBucket typeBucket = typeBucket(messageType);
+    if (typeBucket != null) {
+      wait = Math.max(wait, typeBucket.nanosUntilAvailable(nowNanos));
+    }
+    return wait;
+  }
+
+  private TokenBucket typeBucket(int messageType) {
+    int index = messageType - ChatRoomConstants.CONNECT_MESSAGE;
+    return index >= 0 && index < typeBuckets.length ? typeBuckets[index] : null;
+  }
+}
@@ -0,0 +1,242 @@
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The {@code RingBufferMessageBus} class is a {@link MessageBus} built as a pipeline over a
+ * pre-allocated ring of {@link MessageEvent} slots, in the style of the LMAX Disruptor.
+ * <p>
+ * Client threads decode messages and publish them into the ring. Three stage threads then
+ * process every slot in sequence order:
+ * <ol>
+ *   <li>route: notifies subscribers, then validates the request and resolves its recipients
+ *   with the {@link MessageRouter};</li>
+ *   <li>encode: serializes the outgoing message once for all recipients;</li>
+ *   <li>write: writes the shared bytes to the recipients' sockets.</li>
+ * </ol>
+ * Each stage tracks its progress in its own sequence counter and only reads slots that the
+ * previous stage has released, so the stages share no locks. A stage that falls behind processes
+ * everything that is ready in one batch. Publishers claim slots with a single atomic increment and
+ * wait only if the ring is full, which bounds the memory held by in-flight messages.
+ */
+public class RingBufferMessageBus implements MessageBus {
+
+  private static final int SPIN_TRIES = 100;
+  private static final long MAX_PARK_NANOS = 1_000_000L;
+  private static final long IDLE_PARK_NANOS = 100_000_000L;
+
+  private final MessageEvent[] entries;
+  private final int mask;
+  private final int indexShift;
+  private final AtomicLong claimed = new AtomicLong(-1);
+  private final AtomicIntegerArray published;
+  private final List<MessageListener> listeners = new CopyOnWriteArrayList<>();
+  private final MessageRouter router;
+  private final Stage routeStage;
+  private final Stage encodeStage;
+  private final Stage writeStage;
+  private volatile boolean running = true;
+
+  /**
+   * Constructs a {@code RingBufferMessageBus} and starts its stage threads.
+   *
+   * @param capacity the number of slots in the ring; must be a power of two
+   * @param router   the router used by the route, encode and write stages
+   * @throws IllegalArgumentException if {@code capacity} is not a positive power of two
+   */
+  public RingBufferMessageBus(int capacity, MessageRouter router) {
+    if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+      throw new IllegalArgumentException("Ring capacity must be a power of two: " + capacity);
+    }
+    this.router = router;
+    entries = new MessageEvent[capacity];
+    for (int i = 0; i < capacity; i++) {
+      entries[i] = new MessageEvent();
+    }
+    mask = capacity - 1;
+    indexShift = Integer.numberOfTrailingZeros(capacity);
+    published = new AtomicIntegerArray(capacity);
+    for (int i = 0; i < capacity; i++) {
+      published.set(i, -1);
+    }
+
+    routeStage = new Stage("bus-route", null);
+    encodeStage = new Stage("bus-encode", routeStage);
+    writeStage = new Stage("bus-write", encodeStage);
+    routeStage.next = encodeStage;
+    encodeStage.next = writeStage;
+    routeStage.start();
+    encodeStage.start();
+    writeStage.start();
+  }
+
+  @Override
+  public void subscribe(MessageListener listener) {
+    listeners.add(listener);
+  }
+
+  @Override
+  public void unsubscribe(MessageListener listener) {
+    listeners.remove(listener);
+  }
+
+  @Override
+  public void publish(ClientHandler source, BaseMessage message) {
+    if (!running) {
+      return;
+    }
+    long sequence = claimed.incrementAndGet();
+    long wrapPoint = sequence - entries.length;
+    int idle = 0;
+    while (wrapPoint > writeStage.sequence.get()) {
+      idle = backOff(idle);
+    }
+    int index = (int) sequence & mask;
+    entries[index].set(source, message);
+    published.set(index, (int) (sequence >>> indexShift));
+    routeStage.signal();
+  }
+
+  @Override
+  public void shutdown() {
+    running = false;
+    routeStage.signal();
+  }
+
+  @Override
+  public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+    writeStage.thread.join(Math.max(1, unit.toMillis(timeout)));
+    return !writeStage.thread.isAlive();
+  }
+
+  /**
+   * Returns the number of messages that have been claimed but not yet written out.
+   *
+   * @return the current depth of the pipeline
+   */
+  public long pending() {
+    return claimed.get() - writeStage.sequence.get();
+  }
+
+  private void onEvent(Stage stage, MessageEvent event) {
+    if (stage == routeStage) {
+      for (MessageListener listener : listeners) {
+        try {
+          listener.onMessage(event.getSource(), event.getMessage());
+        } catch (RuntimeException e) {
+          System.err.println("Message listener failed: " + e.getMessage());
+        }
+      }
+      router.route(event);
+    } else if (stage == encodeStage) {
+      router.encode(event);
+    } else {
+      router.deliver(event);
+      event.clear();
+    }
+  }
+
+  private long highestPublished(long from, long upTo) {
+    for (long sequence = from; sequence <= upTo; sequence++) {
+      if (published.get((int) sequence & mask) != (int) (sequence >>> indexShift)) {
+        return sequence - 1;
+      }
+    }
+    return upTo;
+  }
+
+  private static int backOff(int idle) {
+    if (idle < SPIN_TRIES) {
+      Thread.onSpinWait();
+    } else if (idle < 2 * SPIN_TRIES) {
+      Thread.yield();
+    } else {
+      LockSupport.parkNanos(MAX_PARK_NANOS);
+    }
+    return idle + 1;
+  }
+
+  /**
+   * One consumer stage of the pipeline, running on its own thread.
+   */
+  private class Stage implements Runnable {
+
+    private final AtomicLong sequence = new AtomicLong(-1);
+    private final Stage upstream;
+    private final Thread thread;
+    private Stage next;
+    private volatile boolean waiting;
+
+    Stage(String name, Stage upstream) {
+      this.upstream = upstream;
+      thread = new Thread(this, name);
+      thread.setDaemon(true);
+    }
+
+    void start() {
+      thread.start();
+    }
+
+    void signal() {
+      if (waiting) {
+        LockSupport.unpark(thread);
+      }
+    }
+
+    private long available(long nextSequence) {
+      if (upstream == null) {
+        return highestPublished(nextSequence, claimed.get());
+      }
+      return upstream.sequence.get();
+    }
+
+    private boolean drained(long current) {
+      return !running && current == claimed.get()
+          && (upstream == null || !upstream.thread.isAlive());
+    }
+
+    @Override
+    public void run() {
+      int idle = 0;
+      while (true) {
+        long current = sequence.get();
+        long available = available(current + 1);
+        if (available > current) {
+          for (long s = current + 1; s <= available; s++) {
+            MessageEvent event = entries[(int) s & mask];
+            try {
+              onEvent(this, event);
+            } catch (RuntimeException e) {
+              System.err.println("Pipeline stage " + thread.getName() + " failed: "
+                  + e.getMessage());
+              if (next == null) {
+                event.clear();
+              }
+            }
+          }
+          sequence.set(available);
+          if (next != null) {
+            next.signal();
+          }
+          idle = 0;
+        } else if (drained(current)) {
+          if (next != null) {
+            LockSupport.unpark(next.thread);
+          }
+          return;
+        } else if (idle < 2 * SPIN_TRIES) {
+          idle = backOff(idle);
+        } else {
+          waiting = true;
+          if (available(current + 1) <= current && !drained(current)) {
+            LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+          }
+          waiting = false;
+        }
+      }
+    }
+  }
+}
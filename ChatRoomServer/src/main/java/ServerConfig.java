@@ -0,0 +1,614 @@
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * The {@code ServerConfig} class holds the server's tunable settings, read from a properties file
+ * and from system properties. Every setting defaults to its constant in {@link ChatRoomConstants},
+ * and a system property named {@code chatroom.<key>} overrides the same key in the file, so that a
+ * single value can be changed on the command line without editing the file.
+ * <p>
+ * Settings fall into two groups. Those in {@link #RESTART_KEYS}, such as the port, only take
+ * effect when the server starts. The rest can be changed while it runs with
+ * {@link #apply(ChatRoomServer)}, which is what {@link ConfigWatcher} does when the file changes.
+ * A config is immutable and validated as a whole when it is read, so a bad edit, including a
+ * misspelt key, is rejected before any of it is applied.
+ */
+public class ServerConfig {
+
+  /**
+   * The prefix of system properties that override keys in the file.
+   */
+  public static final String SYSTEM_PROPERTY_PREFIX = "chatroom.";
+
+  /**
+   * The keys of settings that only take effect when the server starts.
+   */
+  public static final List<String> RESTART_KEYS = List.of(
+      "port", "acceptors", "reuse.port", "unix.socket.path", "shared.memory.directory",
+      "shard.count", "shard.mailbox.capacity", "scheduler.workers", "message.bus.capacity");
+
+  private static final Set<String> KEYS = Set.of(
+      "port", "acceptors", "reuse.port", "unix.socket.path", "shared.memory.directory",
+      "shard.count", "shard.mailbox.capacity", "scheduler.workers", "message.bus.capacity",
+      "handshake.timeout.millis", "frame.read.timeout.millis", "max.half.open.connections",
+      "inbound.queue.capacity", "outbound.memory.budget.bytes", "presence.window.millis",
+      "presence.max.batch",
+      "max.clients", "max.connections.per.source", "accept.rate", "accept.burst",
+      "source.accept.rate", "source.accept.burst", "rate.limit.mode", "rate.limit",
+      "rate.limit.burst", "broadcast.rate.limit", "broadcast.rate.limit.burst",
+      "outbound.policy", "outbound.budget.bytes", "heartbeat.interval.millis",
+      "idle.timeout.millis", "tcp.no.delay", "send.buffer.bytes");
+
+  private final int port;
+  private final int acceptors;
+  private final boolean reusePort;
+  private final Path unixSocketPath;
+  private final Path sharedMemoryDirectory;
+  private final int shardCount;
+  private final int shardMailboxCapacity;
+  private final int schedulerWorkers;
+  private final int messageBusCapacity;
+  private final int maxClients;
+  private final int maxConnectionsPerSource;
+  private final double acceptRatePerSecond;
+  private final int acceptRateBurst;
+  private final double sourceAcceptRatePerSecond;
+  private final int sourceAcceptRateBurst;
+  private final RateLimitPolicy.Mode rateLimitMode;
+  private final double rateLimitPerSecond;
+  private final int rateLimitBurst;
+  private final double broadcastRateLimitPerSecond;
+  private final int broadcastRateLimitBurst;
+  private final OutboundQueue.OverflowPolicy outboundPolicy;
+  private final long outboundBudgetBytes;
+  private final long heartbeatIntervalMillis;
+  private final long idleTimeoutMillis;
+  private final boolean tcpNoDelay;
+  private final int sendBufferBytes;
+  private final long handshakeTimeoutMillis;
+  private final long frameReadTimeoutMillis;
+  private final int maxHalfOpenConnections;
+  private final int inboundQueueCapacity;
+  private final long outboundMemoryBudgetBytes;
+  private final long presenceWindowMillis;
+  private final int presenceMaxBatch;
+
+  private ServerConfig(Properties properties) {
+    for (String key : properties.stringPropertyNames()) {
+      if (!KEYS.contains(key)) {
+        throw new IllegalArgumentException("Unknown setting: " + key);
+      }
+    }
+    port = intValue(properties, "port", ChatRoomConstants.SERVER_PORT, 0);
+    acceptors = intValue(properties, "acceptors", ChatRoomConstants.ACCEPTOR_THREADS, 1);
+    reusePort = booleanValue(properties, "reuse.port", false);
+    unixSocketPath = pathValue(properties, "unix.socket.path");
+    sharedMemoryDirectory = pathValue(properties, "shared.memory.directory");
+    shardCount = intValue(properties, "shard.count", ChatRoomConstants.SHARD_COUNT, 1);
+    shardMailboxCapacity = powerOfTwoValue(properties, "shard.mailbox.capacity",
+        ChatRoomConstants.SHARD_MAILBOX_CAPACITY);
+    schedulerWorkers = intValue(properties, "scheduler.workers",
+        ChatRoomConstants.SCHEDULER_WORKERS, 1);
+    messageBusCapacity = powerOfTwoValue(properties, "message.bus.capacity",
+        ChatRoomConstants.MESSAGE_BUS_CAPACITY);
+    maxClients = intValue(properties, "max.clients", ChatRoomConstants.MAX_CLIENTS, 0);
+    maxConnectionsPerSource = intValue(properties, "max.connections.per.source",
+        ChatRoomConstants.MAX_CONNECTIONS_PER_SOURCE, 0);
+    acceptRatePerSecond = rateValue(properties, "accept.rate",
+        ChatRoomConstants.ACCEPT_RATE_PER_SECOND);
+    acceptRateBurst = intValue(properties, "accept.burst", ChatRoomConstants.ACCEPT_RATE_BURST, 1);
+    sourceAcceptRatePerSecond = rateValue(properties, "source.accept.rate",
+        ChatRoomConstants.SOURCE_ACCEPT_RATE_PER_SECOND);
+    sourceAcceptRateBurst = intValue(properties, "source.accept.burst",
+        ChatRoomConstants.SOURCE_ACCEPT_RATE_BURST, 1);
+    rateLimitMode = enumValue(properties, "rate.limit.mode", RateLimitPolicy.Mode.REJECT);
+    rateLimitPerSecond = rateValue(properties, "rate.limit",
+        ChatRoomConstants.RATE_LIMIT_PER_SECOND);
+    rateLimitBurst = intValue(properties, "rate.limit.burst", ChatRoomConstants.RATE_LIMIT_BURST,
+        1);
+    broadcastRateLimitPerSecond = rateValue(properties, "broadcast.rate.limit",
+        ChatRoomConstants.BROADCAST_RATE_LIMIT_PER_SECOND);
+    broadcastRateLimitBurst = intValue(properties, "broadcast.rate.limit.burst",
+        ChatRoomConstants.BROADCAST_RATE_LIMIT_BURST, 1);
+    outboundPolicy = enumValue(properties, "outbound.policy",
+        OutboundQueue.OverflowPolicy.DROP_OLDEST);
+    outboundBudgetBytes = longValue(properties, "outbound.budget.bytes",
+        ChatRoomConstants.OUTBOUND_BUDGET_BYTES, 1);
+    heartbeatIntervalMillis = longValue(properties, "heartbeat.interval.millis",
+        ChatRoomConstants.HEARTBEAT_INTERVAL_MILLIS, 1);
+    idleTimeoutMillis = longValue(properties, "idle.timeout.millis",
+        ChatRoomConstants.IDLE_TIMEOUT_MILLIS, 1);
+    tcpNoDelay = booleanValue(properties, "tcp.no.delay", ChatRoomConstants.TCP_NO_DELAY);
+    sendBufferBytes = intValue(properties, "send.buffer.bytes",
+        ChatRoomConstants.SEND_BUFFER_BYTES, 0);
+    handshakeTimeoutMillis = longValue(properties, "handshake.timeout.millis",
+        ChatRoomConstants.HANDSHAKE_TIMEOUT_MILLIS, 1);
+    frameReadTimeoutMillis = longValue(properties, "frame.read.timeout.millis",
+        ChatRoomConstants.FRAME_READ_TIMEOUT_MILLIS, 1);
+    maxHalfOpenConnections = intValue(properties, "max.half.open.connections",
+        ChatRoomConstants.MAX_HALF_OPEN_CONNECTIONS, 1);
+    inboundQueueCapacity = intValue(properties, "inbound.queue.capacity",
+        ChatRoomConstants.INBOUND_QUEUE_CAPACITY, 1);
+    outboundMemoryBudgetBytes = longValue(properties, "outbound.memory.budget.bytes",
+        ChatRoomConstants.OUTBOUND_MEMORY_BUDGET_BYTES, 1);
+    presenceWindowMillis = longValue(properties, "presence.window.millis",
+        ChatRoomConstants.PRESENCE_WINDOW_MILLIS, 1);
+    presenceMaxBatch = intValue(properties, "presence.max.batch",
+        ChatRoomConstants.PRESENCE_MAX_BATCH, 1);
+  }
+
+  /**
+   * Returns the configuration made of the defaults in {@link ChatRoomConstants}.
+   *
+   * @return the default configuration
+   */
+  public static ServerConfig defaults() {
+    return new ServerConfig(new Properties());
+  }
+
+  /**
+   * Builds a configuration from properties, without consulting system properties.
+   *
+   * @param properties the settings, keyed without the {@code chatroom.} prefix
+   * @return the configuration
+   * @throws IllegalArgumentException if a key is unknown or a value is malformed or out of range
+   */
+  public static ServerConfig fromProperties(Properties properties) {
+    return new ServerConfig(properties);
+  }
+
+  /**
+   * Reads a configuration file and applies any {@code chatroom.*} system properties on top of it.
+   *
+   * @param file the properties file, or {@code null} to read system properties only
+   * @return the configuration
+   * @throws IOException              if the file cannot be read
+   * @throws IllegalArgumentException if a key is unknown or a value is malformed or out of range
+   */
+  public static ServerConfig load(Path file) throws IOException {
+    Properties properties = new Properties();
+    if (file != null) {
+      try (Reader reader = Files.newBufferedReader(file)) {
+        properties.load(reader);
+      }
+    }
+    for (String name : System.getProperties().stringPropertyNames()) {
+      if (name.startsWith(SYSTEM_PROPERTY_PREFIX)
+          && !name.equals(ChatRoomConstants.CONFIG_FILE_PROPERTY)) {
+        properties.setProperty(name.substring(SYSTEM_PROPERTY_PREFIX.length()),
+            System.getProperty(name));
+      }
+    }
+    return new ServerConfig(properties);
+  }
+
+  /**
+   * Applies the settings that can change while the server runs. Limits on accepting connections
+   * apply to the next connection; rate limits, outbound limits and timeouts apply as described by
+   * the corresponding setters on {@link ChatRoomServer}. The inbound queue capacity applies to
+   * clients that connect afterwards, and the presence window from the next batch.
+   *
+   * @param server the server to reconfigure
+   */
+  public void apply(ChatRoomServer server) {
+    AdmissionControl admission = server.getAdmissionControl();
+    admission.setMaxConnections(maxClients);
+    admission.setMaxConnectionsPerSource(maxConnectionsPerSource);
+    admission.setAcceptRate(acceptRatePerSecond, acceptRateBurst);
+    admission.setSourceAcceptRate(sourceAcceptRatePerSecond, sourceAcceptRateBurst);
+    server.setRateLimitPolicy(getRateLimitPolicy());
+    server.setOutboundPolicy(outboundPolicy);
+    server.setOutboundBudgetBytes(outboundBudgetBytes);
+    server.setHeartbeatIntervalMillis(heartbeatIntervalMillis);
+    server.setIdleTimeoutMillis(idleTimeoutMillis);
+    server.setTcpNoDelay(tcpNoDelay);
+    server.setSendBufferBytes(sendBufferBytes);
+    server.setHandshakeTimeoutMillis(handshakeTimeoutMillis);
+    server.setFrameReadTimeoutMillis(frameReadTimeoutMillis);
+    server.setMaxHalfOpenConnections(maxHalfOpenConnections);
+    server.setInboundQueueCapacity(inboundQueueCapacity);
+    server.getOutboundMemory().setLimitBytes(outboundMemoryBudgetBytes);
+    server.getPresenceCoalescer().setWindowMillis(presenceWindowMillis);
+    server.getPresenceCoalescer().setMaxBatch(presenceMaxBatch);
+  }
+
+  /**
+   * Lists the settings that differ from another configuration but cannot be changed without a
+   * restart.
+   *
+   * @param other the configuration to compare with
+   * @return the keys of the differing settings, in the order of {@link #RESTART_KEYS}
+   */
+  public List<String> restartRequired(ServerConfig other) {
+    List<String> keys = new ArrayList<>();
+    if (port != other.port) {
+      keys.add("port");
+    }
+    if (acceptors != other.acceptors) {
+      keys.add("acceptors");
+    }
+    if (reusePort != other.reusePort) {
+      keys.add("reuse.port");
+    }
+    if (!Objects.equals(unixSocketPath, other.unixSocketPath)) {
+      keys.add("unix.socket.path");
+    }
+    if (!Objects.equals(sharedMemoryDirectory, other.sharedMemoryDirectory)) {
+      keys.add("shared.memory.directory");
+    }
+    if (shardCount != other.shardCount) {
+      keys.add("shard.count");
+    }
+    if (shardMailboxCapacity != other.shardMailboxCapacity) {
+      keys.add("shard.mailbox.capacity");
+    }
+    if (schedulerWorkers != other.schedulerWorkers) {
+      keys.add("scheduler.workers");
+    }
+    if (messageBusCapacity != other.messageBusCapacity) {
+      keys.add("message.bus.capacity");
+    }
+    return keys;
+  }
+
+  /**
+   * Returns the port to listen on.
+   *
+   * @return the port, or {@code 0} for one chosen by the operating system
+   */
+  public int getPort() {
+    return port;
+  }
+
+  /**
+   * Returns the number of threads accepting connections.
+   *
+   * @return the acceptor count
+   */
+  public int getAcceptors() {
+    return acceptors;
+  }
+
+  /**
+   * Reports whether each acceptor binds its own socket with SO_REUSEPORT.
+   *
+   * @return {@code true} if SO_REUSEPORT is requested
+   */
+  public boolean isReusePort() {
+    return reusePort;
+  }
+
+  /**
+   * Returns the Unix domain socket to listen on as well.
+   *
+   * @return the socket path, or {@code null} for none
+   */
+  public Path getUnixSocketPath() {
+    return unixSocketPath;
+  }
+
+  /**
+   * Returns the directory to watch for shared-memory clients.
+   *
+   * @return the directory, or {@code null} for none
+   */
+  public Path getSharedMemoryDirectory() {
+    return sharedMemoryDirectory;
+  }
+
+  /**
+   * Returns the number of shards the connected clients are spread across.
+   *
+   * @return the shard count
+   */
+  public int getShardCount() {
+    return shardCount;
+  }
+
+  /**
+   * Returns the number of deliveries each shard's mailbox holds.
+   *
+   * @return the shard mailbox capacity
+   */
+  public int getShardMailboxCapacity() {
+    return shardMailboxCapacity;
+  }
+
+  /**
+   * Returns the number of threads that process client messages.
+   *
+   * @return the scheduler worker count
+   */
+  public int getSchedulerWorkers() {
+    return schedulerWorkers;
+  }
+
+  /**
+   * Returns the number of messages the server's message bus holds.
+   *
+   * @return the message bus capacity
+   */
+  public int getMessageBusCapacity() {
+    return messageBusCapacity;
+  }
+
+  /**
+   * Returns the maximum number of open connections.
+   *
+   * @return the server's capacity
+   */
+  public int getMaxClients() {
+    return maxClients;
+  }
+
+  /**
+   * Returns the maximum number of open connections from one IP address.
+   *
+   * @return the per-source connection limit
+   */
+  public int getMaxConnectionsPerSource() {
+    return maxConnectionsPerSource;
+  }
+
+  /**
+   * Returns the rate at which connections are accepted from all sources together.
+   *
+   * @return the sustained number of connections per second
+   */
+  public double getAcceptRatePerSecond() {
+    return acceptRatePerSecond;
+  }
+
+  /**
+   * Returns the number of connections accepted at once from all sources together.
+   *
+   * @return the accept burst
+   */
+  public int getAcceptRateBurst() {
+    return acceptRateBurst;
+  }
+
+  /**
+   * Returns the rate at which connections are accepted from each IP address.
+   *
+   * @return the sustained number of connections per second from one address
+   */
+  public double getSourceAcceptRatePerSecond() {
+    return sourceAcceptRatePerSecond;
+  }
+
+  /**
+   * Returns the number of connections accepted at once from each IP address.
+   *
+   * @return the per-source accept burst
+   */
+  public int getSourceAcceptRateBurst() {
+    return sourceAcceptRateBurst;
+  }
+
+  /**
+   * Returns the rate limit policy described by the {@code rate.limit*} and
+   * {@code broadcast.rate.limit*} settings. Broadcasts and insults share the tighter limit, as in
+   * {@link RateLimitPolicy#defaultPolicy()}.
+   *
+   * @return a new policy
+   */
+  public RateLimitPolicy getRateLimitPolicy() {
+    return new RateLimitPolicy(rateLimitMode, rateLimitPerSecond, rateLimitBurst)
+        .limitType(ChatRoomConstants.BROADCAST_MESSAGE, broadcastRateLimitPerSecond,
+            broadcastRateLimitBurst)
+        .limitType(ChatRoomConstants.SEND_INSULT, broadcastRateLimitPerSecond,
+            broadcastRateLimitBurst);
+  }
+
+  /**
+   * Returns what a client's outbound queue does when the client falls behind.
+   *
+   * @return the overflow policy
+   */
+  public OutboundQueue.OverflowPolicy getOutboundPolicy() {
+    return outboundPolicy;
+  }
+
+  /**
+   * Returns the number of bytes that may be queued for a single client.
+   *
+   * @return the per-client outbound budget
+   */
+  public long getOutboundBudgetBytes() {
+    return outboundBudgetBytes;
+  }
+
+  /**
+   * Returns how long a client may stay silent before it is pinged.
+   *
+   * @return the heartbeat interval in milliseconds
+   */
+  public long getHeartbeatIntervalMillis() {
+    return heartbeatIntervalMillis;
+  }
+
+  /**
+   * Returns how long a client may stay silent before it is disconnected.
+   *
+   * @return the idle timeout in milliseconds
+   */
+  public long getIdleTimeoutMillis() {
+    return idleTimeoutMillis;
+  }
+
+  /**
+   * Reports whether TCP connections disable Nagle's algorithm.
+   *
+   * @return {@code true} if TCP_NODELAY is set on accepted connections
+   */
+  public boolean isTcpNoDelay() {
+    return tcpNoDelay;
+  }
+
+  /**
+   * Returns the size requested for each TCP connection's send buffer.
+   *
+   * @return the send buffer size in bytes, or {@code 0} for the operating system's default
+   */
+  public int getSendBufferBytes() {
+    return sendBufferBytes;
+  }
+
+  /**
+   * Returns how long a new connection has to complete its handshake.
+   *
+   * @return the handshake timeout in milliseconds
+   */
+  public long getHandshakeTimeoutMillis() {
+    return handshakeTimeoutMillis;
+  }
+
+  /**
+   * Returns how long the rest of a frame may take to arrive once its first byte has been read.
+   *
+   * @return the frame read timeout in milliseconds
+   */
+  public long getFrameReadTimeoutMillis() {
+    return frameReadTimeoutMillis;
+  }
+
+  /**
+   * Returns the number of connections that may be waiting to complete their handshake at once.
+   *
+   * @return the half-open connection limit
+   */
+  public int getMaxHalfOpenConnections() {
+    return maxHalfOpenConnections;
+  }
+
+  /**
+   * Returns the number of messages read from a client that may wait for the scheduler.
+   *
+   * @return the inbound queue capacity
+   */
+  public int getInboundQueueCapacity() {
+    return inboundQueueCapacity;
+  }
+
+  /**
+   * Returns the number of bytes that may be queued for all clients together.
+   *
+   * @return the server-wide outbound memory budget
+   */
+  public long getOutboundMemoryBudgetBytes() {
+    return outboundMemoryBudgetBytes;
+  }
+
+  /**
+   * Returns how long presence changes are collected before they are announced together.
+   *
+   * @return the presence window in milliseconds
+   */
+  public long getPresenceWindowMillis() {
+    return presenceWindowMillis;
+  }
+
+  /**
+   * Returns the number of presence changes that are announced at once without waiting for the
+   * window to end.
+   *
+   * @return the largest presence batch
+   */
+  public int getPresenceMaxBatch() {
+    return presenceMaxBatch;
+  }
+
+  private static String value(Properties properties, String key) {
+    String value = properties.getProperty(key);
+    return value == null ? null : value.trim();
+  }
+
+  private static long longValue(Properties properties, String key, long defaultValue, long min) {
+    String value = value(properties, key);
+    if (value == null) {
+      return defaultValue;
+    }
+    long parsed;
+    try {
+      parsed = Long.parseLong(value);
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException(key + " is not a number: " + value);
+    }
+    if (parsed < min) {
+      throw new IllegalArgumentException(key + " must be at least " + min + ": " + value);
+    }
+    return parsed;
+  }
+
+  private static int intValue(Properties properties, String key, int defaultValue, int min) {
+    long parsed = longValue(properties, key, defaultValue, min);
+    if (parsed > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException(key + " is too large: " + parsed);
+    }
+    return (int) parsed;
+  }
+
+  private static int powerOfTwoValue(Properties properties, String key, int defaultValue) {
+    int parsed = intValue(properties, key, defaultValue, 1);
+    if (Integer.bitCount(parsed) != 1) {
+      throw new IllegalArgumentException(key + " must be a power of two: " + parsed);
+    }
+    return parsed;
+  }
+
+  private static double rateValue(Properties properties, String key, double defaultValue) {
+    String value = value(properties, key);
+    if (value == null) {
+      return defaultValue;
+    }
+    double parsed;
+    try {
+      parsed = Double.parseDouble(value);
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException(key + " is not a number: " + value);
+    }
+    if (!(parsed > 0) || Double.isInfinite(parsed)) {
+      throw new IllegalArgumentException(key + " must be a positive rate: " + value);
+    }
+    return parsed;
+  }
+
+  private static boolean booleanValue(Properties properties, String key, boolean defaultValue) {
+    String value = value(properties, key);
+    if (value == null) {
+      return defaultValue;
+    }
+    if (!value.equalsIgnoreCase("true") && !value.equalsIgnoreCase("false")) {
+      throw new IllegalArgumentException(key + " must be true or false: " + value);
+    }
+    return Boolean.parseBoolean(value);
+  }
+
+  private static Path pathValue(Properties properties, String key) {
+    String value = value(properties, key);
+    return value == null || value.isEmpty() ? null : Path.of(value);
+  }
+
+  private static <E extends Enum<E>> E enumValue(Properties properties, String key,
+      E defaultValue) {
+    String value = value(properties, key);
+    if (value == null) {
+      return defaultValue;
+    }
+    try {
+      return Enum.valueOf(defaultValue.getDeclaringClass(), value.toUpperCase(Locale.ROOT));
+    } catch (IllegalArgumentException e) {
+      throw new IllegalArgumentException(key + " is not one of "
+          + List.of(defaultValue.getDeclaringClass().getEnumConstants()) + ": " + value);
+    }
+  }
+}
@@ -0,0 +1,77 @@
+import java.net.InetSocketAddress;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The {@code ServerHandle} class is returned by {@link ChatRoomServer.Builder#start()} and gives
+ * an embedding application or test everything it needs to use a running server: the address it is
+ * bound to, a future that completes once it is accepting connections, and the means to stop it.
+ */
+public class ServerHandle {
+
+  private final ChatRoomServer server;
+  private final CompletableFuture<ServerHandle> ready;
+
+  ServerHandle(ChatRoomServer server) {
+    this.server = server;
+    ready = server.whenReady().thenApply(address -> this);
+  }
+
+  /**
+   * Returns the running server, for example to adjust its settings.
+   *
+   * @return the server
+   */
+  public ChatRoomServer getServer() {
+    return server;
+  }
+
+  /**
+   * Returns the address the server is bound to.
+   *
+   * @return the bound address
+   */
+  public InetSocketAddress getAddress() {
+    return server.getAddress();
+  }
+
+  /**
+   * Returns the port the server is bound to, which is the port the operating system chose if the
+   * server was built with port {@code 0}.
+   *
+   * @return the bound port
+   */
+  public int getPort() {
+    return getAddress().getPort();
+  }
+
+  /**
+   * Returns a future that completes with this handle once the server is accepting connections.
+   *
+   * @return the readiness future
+   */
+  public CompletableFuture<ServerHandle> ready() {
+    return ready;
+  }
+
+  /**
+   * Stops the server, draining queued messages for up to {@code drainTimeout}, and waits for it
+   * to terminate.
+   *
+   * @param drainTimeout the time allowed for delivering queued messages
+   * @param unit         the unit of {@code drainTimeout}
+   * @return {@code true} if the server terminated within the drain timeout plus one second
+   * @throws InterruptedException if interrupted while waiting
+   */
+  public boolean stop(long drainTimeout, TimeUnit unit) throws InterruptedException {
+    server.stop(drainTimeout, unit);
+    return server.awaitTermination(unit.toMillis(drainTimeout) + 1000, TimeUnit.MILLISECONDS);
+  }
+
+  @Override
+  public String toString() {
+    return "ServerHandle{" +
+        "address=" + getAddress() +
+        '}';
+  }
+}
@@ -0,0 +1,378 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The {@code SharedMemoryConnection} class is a {@link Connection} between two processes on the
+ * same host that share a memory-mapped file. The file holds two single-producer, single-consumer
+ * ring buffers, one per direction, so frames written by one process are read by the other without
+ * any system call or copy through the kernel. The usual {@link BaseMessage} codecs run on top of
+ * it unchanged.
+ * <p>
+ * Each ring has a head, advanced only by its reader, and a tail, advanced only by its writer. The
+ * writer copies bytes into the ring and then publishes the new tail with a release store; the
+ * reader loads the tail with an acquire load before copying the bytes out, and publishes its head
+ * the same way. The two indexes are kept on separate cache lines so the processes do not contend
+ * for them, and each ring's data is padded to a whole number of cache lines so that the second
+ * ring's indexes are as well aligned as the first's, whatever the capacity. Java offers no
+ * cross-process futex, so a reader with nothing to read, or a writer with no room, spins for
+ * {@link ChatRoomConstants#SHARED_MEMORY_SPIN_TRIES} checks and then parks for
+ * {@link ChatRoomConstants#SHARED_MEMORY_PARK_NANOS} between checks. A busy connection is
+ * therefore handed frames as soon as they are published, at the cost of a spinning core; an idle
+ * one costs a few wake-ups per millisecond.
+ * <p>
+ * A client connects by creating a ring file in the directory the server watches, initializing it
+ * under a temporary name and renaming it into place. The server maps the file, marks it accepted
+ * and deletes it; the mapping outlives the name, so the memory is released once both processes
+ * have closed the connection.
+ */
+public class SharedMemoryConnection implements Connection {
+
+  /**
+   * The suffix of ring files the server picks up.
+   */
+  public static final String RING_FILE_SUFFIX = ".ring";
+
+  private static final VarHandle LONGS =
+      MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+  private static final int MAGIC = 0x43525348;
+  private static final int CACHE_LINE = 64;
+  private static final int MAGIC_OFFSET = 0;
+  private static final int CAPACITY_OFFSET = 4;
+  private static final int STATE_OFFSET = CACHE_LINE;
+  private static final int HEADER_BYTES = 2 * CACHE_LINE;
+  private static final int RING_HEADER_BYTES = 4 * CACHE_LINE;
+  private static final long REQUESTED = 0;
+  private static final long ACCEPTED = 1;
+  private static final AtomicInteger NEXT_ID = new AtomicInteger();
+
+  private final Ring incoming;
+  private final Ring outgoing;
+  private final String name;
+  private final InputStream in;
+  private final OutputStream out;
+  private volatile boolean closed;
+
+  private SharedMemoryConnection(MappedByteBuffer buffer, int capacity, boolean server,
+      String name) {
+    this.name = name;
+    Ring toServer = new Ring(buffer, HEADER_BYTES, capacity);
+    Ring toClient = new Ring(buffer, (int) (HEADER_BYTES + ringBytes(capacity)), capacity);
+    incoming = server ? toServer : toClient;
+    outgoing = server ? toClient : toServer;
+    in = new InputStream() {
+      @Override
+      public int read() throws IOException {
+        return incoming.read();
+      }
+
+      @Override
+      public int read(byte[] b, int off, int len) throws IOException {
+        return incoming.read(b, off, len);
+      }
+
+      @Override
+      public int available() {
+        return incoming.available();
+      }
+    };
+    out = new OutputStream() {
+      @Override
+      public void write(int b) throws IOException {
+        outgoing.write(new byte[]{(byte) b}, 0, 1);
+      }
+
+      @Override
+      public void write(byte[] b, int off, int len) throws IOException {
+        outgoing.write(b, off, len);
+      }
+    };
+  }
+
+  /**
+   * Connects to a server watching {@code directory} for ring files, and waits until the server
+   * has picked up the new file.
+   *
+   * @param directory the directory the server watches
+   * @param capacity  the number of bytes buffered in each direction; must be a power of two
+   * @return the client's end of the connection
+   * @throws IOException if the file cannot be created or the server does not pick it up within
+   *                     {@link ChatRoomConstants#SHARED_MEMORY_ACCEPT_TIMEOUT_MILLIS}
+   */
+  public static SharedMemoryConnection connect(Path directory, int capacity) throws IOException {
+    if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+      throw new IllegalArgumentException("Capacity must be a power of two: " + capacity);
+    }
+    String base = "client-" + ProcessHandle.current().pid() + "-" + NEXT_ID.incrementAndGet();
+    Path temporary = directory.resolve(base + ".tmp");
+    Path ring = directory.resolve(base + RING_FILE_SUFFIX);
+    MappedByteBuffer buffer = map(temporary, fileBytes(capacity));
+    buffer.putInt(CAPACITY_OFFSET, capacity);
+    buffer.putInt(MAGIC_OFFSET, MAGIC);
+    LONGS.setRelease(buffer, STATE_OFFSET, REQUESTED);
+    Files.move(temporary, ring, StandardCopyOption.ATOMIC_MOVE);
+
+    long deadline = System.nanoTime()
+        + TimeUnit.MILLISECONDS.toNanos(ChatRoomConstants.SHARED_MEMORY_ACCEPT_TIMEOUT_MILLIS);
+    int spins = 0;
+    while ((long) LONGS.getAcquire(buffer, STATE_OFFSET) != ACCEPTED) {
+      if (System.nanoTime() - deadline > 0) {
+        Files.deleteIfExists(ring);
+        throw new IOException("Server did not accept " + ring);
+      }
+      idle(spins++);
+    }
+    return new SharedMemoryConnection(buffer, capacity, false, "shm:" + ring);
+  }
+
+  /**
+   * Maps a ring file created by a client and marks it accepted. The file is deleted; the mapping
+   * stays valid until both ends are closed.
+   *
+   * @param ring the ring file
+   * @return the server's end of the connection
+   * @throws IOException if the file cannot be mapped or is not a ring file
+   */
+  static SharedMemoryConnection accept(Path ring) throws IOException {
+    MappedByteBuffer buffer;
+    try (FileChannel channel = FileChannel.open(ring, StandardOpenOption.READ,
+        StandardOpenOption.WRITE)) {
+      long size = channel.size();
+      if (size < HEADER_BYTES) {
+        throw new IOException("Not a ring file: " + ring);
+      }
+      buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+    } finally {
+      Files.deleteIfExists(ring);
+    }
+    int capacity = buffer.getInt(CAPACITY_OFFSET);
+    if (buffer.getInt(MAGIC_OFFSET) != MAGIC || capacity <= 0 || Integer.bitCount(capacity) != 1
+        || buffer.capacity() != fileBytes(capacity)) {
+      throw new IOException("Not a ring file: " + ring);
+    }
+    LONGS.setRelease(buffer, STATE_OFFSET, ACCEPTED);
+    return new SharedMemoryConnection(buffer, capacity, true, "shm:" + ring);
+  }
+
+  private static long ringBytes(int capacity) {
+    // Capacities are powers of two, so anything from one cache line up is already a multiple.
+    return RING_HEADER_BYTES + Math.max(capacity, CACHE_LINE);
+  }
+
+  private static long fileBytes(int capacity) {
+    return HEADER_BYTES + 2 * ringBytes(capacity);
+  }
+
+  private static MappedByteBuffer map(Path file, long size) throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW,
+        StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+    }
+  }
+
+  private static void idle(int spins) throws InterruptedIOException {
+    if (Thread.interrupted()) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for the peer");
+    }
+    if (spins < ChatRoomConstants.SHARED_MEMORY_SPIN_TRIES) {
+      Thread.onSpinWait();
+    } else {
+      LockSupport.parkNanos(ChatRoomConstants.SHARED_MEMORY_PARK_NANOS);
+    }
+  }
+
+  @Override
+  public InputStream getInputStream() throws IOException {
+    if (closed) {
+      throw new IOException("Connection closed");
+    }
+    return in;
+  }
+
+  @Override
+  public OutputStream getOutputStream() throws IOException {
+    if (closed) {
+      throw new IOException("Connection closed");
+    }
+    return out;
+  }
+
+  @Override
+  public void shutdownInput() throws IOException {
+    if (closed) {
+      throw new IOException("Connection closed");
+    }
+    incoming.shutdownReader(Ring.SHUT_DOWN);
+  }
+
+  @Override
+  public void close() {
+    closed = true;
+    incoming.shutdownReader(Ring.CLOSED);
+    outgoing.closeWriter();
+  }
+
+  @Override
+  public boolean isClosed() {
+    return closed;
+  }
+
+  @Override
+  public String getRemoteAddress() {
+    return name;
+  }
+
+  @Override
+  public InetAddress getSourceAddress() {
+    return null;
+  }
+
+  /**
+   * One direction of the connection: a ring buffer and its indexes inside the mapped file.
+   */
+  private static final class Ring {
+
+    static final long OPEN = 0;
+    static final long SHUT_DOWN = 1;
+    static final long CLOSED = 2;
+
+    private final MappedByteBuffer buffer;
+    private final int headOffset;
+    private final int tailOffset;
+    private final int writerClosedOffset;
+    private final int readerStateOffset;
+    private final int dataOffset;
+    private final int capacity;
+    private final int mask;
+
+    private Ring(MappedByteBuffer buffer, int base, int capacity) {
+      this.buffer = buffer;
+      headOffset = base;
+      tailOffset = base + CACHE_LINE;
+      writerClosedOffset = base + 2 * CACHE_LINE;
+      readerStateOffset = base + 3 * CACHE_LINE;
+      dataOffset = base + RING_HEADER_BYTES;
+      this.capacity = capacity;
+      mask = capacity - 1;
+    }
+
+    int read() throws IOException {
+      long head = (long) LONGS.getOpaque(buffer, headOffset);
+      long tail = awaitTail(head);
+      if (tail < 0) {
+        return -1;
+      }
+      int value = buffer.get(dataOffset + ((int) head & mask)) & 0xFF;
+      LONGS.setRelease(buffer, headOffset, head + 1);
+      return value;
+    }
+
+    int read(byte[] b, int off, int len) throws IOException {
+      if (len == 0) {
+        return 0;
+      }
+      long head = (long) LONGS.getOpaque(buffer, headOffset);
+      long tail = awaitTail(head);
+      if (tail < 0) {
+        return -1;
+      }
+      int n = (int) Math.min(len, tail - head);
+      int index = (int) head & mask;
+      int first = Math.min(n, capacity - index);
+      buffer.get(dataOffset + index, b, off, first);
+      buffer.get(dataOffset, b, off + first, n - first);
+      LONGS.setRelease(buffer, headOffset, head + n);
+      return n;
+    }
+
+    /**
+     * Waits until the writer has published bytes past {@code head}.
+     *
+     * @return the published tail, or {@code -1} at the end of the stream
+     */
+    private long awaitTail(long head) throws IOException {
+      int spins = 0;
+      while (true) {
+        if ((long) LONGS.getAcquire(buffer, readerStateOffset) != OPEN) {
+          return -1;
+        }
+        long tail = (long) LONGS.getAcquire(buffer, tailOffset);
+        if (tail != head) {
+          return tail;
+        }
+        if ((long) LONGS.getAcquire(buffer, writerClosedOffset) != 0) {
+          // The writer may have published a last frame just before closing.
+          tail = (long) LONGS.getAcquire(buffer, tailOffset);
+          return tail == head ? -1 : tail;
+        }
+        idle(spins++);
+      }
+    }
+
+    int available() {
+      if ((long) LONGS.getAcquire(buffer, readerStateOffset) != OPEN) {
+        return 0;
+      }
+      return (int) ((long) LONGS.getAcquire(buffer, tailOffset)
+          - (long) LONGS.getOpaque(buffer, headOffset));
+    }
+
+    void write(byte[] b, int off, int len) throws IOException {
+      long tail = (long) LONGS.getOpaque(buffer, tailOffset);
+      while (len > 0) {
+        int free;
+        int spins = 0;
+        while (true) {
+          if ((long) LONGS.getAcquire(buffer, writerClosedOffset) != 0) {
+            throw new IOException("Connection closed");
+          }
+          long readerState = (long) LONGS.getAcquire(buffer, readerStateOffset);
+          if (readerState == CLOSED) {
+            throw new IOException("Connection reset by peer");
+          }
+          if (readerState == SHUT_DOWN) {
+            // Like a socket whose peer has shut down its input, accept and drop the bytes.
+            return;
+          }
+          free = capacity - (int) (tail - (long) LONGS.getAcquire(buffer, headOffset));
+          if (free > 0) {
+            break;
+          }
+          idle(spins++);
+        }
+        int n = Math.min(len, free);
+        int index = (int) tail & mask;
+        int first = Math.min(n, capacity - index);
+        buffer.put(dataOffset + index, b, off, first);
+        buffer.put(dataOffset, b, off + first, n - first);
+        tail += n;
+        LONGS.setRelease(buffer, tailOffset, tail);
+        off += n;
+        len -= n;
+      }
+    }
+
+    void shutdownReader(long state) {
+      LONGS.setRelease(buffer, readerStateOffset, state);
+    }
+
+    void closeWriter() {
+      LONGS.setRelease(buffer, writerClosedOffset, 1L);
+    }
+  }
+}
@@ -0,0 +1,66 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+
+/**
+ * The {@code SocketConnection} class is a {@link Connection} over a TCP socket.
+ */
+public class SocketConnection implements Connection {
+
+  private final Socket socket;
+
+  /**
+   * Constructs a {@code SocketConnection} over a connected socket.
+   *
+   * @param socket the socket to read from and write to
+   */
+  public SocketConnection(Socket socket) {
+    this.socket = socket;
+  }
+
+  /**
+   * Returns the underlying socket.
+   *
+   * @return the socket
+   */
+  public Socket getSocket() {
+    return socket;
+  }
+
+  @Override
+  public InputStream getInputStream() throws IOException {
+    return socket.getInputStream();
+  }
+
+  @Override
+  public OutputStream getOutputStream() throws IOException {
+    return socket.getOutputStream();
+  }
+
+  @Override
+  public void shutdownInput() throws IOException {
+    socket.shutdownInput();
+  }
+
+  @Override
+  public void close() throws IOException {
+    socket.close();
+  }
+
+  @Override
+  public boolean isClosed() {
+    return socket.isClosed();
+  }
+
+  @Override
+  public String getRemoteAddress() {
+    return String.valueOf(socket.getRemoteSocketAddress());
+  }
+
+  @Override
+  public InetAddress getSourceAddress() {
+    return socket.getInetAddress();
+  }
+}
@@ -0,0 +1,97 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+/**
+ * The {@code SpscMailbox} class is a bounded, lock-free queue for exactly one producer thread and
+ * one consumer thread. Each entry is a pair of a target {@link ClientHandler} and an encoded frame,
+ * stored in pre-allocated parallel arrays so that posting and draining never allocate.
+ * <p>
+ * Producer and consumer each cache the other side's position and only re-read the shared counter
+ * when the cached value suggests the queue is full or empty, which keeps the two threads from
+ * contending on the same cache line in the common case.
+ */
+public class SpscMailbox {
+
+  private final ClientHandler[] targets;
+  private final byte[][] frames;
+  private final int mask;
+  private final AtomicLong head = new AtomicLong();
+  private final AtomicLong tail = new AtomicLong();
+  private long cachedHead;
+  private long cachedTail;
+
+  /**
+   * Constructs an empty {@code SpscMailbox}.
+   *
+   * @param capacity the maximum number of pending entries; must be a power of two
+   * @throws IllegalArgumentException if {@code capacity} is not a positive power of two
+   */
+  public SpscMailbox(int capacity) {
+    if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+      throw new IllegalArgumentException("Mailbox capacity must be a power of two: " + capacity);
+    }
+    targets = new ClientHandler[capacity];
+    frames = new byte[capacity][];
+    mask = capacity - 1;
+  }
+
+  /**
+   * Appends an entry. Must only be called from the producer thread.
+   *
+   * @param target the handler to deliver to, or {@code null} to deliver to every local client
+   * @param frame  the encoded message
+   * @return {@code true} if the entry was added; {@code false} if the mailbox is full
+   */
+  public boolean offer(ClientHandler target, byte[] frame) {
+    long t = tail.get();
+    if (t - cachedHead >= frames.length) {
+      cachedHead = head.get();
+      if (t - cachedHead >= frames.length) {
+        return false;
+      }
+    }
+    int index = (int) t & mask;
+    targets[index] = target;
+    frames[index] = frame;
+    tail.set(t + 1);
+    return true;
+  }
+
+  /**
+   * Removes up to {@code limit} entries in FIFO order and hands each one to the consumer. Must
+   * only be called from the consumer thread.
+   *
+   * @param consumer receives each target and frame
+   * @param limit    the maximum number of entries to drain
+   * @return the number of entries drained
+   */
+  public int drain(BiConsumer<ClientHandler, byte[]> consumer, int limit) {
+    long h = head.get();
+    if (cachedTail - h < limit) {
+      cachedTail = tail.get();
+      if (h >= cachedTail) {
+        return 0;
+      }
+    }
+    long end = Math.min(cachedTail, h + limit);
+    for (long s = h; s < end; s++) {
+      int index = (int) s & mask;
+      ClientHandler target = targets[index];
+      byte[] frame = frames[index];
+      targets[index] = null;
+      frames[index] = null;
+      consumer.accept(target, frame);
+    }
+    head.set(end);
+    return (int) (end - h);
+  }
+
+  /**
+   * Returns whether the mailbox currently holds no entries. Safe to call from either thread.
+   *
+   * @return {@code true} if the mailbox is empty
+   */
+  public boolean isEmpty() {
+    return head.get() >= tail.get();
+  }
+}
@@ -0,0 +1,88 @@
+import java.io.*;
+import java.util.Objects;
+
+/**
+ * The {@code SubscribePresence} class represents a message sent by a client to subscribe to live
+ * updates of the connected users. The server answers with a {@link PresenceSnapshot} and then
+ * pushes a {@link PresenceDelta} whenever users join or leave, so the client never has to poll
+ * with {@link QueryConnectedUsers}.
+ *
+ * <p>This class extends {@link BaseMessage} and includes a username field to identify the
+ * subscribing client. It provides methods for serialization and deserialization to facilitate
+ * communication over a network.</p>
+ */
+public class SubscribePresence extends BaseMessage {
+
+  private final String username;
+
+  /**
+   * Constructs a new {@code SubscribePresence} message with the specified username.
+   *
+   * @param username the username of the subscribing client
+   */
+  public SubscribePresence(String username) {
+    super(ChatRoomConstants.SUBSCRIBE_PRESENCE);
+    this.username = username;
+  }
+
+  /**
+   * Returns the username of the subscribing client.
+   *
+   * @return the username of the client
+   */
+  public String getUsername() {
+    return username;
+  }
+
+  /**
+   * Serializes this {@code SubscribePresence} message into the provided
+   * {@link DataOutputStream}.
+   *
+   * @param out the {@link DataOutputStream} to write the message to
+   * @throws IOException if an I/O error occurs while writing the message
+   */
+  @Override
+  public void writeMessage(DataOutputStream out) throws IOException {
+    super.writeMessage(out);
+    IOUtils.writeStringAsBytes(out, username);
+  }
+
+  /**
+   * Deserializes a {@code SubscribePresence} message from the provided {@link DataInputStream}.
+   *
+   * @param in the {@link DataInputStream} to read the message from
+   * @return a new {@code SubscribePresence} instance with the deserialized username
+   * @throws IOException if an I/O error occurs while reading the message
+   */
+  public static SubscribePresence readSubscribePresence(DataInputStream in) throws IOException {
+    String username = IOUtils.readBytesAsString(in);
+    return new SubscribePresence(username);
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (o == null || getClass() != o.getClass()) {
+      return false;
+    }
+    if (!super.equals(o)) {
+      return false;
+    }
+    SubscribePresence that = (SubscribePresence) o;
+    return Objects.equals(username, that.username);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(super.hashCode(), username);
+  }
+
+  @Override
+  public String toString() {
+    return "SubscribePresence{" +
+        "username='" + username + '\'' +
+        '}';
+  }
+}
@@ -0,0 +1,117 @@
+/**
+ * The {@code TokenBucket} class is a token-bucket rate limiter for use by a single thread.
+ * <p>
+ * Instead of a fractional token count, the bucket stores its credit as the number of nanoseconds
+ * of refill time it has accumulated, capped at the time needed to refill a full burst. Taking a
+ * token costs {@code 1e9 / ratePerSecond} nanoseconds of credit. This keeps every check to a few
+ * integer operations with no allocation, so it can run on every frame a client sends.
+ */
+public class TokenBucket {
+
+  private static final long NANOS_PER_SECOND = 1_000_000_000L;
+
+  private final long nanosPerToken;
+  private final long maxCredit;
+  private long credit;
+  private long lastRefill;
+
+  /**
+   * Constructs a full {@code TokenBucket}.
+   *
+   * @param ratePerSecond the number of tokens added per second; must be positive
+   * @param burst         the maximum number of tokens the bucket holds; must be positive
+   * @param nowNanos      the current time, as returned by {@link System#nanoTime()}
+   * @throws IllegalArgumentException if {@code ratePerSecond} or {@code burst} is not positive
+   */
+  public TokenBucket(double ratePerSecond, int burst, long nowNanos) {
+    if (ratePerSecond <= 0 || burst <= 0) {
+      throw new IllegalArgumentException(
+          "Rate and burst must be positive: " + ratePerSecond + ", " + burst);
+    }
+    nanosPerToken = Math.max(1L, (long) (NANOS_PER_SECOND / ratePerSecond));
+    maxCredit = nanosPerToken * burst;
+    credit = maxCredit;
+    lastRefill = nowNanos;
+  }
+
+  /**
+   * Reports whether a token is available without taking it.
+   *
+   * @param nowNanos the current time, as returned by {@link System#nanoTime()}
+   * @return {@code true} if {@link #take()} would succeed
+   */
+  public boolean available(long nowNanos) {
+    refill(nowNanos);
+    return credit >= nanosPerToken;
+  }
+
+  /**
+   * Takes a token previously reported by {@link #available(long)}.
+   */
+  public void take() {
+    credit -= nanosPerToken;
+  }
+
+  /**
+   * Takes a token if one is available.
+   *
+   * @param nowNanos the current time, as returned by {@link System#nanoTime()}
+   * @return {@code true} if a token was taken; {@code false} if the bucket is empty
+   */
+  public boolean tryAcquire(long nowNanos) {
+    if (!available(nowNanos)) {
+      return false;
+    }
+    take();
+    return true;
+  }
+
+  /**
+   * Returns how long until a token becomes available.
+   *
+   * @param nowNanos the current time, as returned by {@link System#nanoTime()}
+   * @return the wait in nanoseconds, or {@code 0} if a token is available now
+   */
+  public long nanosUntilAvailable(long nowNanos) {
+    refill(nowNanos);
+    return Math.max(0L, nanosPerToken - credit);
+  }
+
+  /**
+   * Returns a bucket with a new rate and burst that holds as many tokens as this one does now,
+   * up to the new burst, so that changing the limits neither refills nor drains the bucket.
+   *
+   * @param ratePerSecond the number of tokens added per second; must be positive
+   * @param burst         the maximum number of tokens the bucket holds; must be positive
+   * @param nowNanos      the current time, as returned by {@link System#nanoTime()}
+   * @return the new bucket
+   * @throws IllegalArgumentException if {@code ratePerSecond} or {@code burst} is not positive
+   */
+  public TokenBucket withLimits(double ratePerSecond, int burst, long nowNanos) {
+    refill(nowNanos);
+    TokenBucket bucket = new TokenBucket(ratePerSecond, burst, nowNanos);
+    double tokens = (double) credit / nanosPerToken;
+    bucket.credit = Math.min(bucket.maxCredit, (long) (tokens * bucket.nanosPerToken));
+    return bucket;
+  }
+
+  /**
+   * Reports whether the bucket has refilled completely, so that replacing it with a new bucket
+   * would change nothing.
+   *
+   * @param nowNanos the current time, as returned by {@link System#nanoTime()}
+   * @return {@code true} if the bucket holds a full burst
+   */
+  public boolean isFull(long nowNanos) {
+    refill(nowNanos);
+    return credit == maxCredit;
+  }
+
+  private void refill(long nowNanos) {
+    long elapsed = nowNanos - lastRefill;
+    if (elapsed > 0) {
+      credit = elapsed >= maxCredit ? maxCredit : Math.min(maxCredit, credit + elapsed);
+      lastRefill = nowNanos;
+    }
+  }
+}
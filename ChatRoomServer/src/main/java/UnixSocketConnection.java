@@ -0,0 +1,124 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+
+/**
+ * The {@code UnixSocketConnection} class is a {@link Connection} over a Unix domain socket, for
+ * clients on the same host as the server. Bytes are passed between the processes by the kernel
+ * without going through the TCP/IP stack.
+ * <p>
+ * The streams read from and write to the blocking channel directly, rather than through
+ * {@link java.nio.channels.Channels}, whose streams serialize reads and writes on the channel's
+ * lock and so cannot be used by a reader and a writer thread at the same time.
+ */
+public class UnixSocketConnection implements Connection {
+
+  private final SocketChannel channel;
+  private final InputStream in = new InputStream() {
+    @Override
+    public int read() throws IOException {
+      byte[] one = new byte[1];
+      return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      return len == 0 ? 0 : channel.read(ByteBuffer.wrap(b, off, len));
+    }
+  };
+  private final OutputStream out = new OutputStream() {
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+    }
+  };
+
+  /**
+   * Constructs a {@code UnixSocketConnection} over a connected, blocking channel.
+   *
+   * @param channel the channel to read from and write to
+   */
+  public UnixSocketConnection(SocketChannel channel) {
+    this.channel = channel;
+  }
+
+  /**
+   * Connects to a server listening on a Unix domain socket.
+   *
+   * @param path the path of the server's socket file
+   * @return the connection
+   * @throws IOException if the connection cannot be made
+   */
+  public static UnixSocketConnection connect(Path path) throws IOException {
+    SocketChannel channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+    try {
+      channel.connect(UnixDomainSocketAddress.of(path));
+    } catch (IOException e) {
+      channel.close();
+      throw e;
+    }
+    return new UnixSocketConnection(channel);
+  }
+
+  @Override
+  public InputStream getInputStream() throws IOException {
+    if (!channel.isOpen()) {
+      throw new IOException("Connection closed");
+    }
+    return in;
+  }
+
+  @Override
+  public OutputStream getOutputStream() throws IOException {
+    if (!channel.isOpen()) {
+      throw new IOException("Connection closed");
+    }
+    return out;
+  }
+
+  @Override
+  public void shutdownInput() throws IOException {
+    channel.shutdownInput();
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+
+  @Override
+  public boolean isClosed() {
+    return !channel.isOpen();
+  }
+
+  @Override
+  public String getRemoteAddress() {
+    try {
+      // Clients are usually unbound, so on the server side name the socket they connected to.
+      UnixDomainSocketAddress remote = (UnixDomainSocketAddress) channel.getRemoteAddress();
+      return "unix:" + (remote == null || remote.getPath().toString().isEmpty()
+          ? channel.getLocalAddress() : remote);
+    } catch (IOException e) {
+      return "unix:closed";
+    }
+  }
+
+  @Override
+  public InetAddress getSourceAddress() {
+    return null;
+  }
+}
@@ -0,0 +1,243 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The {@code UserDirectory} class keeps a versioned, pre-encoded snapshot of the connected users'
+ * names so that user listings do not walk the client registry or re-serialize every name on each
+ * request.
+ * <p>
+ * Every membership change increments the directory's version. The snapshot is rebuilt lazily, at
+ * most once per version, the first time it is requested after a change; all other requests reuse
+ * the cached bytes. A requester is excluded from its own listing by skipping its entry in the
+ * cached bytes while writing, so no per-request copy of the list is made.
+ * <p>
+ * For rooms too large to list in one message, the directory also maintains a sorted index of
+ * case-folded usernames, updated incrementally on every join and leave. Paged queries seek
+ * directly to the requested prefix or cursor, so their cost is proportional to the page size, not
+ * to the number of connected users.
+ */
+public class UserDirectory {
+
+  private final ConcurrentSkipListMap<String, String> index = new ConcurrentSkipListMap<>();
+  private final AtomicLong version = new AtomicLong();
+  private volatile Snapshot snapshot;
+
+  /**
+   * Records that a user joined, invalidating the cached snapshot.
+   *
+   * @param username the user's name
+   */
+  public void userJoined(String username) {
+    index.put(key(username), username);
+    version.incrementAndGet();
+  }
+
+  /**
+   * Records that a user left, invalidating the cached snapshot.
+   *
+   * @param username the user's name
+   */
+  public void userLeft(String username) {
+    index.remove(key(username), username);
+    version.incrementAndGet();
+  }
+
+  /**
+   * Returns the current membership version.
+   *
+   * @return the number of membership changes recorded so far
+   */
+  public long getVersion() {
+    return version.get();
+  }
+
+  /**
+   * Returns one page of users whose names start with {@code prefix}, ignoring case, in
+   * case-insensitive order, beginning after {@code cursor}.
+   *
+   * @param prefix      the prefix names must start with; empty for all names
+   * @param cursor      the cursor returned with the previous page; empty to start at the beginning
+   * @param limit       the maximum number of names on the page; must be positive
+   * @param excludeUser a name to leave out, typically the requester's, or {@code null}
+   * @return the page, with a next cursor if more matching names follow
+   */
+  public QueryUserResponse page(String prefix, String cursor, int limit, String excludeUser) {
+    String foldedPrefix = key(prefix);
+    String excluded = excludeUser == null ? null : key(excludeUser);
+    String start = foldedPrefix;
+    boolean inclusive = true;
+    if (!cursor.isEmpty() && cursor.compareTo(foldedPrefix) >= 0) {
+      start = cursor;
+      inclusive = false;
+    }
+    List<String> users = new ArrayList<>(Math.min(limit, 64));
+    String last = "";
+    for (Map.Entry<String, String> entry : index.tailMap(start, inclusive).entrySet()) {
+      String folded = entry.getKey();
+      if (!folded.startsWith(foldedPrefix)) {
+        break;
+      }
+      if (folded.equals(excluded)) {
+        continue;
+      }
+      if (users.size() == limit) {
+        return new QueryUserResponse(users, last);
+      }
+      users.add(entry.getValue());
+      last = folded;
+    }
+    return new QueryUserResponse(users, "");
+  }
+
+  /**
+   * Returns the number of connected users without building a snapshot.
+   *
+   * @return the number of indexed users
+   */
+  public int size() {
+    return index.size();
+  }
+
+  /**
+   * Returns the snapshot for the current version, rebuilding it if membership changed since it
+   * was last built.
+   *
+   * @return the current snapshot
+   */
+  public Snapshot snapshot() {
+    Snapshot current = snapshot;
+    long expected = version.get();
+    if (current != null && current.version == expected) {
+      return current;
+    }
+    synchronized (this) {
+      current = snapshot;
+      expected = version.get();
+      if (current == null || current.version != expected) {
+        current = new Snapshot(expected, index.values());
+        snapshot = current;
+      }
+      return current;
+    }
+  }
+
+  /**
+   * An immutable, encoded list of usernames in case-insensitive order. The body holds every name
+   * in the length-prefixed format written by {@link IOUtils#writeStringAsBytes}, back to back.
+   */
+  public static class Snapshot {
+
+    private final long version;
+    private final byte[] body;
+    private final int[] offsets;
+    private final Map<String, Integer> positions = new HashMap<>();
+
+    Snapshot(long version, Collection<String> names) {
+      this.version = version;
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(bytes);
+      List<Integer> starts = new ArrayList<>();
+      for (String name : names) {
+        positions.put(key(name), starts.size());
+        starts.add(bytes.size());
+        try {
+          IOUtils.writeStringAsBytes(out, name);
+        } catch (IOException e) {
+          throw new IllegalStateException("Writing to memory cannot fail", e);
+        }
+      }
+      body = bytes.toByteArray();
+      offsets = new int[starts.size() + 1];
+      for (int i = 0; i < starts.size(); i++) {
+        offsets[i] = starts.get(i);
+      }
+      offsets[starts.size()] = body.length;
+    }
+
+    /**
+     * Returns the membership version this snapshot reflects.
+     *
+     * @return the snapshot version
+     */
+    public long getVersion() {
+      return version;
+    }
+
+    /**
+     * Returns the number of users in this snapshot.
+     *
+     * @return the user count
+     */
+    public int size() {
+      return offsets.length - 1;
+    }
+
+    /**
+     * Writes the user count followed by every encoded name except, if present, the excluded one.
+     *
+     * @param out         the stream to write to
+     * @param excludeUser a username to leave out, compared ignoring case, or {@code null}
+     * @throws IOException if an I/O error occurs while writing
+     */
+    public void writeUsers(DataOutputStream out, String excludeUser) throws IOException {
+      Integer skip = excludeUser == null ? null : positions.get(key(excludeUser));
+      if (skip == null) {
+        out.writeInt(size());
+        out.write(body);
+        return;
+      }
+      out.writeInt(size() - 1);
+      out.write(body, 0, offsets[skip]);
+      out.write(body, offsets[skip + 1], body.length - offsets[skip + 1]);
+    }
+
+    /**
+     * Returns a {@link QueryUserResponse}-compatible message that lists every user except the
+     * requester, written straight from this snapshot.
+     *
+     * @param requester the user to leave out of the listing
+     * @return the message to send
+     */
+    public BaseMessage toUserList(String requester) {
+      return new BaseMessage(ChatRoomConstants.QUERY_USER_RESPONSE) {
+        @Override
+        public void writeMessage(DataOutputStream out) throws IOException {
+          super.writeMessage(out);
+          writeUsers(out, requester);
+        }
+      };
+    }
+
+    /**
+     * Returns a {@link PresenceSnapshot}-compatible message that lists every user, written
+     * straight from this snapshot.
+     *
+     * @param presenceVersion the presence version to report
+     * @return the message to send
+     */
+    public BaseMessage toPresenceSnapshot(long presenceVersion) {
+      return new BaseMessage(ChatRoomConstants.PRESENCE_SNAPSHOT) {
+        @Override
+        public void writeMessage(DataOutputStream out) throws IOException {
+          super.writeMessage(out);
+          out.writeLong(presenceVersion);
+          writeUsers(out, null);
+        }
+      };
+    }
+
+  }
+
+  private static String key(String username) {
+    return username.toLowerCase(Locale.ROOT);
+  }
+}
@@ -0,0 +1,87 @@
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Measures how many connections per second the server can set up during a reconnect storm:
+ * {@code CLIENT_THREADS} threads each repeatedly connect, complete the handshake, log off and
+ * close, as clients do when a gateway or a network partition drops them all at once. Each run uses
+ * a fresh server with a different acceptor configuration.
+ * <p>
+ * Run with {@code gradle acceptBenchmark}.
+ */
+public class AcceptStormBenchmark {
+
+  private static final int CLIENT_THREADS = 8;
+  private static final int CONNECTIONS_PER_THREAD = 500;
+
+  public static void main(String[] args) throws Exception {
+    for (int i = 0; i < 2; i++) {
+      run(1, false);
+      run(4, false);
+      run(4, true);
+    }
+    System.out.println("threads=" + CLIENT_THREADS + " connections="
+        + CLIENT_THREADS * CONNECTIONS_PER_THREAD);
+    System.out.println(run(1, false));
+    System.out.println(run(4, false));
+    System.out.println(run(4, true));
+  }
+
+  private static String run(int acceptors, boolean reusePort) throws Exception {
+    // Every client connects from localhost, so lift the admission limits that would otherwise
+    // turn most of the storm away.
+    ServerHandle handle = ChatRoomServer.builder().port(0).acceptors(acceptors)
+        .reusePort(reusePort).maxClients(1000).maxConnectionsPerSource(Integer.MAX_VALUE)
+        .acceptRate(1e6, 1_000_000).sourceAcceptRate(1e6, 1_000_000).start();
+    handle.ready().get(5, TimeUnit.SECONDS);
+    AtomicInteger accepted = new AtomicInteger();
+    AtomicInteger rejected = new AtomicInteger();
+    Thread[] clients = new Thread[CLIENT_THREADS];
+    long start = System.nanoTime();
+    for (int t = 0; t < CLIENT_THREADS; t++) {
+      int thread = t;
+      clients[t] = new Thread(() -> {
+        for (int i = 0; i < CONNECTIONS_PER_THREAD; i++) {
+          if (connectOnce(handle.getPort(), "storm-" + thread + "-" + i)) {
+            accepted.incrementAndGet();
+          } else {
+            rejected.incrementAndGet();
+          }
+        }
+      });
+      clients[t].start();
+    }
+    for (Thread client : clients) {
+      client.join();
+    }
+    long elapsed = System.nanoTime() - start;
+    handle.stop(1, TimeUnit.SECONDS);
+    String name = acceptors + " acceptor" + (acceptors == 1 ? "" : "s")
+        + (handle.getServer().isReusePort() ? ", SO_REUSEPORT" : "");
+    return String.format("%-26s %8.1f ms  %8.0f connections/s  %5d rejected", name,
+        elapsed / 1e6, accepted.get() / (elapsed / 1e9), rejected.get());
+  }
+
+  private static boolean connectOnce(int port, String username) {
+    try (Socket socket = new Socket("localhost", port)) {
+      // Each message goes out in one write with Nagle off, so the handshake measures the server
+      // rather than delayed acknowledgements.
+      socket.setTcpNoDelay(true);
+      OutputStream out = socket.getOutputStream();
+      DataInputStream in = new DataInputStream(socket.getInputStream());
+      out.write(new ConnectMessage(username).toBytes());
+      if (!((ConnectResponse) BaseMessage.readMessage(in)).isSuccess()) {
+        return false;
+      }
+      out.write(new DisconnectMessage(username).toBytes());
+      BaseMessage.readMessage(in);
+      return true;
+    } catch (IOException | ClassCastException e) {
+      return false;
+    }
+  }
+}
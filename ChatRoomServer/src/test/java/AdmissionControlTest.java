@@ -0,0 +1,108 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetAddress;
+
+public class AdmissionControlTest {
+
+  private static final long SECOND = 1_000_000_000L;
+
+  @Test
+  public void testServerCapacity() {
+    AdmissionControl admission = new AdmissionControl();
+    admission.setMaxConnections(2);
+    long now = System.nanoTime();
+    Assertions.assertEquals(AdmissionControl.Decision.ADMITTED, admission.admit(null, now));
+    Assertions.assertEquals(AdmissionControl.Decision.ADMITTED, admission.admit(null, now));
+    Assertions.assertEquals(AdmissionControl.Decision.SERVER_FULL, admission.admit(null, now));
+    Assertions.assertEquals(1, admission.getRejectedCount());
+
+    admission.release(null);
+    Assertions.assertEquals(1, admission.getConnectionCount());
+    Assertions.assertEquals(AdmissionControl.Decision.ADMITTED, admission.admit(null, now));
+  }
+
+  @Test
+  public void testDefaultsAdmitAFullServerFromOneSource() throws Exception {
+    AdmissionControl admission = new AdmissionControl();
+    InetAddress source = InetAddress.getLoopbackAddress();
+    long now = System.nanoTime();
+    for (int i = 0; i < ChatRoomConstants.MAX_CLIENTS; i++) {
+      Assertions.assertEquals(AdmissionControl.Decision.ADMITTED, admission.admit(source, now));
+    }
+    Assertions.assertEquals(AdmissionControl.Decision.SERVER_FULL, admission.admit(source, now));
+  }
+
+  @Test
+  public void testPerSourceLimitLeavesOtherSourcesAlone() throws Exception {
+    AdmissionControl admission = new AdmissionControl();
+    admission.setMaxConnectionsPerSource(1);
+    InetAddress first = InetAddress.getByName("192.0.2.1");
+    InetAddress second = InetAddress.getByName("192.0.2.2");
+    long now = System.nanoTime();
+    Assertions.assertEquals(AdmissionControl.Decision.ADMITTED, admission.admit(first, now));
+    Assertions.assertEquals(AdmissionControl.Decision.SOURCE_FULL, admission.admit(first, now));
+    Assertions.assertEquals(AdmissionControl.Decision.ADMITTED, admission.admit(second, now));
+    Assertions.assertEquals(AdmissionControl.Decision.ADMITTED, admission.admit(null, now));
+    Assertions.assertEquals(1, admission.getConnectionCount(first));
+    Assertions.assertEquals("Too many connections from your address.",
+        AdmissionControl.Decision.SOURCE_FULL.getReason());
+
+    admission.release(first);
+    Assertions.assertEquals(0, admission.getConnectionCount(first));
+    Assertions.assertEquals(AdmissionControl.Decision.ADMITTED, admission.admit(first, now));
+  }
+
+  @Test
+  public void testSourceAcceptRate() throws Exception {
+    AdmissionControl admission = new AdmissionControl();
+    admission.setSourceAcceptRate(1, 2);
+    InetAddress source = InetAddress.getByName("192.0.2.1");
+    long now = System.nanoTime();
+    Assertions.assertEquals(AdmissionControl.Decision.ADMITTED, admission.admit(source, now));
+    admission.release(source);
+    Assertions.assertEquals(AdmissionControl.Decision.ADMITTED, admission.admit(source, now));
+    admission.release(source);
+    Assertions.assertEquals(AdmissionControl.Decision.SOURCE_RATE_LIMITED,
+        admission.admit(source, now));
+    Assertions.assertEquals(AdmissionControl.Decision.ADMITTED,
+        admission.admit(source, now + SECOND));
+  }
+
+  @Test
+  public void testServerAcceptRate() {
+    AdmissionControl admission = new AdmissionControl();
+    admission.setAcceptRate(1, 1);
+    long now = System.nanoTime();
+    Assertions.assertEquals(AdmissionControl.Decision.ADMITTED, admission.admit(null, now));
+    Assertions.assertEquals(AdmissionControl.Decision.SERVER_RATE_LIMITED,
+        admission.admit(null, now));
+    Assertions.assertEquals(AdmissionControl.Decision.ADMITTED,
+        admission.admit(null, now + SECOND));
+  }
+
+  @Test
+  public void testChangingAcceptRateDoesNotRefillBucket() {
+    AdmissionControl admission = new AdmissionControl();
+    admission.setAcceptRate(1, 1);
+    long now = System.nanoTime();
+    Assertions.assertEquals(AdmissionControl.Decision.ADMITTED, admission.admit(null, now));
+
+    admission.setAcceptRate(1, 1);
+    Assertions.assertEquals(AdmissionControl.Decision.SERVER_RATE_LIMITED,
+        admission.admit(null, now));
+    admission.setAcceptRate(1, 5);
+    Assertions.assertEquals(AdmissionControl.Decision.SERVER_RATE_LIMITED,
+        admission.admit(null, now));
+    Assertions.assertEquals(AdmissionControl.Decision.ADMITTED,
+        admission.admit(null, now + 2 * SECOND));
+  }
+
+  @Test
+  public void testInvalidRates() {
+    AdmissionControl admission = new AdmissionControl();
+    Assertions.assertThrows(IllegalArgumentException.class, () -> admission.setAcceptRate(0, 1));
+    Assertions.assertThrows(IllegalArgumentException.class,
+        () -> admission.setSourceAcceptRate(1, 0));
+  }
+}
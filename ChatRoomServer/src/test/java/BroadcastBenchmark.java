@@ -0,0 +1,102 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * Measures broadcast fan-out throughput as the clients are spread over more {@link ClientShard}s.
+ * A single producer posts {@code BROADCASTS} frames to every shard, as the message bus's write
+ * stage does, and each shard queues them on its own clients' {@link OutboundQueue}s. With one
+ * shard this is the single fan-out loop the shards replaced; with more, the shards fan out in
+ * parallel, so on a machine with enough cores throughput should grow close to linearly.
+ * <p>
+ * Run with {@code gradle broadcastBenchmark}.
+ */
+public class BroadcastBenchmark {
+
+  private static final int USERS = 2_000;
+  private static final int BROADCASTS = 2_000;
+  private static final int FRAME_BYTES = 64;
+
+  public static void main(String[] args) throws Exception {
+    int cores = Runtime.getRuntime().availableProcessors();
+    TreeSet<Integer> shardCounts = new TreeSet<>(List.of(1, 2, 4, cores));
+    for (int i = 0; i < 2; i++) {
+      run(1);
+      run(cores);
+    }
+    System.out.println("users=" + USERS + " broadcasts=" + BROADCASTS + " cores=" + cores);
+    for (int shardCount : shardCounts) {
+      System.out.println(run(shardCount));
+    }
+  }
+
+  private static String run(int shardCount) throws Exception {
+    ClientShard[] shards = new ClientShard[shardCount];
+    for (int i = 0; i < shardCount; i++) {
+      shards[i] = new ClientShard(i, ChatRoomConstants.SHARD_MAILBOX_CAPACITY);
+    }
+    List<CountingClient> clients = new ArrayList<>(USERS);
+    for (int i = 0; i < USERS; i++) {
+      CountingClient client = new CountingClient();
+      shards[i % shardCount].attach(client);
+      clients.add(client);
+    }
+    for (CountingClient client : clients) {
+      while (client.getShardSlot() < 0) {
+        Thread.sleep(1);
+      }
+    }
+
+    byte[] frame = new byte[FRAME_BYTES];
+    long start = System.nanoTime();
+    for (int i = 0; i < BROADCASTS; i++) {
+      for (ClientShard shard : shards) {
+        shard.post(null, frame);
+      }
+    }
+    for (ClientShard shard : shards) {
+      shard.shutdown();
+    }
+    for (ClientShard shard : shards) {
+      shard.awaitTermination(60_000);
+    }
+    long elapsed = System.nanoTime() - start;
+
+    long delivered = 0;
+    for (CountingClient client : clients) {
+      delivered += client.received;
+    }
+    return String.format("%2d shards %8.1f ms  %12.0f deliveries/s  %10d delivered", shardCount,
+        elapsed / 1e6, delivered / (elapsed / 1e9), delivered);
+  }
+
+  /**
+   * A client whose broadcasts go through a real {@link OutboundQueue} that nobody drains, so
+   * each delivery pays for the queue's locking, shedding and memory accounting.
+   */
+  private static final class CountingClient extends ClientHandler {
+
+    private static final OutputStream DISCARD = new OutputStream() {
+      @Override
+      public void write(int b) {
+      }
+    };
+
+    private final OutboundQueue queue = new OutboundQueue(DISCARD,
+        OutboundQueue.OverflowPolicy.DROP_OLDEST, ChatRoomConstants.OUTBOUND_BUDGET_BYTES,
+        new OutboundStats(), new OutboundMemoryBudget(Long.MAX_VALUE), () -> { });
+    private long received;
+
+    private CountingClient() {
+      super((Connection) null, null);
+    }
+
+    @Override
+    public void sendBroadcast(byte[] frame) throws IOException {
+      queue.offer(frame, OutboundQueue.FrameKind.BROADCAST);
+      received++;
+    }
+  }
+}
@@ -2,33 +2,26 @@ import org.junit.jupiter.api.*;
 import java.io.*;
 import java.util.Arrays;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 public class ChatRoomClientReadMessagesIntegrationTest {
 
   static int serverPort;
-  static Thread serverThread;
-  static ChatRoomServer server;
+  static ServerHandle server;
 
   @BeforeAll
   public static void startServer() throws Exception {
-    serverPort = 0;
-    server = new ChatRoomServer(serverPort);
-
-    serverThread = new Thread(() -> {
-      server.startServer();
-    });
-    serverThread.start();
-    Thread.sleep(500);
-    serverPort = server.serverSocket.getLocalPort();
+    server = ChatRoomServer.builder().port(0).start();
+    server.ready().get(5, TimeUnit.SECONDS);
+    serverPort = server.getPort();
   }
 
   @AfterAll
   public static void stopServer() throws Exception {
-    server.serverSocket.close();
-    serverThread.interrupt();
+    Assertions.assertTrue(server.stop(1, TimeUnit.SECONDS));
   }
 
-  private ChatRoomClient createConnectedClient(String username) throws IOException, InterruptedException {
+  private ChatRoomClient createConnectedClient(String username) throws Exception {
     ChatRoomClient client = new ChatRoomClient();
     ByteArrayInputStream userIn = new ByteArrayInputStream((logoffCommandAfterTests()).getBytes());
     System.setIn(userIn);
@@ -39,7 +32,7 @@ public class ChatRoomClientReadMessagesIntegrationTest {
     Executors.newSingleThreadExecutor().submit(() -> {
       client.connect("127.0.0.1", serverPort, username);
     });
-    Thread.sleep(1000);
+    client.whenConnected().get(5, TimeUnit.SECONDS);
     return client;
   }
 
@@ -78,6 +78,29 @@ public class ChatRoomClientReadMessagesTest {
     Assertions.assertTrue(output.contains("Done"));
   }
 
+  @Test
+  public void testPresenceSnapshotAndDeltas() throws Exception {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    DataOutputStream dout = new DataOutputStream(bos);
+
+    writeMessage(dout, new PresenceSnapshot(4, java.util.Arrays.asList("bob", "charlie")));
+    writeMessage(dout, new PresenceDelta(4, java.util.Arrays.asList("stale"),
+        Collections.emptyList()));
+    writeMessage(dout, new PresenceDelta(5, java.util.Arrays.asList("dave"),
+        java.util.Arrays.asList("bob")));
+    writeMessage(dout, new ConnectResponse(true, "Done"));
+
+    client.in = new DataInputStream(new ByteArrayInputStream(bos.toByteArray()));
+    client.out = new DataOutputStream(new ByteArrayOutputStream());
+
+    client.readMessages();
+    String output = testOut.toString();
+    Assertions.assertTrue(output.contains("Online users: bob, charlie"));
+    Assertions.assertTrue(output.contains("Online users: charlie, dave"));
+    Assertions.assertEquals(5, client.presenceVersion);
+    Assertions.assertFalse(client.presence.contains("stale"));
+  }
+
   @Test
   public void testDirectMessage() throws Exception {
     ByteArrayOutputStream bos = new ByteArrayOutputStream();
@@ -14,6 +14,31 @@ public class ChatRoomClientTest {
     Assertions.assertTrue(help.contains("Available commands:"));
   }
 
+  @Test
+  public void testSendMessageWritesOnce() throws Exception {
+    ChatRoomClient client = new ChatRoomClient();
+    int[] writes = new int[1];
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream() {
+      @Override
+      public synchronized void write(byte[] b, int off, int len) {
+        writes[0]++;
+        super.write(b, off, len);
+      }
+
+      @Override
+      public synchronized void write(int b) {
+        writes[0]++;
+        super.write(b);
+      }
+    };
+    client.out = new DataOutputStream(bytes);
+    DirectMessage message = new DirectMessage("alice", "bob", "hello");
+    client.sendMessage(message);
+
+    Assertions.assertEquals(1, writes[0]);
+    Assertions.assertArrayEquals(message.toBytes(), bytes.toByteArray());
+  }
+
   @Test
   public void testDisconnectWithoutConnection() {
     ChatRoomClient client = new ChatRoomClient();
@@ -1,26 +1,29 @@
 import org.junit.jupiter.api.*;
 
 import java.io.*;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class ChatRoomServerTest {
 
-  static ChatRoomServer server;
-  static Thread serverThread;
-  static int serverPort=1234;
+  static ServerHandle server;
+  static int serverPort;
 
   @BeforeAll
   public static void setUpServer() throws Exception {
-
-    server = new ChatRoomServer(serverPort);
-    serverThread = new Thread(server::startServer);
-    serverThread.start();
-    Thread.sleep(500);
+    server = ChatRoomServer.builder().port(0).start();
+    server.ready().get(5, TimeUnit.SECONDS);
+    serverPort = server.getPort();
   }
 
   @AfterAll
   public static void tearDownServer() throws Exception {
-    server.serverSocket.close();
-    serverThread.interrupt();
+    Assertions.assertTrue(server.stop(1, TimeUnit.SECONDS));
   }
 
   @Test
@@ -35,8 +38,7 @@ public class ChatRoomServerTest {
       client1.connect("localhost", serverPort, "user1");
     });
     t1.start();
-
-    Thread.sleep(500);
+    client1.whenConnected().get(5, TimeUnit.SECONDS);
 
     ByteArrayOutputStream client2Out = new ByteArrayOutputStream();
     System.setOut(new PrintStream(client2Out));
@@ -44,8 +46,7 @@ public class ChatRoomServerTest {
       client2.connect("localhost", serverPort, "user2");
     });
     t2.start();
-
-    Thread.sleep(500);
+    client2.whenConnected().get(5, TimeUnit.SECONDS);
     String inputCommands = "@all Hello everyone\nlogoff\n";
     System.setIn(new ByteArrayInputStream(inputCommands.getBytes()));
     System.setOut(new PrintStream(client1Out));
@@ -61,5 +62,528 @@ public class ChatRoomServerTest {
     String c3Out = client2Out2.toString();
   }
 
+  @Test
+  public void testIdleClientIsPingedThenReaped() throws Exception {
+    ServerHandle idleServer = ChatRoomServer.builder().port(0)
+        .heartbeatIntervalMillis(200).idleTimeoutMillis(800).start();
+
+    try (Socket socket = new Socket("localhost", idleServer.getPort())) {
+      socket.setSoTimeout(5000);
+      DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+      DataInputStream in = new DataInputStream(socket.getInputStream());
+      new ConnectMessage("sleepy").writeMessage(out);
+      ConnectResponse response = (ConnectResponse) BaseMessage.readMessage(in);
+      Assertions.assertTrue(response.getMessage().startsWith("Connected as sleepy"));
+
+      boolean pinged = false;
+      boolean closed = false;
+      while (!closed) {
+        try {
+          pinged |= BaseMessage.readMessage(in) instanceof Ping;
+        } catch (EOFException e) {
+          closed = true;
+        }
+      }
+      Assertions.assertTrue(pinged);
+    } finally {
+      idleServer.stop(0, TimeUnit.SECONDS);
+    }
+  }
+
+  @Test
+  public void testStopDeliversQueuedMessagesAndFinalNotice() throws Exception {
+    ChatRoomServer stoppingServer = new ChatRoomServer(0);
+    Thread acceptor = stoppingServer.start();
+
+    try (Socket socket = new Socket("localhost", stoppingServer.serverSocket.getLocalPort())) {
+      socket.setSoTimeout(5000);
+      DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+      DataInputStream in = new DataInputStream(socket.getInputStream());
+      new ConnectMessage("leaving").writeMessage(out);
+      BaseMessage.readMessage(in);
+      new BroadcastMessage("leaving", "last words").writeMessage(out);
+      out.flush();
+      Thread.sleep(100);
+
+      stoppingServer.stop(2, TimeUnit.SECONDS);
+
+      boolean sawBroadcast = false;
+      String notice = null;
+      try {
+        while (true) {
+          BaseMessage message = BaseMessage.readMessage(in);
+          if (message instanceof BroadcastMessage) {
+            sawBroadcast |= ((BroadcastMessage) message).getContent().equals("last words");
+          } else if (message instanceof ConnectResponse) {
+            notice = ((ConnectResponse) message).getMessage();
+          }
+        }
+      } catch (EOFException e) {
+        // The server closed the connection after the notice.
+      }
+      Assertions.assertTrue(sawBroadcast);
+      Assertions.assertEquals("Server is shutting down.", notice);
+    }
+
+    Assertions.assertTrue(stoppingServer.awaitTermination(5, TimeUnit.SECONDS));
+    acceptor.join(1000);
+    Assertions.assertFalse(acceptor.isAlive());
+  }
+
+  @Test
+  public void testEmbeddedServerReportsEphemeralPortAndReadiness() throws Exception {
+    ServerHandle handle = ChatRoomServer.builder().port(0).start();
+    Assertions.assertSame(handle, handle.ready().get(5, TimeUnit.SECONDS));
+    Assertions.assertNotEquals(0, handle.getPort());
+
+    ChatRoomClient client = new ChatRoomClient();
+    ConnectResponse response = client.connectAsync("localhost", handle.getPort(), "embedded")
+        .get(5, TimeUnit.SECONDS);
+    Assertions.assertTrue(response.isSuccess());
+    Assertions.assertTrue(handle.getServer().isUserConnected("embedded"));
+
+    ChatRoomClient duplicate = new ChatRoomClient();
+    Assertions.assertFalse(duplicate.connectAsync("localhost", handle.getPort(), "embedded")
+        .get(5, TimeUnit.SECONDS).isSuccess());
+
+    Assertions.assertTrue(handle.stop(1, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testInProcessBotsExchangeMessagesOverLoopback() throws Exception {
+    ChatRoomServer local = server.getServer();
+    ChatRoomClient bot = new ChatRoomClient();
+    Assertions.assertTrue(bot.connectAsync(local.connectLocal(), "bot").get(5, TimeUnit.SECONDS)
+        .isSuccess());
+
+    Connection connection = local.connectLocal();
+    DataOutputStream out = new DataOutputStream(connection.getOutputStream());
+    DataInputStream in = new DataInputStream(connection.getInputStream());
+    new ConnectMessage("listener").writeMessage(out);
+    Assertions.assertTrue(((ConnectResponse) BaseMessage.readMessage(in)).isSuccess());
+    Assertions.assertTrue(local.isUserConnected("bot"));
+
+    bot.sendMessage(new DirectMessage("bot", "listener", "beep"));
+    BaseMessage message = BaseMessage.readMessage(in);
+    while (!(message instanceof DirectMessage)) {
+      message = BaseMessage.readMessage(in);
+    }
+    Assertions.assertEquals("beep", ((DirectMessage) message).getContent());
+    Assertions.assertEquals("bot", ((DirectMessage) message).getSender());
+
+    bot.sendMessage(new DisconnectMessage("bot"));
+    connection.close();
+  }
+
+  @Test
+  public void testDisconnectedSubscriberStopsReceivingPresence() throws Exception {
+    ServerHandle handle = ChatRoomServer.builder().port(0).start();
+    handle.ready().get(5, TimeUnit.SECONDS);
+    ChatRoomServer local = handle.getServer();
+    Connection connection = local.connectLocal();
+    DataOutputStream out = new DataOutputStream(connection.getOutputStream());
+    DataInputStream in = new DataInputStream(connection.getInputStream());
+    new ConnectMessage("watcher").writeMessage(out);
+    Assertions.assertTrue(((ConnectResponse) BaseMessage.readMessage(in)).isSuccess());
+    new SubscribePresence("watcher").writeMessage(out);
+    BaseMessage message = BaseMessage.readMessage(in);
+    while (!(message instanceof PresenceSnapshot)) {
+      message = BaseMessage.readMessage(in);
+    }
+    // The subscriber is added just after its snapshot is queued.
+    long deadline = System.currentTimeMillis() + 5000;
+    while (local.getPresenceSubscribers().isEmpty() && System.currentTimeMillis() < deadline) {
+      Thread.sleep(20);
+    }
+    Assertions.assertEquals(1, local.getPresenceSubscribers().size());
+
+    new DisconnectMessage("watcher").writeMessage(out);
+    deadline = System.currentTimeMillis() + 5000;
+    while (!local.getPresenceSubscribers().isEmpty() && System.currentTimeMillis() < deadline) {
+      Thread.sleep(20);
+    }
+    Assertions.assertTrue(local.getPresenceSubscribers().isEmpty());
+    connection.close();
+
+    Assertions.assertTrue(handle.stop(1, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testPresenceAnnouncementDoesNotDeadlockAFullBus() throws Exception {
+    RouteOnPublishBus bus = new RouteOnPublishBus();
+    ServerHandle handle = ChatRoomServer.builder().port(0).messageBus(bus).start();
+    handle.ready().get(5, TimeUnit.SECONDS);
+    bus.server = handle.getServer();
+
+    Thread announcer = new Thread(() -> {
+      PresenceCoalescer presence = handle.getServer().getPresenceCoalescer();
+      presence.recordJoin("alice");
+      presence.flush();
+    });
+    announcer.setDaemon(true);
+    announcer.start();
+    announcer.join(5000);
+    Assertions.assertFalse(announcer.isAlive());
+    Assertions.assertEquals(1, bus.deltas.get());
+
+    Assertions.assertTrue(handle.stop(1, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testBlockedClientDoesNotHoldUpTheOnlySchedulerWorker() throws Exception {
+    Properties props = new Properties();
+    props.setProperty("scheduler.workers", "1");
+    props.setProperty("outbound.policy", "block");
+    props.setProperty("outbound.budget.bytes", "1024");
+    props.setProperty("rate.limit", "100000");
+    props.setProperty("rate.limit.burst", "100000");
+    ServerHandle handle = ChatRoomServer.builder().port(0)
+        .config(ServerConfig.fromProperties(props)).start();
+    handle.ready().get(5, TimeUnit.SECONDS);
+    ChatRoomServer local = handle.getServer();
+
+    // The flooder never reads, so its replies fill the loopback buffer and then its queue.
+    Connection flooder = local.connectLocal();
+    DataOutputStream floodOut = new DataOutputStream(flooder.getOutputStream());
+    new ConnectMessage("flooder").writeMessage(floodOut);
+    Thread flood = new Thread(() -> {
+      try {
+        for (int i = 0; i < 10_000; i++) {
+          new QueryConnectedUsers("flooder").writeMessage(floodOut);
+        }
+      } catch (IOException e) {
+        // The server stopped reading or closed the connection.
+      }
+    });
+    flood.setDaemon(true);
+    flood.start();
+    long deadline = System.currentTimeMillis() + 5000;
+    while (local.getOutboundStats().getBlocked() == 0 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(5);
+    }
+    Assertions.assertTrue(local.getOutboundStats().getBlocked() > 0);
+
+    Connection connection = local.connectLocal();
+    DataOutputStream out = new DataOutputStream(connection.getOutputStream());
+    DataInputStream in = new DataInputStream(connection.getInputStream());
+    new ConnectMessage("reader").writeMessage(out);
+    Assertions.assertTrue(((ConnectResponse) BaseMessage.readMessage(in)).isSuccess());
+    new QueryConnectedUsers("reader").writeMessage(out);
+    AtomicBoolean answered = new AtomicBoolean();
+    Thread reader = new Thread(() -> {
+      try {
+        BaseMessage message = BaseMessage.readMessage(in);
+        while (!(message instanceof QueryUserResponse)) {
+          message = BaseMessage.readMessage(in);
+        }
+        answered.set(true);
+      } catch (IOException e) {
+        // Reported by the assertion below.
+      }
+    });
+    reader.setDaemon(true);
+    reader.start();
+    reader.join(5000);
+    Assertions.assertTrue(answered.get());
+    Assertions.assertTrue(local.isUserConnected("flooder"));
+
+    connection.close();
+    flooder.close();
+    Assertions.assertTrue(handle.stop(1, TimeUnit.SECONDS));
+  }
+
+  /**
+   * A bus that is full until the route stage has routed an earlier presence delta, which needs
+   * the presence subscribers, so each publish waits for another thread to read them.
+   */
+  private static final class RouteOnPublishBus implements MessageBus {
+
+    private volatile ChatRoomServer server;
+    private final AtomicInteger deltas = new AtomicInteger();
+
+    @Override
+    public void subscribe(MessageListener listener) {
+    }
+
+    @Override
+    public void unsubscribe(MessageListener listener) {
+    }
+
+    @Override
+    public void publish(ClientHandler source, BaseMessage message) {
+      if (!(message instanceof PresenceDelta)) {
+        return;
+      }
+      Thread route = new Thread(() -> server.getPresenceSubscribers());
+      route.start();
+      try {
+        route.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+      deltas.incrementAndGet();
+    }
+
+    @Override
+    public void shutdown() {
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) {
+      return true;
+    }
+  }
+
+  @Test
+  public void testClientConnectsThroughUnixDomainSocket() throws Exception {
+    Path path = Files.createTempDirectory("chatroom").resolve("server.sock");
+    ServerHandle handle = ChatRoomServer.builder().port(0).unixSocketPath(path).start();
+    Assertions.assertEquals(path, handle.getServer().getUnixSocketPath());
+
+    ChatRoomClient client = new ChatRoomClient();
+    Assertions.assertTrue(client.connectAsync(path, "neighbour").get(5, TimeUnit.SECONDS)
+        .isSuccess());
+    Assertions.assertTrue(handle.getServer().isUserConnected("neighbour"));
+
+    Assertions.assertTrue(handle.stop(1, TimeUnit.SECONDS));
+    Assertions.assertFalse(Files.exists(path));
+  }
+
+  @Test
+  public void testClientConnectsThroughSharedMemory() throws Exception {
+    Path directory = Files.createTempDirectory("chatroom-shm");
+    ServerHandle handle = ChatRoomServer.builder().port(0).sharedMemoryDirectory(directory)
+        .start();
+
+    ChatRoomClient client = new ChatRoomClient();
+    Connection connection = SharedMemoryConnection.connect(directory, 1 << 16);
+    Assertions.assertTrue(client.connectAsync(connection, "colocated").get(5, TimeUnit.SECONDS)
+        .isSuccess());
+    Assertions.assertTrue(handle.getServer().isUserConnected("colocated"));
+
+    Assertions.assertTrue(handle.stop(1, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testGatewayMultiplexesSessionsOverOneConnection() throws Exception {
+    ChatRoomServer local = server.getServer();
+    Connection connection = local.connectLocal();
+    DataOutputStream out = new DataOutputStream(connection.getOutputStream());
+    DataInputStream in = new DataInputStream(connection.getInputStream());
+    new ConnectMessage("gateway").writeMessage(out);
+    Assertions.assertTrue(((ConnectResponse) BaseMessage.readMessage(in)).isSuccess());
+
+    new MuxFrame(1, new ConnectMessage("muxAlice")).writeMessage(out);
+    new MuxFrame(2, new ConnectMessage("muxBob")).writeMessage(out);
+    new MuxFrame(3, new ConnectMessage("muxAlice")).writeMessage(out);
+    Assertions.assertTrue(((ConnectResponse) nextForSession(in, 1)).isSuccess());
+    Assertions.assertTrue(((ConnectResponse) nextForSession(in, 2)).isSuccess());
+    Assertions.assertFalse(((ConnectResponse) nextForSession(in, 3)).isSuccess());
+    Assertions.assertTrue(local.isUserConnected("muxAlice"));
+    Assertions.assertEquals(2, local.getMuxSessionCount());
+
+    new MuxFrame(1, new DirectMessage("muxAlice", "muxBob", "over the mux")).writeMessage(out);
+    BaseMessage delivered = nextForSession(in, 2);
+    while (!(delivered instanceof DirectMessage)) {
+      delivered = nextForSession(in, 2);
+    }
+    Assertions.assertEquals("over the mux", ((DirectMessage) delivered).getContent());
+
+    new MuxFrame(2, new DisconnectMessage("muxBob")).writeMessage(out);
+    BaseMessage reply = nextForSession(in, 2);
+    while (!(reply instanceof ConnectResponse)) {
+      reply = nextForSession(in, 2);
+    }
+    Assertions.assertTrue(((ConnectResponse) reply).isSuccess());
 
+    connection.close();
+    long deadline = System.currentTimeMillis() + 5000;
+    while (local.isUserConnected("muxAlice") && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    Assertions.assertFalse(local.isUserConnected("muxAlice"));
+    Assertions.assertFalse(local.isUserConnected("muxBob"));
+    Assertions.assertEquals(0, local.getMuxSessionCount());
+  }
+
+  @Test
+  public void testMuxSessionsCountAgainstCapacity() throws Exception {
+    ServerHandle handle = ChatRoomServer.builder().port(0).maxClients(2).start();
+    handle.ready().get(5, TimeUnit.SECONDS);
+    ChatRoomServer local = handle.getServer();
+    Connection connection = local.connectLocal();
+    DataOutputStream out = new DataOutputStream(connection.getOutputStream());
+    DataInputStream in = new DataInputStream(connection.getInputStream());
+    new ConnectMessage("gateway").writeMessage(out);
+    Assertions.assertTrue(((ConnectResponse) BaseMessage.readMessage(in)).isSuccess());
+
+    new MuxFrame(1, new ConnectMessage("first")).writeMessage(out);
+    Assertions.assertTrue(((ConnectResponse) nextForSession(in, 1)).isSuccess());
+    new MuxFrame(2, new ConnectMessage("second")).writeMessage(out);
+    ConnectResponse refused = (ConnectResponse) nextForSession(in, 2);
+    Assertions.assertFalse(refused.isSuccess());
+    Assertions.assertEquals("Server is full; try again later.", refused.getMessage());
+    Assertions.assertEquals(2, local.getAdmissionControl().getConnectionCount());
+
+    new MuxFrame(1, new DisconnectMessage("first")).writeMessage(out);
+    long deadline = System.currentTimeMillis() + 5000;
+    while (local.getAdmissionControl().getConnectionCount() > 1
+        && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    new MuxFrame(3, new ConnectMessage("third")).writeMessage(out);
+    BaseMessage reply = nextForSession(in, 3);
+    Assertions.assertTrue(((ConnectResponse) reply).isSuccess());
+
+    connection.close();
+    Assertions.assertTrue(handle.stop(1, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testMuxSessionsAreExemptFromPerSourceLimits() throws Exception {
+    ServerHandle handle = ChatRoomServer.builder().port(0).maxConnectionsPerSource(1)
+        .sourceAcceptRate(0.01, 1).start();
+    handle.ready().get(5, TimeUnit.SECONDS);
+    ChatRoomServer local = handle.getServer();
+    try (Socket socket = new Socket("localhost", handle.getPort())) {
+      DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+      DataInputStream in = new DataInputStream(socket.getInputStream());
+      new ConnectMessage("gateway").writeMessage(out);
+      Assertions.assertTrue(((ConnectResponse) BaseMessage.readMessage(in)).isSuccess());
+
+      for (int i = 1; i <= 3; i++) {
+        new MuxFrame(i, new ConnectMessage("behindGateway" + i)).writeMessage(out);
+        Assertions.assertTrue(((ConnectResponse) nextForSession(in, i)).isSuccess());
+      }
+      Assertions.assertEquals(3, local.getMuxSessionCount());
+      Assertions.assertEquals(4, local.getAdmissionControl().getConnectionCount());
+      Assertions.assertEquals(1, local.getAdmissionControl()
+          .getConnectionCount(socket.getLocalAddress()));
+    }
+    Assertions.assertTrue(handle.stop(1, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testThrottledSessionIsRejectedInsteadOfStallingGateway() throws Exception {
+    ServerHandle handle = ChatRoomServer.builder().port(0)
+        .rateLimitPolicy(new RateLimitPolicy(RateLimitPolicy.Mode.THROTTLE, 0.01, 2)).start();
+    handle.ready().get(5, TimeUnit.SECONDS);
+    ChatRoomServer local = handle.getServer();
+    Connection connection = local.connectLocal();
+    DataOutputStream out = new DataOutputStream(connection.getOutputStream());
+    DataInputStream in = new DataInputStream(connection.getInputStream());
+    new ConnectMessage("gateway").writeMessage(out);
+    Assertions.assertTrue(((ConnectResponse) BaseMessage.readMessage(in)).isSuccess());
+    new MuxFrame(1, new ConnectMessage("chatty")).writeMessage(out);
+    new MuxFrame(2, new ConnectMessage("quiet")).writeMessage(out);
+    Assertions.assertTrue(((ConnectResponse) nextForSession(in, 1)).isSuccess());
+    Assertions.assertTrue(((ConnectResponse) nextForSession(in, 2)).isSuccess());
+
+    new MuxFrame(1, new DirectMessage("chatty", "quiet", "one")).writeMessage(out);
+    new MuxFrame(1, new DirectMessage("chatty", "quiet", "two")).writeMessage(out);
+    new MuxFrame(1, new DirectMessage("chatty", "quiet", "three")).writeMessage(out);
+    new MuxFrame(2, new DirectMessage("quiet", "chatty", "hello")).writeMessage(out);
+    BaseMessage rejected = nextForSession(in, 1);
+    while (!(rejected instanceof FailedMessage)) {
+      rejected = nextForSession(in, 1);
+    }
+    BaseMessage delivered = nextForSession(in, 1);
+    while (!(delivered instanceof DirectMessage)) {
+      delivered = nextForSession(in, 1);
+    }
+    Assertions.assertEquals("hello", ((DirectMessage) delivered).getContent());
+
+    connection.close();
+    Assertions.assertTrue(handle.stop(1, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testUnknownSessionFramesSpendTheGatewaysRateLimit() throws Exception {
+    ServerHandle handle = ChatRoomServer.builder().port(0)
+        .rateLimitPolicy(new RateLimitPolicy(RateLimitPolicy.Mode.REJECT, 0.01, 3)).start();
+    handle.ready().get(5, TimeUnit.SECONDS);
+    ChatRoomServer local = handle.getServer();
+    Connection connection = local.connectLocal();
+    DataOutputStream out = new DataOutputStream(connection.getOutputStream());
+    DataInputStream in = new DataInputStream(connection.getInputStream());
+    new ConnectMessage("gateway").writeMessage(out);
+    Assertions.assertTrue(((ConnectResponse) BaseMessage.readMessage(in)).isSuccess());
+
+    new MuxFrame(1, new QueryConnectedUsers("nobody")).writeMessage(out);
+    ConnectResponse refused = (ConnectResponse) nextForSession(in, 1);
+    Assertions.assertFalse(refused.isSuccess());
+    Assertions.assertEquals("No CONNECT_MESSAGE received.", refused.getMessage());
+    Assertions.assertEquals(1, local.getAdmissionControl().getConnectionCount());
+
+    for (int i = 2; i <= 6; i++) {
+      new MuxFrame(i, new ConnectMessage("limited" + i)).writeMessage(out);
+    }
+    Assertions.assertTrue(((ConnectResponse) nextForSession(in, 2)).isSuccess());
+    Assertions.assertTrue(((ConnectResponse) nextForSession(in, 3)).isSuccess());
+    new MuxFrame(2, new DisconnectMessage("limited2")).writeMessage(out);
+    BaseMessage reply = nextForSession(in, 2);
+    while (!(reply instanceof ConnectResponse)) {
+      reply = nextForSession(in, 2);
+    }
+    long deadline = System.currentTimeMillis() + 5000;
+    while (local.getMuxSessionCount() > 1 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    // Sessions 4 to 6 were over the gateway's limit and never answered.
+    Assertions.assertEquals(1, local.getMuxSessionCount());
+    Assertions.assertFalse(local.isUserConnected("limited4"));
+
+    connection.close();
+    Assertions.assertTrue(handle.stop(1, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testParallelAcceptorsWithReusePort() throws Exception {
+    ServerHandle handle = ChatRoomServer.builder().port(0).acceptors(3).reusePort(true).start();
+    handle.ready().get(5, TimeUnit.SECONDS);
+    Assertions.assertEquals(3, handle.getServer().getAcceptorCount());
+
+    ChatRoomClient[] clients = new ChatRoomClient[6];
+    for (int i = 0; i < clients.length; i++) {
+      clients[i] = new ChatRoomClient();
+      clients[i].connectAsync("localhost", handle.getPort(), "parallel" + i);
+    }
+    for (ChatRoomClient client : clients) {
+      Assertions.assertTrue(client.whenConnected().get(5, TimeUnit.SECONDS).isSuccess());
+    }
+    Assertions.assertThrows(IllegalArgumentException.class,
+        () -> ChatRoomServer.builder().acceptors(0));
+
+    Assertions.assertTrue(handle.stop(1, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testRejectionExplainsTheReason() throws Exception {
+    ServerHandle handle = ChatRoomServer.builder().port(0).maxConnectionsPerSource(1).start();
+    handle.ready().get(5, TimeUnit.SECONDS);
+    ChatRoomClient first = new ChatRoomClient();
+    first.connectAsync("localhost", handle.getPort(), "first");
+    Assertions.assertTrue(first.whenConnected().get(5, TimeUnit.SECONDS).isSuccess());
+
+    try (Socket socket = new Socket("localhost", handle.getPort())) {
+      DataInputStream in = new DataInputStream(socket.getInputStream());
+      Assertions.assertEquals(
+          new ConnectResponse(false, "Too many connections from your address."),
+          BaseMessage.readMessage(in));
+      Assertions.assertEquals(-1, in.read());
+    }
+    Assertions.assertEquals(1, handle.getServer().getAdmissionControl().getRejectedCount());
+
+    Assertions.assertTrue(handle.stop(1, TimeUnit.SECONDS));
+  }
+
+  private static BaseMessage nextForSession(DataInputStream in, int sessionId) throws IOException {
+    while (true) {
+      BaseMessage message = BaseMessage.readMessage(in);
+      if (message instanceof MuxFrame && ((MuxFrame) message).getSessionId() == sessionId) {
+        return ((MuxFrame) message).getMessage();
+      }
+    }
+  }
 }
@@ -0,0 +1,96 @@
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compares the {@link ClientRegistry} with the {@link CopyOnWriteArrayList} it replaced under a
+ * reconnect storm: every one of {@code USERS} clients disconnects and reconnects in random order
+ * while a background thread keeps iterating the registry, as broadcast fan-out would.
+ * <p>
+ * Run with {@code gradle churnBenchmark}.
+ */
+public class ClientRegistryBenchmark {
+
+  private static final int USERS = 10_000;
+  private static final int ROUNDS = 5;
+
+  public static void main(String[] args) throws Exception {
+    List<ClientHandler> handlers = createHandlers(USERS);
+    for (int i = 0; i < 2; i++) {
+      runCopyOnWrite(handlers);
+      runRegistry(handlers);
+    }
+    System.out.println("users=" + USERS + " rounds=" + ROUNDS);
+    System.out.println(runCopyOnWrite(handlers));
+    System.out.println(runRegistry(handlers));
+  }
+
+  private static String runCopyOnWrite(List<ClientHandler> handlers) throws Exception {
+    List<ClientHandler> clients = new CopyOnWriteArrayList<>(handlers);
+    return measure("CopyOnWriteArrayList", handlers, clients, clients::remove, clients::add);
+  }
+
+  private static String runRegistry(List<ClientHandler> handlers) throws Exception {
+    ClientRegistry clients = new ClientRegistry();
+    handlers.forEach(clients::add);
+    return measure("ClientRegistry", handlers, clients, clients::remove, clients::add);
+  }
+
+  private interface Membership {
+
+    void apply(ClientHandler client);
+  }
+
+  private static String measure(String name, List<ClientHandler> handlers,
+      Iterable<ClientHandler> clients, Membership leave, Membership join) throws Exception {
+    AtomicBoolean running = new AtomicBoolean(true);
+    AtomicLong iterations = new AtomicLong();
+    Thread fanOut = new Thread(() -> {
+      while (running.get()) {
+        int seen = 0;
+        for (ClientHandler ignored : clients) {
+          seen++;
+        }
+        if (seen >= 0) {
+          iterations.incrementAndGet();
+        }
+      }
+    });
+    fanOut.start();
+
+    List<ClientHandler> order = new ArrayList<>(handlers);
+    Random random = new Random(42);
+    long start = System.nanoTime();
+    for (int round = 0; round < ROUNDS; round++) {
+      Collections.shuffle(order, random);
+      for (ClientHandler client : order) {
+        leave.apply(client);
+        join.apply(client);
+      }
+    }
+    long elapsed = System.nanoTime() - start;
+    running.set(false);
+    fanOut.join();
+
+    long changes = 2L * ROUNDS * handlers.size();
+    return String.format("%-22s %8.1f ms  %10.0f changes/s  %6d fan-out passes", name,
+        elapsed / 1e6, changes / (elapsed / 1e9), iterations.get());
+  }
+
+  private static List<ClientHandler> createHandlers(int count) throws Exception {
+    Field username = ClientHandler.class.getDeclaredField("username");
+    username.setAccessible(true);
+    List<ClientHandler> handlers = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      ClientHandler handler = new ClientHandler((Connection) null, null);
+      username.set(handler, "user" + i);
+      handlers.add(handler);
+    }
+    return handlers;
+  }
+}
@@ -0,0 +1,83 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Field;
+import java.util.HashSet;
+import java.util.Set;
+
+public class ClientRegistryTest {
+
+  private ClientHandler createClientHandler(String username) throws Exception {
+    ClientHandler ch = new ClientHandler((Connection) null, null);
+    Field usernameField = ClientHandler.class.getDeclaredField("username");
+    usernameField.setAccessible(true);
+    usernameField.set(ch, username);
+    return ch;
+  }
+
+  @Test
+  public void testAddRemoveAndIterate() throws Exception {
+    ClientRegistry registry = new ClientRegistry();
+    Set<ClientHandler> expected = new HashSet<>();
+    for (int i = 0; i < 100; i++) {
+      ClientHandler ch = createClientHandler("user" + i);
+      registry.add(ch);
+      expected.add(ch);
+    }
+    Assertions.assertEquals(100, registry.size());
+
+    int removed = 0;
+    for (ClientHandler ch : new HashSet<>(expected)) {
+      if (removed++ % 2 == 0) {
+        Assertions.assertTrue(registry.remove(ch));
+        Assertions.assertFalse(registry.remove(ch));
+        expected.remove(ch);
+      }
+    }
+
+    Set<ClientHandler> seen = new HashSet<>();
+    for (ClientHandler ch : registry) {
+      seen.add(ch);
+    }
+    Assertions.assertEquals(expected, seen);
+    Assertions.assertEquals(expected.size(), registry.size());
+  }
+
+  @Test
+  public void testSlotsAreReusedAfterRemoval() throws Exception {
+    ClientRegistry registry = new ClientRegistry();
+    ClientHandler first = createClientHandler("first");
+    registry.add(first);
+    int segment = first.getRegistrySegment();
+    int slot = first.getRegistrySlot();
+    registry.remove(first);
+    Assertions.assertEquals(-1, first.getRegistrySegment());
+
+    ClientHandler second = null;
+    for (int i = 0; i < 16; i++) {
+      ClientHandler ch = createClientHandler("user" + i);
+      registry.add(ch);
+      if (ch.getRegistrySegment() == segment) {
+        second = ch;
+      }
+    }
+    Assertions.assertNotNull(second);
+    Assertions.assertEquals(slot, second.getRegistrySlot());
+  }
+
+  @Test
+  public void testUsernameClaimsAreCaseInsensitive() throws Exception {
+    ClientRegistry registry = new ClientRegistry();
+    ClientHandler alice = createClientHandler("Alice");
+    registry.add(alice);
+    Assertions.assertTrue(registry.claimUsername("Alice", alice));
+    Assertions.assertFalse(registry.claimUsername("alice", createClientHandler("alice")));
+    Assertions.assertEquals(alice, registry.findByUsername("ALICE"));
+    Assertions.assertEquals(1, registry.usernameCount());
+    Assertions.assertNull(registry.findByUsername(null));
+
+    registry.remove(alice);
+    Assertions.assertNull(registry.findByUsername("alice"));
+    Assertions.assertEquals(0, registry.usernameCount());
+  }
+}
@@ -0,0 +1,132 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BooleanSupplier;
+
+public class ClientShardTest {
+
+  private ClientShard shard;
+
+  @BeforeEach
+  public void setUp() {
+    shard = new ClientShard(0, 8);
+  }
+
+  @AfterEach
+  public void tearDown() throws Exception {
+    shard.shutdown();
+    shard.awaitTermination(1000);
+  }
+
+  private static void await(BooleanSupplier condition) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 5000;
+    while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+      Thread.sleep(5);
+    }
+    Assertions.assertTrue(condition.getAsBoolean());
+  }
+
+  private RecordingClient attach() throws InterruptedException {
+    RecordingClient client = new RecordingClient();
+    shard.attach(client);
+    await(() -> client.getShardSlot() >= 0);
+    return client;
+  }
+
+  @Test
+  public void testAttachAssignsConsecutiveSlots() throws Exception {
+    RecordingClient first = attach();
+    RecordingClient second = attach();
+    RecordingClient third = attach();
+    Assertions.assertEquals(0, first.getShardSlot());
+    Assertions.assertEquals(1, second.getShardSlot());
+    Assertions.assertEquals(2, third.getShardSlot());
+  }
+
+  @Test
+  public void testBroadcastFansOutToEveryAttachedClient() throws Exception {
+    RecordingClient first = attach();
+    RecordingClient second = attach();
+    byte[] frame = {1, 2, 3};
+    shard.post(null, frame);
+    await(() -> first.broadcasts.size() == 1 && second.broadcasts.size() == 1);
+    Assertions.assertSame(frame, first.broadcasts.get(0));
+    Assertions.assertSame(frame, second.broadcasts.get(0));
+    Assertions.assertTrue(first.direct.isEmpty());
+  }
+
+  @Test
+  public void testDirectFrameReachesOnlyItsTarget() throws Exception {
+    RecordingClient first = attach();
+    RecordingClient second = attach();
+    shard.post(second, new byte[] {7});
+    shard.post(null, new byte[] {8});
+    await(() -> first.broadcasts.size() == 1);
+    Assertions.assertTrue(first.direct.isEmpty());
+    Assertions.assertEquals(1, second.direct.size());
+    Assertions.assertEquals(7, second.direct.get(0)[0]);
+  }
+
+  @Test
+  public void testDetachMovesLastClientIntoFreedSlot() throws Exception {
+    RecordingClient first = attach();
+    RecordingClient second = attach();
+    RecordingClient third = attach();
+    shard.detach(first);
+    await(() -> first.getShardSlot() == -1);
+    Assertions.assertEquals(0, third.getShardSlot());
+    Assertions.assertEquals(1, second.getShardSlot());
+
+    shard.post(null, new byte[] {1});
+    await(() -> second.broadcasts.size() == 1 && third.broadcasts.size() == 1);
+    Assertions.assertTrue(first.broadcasts.isEmpty());
+  }
+
+  @Test
+  public void testDetachOfUnattachedClientIsIgnored() throws Exception {
+    RecordingClient attached = attach();
+    RecordingClient stranger = new RecordingClient();
+    shard.detach(stranger);
+    shard.detach(attached);
+    await(() -> attached.getShardSlot() == -1);
+    Assertions.assertEquals(-1, stranger.getShardSlot());
+  }
+
+  @Test
+  public void testShutdownWritesFramesAlreadyPosted() throws Exception {
+    RecordingClient client = attach();
+    for (int i = 0; i < 20; i++) {
+      shard.post(null, new byte[] {(byte) i});
+    }
+    shard.shutdown();
+    Assertions.assertTrue(shard.awaitTermination(5000));
+    Assertions.assertEquals(20, client.broadcasts.size());
+    for (int i = 0; i < 20; i++) {
+      Assertions.assertEquals(i, client.broadcasts.get(i)[0]);
+    }
+  }
+
+  private static final class RecordingClient extends ClientHandler {
+
+    private final List<byte[]> broadcasts = new CopyOnWriteArrayList<>();
+    private final List<byte[]> direct = new CopyOnWriteArrayList<>();
+
+    private RecordingClient() {
+      super((Connection) null, null);
+    }
+
+    @Override
+    public void sendEncoded(byte[] frame) {
+      direct.add(frame);
+    }
+
+    @Override
+    public void sendBroadcast(byte[] frame) {
+      broadcasts.add(frame);
+    }
+  }
+}
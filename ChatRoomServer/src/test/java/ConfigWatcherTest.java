@@ -0,0 +1,55 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.TimeUnit;
+
+public class ConfigWatcherTest {
+
+  @Test
+  public void testAppliesEditsToRunningServer() throws Exception {
+    Path file = Files.createTempDirectory("config").resolve("server.properties");
+    Files.writeString(file, "max.clients=20\n");
+    ServerHandle handle = ChatRoomServer.builder().config(ServerConfig.load(file)).port(0)
+        .watchConfig(file).start();
+    handle.ready().get(5, TimeUnit.SECONDS);
+    AdmissionControl admission = handle.getServer().getAdmissionControl();
+    Assertions.assertEquals(20, admission.getMaxConnections());
+
+    // Replace the file the way deployment tools do, by renaming a new one over it.
+    Path next = file.resolveSibling("server.properties.tmp");
+    Files.writeString(next, "max.clients=30\nidle.timeout.millis=5000\n");
+    Files.move(next, file, StandardCopyOption.ATOMIC_MOVE);
+    long deadline = System.currentTimeMillis() + 5000;
+    while (admission.getMaxConnections() != 30 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(20);
+    }
+    Assertions.assertEquals(30, admission.getMaxConnections());
+    Assertions.assertEquals(5000, handle.getServer().getIdleTimeoutMillis());
+
+    Assertions.assertTrue(handle.stop(1, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testInvalidFileKeepsPreviousSettings() throws Exception {
+    Path file = Files.createTempDirectory("config").resolve("server.properties");
+    Files.writeString(file, "max.clients=20\n");
+    ChatRoomServer server = new ChatRoomServer(0);
+    ServerConfig config = ServerConfig.load(file);
+    config.apply(server);
+    try (ConfigWatcher watcher = server.watchConfig(file, config)) {
+      Files.writeString(file, "max.clients=50\nport=4321\n");
+      Assertions.assertTrue(watcher.reload());
+      Assertions.assertEquals(50, server.getAdmissionControl().getMaxConnections());
+
+      Files.writeString(file, "max.clients=none\n");
+      Assertions.assertFalse(watcher.reload());
+      Assertions.assertEquals(50, server.getAdmissionControl().getMaxConnections());
+      Assertions.assertEquals(50, watcher.getCurrent().getMaxClients());
+    } finally {
+      server.stop(0, TimeUnit.MILLISECONDS);
+    }
+  }
+}
@@ -0,0 +1,99 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class FairSchedulerTest {
+
+  private static class CountingSource implements FairScheduler.Source {
+
+    private final String name;
+    private final AtomicInteger pending;
+    private final List<String> log;
+    private final CountDownLatch done;
+
+    CountingSource(String name, int items, List<String> log, CountDownLatch done) {
+      this.name = name;
+      this.pending = new AtomicInteger(items);
+      this.log = log;
+      this.done = done;
+    }
+
+    @Override
+    public void runTurn(int quota) {
+      for (int i = 0; i < quota && pending.get() > 0; i++) {
+        log.add(name);
+        if (pending.decrementAndGet() == 0) {
+          done.countDown();
+        }
+      }
+    }
+
+    @Override
+    public boolean hasPendingWork() {
+      return pending.get() > 0;
+    }
+  }
+
+  @Test
+  public void testQuietSourceIsNotStuckBehindNoisySource() throws Exception {
+    FairScheduler scheduler = new FairScheduler(1, 4);
+    List<String> log = Collections.synchronizedList(new ArrayList<>());
+    CountDownLatch done = new CountDownLatch(2);
+    CountingSource noisy = new CountingSource("noisy", 1000, log, done);
+    CountingSource quiet = new CountingSource("quiet", 1, log, done);
+
+    // Hold the only worker until both sources are queued, so that on a single core the noisy
+    // source cannot run many turns before the quiet one is even ready.
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    scheduler.register(new FairScheduler.Source() {
+      @Override
+      public void runTurn(int quota) {
+        started.countDown();
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+
+      @Override
+      public boolean hasPendingWork() {
+        return false;
+      }
+    }).ready();
+    Assertions.assertTrue(started.await(5, TimeUnit.SECONDS));
+    scheduler.register(noisy).ready();
+    scheduler.register(quiet).ready();
+    release.countDown();
+    Assertions.assertTrue(done.await(5, TimeUnit.SECONDS));
+    scheduler.shutdown();
+
+    Assertions.assertEquals(1001, log.size());
+    Assertions.assertTrue(log.indexOf("quiet") <= 8, "quiet ran at " + log.indexOf("quiet"));
+  }
+
+  @Test
+  public void testReadyIsIdempotentWhileQueued() throws Exception {
+    FairScheduler scheduler = new FairScheduler(1, 10);
+    List<String> log = Collections.synchronizedList(new ArrayList<>());
+    CountDownLatch done = new CountDownLatch(1);
+    CountingSource source = new CountingSource("a", 3, log, done);
+
+    FairScheduler.Registration registration = scheduler.register(source);
+    registration.ready();
+    registration.ready();
+    registration.ready();
+    Assertions.assertTrue(done.await(5, TimeUnit.SECONDS));
+    Thread.sleep(50);
+    scheduler.shutdown();
+
+    Assertions.assertEquals(3, log.size());
+  }
+}
@@ -0,0 +1,42 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class HashedTimingWheelTest {
+
+  @Test
+  public void testTimeoutFiresAfterDelay() throws Exception {
+    HashedTimingWheel wheel = new HashedTimingWheel(10, 8);
+    CountDownLatch fired = new CountDownLatch(1);
+    long start = System.nanoTime();
+    wheel.schedule(fired::countDown, 150);
+
+    Assertions.assertTrue(fired.await(5, TimeUnit.SECONDS));
+    long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    Assertions.assertTrue(elapsedMillis >= 150, "fired after " + elapsedMillis + " ms");
+    wheel.shutdown();
+  }
+
+  @Test
+  public void testCancelledTimeoutDoesNotFire() throws Exception {
+    HashedTimingWheel wheel = new HashedTimingWheel(10, 8);
+    AtomicBoolean cancelledRan = new AtomicBoolean();
+    CountDownLatch later = new CountDownLatch(1);
+    HashedTimingWheel.Timeout timeout = wheel.schedule(() -> cancelledRan.set(true), 50);
+    timeout.cancel();
+    wheel.schedule(later::countDown, 100);
+
+    Assertions.assertTrue(later.await(5, TimeUnit.SECONDS));
+    Assertions.assertTrue(timeout.isCancelled());
+    Assertions.assertFalse(cancelledRan.get());
+    wheel.shutdown();
+  }
+
+  @Test
+  public void testInvalidWheelSize() {
+    Assertions.assertThrows(IllegalArgumentException.class, () -> new HashedTimingWheel(10, 6));
+  }
+}
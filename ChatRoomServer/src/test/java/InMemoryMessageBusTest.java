@@ -0,0 +1,68 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class InMemoryMessageBusTest {
+
+  @Test
+  public void testPublishDeliversToAllSubscribersInOrder() throws Exception {
+    InMemoryMessageBus bus = new InMemoryMessageBus(16);
+    List<BaseMessage> first = new CopyOnWriteArrayList<>();
+    List<BaseMessage> second = new CopyOnWriteArrayList<>();
+    CountDownLatch done = new CountDownLatch(6);
+    bus.subscribe((source, message) -> {
+      first.add(message);
+      done.countDown();
+    });
+    bus.subscribe((source, message) -> {
+      second.add(message);
+      done.countDown();
+    });
+
+    BroadcastMessage m1 = new BroadcastMessage("alice", "one");
+    BroadcastMessage m2 = new BroadcastMessage("alice", "two");
+    DirectMessage m3 = new DirectMessage("alice", "bob", "three");
+    bus.publish(null, m1);
+    bus.publish(null, m2);
+    bus.publish(null, m3);
+
+    Assertions.assertTrue(done.await(2, TimeUnit.SECONDS));
+    Assertions.assertEquals(List.of(m1, m2, m3), first);
+    Assertions.assertEquals(List.of(m1, m2, m3), second);
+    bus.shutdown();
+  }
+
+  @Test
+  public void testUnsubscribeAndFailingListener() throws Exception {
+    InMemoryMessageBus bus = new InMemoryMessageBus(16);
+    List<BaseMessage> received = new CopyOnWriteArrayList<>();
+    CountDownLatch done = new CountDownLatch(1);
+    MessageListener removed = (source, message) -> received.add(message);
+    bus.subscribe((source, message) -> {
+      throw new IllegalStateException("boom");
+    });
+    bus.subscribe(removed);
+    bus.subscribe((source, message) -> done.countDown());
+    bus.unsubscribe(removed);
+
+    bus.publish(null, new BroadcastMessage("alice", "hi"));
+    Assertions.assertTrue(done.await(2, TimeUnit.SECONDS));
+    Assertions.assertTrue(received.isEmpty());
+    bus.shutdown();
+  }
+
+  @Test
+  public void testPublishAfterShutdownIsIgnored() throws Exception {
+    InMemoryMessageBus bus = new InMemoryMessageBus(16);
+    List<BaseMessage> received = new CopyOnWriteArrayList<>();
+    bus.subscribe((source, message) -> received.add(message));
+    bus.shutdown();
+    bus.publish(null, new BroadcastMessage("alice", "late"));
+    Thread.sleep(100);
+    Assertions.assertTrue(received.isEmpty());
+  }
+}
@@ -0,0 +1,90 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class LoopbackConnectionTest {
+
+  @Test
+  public void testBytesWrittenAtOneEndAreReadAtTheOther() throws Exception {
+    LoopbackConnection a = LoopbackConnection.open(16);
+    LoopbackConnection b = a.getPeer();
+
+    a.getOutputStream().write(new byte[]{1, 2, 3});
+    b.getOutputStream().write(9);
+
+    byte[] read = new byte[3];
+    new DataInputStream(b.getInputStream()).readFully(read);
+    Assertions.assertArrayEquals(new byte[]{1, 2, 3}, read);
+    Assertions.assertEquals(9, a.getInputStream().read());
+    Assertions.assertSame(a, b.getPeer());
+  }
+
+  @Test
+  public void testWritesLargerThanTheBufferWaitForTheReader() throws Exception {
+    LoopbackConnection a = LoopbackConnection.open(8);
+    byte[] sent = new byte[1000];
+    for (int i = 0; i < sent.length; i++) {
+      sent[i] = (byte) i;
+    }
+    Thread writer = new Thread(() -> {
+      try {
+        a.getOutputStream().write(sent);
+      } catch (IOException e) {
+        throw new IllegalStateException(e);
+      }
+    });
+    writer.start();
+
+    byte[] received = new byte[sent.length];
+    new DataInputStream(a.getPeer().getInputStream()).readFully(received);
+    writer.join(1000);
+    Assertions.assertArrayEquals(sent, received);
+  }
+
+  @Test
+  public void testCloseDeliversPendingBytesThenEndOfStream() throws Exception {
+    LoopbackConnection a = LoopbackConnection.open(16);
+    a.getOutputStream().write(7);
+    a.close();
+
+    InputStream in = a.getPeer().getInputStream();
+    Assertions.assertEquals(7, in.read());
+    Assertions.assertEquals(-1, in.read());
+    Assertions.assertTrue(a.isClosed());
+    Assertions.assertFalse(a.getPeer().isClosed());
+  }
+
+  @Test
+  public void testWritingToAClosedPeerFails() throws Exception {
+    LoopbackConnection a = LoopbackConnection.open(16);
+    OutputStream out = a.getOutputStream();
+    a.getPeer().close();
+
+    Assertions.assertThrows(IOException.class, () -> out.write(1));
+  }
+
+  @Test
+  public void testShutdownInputWakesBlockedReader() throws Exception {
+    LoopbackConnection a = LoopbackConnection.open(16);
+    AtomicInteger result = new AtomicInteger();
+    Thread reader = new Thread(() -> {
+      try {
+        result.set(a.getInputStream().read());
+      } catch (IOException e) {
+        result.set(-2);
+      }
+    });
+    reader.start();
+    Thread.sleep(50);
+
+    a.shutdownInput();
+    reader.join(1000);
+    Assertions.assertEquals(-1, result.get());
+    a.getPeer().getOutputStream().write(1);
+  }
+}
@@ -0,0 +1,49 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.*;
+
+public class MuxFrameTest {
+
+  @Test
+  public void testWriteAndReadMessage() throws IOException {
+    MuxFrame original = new MuxFrame(7, new DirectMessage("alice", "bob", "hi"));
+    Assertions.assertEquals(ChatRoomConstants.MUX_FRAME, original.getMessageType());
+
+    BaseMessage readMsg = BaseMessage.readMessage(
+        new DataInputStream(new ByteArrayInputStream(original.toBytes())));
+    Assertions.assertEquals(original, readMsg);
+    Assertions.assertEquals(7, ((MuxFrame) readMsg).getSessionId());
+    Assertions.assertEquals("hi", ((DirectMessage) ((MuxFrame) readMsg).getMessage()).getContent());
+  }
+
+  @Test
+  public void testWrapMatchesEncoding() throws IOException {
+    BaseMessage inner = new BroadcastMessage("alice", "everyone");
+    Assertions.assertArrayEquals(new MuxFrame(-3, inner).toBytes(),
+        MuxFrame.wrap(-3, inner.toBytes()));
+  }
+
+  @Test
+  public void testNestedFramesAreRejected() throws IOException {
+    MuxFrame inner = new MuxFrame(1, new Ping(1));
+    Assertions.assertThrows(IllegalArgumentException.class, () -> new MuxFrame(2, inner));
+
+    byte[] nested = MuxFrame.wrap(2, inner.toBytes());
+    Assertions.assertThrows(IOException.class, () -> BaseMessage.readMessage(
+        new DataInputStream(new ByteArrayInputStream(nested))));
+  }
+
+  @Test
+  public void testEqualsHashCodeToString() {
+    MuxFrame m1 = new MuxFrame(1, new Ping(5));
+    MuxFrame m2 = new MuxFrame(1, new Ping(5));
+    MuxFrame m3 = new MuxFrame(2, new Ping(5));
+
+    Assertions.assertEquals(m1, m2);
+    Assertions.assertNotEquals(m1, m3);
+    Assertions.assertNotEquals(m1, null);
+    Assertions.assertEquals(m1.hashCode(), m2.hashCode());
+    Assertions.assertTrue(m1.toString().contains("sessionId=1"));
+  }
+}
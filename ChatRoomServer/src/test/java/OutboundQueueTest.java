@@ -0,0 +1,283 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class OutboundQueueTest {
+
+  private static byte[] frame(int value, int length) {
+    byte[] frame = new byte[length];
+    Arrays.fill(frame, (byte) value);
+    return frame;
+  }
+
+  @Test
+  public void testWriterFlushesQueuedFramesInOrderOnClose() throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    OutboundQueue queue = new OutboundQueue(out, OutboundQueue.OverflowPolicy.BLOCK, 100,
+        new OutboundStats(), new OutboundMemoryBudget(1000), () -> { });
+    queue.offer(frame(1, 2), OutboundQueue.FrameKind.DIRECT);
+    queue.offer(frame(2, 2), OutboundQueue.FrameKind.BROADCAST);
+    queue.close();
+
+    Thread writer = new Thread(queue);
+    writer.start();
+    writer.join(5000);
+
+    Assertions.assertArrayEquals(new byte[] {1, 1, 2, 2}, out.toByteArray());
+    Assertions.assertEquals(0, queue.getPendingBytes());
+    Assertions.assertThrows(IOException.class,
+        () -> queue.offer(frame(3, 1), OutboundQueue.FrameKind.DIRECT));
+  }
+
+  @Test
+  public void testDropOldestShedsBroadcastsOnly() throws Exception {
+    OutboundStats stats = new OutboundStats();
+    OutboundQueue queue = new OutboundQueue(new ByteArrayOutputStream(),
+        OutboundQueue.OverflowPolicy.DROP_OLDEST, 10, stats, new OutboundMemoryBudget(1000),
+        () -> { });
+    queue.offer(frame(1, 4), OutboundQueue.FrameKind.BROADCAST);
+    queue.offer(frame(2, 4), OutboundQueue.FrameKind.DIRECT);
+    queue.offer(frame(3, 4), OutboundQueue.FrameKind.DIRECT);
+
+    Assertions.assertEquals(1, stats.getDropped());
+    Assertions.assertEquals(8, queue.getPendingBytes());
+
+    queue.offer(frame(4, 4), OutboundQueue.FrameKind.BROADCAST);
+    Assertions.assertEquals(2, stats.getDropped());
+    Assertions.assertEquals(8, queue.getPendingBytes());
+    Assertions.assertEquals(0, stats.getDisconnected());
+  }
+
+  @Test
+  public void testDisconnectPolicyAbortsQueue() throws Exception {
+    OutboundStats stats = new OutboundStats();
+    AtomicBoolean overflowed = new AtomicBoolean();
+    OutboundQueue queue = new OutboundQueue(new ByteArrayOutputStream(),
+        OutboundQueue.OverflowPolicy.DISCONNECT, 4, stats, new OutboundMemoryBudget(1000),
+        () -> overflowed.set(true));
+    queue.offer(frame(1, 4), OutboundQueue.FrameKind.BROADCAST);
+
+    Assertions.assertThrows(IOException.class,
+        () -> queue.offer(frame(2, 1), OutboundQueue.FrameKind.BROADCAST));
+    Assertions.assertTrue(overflowed.get());
+    Assertions.assertEquals(1, stats.getDisconnected());
+    Assertions.assertEquals(0, queue.getPendingBytes());
+  }
+
+  @Test
+  public void testBlockPolicyPausesOwnTurnUntilWriterDrains() throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    OutboundStats stats = new OutboundStats();
+    OutboundQueue queue = new OutboundQueue(out, OutboundQueue.OverflowPolicy.BLOCK, 4, stats,
+        new OutboundMemoryBudget(1000), () -> { });
+    Assertions.assertTrue(queue.pauseUntilRoom(() -> { }));
+    queue.offer(frame(1, 4), OutboundQueue.FrameKind.DIRECT);
+    queue.offer(frame(2, 4), OutboundQueue.FrameKind.DIRECT, true);
+    Assertions.assertEquals(8, queue.getPendingBytes());
+
+    CountDownLatch resumed = new CountDownLatch(1);
+    Assertions.assertFalse(queue.pauseUntilRoom(resumed::countDown));
+    Assertions.assertEquals(1, stats.getBlocked());
+
+    Thread writer = new Thread(queue);
+    writer.start();
+    Assertions.assertTrue(resumed.await(5, TimeUnit.SECONDS));
+    Assertions.assertTrue(queue.pauseUntilRoom(() -> { }));
+    queue.close();
+    writer.join(5000);
+
+    Assertions.assertEquals(0, stats.getDisconnected());
+    Assertions.assertArrayEquals(new byte[] {1, 1, 1, 1, 2, 2, 2, 2}, out.toByteArray());
+  }
+
+  @Test
+  public void testOnlyBlockPolicyPausesTurns() {
+    OutboundQueue queue = new OutboundQueue(new ByteArrayOutputStream(),
+        OutboundQueue.OverflowPolicy.DROP_OLDEST, 1, new OutboundStats(),
+        new OutboundMemoryBudget(1000), () -> { });
+    Assertions.assertTrue(queue.offerIfRoom(frame(1, 4), OutboundQueue.FrameKind.DIRECT));
+    Assertions.assertTrue(queue.pauseUntilRoom(() -> { }));
+  }
+
+  @Test
+  public void testBlockPolicyNeverHoldsUpOtherProducers() throws Exception {
+    OutboundStats stats = new OutboundStats();
+    AtomicBoolean overflowed = new AtomicBoolean();
+    OutboundQueue queue = new OutboundQueue(new ByteArrayOutputStream(),
+        OutboundQueue.OverflowPolicy.BLOCK, 4, stats, new OutboundMemoryBudget(1000),
+        () -> overflowed.set(true));
+    queue.offer(frame(1, 4), OutboundQueue.FrameKind.DIRECT);
+
+    queue.offer(frame(2, 4), OutboundQueue.FrameKind.BROADCAST, true);
+    Assertions.assertEquals(1, stats.getDropped());
+    Assertions.assertThrows(IOException.class,
+        () -> queue.offer(frame(3, 1), OutboundQueue.FrameKind.CONTROL, false));
+    Assertions.assertTrue(overflowed.get());
+    Assertions.assertEquals(0, stats.getBlocked());
+    Assertions.assertEquals(1, stats.getDisconnected());
+  }
+
+  @Test
+  public void testBlockPolicyDoesNotWaitForDeliveriesFromOtherThreads() throws Exception {
+    OutboundStats stats = new OutboundStats();
+    OutboundQueue queue = new OutboundQueue(new ByteArrayOutputStream(),
+        OutboundQueue.OverflowPolicy.BLOCK, 4, stats, new OutboundMemoryBudget(1000), () -> { });
+    queue.offer(frame(1, 4), OutboundQueue.FrameKind.DIRECT);
+
+    Assertions.assertThrows(IOException.class,
+        () -> queue.offer(frame(2, 4), OutboundQueue.FrameKind.DIRECT));
+    Assertions.assertEquals(0, stats.getBlocked());
+    Assertions.assertEquals(1, stats.getDisconnected());
+  }
+
+  @Test
+  public void testMemoryBudgetShedsBroadcastsAndIsReleased() throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    OutboundMemoryBudget memory = new OutboundMemoryBudget(6);
+    OutboundStats stats = new OutboundStats();
+    OutboundQueue queue = new OutboundQueue(out, OutboundQueue.OverflowPolicy.BLOCK, 100,
+        stats, memory, () -> { });
+    queue.offer(frame(1, 4), OutboundQueue.FrameKind.BROADCAST);
+    queue.offer(frame(2, 4), OutboundQueue.FrameKind.BROADCAST);
+    queue.offer(frame(3, 4), OutboundQueue.FrameKind.DIRECT);
+
+    Assertions.assertEquals(1, memory.getShed());
+    Assertions.assertEquals(1, stats.getShed());
+    Assertions.assertEquals(0, stats.getDropped());
+    Assertions.assertEquals(8, memory.getUsedBytes());
+    Assertions.assertFalse(memory.admitBroadcast());
+
+    queue.close();
+    Thread writer = new Thread(queue);
+    writer.start();
+    writer.join(5000);
+
+    Assertions.assertArrayEquals(new byte[] {1, 1, 1, 1, 3, 3, 3, 3}, out.toByteArray());
+    Assertions.assertEquals(0, memory.getUsedBytes());
+    Assertions.assertTrue(memory.admitBroadcast());
+    Assertions.assertEquals(1, memory.getRejected());
+  }
+
+  @Test
+  public void testAbortReleasesMemory() throws Exception {
+    OutboundMemoryBudget memory = new OutboundMemoryBudget(100);
+    OutboundQueue queue = new OutboundQueue(new ByteArrayOutputStream(),
+        OutboundQueue.OverflowPolicy.DROP_OLDEST, 100, new OutboundStats(), memory, () -> { });
+    queue.offer(frame(1, 10), OutboundQueue.FrameKind.BROADCAST);
+    queue.offer(frame(2, 10), OutboundQueue.FrameKind.DIRECT);
+    Assertions.assertEquals(20, memory.getUsedBytes());
+
+    queue.abort();
+    Assertions.assertEquals(0, memory.getUsedBytes());
+  }
+
+  @Test
+  public void testControlFramesJumpAheadWithoutStarvingBulk() throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    OutboundQueue queue = new OutboundQueue(out, OutboundQueue.OverflowPolicy.BLOCK, 1000,
+        new OutboundStats(), new OutboundMemoryBudget(1000), () -> { });
+    queue.offer(frame(1, 1), OutboundQueue.FrameKind.BROADCAST);
+    queue.offer(frame(2, 1), OutboundQueue.FrameKind.DIRECT);
+    int burst = ChatRoomConstants.OUTBOUND_CONTROL_BURST;
+    for (int i = 0; i < burst + 1; i++) {
+      queue.offer(frame(9, 1), OutboundQueue.FrameKind.CONTROL);
+    }
+    queue.close();
+
+    Thread writer = new Thread(queue);
+    writer.start();
+    writer.join(5000);
+
+    byte[] written = out.toByteArray();
+    Assertions.assertEquals(burst + 3, written.length);
+    for (int i = 0; i < burst; i++) {
+      Assertions.assertEquals(9, written[i]);
+    }
+    Assertions.assertEquals(1, written[burst]);
+    Assertions.assertEquals(9, written[burst + 1]);
+    Assertions.assertEquals(2, written[burst + 2]);
+  }
+
+  @Test
+  public void testBurstIsWrittenInOneCall() throws Exception {
+    CountingStream out = new CountingStream();
+    OutboundQueue queue = new OutboundQueue(out, OutboundQueue.OverflowPolicy.BLOCK, 1000,
+        new OutboundStats(), new OutboundMemoryBudget(1000), () -> { });
+    for (int i = 1; i <= 5; i++) {
+      queue.offer(frame(i, 3), OutboundQueue.FrameKind.DIRECT);
+    }
+    queue.close();
+
+    Thread writer = new Thread(queue);
+    writer.start();
+    writer.join(5000);
+
+    Assertions.assertEquals(1, out.writes);
+    Assertions.assertEquals(15, out.toByteArray().length);
+    Assertions.assertEquals(5, out.toByteArray()[14]);
+    Assertions.assertEquals(0, queue.getPendingBytes());
+  }
+
+  @Test
+  public void testBatchesAreBoundedInSize() throws Exception {
+    CountingStream out = new CountingStream();
+    int frameLength = ChatRoomConstants.OUTBOUND_WRITE_BATCH_BYTES / 2;
+    OutboundQueue queue = new OutboundQueue(out, OutboundQueue.OverflowPolicy.BLOCK,
+        4L * frameLength, new OutboundStats(), new OutboundMemoryBudget(4L * frameLength),
+        () -> { });
+    for (int i = 0; i < 4; i++) {
+      queue.offer(frame(i, frameLength), OutboundQueue.FrameKind.DIRECT);
+    }
+    queue.close();
+
+    Thread writer = new Thread(queue);
+    writer.start();
+    writer.join(5000);
+
+    Assertions.assertEquals(2, out.writes);
+    Assertions.assertEquals(4 * frameLength, out.toByteArray().length);
+  }
+
+  @Test
+  public void testOversizedFrameIsWrittenWithoutCopying() throws Exception {
+    CountingStream out = new CountingStream();
+    int bigLength = 3 * ChatRoomConstants.OUTBOUND_WRITE_BATCH_BYTES;
+    OutboundQueue queue = new OutboundQueue(out, OutboundQueue.OverflowPolicy.BLOCK,
+        2L * bigLength, new OutboundStats(), new OutboundMemoryBudget(2L * bigLength), () -> { });
+    queue.offer(frame(1, 4), OutboundQueue.FrameKind.DIRECT);
+    queue.offer(frame(2, bigLength), OutboundQueue.FrameKind.DIRECT);
+    queue.offer(frame(3, 4), OutboundQueue.FrameKind.DIRECT);
+    queue.close();
+
+    Thread writer = new Thread(queue);
+    writer.start();
+    writer.join(5000);
+
+    // The frames around the oversized one go out from the batch buffer, which is never grown.
+    Assertions.assertEquals(3, out.writes);
+    byte[] written = out.toByteArray();
+    Assertions.assertEquals(bigLength + 8, written.length);
+    Assertions.assertEquals(1, written[3]);
+    Assertions.assertEquals(2, written[4]);
+    Assertions.assertEquals(2, written[bigLength + 3]);
+    Assertions.assertEquals(3, written[bigLength + 4]);
+    Assertions.assertEquals(0, queue.getPendingBytes());
+  }
+
+  private static final class CountingStream extends ByteArrayOutputStream {
+
+    private int writes;
+
+    @Override
+    public synchronized void write(byte[] b, int off, int len) {
+      writes++;
+      super.write(b, off, len);
+    }
+  }
+}
@@ -0,0 +1,34 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.*;
+
+public class PingTest {
+
+  @Test
+  public void testWriteAndReadMessage() throws IOException {
+    Ping original = new Ping(1234567890123L);
+    Assertions.assertEquals(ChatRoomConstants.PING, original.getMessageType());
+
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    original.writeMessage(new DataOutputStream(bos));
+
+    BaseMessage readMsg = BaseMessage.readMessage(
+        new DataInputStream(new ByteArrayInputStream(bos.toByteArray())));
+    Assertions.assertEquals(original, readMsg);
+    Assertions.assertEquals(1234567890123L, ((Ping) readMsg).getTimestamp());
+  }
+
+  @Test
+  public void testEqualsHashCodeToString() {
+    Ping m1 = new Ping(5);
+    Ping m2 = new Ping(5);
+    Ping m3 = new Ping(6);
+
+    Assertions.assertEquals(m1, m2);
+    Assertions.assertNotEquals(m1, m3);
+    Assertions.assertNotEquals(m1, null);
+    Assertions.assertEquals(m1.hashCode(), m2.hashCode());
+    Assertions.assertTrue(m1.toString().contains("timestamp=5"));
+  }
+}
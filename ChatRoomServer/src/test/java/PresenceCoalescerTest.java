@@ -0,0 +1,98 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class PresenceCoalescerTest {
+
+  @Test
+  public void testChangesWithinWindowAreAnnouncedOnce() throws Exception {
+    List<String> announcements = new CopyOnWriteArrayList<>();
+    PresenceCoalescer coalescer = new PresenceCoalescer(
+        (joined, left) -> announcements.add(PresenceCoalescer.format(joined, left)), 100, 50);
+    coalescer.recordJoin("a");
+    coalescer.recordJoin("b");
+    coalescer.recordJoin("c");
+    coalescer.recordLeave("d");
+    Assertions.assertTrue(announcements.isEmpty());
+
+    Thread.sleep(400);
+    Assertions.assertEquals(List.of("joined: a, b, c / left: d"), announcements);
+    coalescer.shutdown();
+  }
+
+  @Test
+  public void testMaxBatchFlushesImmediately() {
+    List<String> announcements = new CopyOnWriteArrayList<>();
+    PresenceCoalescer coalescer = new PresenceCoalescer(
+        (joined, left) -> announcements.add(PresenceCoalescer.format(joined, left)), 60_000, 2);
+    coalescer.recordLeave("x");
+    coalescer.recordLeave("y");
+    Assertions.assertEquals(List.of("left: x, y"), announcements);
+    coalescer.shutdown();
+  }
+
+  @Test
+  public void testJoinAndLeaveInSameWindowCancelOut() {
+    List<String> announcements = new CopyOnWriteArrayList<>();
+    PresenceCoalescer coalescer = new PresenceCoalescer(
+        (joined, left) -> announcements.add(PresenceCoalescer.format(joined, left)), 60_000, 50);
+    coalescer.recordJoin("Alice");
+    coalescer.recordLeave("alice");
+    coalescer.recordLeave("bob");
+    coalescer.recordJoin("BOB");
+    coalescer.flush();
+    Assertions.assertTrue(announcements.isEmpty());
+
+    coalescer.recordJoin("carol");
+    coalescer.shutdown();
+    Assertions.assertEquals(List.of("joined: carol"), announcements);
+  }
+
+  @Test
+  public void testEarlyFlushDoesNotShortenNextWindow() throws Exception {
+    List<String> announcements = new CopyOnWriteArrayList<>();
+    PresenceCoalescer coalescer = new PresenceCoalescer(
+        (joined, left) -> announcements.add(PresenceCoalescer.format(joined, left)), 300, 2);
+    coalescer.recordJoin("x");
+    coalescer.recordJoin("y");
+    Assertions.assertEquals(List.of("joined: x, y"), announcements);
+
+    Thread.sleep(200);
+    coalescer.recordJoin("z");
+    Thread.sleep(200);
+    // The first window's timer has fired, but z's window is still open.
+    Assertions.assertEquals(1, announcements.size());
+    Thread.sleep(400);
+    Assertions.assertEquals(List.of("joined: x, y", "joined: z"), announcements);
+    coalescer.shutdown();
+  }
+
+  @Test
+  public void testBatchesAreDeliveredInOrder() throws Exception {
+    List<String> announcements = new CopyOnWriteArrayList<>();
+    CountDownLatch inSink = new CountDownLatch(1);
+    PresenceCoalescer coalescer = new PresenceCoalescer((joined, left) -> {
+      inSink.countDown();
+      if (!joined.isEmpty()) {
+        try {
+          Thread.sleep(200);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+      announcements.add(PresenceCoalescer.format(joined, left));
+    }, 60_000, 1);
+    Thread joiner = new Thread(() -> coalescer.recordJoin("x"));
+    joiner.start();
+    Assertions.assertTrue(inSink.await(5, TimeUnit.SECONDS));
+    coalescer.recordLeave("x");
+    joiner.join(5000);
+
+    Assertions.assertEquals(List.of("joined: x", "left: x"), announcements);
+    coalescer.shutdown();
+  }
+}
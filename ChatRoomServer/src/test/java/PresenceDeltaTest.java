@@ -0,0 +1,40 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.*;
+import java.util.*;
+
+public class PresenceDeltaTest {
+
+  @Test
+  public void testWriteAndReadMessage() throws IOException {
+    PresenceDelta original = new PresenceDelta(3, Arrays.asList("carol", "dave"),
+        Arrays.asList("bob"));
+
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bos);
+    original.writeMessage(out);
+    out.flush();
+
+    BaseMessage readMsg = BaseMessage.readMessage(
+        new DataInputStream(new ByteArrayInputStream(bos.toByteArray())));
+    Assertions.assertEquals(original, readMsg);
+    PresenceDelta delta = (PresenceDelta) readMsg;
+    Assertions.assertEquals(3, delta.getVersion());
+    Assertions.assertEquals(Arrays.asList("carol", "dave"), delta.getJoined());
+    Assertions.assertEquals(Arrays.asList("bob"), delta.getLeft());
+  }
+
+  @Test
+  public void testEqualsHashCodeToString() {
+    PresenceDelta d1 = new PresenceDelta(1, Arrays.asList("a"), Collections.emptyList());
+    PresenceDelta d2 = new PresenceDelta(1, Arrays.asList("a"), Collections.emptyList());
+    PresenceDelta d3 = new PresenceDelta(1, Collections.emptyList(), Arrays.asList("a"));
+
+    Assertions.assertEquals(d1, d2);
+    Assertions.assertNotEquals(d1, d3);
+    Assertions.assertNotEquals(d1, "some string");
+    Assertions.assertEquals(d1.hashCode(), d2.hashCode());
+    Assertions.assertTrue(d1.toString().contains("joined=[a]"));
+  }
+}
@@ -0,0 +1,38 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.*;
+import java.util.*;
+
+public class PresenceSnapshotTest {
+
+  @Test
+  public void testWriteAndReadMessage() throws IOException {
+    PresenceSnapshot original = new PresenceSnapshot(7, Arrays.asList("alice", "bob"));
+
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bos);
+    original.writeMessage(out);
+    out.flush();
+
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(bos.toByteArray()));
+    Assertions.assertEquals(ChatRoomConstants.PRESENCE_SNAPSHOT, in.readInt());
+    PresenceSnapshot readMsg = PresenceSnapshot.readPresenceSnapshot(in);
+    Assertions.assertEquals(7, readMsg.getVersion());
+    Assertions.assertEquals(Arrays.asList("alice", "bob"), readMsg.getUsers());
+    Assertions.assertEquals(original, readMsg);
+  }
+
+  @Test
+  public void testEqualsHashCodeToString() {
+    PresenceSnapshot s1 = new PresenceSnapshot(1, Arrays.asList("a"));
+    PresenceSnapshot s2 = new PresenceSnapshot(1, Arrays.asList("a"));
+    PresenceSnapshot s3 = new PresenceSnapshot(2, Arrays.asList("a"));
+
+    Assertions.assertEquals(s1, s2);
+    Assertions.assertNotEquals(s1, s3);
+    Assertions.assertNotEquals(s1, null);
+    Assertions.assertEquals(s1.hashCode(), s2.hashCode());
+    Assertions.assertTrue(s1.toString().contains("version=1"));
+  }
+}
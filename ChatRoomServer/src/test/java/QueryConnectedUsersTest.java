@@ -29,6 +29,8 @@ public class QueryConnectedUsersTest {
 
     QueryConnectedUsers readMsg = QueryConnectedUsers.readQueryConnectedUsers(in);
     Assertions.assertEquals("bob", readMsg.getUsername());
+    // The unpaged query keeps the encoding that predates paging: the username and nothing else.
+    Assertions.assertEquals(0, in.available());
   }
 
   @Test
@@ -46,4 +48,22 @@ public class QueryConnectedUsersTest {
     String str = m1.toString();
     Assertions.assertTrue(str.contains("username='user'"));
   }
+
+  @Test
+  public void testPagedQueryRoundTrip() throws IOException {
+    QueryConnectedUsers original = new QueryConnectedUsers("bob", "al", "alex", 50);
+    Assertions.assertFalse(original.isUnpaged());
+    Assertions.assertTrue(new QueryConnectedUsers("bob").isUnpaged());
+
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    original.writeMessage(new DataOutputStream(bos));
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(bos.toByteArray()));
+    Assertions.assertEquals(ChatRoomConstants.QUERY_USER_PAGE, in.readInt());
+
+    QueryConnectedUsers readMsg = QueryConnectedUsers.readQueryUserPage(in);
+    Assertions.assertEquals(original, readMsg);
+    Assertions.assertEquals("al", readMsg.getPrefix());
+    Assertions.assertEquals("alex", readMsg.getCursor());
+    Assertions.assertEquals(50, readMsg.getLimit());
+  }
 }
@@ -32,6 +32,7 @@ public class QueryUserResponseTest {
 
     QueryUserResponse readMsg = QueryUserResponse.readQueryUserResponse(in);
     Assertions.assertEquals(users, readMsg.getUsers());
+    Assertions.assertEquals(0, in.available());
   }
 
   @Test
@@ -53,4 +54,20 @@ public class QueryUserResponseTest {
     String str = m1.toString();
     Assertions.assertTrue(str.contains("users=[a, b]"));
   }
+
+  @Test
+  public void testNextCursorRoundTrip() throws IOException {
+    QueryUserResponse original = new QueryUserResponse(Arrays.asList("a", "b"), "b");
+    Assertions.assertTrue(original.hasMore());
+    Assertions.assertFalse(new QueryUserResponse(Arrays.asList("a")).hasMore());
+
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    original.writeMessage(new DataOutputStream(bos));
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(bos.toByteArray()));
+    Assertions.assertEquals(ChatRoomConstants.QUERY_USER_PAGE_RESPONSE, in.readInt());
+
+    QueryUserResponse readMsg = QueryUserResponse.readQueryUserPageResponse(in);
+    Assertions.assertEquals(original, readMsg);
+    Assertions.assertEquals("b", readMsg.getNextCursor());
+  }
 }
@@ -0,0 +1,38 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class RateLimiterTest {
+
+  @Test
+  public void testTypeLimitAppliesOnTopOfUserLimit() {
+    RateLimitPolicy policy = new RateLimitPolicy(RateLimitPolicy.Mode.REJECT, 1, 3)
+        .limitType(ChatRoomConstants.BROADCAST_MESSAGE, 1, 1);
+    RateLimiter limiter = policy.newLimiter(0);
+
+    Assertions.assertTrue(limiter.tryAcquire(ChatRoomConstants.BROADCAST_MESSAGE, 0));
+    Assertions.assertFalse(limiter.tryAcquire(ChatRoomConstants.BROADCAST_MESSAGE, 0));
+    Assertions.assertTrue(limiter.tryAcquire(ChatRoomConstants.DIRECT_MESSAGE, 0));
+    Assertions.assertTrue(limiter.tryAcquire(ChatRoomConstants.DIRECT_MESSAGE, 0));
+    Assertions.assertFalse(limiter.tryAcquire(ChatRoomConstants.DIRECT_MESSAGE, 0));
+  }
+
+  @Test
+  public void testRejectedMessageDoesNotConsumeOtherBucket() {
+    RateLimitPolicy policy = new RateLimitPolicy(RateLimitPolicy.Mode.THROTTLE, 1, 2)
+        .limitType(ChatRoomConstants.SEND_INSULT, 1, 1);
+    RateLimiter limiter = policy.newLimiter(0);
+
+    Assertions.assertTrue(limiter.tryAcquire(ChatRoomConstants.SEND_INSULT, 0));
+    Assertions.assertFalse(limiter.tryAcquire(ChatRoomConstants.SEND_INSULT, 0));
+    Assertions.assertTrue(limiter.tryAcquire(ChatRoomConstants.BROADCAST_MESSAGE, 0));
+    Assertions.assertEquals(1_000_000_000L,
+        limiter.nanosUntilAvailable(ChatRoomConstants.SEND_INSULT, 0));
+    Assertions.assertEquals(RateLimitPolicy.Mode.THROTTLE, limiter.getMode());
+  }
+
+  @Test
+  public void testUnknownTypeIsRejectedByPolicy() {
+    RateLimitPolicy policy = new RateLimitPolicy(RateLimitPolicy.Mode.REJECT, 1, 1);
+    Assertions.assertThrows(IllegalArgumentException.class, () -> policy.limitType(99, 1, 1));
+  }
+}
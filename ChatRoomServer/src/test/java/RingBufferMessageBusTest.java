@@ -0,0 +1,82 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class RingBufferMessageBusTest {
+
+  @Test
+  public void testRejectsCapacityThatIsNotPowerOfTwo() throws Exception {
+    ChatRoomServer server = new ChatRoomServer(0);
+    Assertions.assertThrows(IllegalArgumentException.class,
+        () -> new RingBufferMessageBus(12, new MessageRouter(server)));
+    server.stop(0, TimeUnit.SECONDS);
+  }
+
+  @Test
+  public void testWrapsAroundAndKeepsPublisherOrder() throws Exception {
+    ChatRoomServer server = new ChatRoomServer(0);
+    RingBufferMessageBus bus = new RingBufferMessageBus(8, new MessageRouter(server));
+    int perPublisher = 500;
+    List<BaseMessage> received = new CopyOnWriteArrayList<>();
+    CountDownLatch done = new CountDownLatch(2 * perPublisher);
+    bus.subscribe((source, message) -> {
+      received.add(message);
+      done.countDown();
+    });
+
+    Thread alice = new Thread(() -> {
+      for (int i = 0; i < perPublisher; i++) {
+        bus.publish(null, new BroadcastMessage("alice", String.valueOf(i)));
+      }
+    });
+    Thread bob = new Thread(() -> {
+      for (int i = 0; i < perPublisher; i++) {
+        bus.publish(null, new BroadcastMessage("bob", String.valueOf(i)));
+      }
+    });
+    alice.start();
+    bob.start();
+
+    Assertions.assertTrue(done.await(5, TimeUnit.SECONDS));
+    int nextAlice = 0;
+    int nextBob = 0;
+    for (BaseMessage message : received) {
+      BroadcastMessage broadcast = (BroadcastMessage) message;
+      if (broadcast.getSender().equals("alice")) {
+        Assertions.assertEquals(String.valueOf(nextAlice++), broadcast.getContent());
+      } else {
+        Assertions.assertEquals(String.valueOf(nextBob++), broadcast.getContent());
+      }
+    }
+    Assertions.assertEquals(perPublisher, nextAlice);
+    Assertions.assertEquals(perPublisher, nextBob);
+
+    bus.shutdown();
+    server.stop(0, TimeUnit.SECONDS);
+  }
+
+  @Test
+  public void testRoutingMarksServerBroadcasts() throws Exception {
+    ChatRoomServer server = new ChatRoomServer(0);
+    MessageRouter router = new MessageRouter(server);
+    MessageEvent event = new MessageEvent();
+    event.set(null, new BroadcastMessage("Server", "hello"));
+    router.route(event);
+    router.encode(event);
+    Assertions.assertTrue(event.isBroadcast());
+    Assertions.assertArrayEquals(new BroadcastMessage("Server", "hello").toBytes(),
+        event.getEncoded());
+
+    MessageEvent invalid = new MessageEvent();
+    invalid.set(null, new DirectMessage("ghost", "nobody", "hi"));
+    router.route(invalid);
+    router.encode(invalid);
+    Assertions.assertFalse(invalid.hasRecipients());
+    Assertions.assertNull(invalid.getEncoded());
+    server.stop(0, TimeUnit.SECONDS);
+  }
+}
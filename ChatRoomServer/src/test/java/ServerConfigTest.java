@@ -0,0 +1,118 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+public class ServerConfigTest {
+
+  private static Properties properties(String... keysAndValues) {
+    Properties properties = new Properties();
+    for (int i = 0; i < keysAndValues.length; i += 2) {
+      properties.setProperty(keysAndValues[i], keysAndValues[i + 1]);
+    }
+    return properties;
+  }
+
+  @Test
+  public void testDefaultsComeFromConstants() {
+    ServerConfig config = ServerConfig.defaults();
+    Assertions.assertEquals(ChatRoomConstants.SERVER_PORT, config.getPort());
+    Assertions.assertEquals(ChatRoomConstants.MAX_CLIENTS, config.getMaxClients());
+    Assertions.assertEquals(ChatRoomConstants.IDLE_TIMEOUT_MILLIS, config.getIdleTimeoutMillis());
+    Assertions.assertEquals(OutboundQueue.OverflowPolicy.DROP_OLDEST, config.getOutboundPolicy());
+    Assertions.assertNull(config.getUnixSocketPath());
+  }
+
+  @Test
+  public void testParsesTypedValues() {
+    ServerConfig config = ServerConfig.fromProperties(properties(
+        "port", "0", "reuse.port", "TRUE", "max.clients", "250",
+        "outbound.policy", "disconnect", "rate.limit.mode", "throttle", "rate.limit", "2.5",
+        "unix.socket.path", "/tmp/chat.sock"));
+    Assertions.assertEquals(0, config.getPort());
+    Assertions.assertTrue(config.isReusePort());
+    Assertions.assertEquals(250, config.getMaxClients());
+    Assertions.assertEquals(OutboundQueue.OverflowPolicy.DISCONNECT, config.getOutboundPolicy());
+    Assertions.assertEquals(RateLimitPolicy.Mode.THROTTLE, config.getRateLimitPolicy().getMode());
+    Assertions.assertEquals(Path.of("/tmp/chat.sock"), config.getUnixSocketPath());
+  }
+
+  @Test
+  public void testRejectsBadValuesAndUnknownKeys() {
+    Assertions.assertThrows(IllegalArgumentException.class,
+        () -> ServerConfig.fromProperties(properties("max.client", "5")));
+    Assertions.assertThrows(IllegalArgumentException.class,
+        () -> ServerConfig.fromProperties(properties("max.clients", "lots")));
+    Assertions.assertThrows(IllegalArgumentException.class,
+        () -> ServerConfig.fromProperties(properties("acceptors", "0")));
+    Assertions.assertThrows(IllegalArgumentException.class,
+        () -> ServerConfig.fromProperties(properties("accept.rate", "-1")));
+    Assertions.assertThrows(IllegalArgumentException.class,
+        () -> ServerConfig.fromProperties(properties("reuse.port", "yes")));
+    Assertions.assertThrows(IllegalArgumentException.class,
+        () -> ServerConfig.fromProperties(properties("outbound.policy", "explode")));
+  }
+
+  @Test
+  public void testRestartRequired() {
+    ServerConfig base = ServerConfig.defaults();
+    ServerConfig changed = ServerConfig.fromProperties(properties(
+        "port", "4321", "acceptors", "4", "max.clients", "99"));
+    Assertions.assertEquals(List.of("port", "acceptors"), changed.restartRequired(base));
+    Assertions.assertTrue(base.restartRequired(base).isEmpty());
+  }
+
+  @Test
+  public void testThreadAndQueueSizingRequiresRestart() {
+    ServerConfig base = ServerConfig.defaults();
+    ServerConfig changed = ServerConfig.fromProperties(properties(
+        "shard.count", "3", "shard.mailbox.capacity", "64", "scheduler.workers", "5",
+        "message.bus.capacity", "256", "inbound.queue.capacity", "8"));
+    Assertions.assertEquals(
+        List.of("shard.count", "shard.mailbox.capacity", "scheduler.workers",
+            "message.bus.capacity"),
+        changed.restartRequired(base));
+    Assertions.assertThrows(IllegalArgumentException.class,
+        () -> ServerConfig.fromProperties(properties("shard.mailbox.capacity", "100")));
+    Assertions.assertThrows(IllegalArgumentException.class,
+        () -> ServerConfig.fromProperties(properties("scheduler.workers", "0")));
+  }
+
+  @Test
+  public void testApplyReconfiguresDeadlinesQueuesAndPresence() throws Exception {
+    ChatRoomServer server = new ChatRoomServer(0);
+    ServerConfig.fromProperties(properties(
+        "handshake.timeout.millis", "500", "frame.read.timeout.millis", "700",
+        "max.half.open.connections", "4", "inbound.queue.capacity", "8",
+        "outbound.memory.budget.bytes", "1048576", "presence.window.millis", "20",
+        "presence.max.batch", "5"))
+        .apply(server);
+    Assertions.assertEquals(500, server.getHandshakeTimeoutMillis());
+    Assertions.assertEquals(700, server.getFrameReadTimeoutMillis());
+    Assertions.assertEquals(4, server.getMaxHalfOpenConnections());
+    Assertions.assertEquals(8, server.getInboundQueueCapacity());
+    Assertions.assertEquals(1048576, server.getOutboundMemory().getLimitBytes());
+    Assertions.assertEquals(20, server.getPresenceCoalescer().getWindowMillis());
+    Assertions.assertEquals(5, server.getPresenceCoalescer().getMaxBatch());
+    server.stop(0, TimeUnit.MILLISECONDS);
+  }
+
+  @Test
+  public void testApplyReconfiguresRunningServer() throws Exception {
+    ChatRoomServer server = new ChatRoomServer(0);
+    ServerConfig.fromProperties(properties(
+        "max.clients", "42", "max.connections.per.source", "3", "idle.timeout.millis", "1234",
+        "outbound.budget.bytes", "4096", "tcp.no.delay", "false", "send.buffer.bytes", "65536"))
+        .apply(server);
+    Assertions.assertEquals(42, server.getAdmissionControl().getMaxConnections());
+    Assertions.assertEquals(3, server.getAdmissionControl().getMaxConnectionsPerSource());
+    Assertions.assertEquals(1234, server.getIdleTimeoutMillis());
+    Assertions.assertEquals(4096, server.getOutboundBudgetBytes());
+    Assertions.assertFalse(server.isTcpNoDelay());
+    Assertions.assertEquals(65536, server.getSendBufferBytes());
+    server.stop(0, TimeUnit.MILLISECONDS);
+  }
+}
@@ -0,0 +1,116 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+public class SharedMemoryConnectionTest {
+
+  private static SharedMemoryConnection[] open(int capacity) throws Exception {
+    Path directory = Files.createTempDirectory("shm");
+    CompletableFuture<SharedMemoryConnection> client = CompletableFuture.supplyAsync(() -> {
+      try {
+        return SharedMemoryConnection.connect(directory, capacity);
+      } catch (IOException e) {
+        throw new IllegalStateException(e);
+      }
+    });
+    SharedMemoryConnection server = null;
+    while (server == null) {
+      try (DirectoryStream<Path> rings = Files.newDirectoryStream(directory, "*.ring")) {
+        for (Path ring : rings) {
+          server = SharedMemoryConnection.accept(ring);
+        }
+      }
+    }
+    return new SharedMemoryConnection[]{client.get(5, TimeUnit.SECONDS), server};
+  }
+
+  @Test
+  public void testFramesCrossInBothDirections() throws Exception {
+    SharedMemoryConnection[] ends = open(64);
+    DataOutputStream clientOut = new DataOutputStream(ends[0].getOutputStream());
+    DataInputStream serverIn = new DataInputStream(ends[1].getInputStream());
+
+    new BroadcastMessage("bot", "hello").writeMessage(clientOut);
+    BaseMessage received = BaseMessage.readMessage(serverIn);
+    Assertions.assertEquals("hello", ((BroadcastMessage) received).getContent());
+
+    ends[1].getOutputStream().write(42);
+    Assertions.assertEquals(42, ends[0].getInputStream().read());
+  }
+
+  @Test
+  public void testWritesLargerThanTheRingWaitForTheReader() throws Exception {
+    SharedMemoryConnection[] ends = open(16);
+    byte[] sent = new byte[5000];
+    for (int i = 0; i < sent.length; i++) {
+      sent[i] = (byte) (i * 7);
+    }
+    Thread writer = new Thread(() -> {
+      try {
+        ends[0].getOutputStream().write(sent);
+      } catch (IOException e) {
+        throw new IllegalStateException(e);
+      }
+    });
+    writer.start();
+
+    byte[] received = new byte[sent.length];
+    new DataInputStream(ends[1].getInputStream()).readFully(received);
+    writer.join(1000);
+    Assertions.assertArrayEquals(sent, received);
+  }
+
+  @Test
+  public void testRingsSmallerThanACacheLineStayAligned() throws Exception {
+    for (int capacity = 1; capacity < 64; capacity *= 2) {
+      SharedMemoryConnection[] ends = open(capacity);
+      ends[0].getOutputStream().write(capacity);
+      Assertions.assertEquals(capacity, ends[1].getInputStream().read());
+      ends[1].getOutputStream().write(capacity);
+      Assertions.assertEquals(capacity, ends[0].getInputStream().read());
+    }
+  }
+
+  @Test
+  public void testRejectsRingFileOfTheWrongSize() throws Exception {
+    Path ring = Files.createTempDirectory("shm").resolve("crafted.ring");
+    // Sized as the ring file for capacity 1 would be without padding to a cache line.
+    ByteBuffer file = ByteBuffer.allocate(128 + 2 * (256 + 1));
+    file.putInt(0, 0x43525348);
+    file.putInt(4, 1);
+    Files.write(ring, file.array());
+    Assertions.assertThrows(IOException.class, () -> SharedMemoryConnection.accept(ring));
+  }
+
+  @Test
+  public void testCloseDeliversPendingBytesThenEndOfStream() throws Exception {
+    SharedMemoryConnection[] ends = open(64);
+    ends[0].getOutputStream().write(3);
+    ends[0].close();
+
+    InputStream in = ends[1].getInputStream();
+    Assertions.assertEquals(3, in.read());
+    Assertions.assertEquals(-1, in.read());
+    Assertions.assertThrows(IOException.class, () -> ends[1].getOutputStream().write(1));
+  }
+
+  @Test
+  public void testConnectTimesOutWithoutServer() throws Exception {
+    Path directory = Files.createTempDirectory("shm");
+    Assertions.assertThrows(IOException.class,
+        () -> SharedMemoryConnection.connect(directory, 64));
+    try (DirectoryStream<Path> left = Files.newDirectoryStream(directory)) {
+      Assertions.assertFalse(left.iterator().hasNext());
+    }
+  }
+}
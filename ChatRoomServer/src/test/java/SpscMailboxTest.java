@@ -0,0 +1,62 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class SpscMailboxTest {
+
+  @Test
+  public void testRejectsCapacityThatIsNotPowerOfTwo() {
+    Assertions.assertThrows(IllegalArgumentException.class, () -> new SpscMailbox(3));
+  }
+
+  @Test
+  public void testOfferUntilFullAndDrainInOrder() {
+    SpscMailbox mailbox = new SpscMailbox(4);
+    Assertions.assertTrue(mailbox.isEmpty());
+    for (int i = 0; i < 4; i++) {
+      Assertions.assertTrue(mailbox.offer(null, new byte[]{(byte) i}));
+    }
+    Assertions.assertFalse(mailbox.offer(null, new byte[]{4}));
+
+    List<Byte> drained = new ArrayList<>();
+    Assertions.assertEquals(3, mailbox.drain((target, frame) -> drained.add(frame[0]), 3));
+    Assertions.assertEquals(List.of((byte) 0, (byte) 1, (byte) 2), drained);
+    Assertions.assertTrue(mailbox.offer(null, new byte[]{4}));
+    Assertions.assertEquals(2, mailbox.drain((target, frame) -> drained.add(frame[0]), 10));
+    Assertions.assertEquals(List.of((byte) 0, (byte) 1, (byte) 2, (byte) 3, (byte) 4), drained);
+    Assertions.assertTrue(mailbox.isEmpty());
+  }
+
+  @Test
+  public void testConcurrentProducerAndConsumer() throws Exception {
+    SpscMailbox mailbox = new SpscMailbox(8);
+    int total = 10_000;
+    Thread producer = new Thread(() -> {
+      for (int i = 0; i < total; i++) {
+        byte[] frame = new byte[]{(byte) i};
+        while (!mailbox.offer(null, frame)) {
+          Thread.yield();
+        }
+      }
+    });
+    producer.start();
+
+    int[] received = new int[1];
+    boolean[] ordered = {true};
+    while (received[0] < total) {
+      int drained = mailbox.drain((target, frame) -> {
+        ordered[0] &= frame[0] == (byte) received[0];
+        received[0]++;
+      }, 16);
+      if (drained == 0) {
+        // Give the producer the core; on a single CPU a busy consumer starves it.
+        Thread.yield();
+      }
+    }
+    producer.join();
+    Assertions.assertTrue(ordered[0]);
+    Assertions.assertTrue(mailbox.isEmpty());
+  }
+}
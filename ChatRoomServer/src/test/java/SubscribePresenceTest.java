@@ -0,0 +1,34 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.*;
+
+public class SubscribePresenceTest {
+
+  @Test
+  public void testWriteAndReadMessage() throws IOException {
+    SubscribePresence original = new SubscribePresence("alice");
+    Assertions.assertEquals(ChatRoomConstants.SUBSCRIBE_PRESENCE, original.getMessageType());
+
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    original.writeMessage(new DataOutputStream(bos));
+
+    BaseMessage readMsg = BaseMessage.readMessage(
+        new DataInputStream(new ByteArrayInputStream(bos.toByteArray())));
+    Assertions.assertEquals(original, readMsg);
+    Assertions.assertEquals("alice", ((SubscribePresence) readMsg).getUsername());
+  }
+
+  @Test
+  public void testEqualsHashCodeToString() {
+    SubscribePresence m1 = new SubscribePresence("user");
+    SubscribePresence m2 = new SubscribePresence("user");
+    SubscribePresence m3 = new SubscribePresence("other");
+
+    Assertions.assertEquals(m1, m2);
+    Assertions.assertNotEquals(m1, m3);
+    Assertions.assertNotEquals(m1, null);
+    Assertions.assertEquals(m1.hashCode(), m2.hashCode());
+    Assertions.assertTrue(m1.toString().contains("username='user'"));
+  }
+}
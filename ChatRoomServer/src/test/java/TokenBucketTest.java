@@ -0,0 +1,63 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class TokenBucketTest {
+
+  private static final long SECOND = 1_000_000_000L;
+
+  @Test
+  public void testBurstThenRefill() {
+    TokenBucket bucket = new TokenBucket(2, 3, 0);
+    Assertions.assertTrue(bucket.tryAcquire(0));
+    Assertions.assertTrue(bucket.tryAcquire(0));
+    Assertions.assertTrue(bucket.tryAcquire(0));
+    Assertions.assertFalse(bucket.tryAcquire(0));
+    Assertions.assertEquals(SECOND / 2, bucket.nanosUntilAvailable(0));
+
+    Assertions.assertFalse(bucket.tryAcquire(SECOND / 4));
+    Assertions.assertTrue(bucket.tryAcquire(SECOND / 2));
+    Assertions.assertFalse(bucket.tryAcquire(SECOND / 2));
+  }
+
+  @Test
+  public void testCreditIsCappedAtBurst() {
+    TokenBucket bucket = new TokenBucket(10, 2, 0);
+    long later = 60 * SECOND;
+    Assertions.assertTrue(bucket.tryAcquire(later));
+    Assertions.assertTrue(bucket.tryAcquire(later));
+    Assertions.assertFalse(bucket.tryAcquire(later));
+  }
+
+  @Test
+  public void testIsFullOnceRefilled() {
+    TokenBucket bucket = new TokenBucket(2, 2, 0);
+    Assertions.assertTrue(bucket.isFull(0));
+    Assertions.assertTrue(bucket.tryAcquire(0));
+    Assertions.assertFalse(bucket.isFull(SECOND / 4));
+    Assertions.assertTrue(bucket.isFull(SECOND / 2));
+  }
+
+  @Test
+  public void testWithLimitsCarriesTokensOver() {
+    TokenBucket bucket = new TokenBucket(1, 4, 0);
+    Assertions.assertTrue(bucket.tryAcquire(0));
+    Assertions.assertTrue(bucket.tryAcquire(0));
+    Assertions.assertTrue(bucket.tryAcquire(0));
+
+    TokenBucket faster = bucket.withLimits(10, 8, 0);
+    Assertions.assertTrue(faster.tryAcquire(0));
+    Assertions.assertFalse(faster.tryAcquire(0));
+    Assertions.assertTrue(faster.tryAcquire(SECOND / 10));
+
+    TokenBucket smaller = new TokenBucket(1, 4, 0).withLimits(1, 2, 0);
+    Assertions.assertTrue(smaller.tryAcquire(0));
+    Assertions.assertTrue(smaller.tryAcquire(0));
+    Assertions.assertFalse(smaller.tryAcquire(0));
+  }
+
+  @Test
+  public void testInvalidArguments() {
+    Assertions.assertThrows(IllegalArgumentException.class, () -> new TokenBucket(0, 1, 0));
+    Assertions.assertThrows(IllegalArgumentException.class, () -> new TokenBucket(1, 0, 0));
+  }
+}
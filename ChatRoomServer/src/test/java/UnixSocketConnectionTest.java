@@ -0,0 +1,49 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.DataInputStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class UnixSocketConnectionTest {
+
+  @Test
+  public void testRoundTripAndShutdownInput() throws Exception {
+    Path path = Files.createTempDirectory("unix").resolve("test.sock");
+    try (ServerSocketChannel listener = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+      listener.bind(UnixDomainSocketAddress.of(path));
+      UnixSocketConnection client = UnixSocketConnection.connect(path);
+      UnixSocketConnection server = new UnixSocketConnection(listener.accept());
+
+      client.getOutputStream().write(new byte[]{4, 5, 6});
+      byte[] read = new byte[3];
+      new DataInputStream(server.getInputStream()).readFully(read);
+      Assertions.assertArrayEquals(new byte[]{4, 5, 6}, read);
+      Assertions.assertTrue(client.getRemoteAddress().startsWith("unix:"));
+
+      AtomicInteger result = new AtomicInteger();
+      Thread reader = new Thread(() -> {
+        try {
+          result.set(server.getInputStream().read());
+        } catch (Exception e) {
+          result.set(-2);
+        }
+      });
+      reader.start();
+      Thread.sleep(50);
+      server.shutdownInput();
+      reader.join(1000);
+      Assertions.assertEquals(-1, result.get());
+
+      client.close();
+      server.close();
+      Assertions.assertTrue(client.isClosed());
+    } finally {
+      Files.deleteIfExists(path);
+    }
+  }
+}
@@ -0,0 +1,110 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.List;
+
+public class UserDirectoryTest {
+
+  private BaseMessage roundTrip(BaseMessage message) throws IOException {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    message.writeMessage(new DataOutputStream(bos));
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(bos.toByteArray()));
+    BaseMessage read = BaseMessage.readMessage(in);
+    Assertions.assertEquals(0, in.available());
+    return read;
+  }
+
+  @Test
+  public void testSnapshotIsCachedUntilMembershipChanges() throws Exception {
+    UserDirectory directory = new UserDirectory();
+    directory.userJoined("alice");
+
+    UserDirectory.Snapshot first = directory.snapshot();
+    Assertions.assertSame(first, directory.snapshot());
+    Assertions.assertEquals(1, first.size());
+
+    directory.userJoined("bob");
+    UserDirectory.Snapshot second = directory.snapshot();
+    Assertions.assertNotSame(first, second);
+    Assertions.assertEquals(2, second.size());
+    Assertions.assertEquals(2, directory.size());
+    Assertions.assertEquals(2, directory.getVersion());
+  }
+
+  @Test
+  public void testUserListExcludesRequester() throws Exception {
+    UserDirectory directory = new UserDirectory();
+    for (String name : Arrays.asList("carol", "alice", "bob")) {
+      directory.userJoined(name);
+    }
+
+    QueryUserResponse response =
+        (QueryUserResponse) roundTrip(directory.snapshot().toUserList("BOB"));
+    List<String> users = response.getUsers();
+    Assertions.assertEquals(Arrays.asList("alice", "carol"), users);
+    Assertions.assertFalse(response.hasMore());
+
+    QueryUserResponse unknown =
+        (QueryUserResponse) roundTrip(directory.snapshot().toUserList("nobody"));
+    Assertions.assertEquals(3, unknown.getUsers().size());
+  }
+
+  @Test
+  public void testPresenceSnapshotListsEveryone() throws Exception {
+    UserDirectory directory = new UserDirectory();
+    directory.userJoined("alice");
+
+    PresenceSnapshot snapshot =
+        (PresenceSnapshot) roundTrip(directory.snapshot().toPresenceSnapshot(9));
+    Assertions.assertEquals(9, snapshot.getVersion());
+    Assertions.assertEquals(Arrays.asList("alice"), snapshot.getUsers());
+  }
+
+  @Test
+  public void testLeaveRemovesUser() {
+    UserDirectory directory = new UserDirectory();
+    directory.userJoined("alice");
+    directory.userJoined("bob");
+    directory.userLeft("alice");
+
+    Assertions.assertEquals(1, directory.size());
+    Assertions.assertEquals(3, directory.getVersion());
+    Assertions.assertEquals(1, directory.snapshot().size());
+  }
+
+  @Test
+  public void testPagesWalkTheWholeListInOrder() throws Exception {
+    UserDirectory directory = new UserDirectory();
+    for (String name : Arrays.asList("dave", "Bob", "alice", "erin", "carol")) {
+      directory.userJoined(name);
+    }
+
+    QueryUserResponse first = (QueryUserResponse) roundTrip(directory.page("", "", 2, "carol"));
+    Assertions.assertEquals(Arrays.asList("alice", "Bob"), first.getUsers());
+    Assertions.assertTrue(first.hasMore());
+
+    QueryUserResponse second = directory.page("", first.getNextCursor(), 2, "carol");
+    Assertions.assertEquals(Arrays.asList("dave", "erin"), second.getUsers());
+    Assertions.assertFalse(second.hasMore());
+  }
+
+  @Test
+  public void testPrefixFilterIgnoresCase() {
+    UserDirectory directory = new UserDirectory();
+    for (String name : Arrays.asList("Sam", "sally", "sue", "bob", "tom")) {
+      directory.userJoined(name);
+    }
+
+    QueryUserResponse first = directory.page("SA", "", 1, null);
+    Assertions.assertEquals(Arrays.asList("sally"), first.getUsers());
+    Assertions.assertTrue(first.hasMore());
+
+    QueryUserResponse second = directory.page("SA", first.getNextCursor(), 1, null);
+    Assertions.assertEquals(Arrays.asList("Sam"), second.getUsers());
+    Assertions.assertFalse(second.hasMore());
+
+    Assertions.assertTrue(directory.page("x", "", 10, null).getUsers().isEmpty());
+  }
+}